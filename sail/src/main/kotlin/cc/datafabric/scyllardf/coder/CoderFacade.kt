@@ -9,11 +9,12 @@ import cc.datafabric.scyllardf.coder.impl.LiteralDefaultCoder
 import cc.datafabric.scyllardf.coder.impl.LiteralWithLangCoder
 import cc.datafabric.scyllardf.coder.impl.LiteralWithPrimitiveDatatypeCoder
 import cc.datafabric.scyllardf.dao.IDictionaryDAO
-import cc.datafabric.scyllardf.dao.SPOCIteration
 import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import cc.datafabric.scyllardf.model.IEncodedValue
 import cc.datafabric.scyllardf.model.impl.EncodedBNode
 import cc.datafabric.scyllardf.model.impl.EncodedIRI
 import cc.datafabric.scyllardf.model.impl.EncodedLiteral
+import cc.datafabric.scyllardf.model.impl.EncodedStatement
 import org.eclipse.rdf4j.common.iteration.CloseableIteration
 import org.eclipse.rdf4j.model.BNode
 import org.eclipse.rdf4j.model.IRI
@@ -123,6 +124,9 @@ class CoderFacade : ICoderFacade {
         if (value == null) {
             return null
         }
+        if (value is IEncodedValue) {
+            return value.encoded
+        }
 
         for (coder in iriCoders) {
             val hash = coder.encode(value)
@@ -135,6 +139,10 @@ class CoderFacade : ICoderFacade {
     }
 
     override fun encode(value: BNode): ByteBuffer {
+        if (value is IEncodedValue) {
+            return value.encoded
+        }
+
         for (coder in bnodeCoders) {
             val hash = coder.encode(value)
             if (hash != null) {
@@ -146,6 +154,10 @@ class CoderFacade : ICoderFacade {
     }
 
     override fun encode(value: Literal): ByteBuffer {
+        if (value is IEncodedValue) {
+            return value.encoded
+        }
+
         if (value.datatype == RDF.LANGSTRING) {
             for (coder in langStringCoders) {
                 val hash = coder.encode(value)
@@ -191,24 +203,15 @@ class CoderFacade : ICoderFacade {
         }
     }
 
+    /**
+     * The values of the statement are decoded when they're accessed.
+     */
     override fun decode(spoc: Array<ByteBuffer>): Statement {
-        return if (spoc[3] == ScyllaRDFSchema.CONTEXT_DEFAULT) {
-            AbstractCoder.VF.createStatement(
-                decode(spoc[0]) as Resource,
-                decode(spoc[1]) as IRI,
-                decode(spoc[2])
-            )
-        } else {
-            AbstractCoder.VF.createStatement(
-                decode(spoc[0]) as Resource,
-                decode(spoc[1]) as IRI,
-                decode(spoc[2]),
-                decode(spoc[3]) as Resource
-            )
-        }
+        return EncodedStatement(this, spoc)
     }
 
-    override fun toStatementIteration(origin: SPOCIteration): CloseableIteration<Statement, SailException> {
+    override fun toStatementIteration(origin: CloseableIteration<Array<ByteBuffer>, SailException>)
+        : CloseableIteration<Statement, SailException> {
         return object : CloseableIteration<Statement, SailException> {
             override fun next(): Statement {
                 return decode(origin.next())
@@ -1,6 +1,5 @@
 package cc.datafabric.scyllardf.coder
 
-import cc.datafabric.scyllardf.dao.SPOCIteration
 import org.eclipse.rdf4j.common.iteration.CloseableIteration
 import org.eclipse.rdf4j.model.BNode
 import org.eclipse.rdf4j.model.IRI
@@ -32,7 +31,8 @@ interface ICoderFacade {
 
     fun decode(spoc: Array<ByteBuffer>): Statement
 
-    fun toStatementIteration(origin: SPOCIteration): CloseableIteration<Statement, SailException>
+    fun toStatementIteration(origin: CloseableIteration<Array<ByteBuffer>, SailException>)
+        : CloseableIteration<Statement, SailException>
 
     fun toResourceIteration(origin: CloseableIteration<ByteBuffer, SailException>)
         : CloseableIteration<out Resource, SailException>
@@ -5,35 +5,102 @@ import java.nio.ByteBuffer
 
 interface ICardinalityDAO {
 
+    /**
+     * Returns the DAO whose reads are served by the statistics cache shared by all connections.
+     */
     fun withCache(): ICardinalityDAO
 
     fun numTriples(): Long
 
     fun contextCardinality(context: ByteBuffer?): Long
 
+    /**
+     * Estimated number of statements with the subject, it's never less than the true number.
+     */
     fun subjectCardinality(subj: ByteBuffer): Long
 
     fun predicateCardinality(pred: ByteBuffer): Long
 
+    /**
+     * Numbers of statements of all predicates by a scan of [ScyllaRDFSchema.Table.CARD_P], predicates without
+     * statements are skipped.
+     */
+    fun predicateCardinalities(): Map<ByteBuffer, Long>
+
+    /**
+     * Estimated number of statements with the object, it's never less than the true number.
+     */
     fun objectCardinality(obj: ByteBuffer): Long
 
+    /**
+     * Estimated number of statements with the subject and the predicate, it's never less than the true number.
+     */
+    fun subjectAndPredicateCardinality(subj: ByteBuffer, pred: ByteBuffer): Long
+
     fun objectAndPredicateCardinality(pred: ByteBuffer, obj: ByteBuffer): Long
 
+    /**
+     * Estimated number of distinct subjects of the predicate. Removed statements aren't taken into account.
+     */
+    fun predicateDistinctSubjects(pred: ByteBuffer): Long
+
+    /**
+     * Estimated number of distinct objects of the predicate. Removed statements aren't taken into account.
+     */
+    fun predicateDistinctObjects(pred: ByteBuffer): Long
+
+    /**
+     * Estimated number of distinct subjects of the named graph. Removed statements aren't taken into account.
+     */
+    fun contextDistinctSubjects(context: ByteBuffer): Long
+
+    /**
+     * Estimated number of distinct objects of the named graph. Removed statements aren't taken into account.
+     */
+    fun contextDistinctObjects(context: ByteBuffer): Long
+
+    /**
+     * Cluster-wide number of partitions of the index table reported by the nodes via JMX, e.g. distinct subjects
+     * of S_POC. It's null if JMX polling is disabled or hasn't finished yet, it never blocks.
+     */
+    fun tablePartitions(table: ScyllaRDFSchema.Table): Long?
+
     fun incrementCardC(context: ByteBuffer, add: Long): List<ResultSetFuture>
 
     fun incrementCardP(pred: ByteBuffer, add: Long): ResultSetFuture
 
     fun incrementCardPO(pred: ByteBuffer, obj: ByteBuffer, add: Long): ResultSetFuture
 
-    fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?): List<ResultSetFuture>
+    /**
+     * The deltas are accumulated in memory and flushed asynchronously, see [flushCards].
+     */
+    fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?)
 
     fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>)
-        : List<ResultSetFuture>
 
-    fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?): List<ResultSetFuture>
+    /**
+     * The deltas are accumulated in memory and flushed asynchronously, see [flushCards].
+     */
+    fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?)
 
     fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>)
-        : List<ResultSetFuture>
+
+    /**
+     * Writes the accumulated deltas and waits until they're written.
+     */
+    fun flushCards()
+
+    /**
+     * Drops the accumulated deltas which aren't flushed yet, e.g. of writes which are going to be repeated.
+     */
+    fun discardCards()
+
+    /**
+     * Returns a DAO of the same counters which accumulates its deltas apart from this one and writes them only by
+     * [flushCards], e.g. for a bulk load which flushes them along with its checkpoint. Its [discardCards] drops
+     * only its own deltas.
+     */
+    fun withOwnDeltas(): ICardinalityDAO
 
     fun clearContext(context: ByteBuffer?)
 }
\ No newline at end of file
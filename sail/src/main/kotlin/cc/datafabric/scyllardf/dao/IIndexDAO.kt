@@ -1,6 +1,7 @@
 package cc.datafabric.scyllardf.dao
 
 import com.datastax.driver.core.ResultSetFuture
+import com.google.common.util.concurrent.ListenableFuture
 import org.eclipse.rdf4j.common.iteration.CloseableIteration
 import org.eclipse.rdf4j.sail.SailException
 import java.nio.ByteBuffer
@@ -24,6 +25,86 @@ interface IIndexDAO {
     fun addStatementBlocking(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>)
     fun removeStatement(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, vararg context: ByteBuffer?): List<ResultSetFuture>
     fun removeStatementBlocking(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>)
-    fun getStatements(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?): SPOCIteration
-    fun getStatements(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, contexts: List<ByteBuffer?>): SPOCIteration
+
+    /**
+     * Writes (s, p, o, c) quads in partition-grouped batches, requests are submitted to the window.
+     */
+    fun addStatements(quads: Collection<Array<ByteBuffer>>, window: InFlightWindow)
+
+    /**
+     * Removes (s, p, o, c) quads in partition-grouped batches, requests are submitted to the window.
+     */
+    fun removeStatements(quads: Collection<Array<ByteBuffer>>, window: InFlightWindow)
+
+    /**
+     * Removes all quads matching the pattern. Matching rows are streamed from the best index and removed in
+     * partition-grouped batches, requests are submitted to the window. If the pattern covers whole partitions of
+     * an index, e.g. S_POC for a bound subject, then they're removed by a single partition delete.
+     *
+     * @param context null means any context, [ScyllaRDFSchema.CONTEXT_DEFAULT] means the default graph
+     * @param onRemoved called with each batch of removed quads
+     */
+    fun removeStatements(
+        subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?,
+        window: InFlightWindow, onRemoved: (List<Array<ByteBuffer>>) -> Unit
+    )
+
+    /**
+     * Checks whether the (s, p, o, c) quad is stored by a single-row read.
+     */
+    fun containsStatement(quad: Array<ByteBuffer>): ListenableFuture<Boolean>
+
+    /**
+     * Reads all (s, p, o, c) quads from S_POC, token ranges are read by [parallelism] threads in parallel.
+     * The consumer is called concurrently.
+     */
+    fun scanStatements(parallelism: Int, consumer: (Array<ByteBuffer>) -> Unit)
+
+    /**
+     * @param fetchSize number of rows in a page, 0 means the default of the DAO
+     * @param limit max number of rows read by the query, 0 means no limit
+     */
+    fun getStatements(
+        subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?, fetchSize: Int = 0,
+        limit: Int = 0
+    ): SPOCIteration
+
+    /**
+     * @param fetchSize number of rows in a page, 0 means the default of the DAO
+     * @param limit max number of rows read by the query of each context, 0 means no limit
+     */
+    fun getStatements(
+        subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, contexts: List<ByteBuffer?>, fetchSize: Int = 0,
+        limit: Int = 0
+    ): SPOCIteration
+
+    /**
+     * Reads the statements of the subject in all contexts from its S_POC partition by a single query. If predicates
+     * are given, then only rows with them are read by `predicate IN`, otherwise the whole partition is read.
+     *
+     * @param preds not empty if given
+     * @param fetchSize number of rows in a page, 0 means the default of the DAO
+     */
+    fun getSubjectStatements(subj: ByteBuffer, preds: List<ByteBuffer>?, fetchSize: Int = 0): SPOCIteration
+
+    /**
+     * Counts the statements by `SELECT COUNT(*)` of the partition they're read from. Returns null if they aren't
+     * read from a single partition, since it would be a full scan.
+     */
+    fun countStatements(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?): Long?
+
+    /**
+     * Reads the distinct partition keys of [ScyllaRDFSchema.Table.S_POC], [ScyllaRDFSchema.Table.P_OSC] or
+     * [ScyllaRDFSchema.Table.O_SPC], i.e. all subjects, predicates or objects, token ranges are read in parallel.
+     */
+    fun getDistinctKeys(table: ScyllaRDFSchema.Table): CloseableIteration<ByteBuffer, SailException>
+
+    /**
+     * Reads the distinct values of the first clustering column of the partition of [ScyllaRDFSchema.Table.S_POC],
+     * [ScyllaRDFSchema.Table.P_OSC] or [ScyllaRDFSchema.Table.O_SPC], e.g. the predicates of a subject. The rows are
+     * ordered by it, so repeated values are dropped as they're read. If [skip], then the rows of a value aren't read
+     * at all, the next value is read by a query of the first greater one, it's a round trip per value.
+     */
+    fun getDistinctClusteringValues(table: ScyllaRDFSchema.Table, key: ByteBuffer, skip: Boolean)
+            : CloseableIteration<ByteBuffer, SailException>
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package cc.datafabric.scyllardf.dao
+
+interface IStatisticsDAO {
+
+    /**
+     * The latest snapshot written by any instance, or null if statistics haven't been collected yet. It's read
+     * from memory and reloaded by [reloadLatestSnapshot].
+     */
+    fun latestSnapshot(): StatisticsSnapshot?
+
+    fun reloadLatestSnapshot(): StatisticsSnapshot?
+
+    /**
+     * Samples token ranges of S_POC, P_OSC and O_SPC and writes a new version of the statistics.
+     */
+    fun collectSnapshot(): StatisticsSnapshot
+
+}
@@ -0,0 +1,80 @@
+package cc.datafabric.scyllardf.dao
+
+import com.google.common.util.concurrent.FutureCallback
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
+import org.eclipse.rdf4j.sail.SailException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Pipelines asynchronous writes keeping at most [maxInFlight] groups of requests in flight. A group is a list of
+ * futures produced by a single call, e.g. all index inserts of one statement.
+ *
+ * The first failure is remembered and rethrown by [await].
+ */
+class InFlightWindow(private val maxInFlight: Int) {
+
+    private val permits = Semaphore(maxInFlight)
+    private val failure = AtomicReference<Throwable>()
+
+    init {
+        require(maxInFlight > 0) { "maxInFlight must be positive!" }
+    }
+
+    /**
+     * Blocks until there is a free slot, then calls [block] and tracks the returned futures.
+     */
+    fun submit(block: () -> List<ListenableFuture<*>>) {
+        checkFailure()
+
+        permits.acquireUninterruptibly()
+
+        val futures = try {
+            block.invoke()
+        } catch (ex: Throwable) {
+            permits.release()
+            throw ex
+        }
+
+        Futures.addCallback(Futures.allAsList(futures), object : FutureCallback<List<Any?>> {
+            override fun onSuccess(result: List<Any?>?) {
+                permits.release()
+            }
+
+            override fun onFailure(t: Throwable) {
+                failure.compareAndSet(null, t)
+                permits.release()
+            }
+        }, MoreExecutors.directExecutor())
+    }
+
+    /**
+     * Waits until all submitted requests are done.
+     *
+     * @throws SailException if any of the requests failed
+     */
+    fun await() {
+        awaitCompletion()
+
+        checkFailure()
+    }
+
+    /**
+     * Waits until all submitted requests are done without rethrowing a failure, e.g. before cleaning up after
+     * a failed [submit], so no request completes after the clean-up.
+     */
+    fun awaitCompletion() {
+        permits.acquireUninterruptibly(maxInFlight)
+        permits.release(maxInFlight)
+    }
+
+    private fun checkFailure() {
+        val t = failure.get()
+        if (t != null) {
+            throw SailException(t)
+        }
+    }
+
+}
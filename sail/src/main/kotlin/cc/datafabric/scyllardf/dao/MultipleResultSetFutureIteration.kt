@@ -6,9 +6,15 @@ import com.datastax.driver.core.Row
 import org.eclipse.rdf4j.common.iteration.CloseableIteration
 import org.eclipse.rdf4j.sail.SailException
 
-class MultipleResultSetFutureIteration(private val futures: List<ResultSetFuture>)
-    : CloseableIteration<Row, SailException> {
+/**
+ * @param prefetchRatio the next page is fetched in background once this part of the current page is consumed
+ */
+class MultipleResultSetFutureIteration(
+    private val futures: List<ResultSetFuture>,
+    private val prefetchRatio: Double = ResultSetFutureIteration.DEFAULT_PREFETCH_RATIO
+) : CloseableIteration<Row, SailException> {
 
+    private var prefetcher = PagePrefetcher(prefetchRatio)
     private var futureIdx = 0
     private var resultSet: ResultSet? = null
     private lateinit var iterator: Iterator<Row>
@@ -18,6 +24,7 @@ class MultipleResultSetFutureIteration(private val futures: List<ResultSetFuture
             if (futures.isNotEmpty() && futureIdx < futures.size) {
                 resultSet = futures[futureIdx].get()
                 iterator = resultSet!!.iterator()
+                prefetcher = PagePrefetcher(prefetchRatio)
 
                 futureIdx++;
             } else {
@@ -25,7 +32,10 @@ class MultipleResultSetFutureIteration(private val futures: List<ResultSetFuture
             }
         }
 
-        return iterator.next()
+        val row = iterator.next()
+        prefetcher.onRowConsumed(resultSet!!)
+
+        return row
     }
 
     override fun remove() {
@@ -37,6 +47,7 @@ class MultipleResultSetFutureIteration(private val futures: List<ResultSetFuture
             if (futures.isNotEmpty() && futureIdx < futures.size) {
                 resultSet = futures[futureIdx].uninterruptibly
                 iterator = resultSet!!.iterator()
+                prefetcher = PagePrefetcher(prefetchRatio)
 
                 futureIdx++;
             } else {
@@ -49,5 +60,6 @@ class MultipleResultSetFutureIteration(private val futures: List<ResultSetFuture
 
     override fun close() {
         futures.forEach { it.cancel(true) }
+        prefetcher.cancel()
     }
 }
\ No newline at end of file
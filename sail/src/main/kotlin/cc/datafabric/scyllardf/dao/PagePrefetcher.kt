@@ -0,0 +1,41 @@
+package cc.datafabric.scyllardf.dao
+
+import com.datastax.driver.core.ResultSet
+import com.google.common.util.concurrent.ListenableFuture
+
+/**
+ * Fetches the next page of a result set in background once [prefetchRatio] of the current page is consumed,
+ * so decoding of the current page overlaps with fetching of the next one.
+ */
+internal class PagePrefetcher(private val prefetchRatio: Double) {
+
+    private var pageSize = 0
+    private var pending: ListenableFuture<ResultSet>? = null
+
+    init {
+        require(prefetchRatio in 0.0..1.0) { "prefetchRatio must be in [0, 1]!" }
+    }
+
+    /**
+     * Should be called after a row is taken from the result set.
+     */
+    fun onRowConsumed(resultSet: ResultSet) {
+        if (resultSet.isFullyFetched || pending?.isDone == false) {
+            return
+        }
+
+        val available = resultSet.availableWithoutFetching
+        if (available > pageSize) {
+            pageSize = available
+        }
+
+        if (available <= pageSize * (1 - prefetchRatio)) {
+            pending = resultSet.fetchMoreResults()
+        }
+    }
+
+    fun cancel() {
+        pending?.cancel(true)
+    }
+
+}
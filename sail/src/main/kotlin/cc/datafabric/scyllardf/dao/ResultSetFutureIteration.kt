@@ -6,7 +6,19 @@ import com.datastax.driver.core.Row
 import org.eclipse.rdf4j.common.iteration.CloseableIteration
 import org.eclipse.rdf4j.sail.SailException
 
-class ResultSetFutureIteration(private val future: ResultSetFuture) : CloseableIteration<Row, SailException> {
+/**
+ * @param prefetchRatio the next page is fetched in background once this part of the current page is consumed
+ */
+class ResultSetFutureIteration(
+    private val future: ResultSetFuture,
+    prefetchRatio: Double = DEFAULT_PREFETCH_RATIO
+) : CloseableIteration<Row, SailException> {
+
+    companion object {
+        const val DEFAULT_PREFETCH_RATIO = 0.5
+    }
+
+    private val prefetcher = PagePrefetcher(prefetchRatio)
 
     private var resultSet: ResultSet? = null
     private lateinit var iterator: Iterator<Row>
@@ -17,7 +29,10 @@ class ResultSetFutureIteration(private val future: ResultSetFuture) : CloseableI
             iterator = resultSet!!.iterator()
         }
 
-        return iterator.next()
+        val row = iterator.next()
+        prefetcher.onRowConsumed(resultSet!!)
+
+        return row
     }
 
     override fun remove() {
@@ -35,6 +50,7 @@ class ResultSetFutureIteration(private val future: ResultSetFuture) : CloseableI
 
     override fun close() {
         future.cancel(true)
+        prefetcher.cancel()
     }
 
 }
\ No newline at end of file
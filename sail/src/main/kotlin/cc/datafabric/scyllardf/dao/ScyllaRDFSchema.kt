@@ -13,8 +13,13 @@ object ScyllaRDFSchema {
         CO_SP,
 
         CARD_C,
+        CARD_TOTAL,
         CARD_P,
         CARD_PO,
+        CARD_SKETCH,
+        CARD_HLL,
+
+        STATS,
 
         NS,
 
@@ -23,6 +28,23 @@ object ScyllaRDFSchema {
 
     const val CARD_PO_NUM_BUCKETS = 16
 
+    /**
+     * Size of the count-min sketches of subjects, objects and (subject, predicate) pairs.
+     */
+    const val CARD_SKETCH_WIDTH = 4096
+    const val CARD_SKETCH_DEPTH = 4
+
+    /**
+     * The total number of triples is spread over several counters to avoid a hot partition.
+     */
+    const val CARD_TOTAL_NUM_SHARDS = 16
+
+    /**
+     * Statistics snapshots older than this are dropped once a new one is written.
+     */
+    const val STATS_RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000
+    const val STATS_NUM_TOP_PREDICATES = 100
+
     const val EMPTY_PREFIX = "\u0000"
 
     val CONTEXT_DEFAULT = ByteBuffer.wrap(byteArrayOf(0))!!
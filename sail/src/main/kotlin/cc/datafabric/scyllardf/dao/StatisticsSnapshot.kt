@@ -0,0 +1,37 @@
+package cc.datafabric.scyllardf.dao
+
+import java.nio.ByteBuffer
+
+/**
+ * Statistics collected by sampling token ranges of the indexes, see [IStatisticsDAO.collectSnapshot]. Counts are
+ * extrapolated from the sampled part of the token ring.
+ */
+data class StatisticsSnapshot(
+    /**
+     * The time of the collection in millis, the latest snapshot is used by the planner.
+     */
+    val version: Long,
+    val sampledFraction: Double,
+    val numTriples: Long,
+    val distinctSubjects: Long,
+    val distinctPredicates: Long,
+    val distinctObjects: Long,
+
+    /**
+     * Number of partitions of S_POC and O_SPC by size, the i-th bucket counts partitions of `[2^i, 2^(i+1))` rows.
+     */
+    val subjectPartitionSizes: List<Long>,
+    val objectPartitionSizes: List<Long>,
+
+    /**
+     * The most frequent predicates.
+     */
+    val predicates: Map<ByteBuffer, PredicateStatistics>
+) {
+
+    /**
+     * @param objectTypes number of objects of each value type, indexed by the value type marker of the coder
+     */
+    data class PredicateStatistics(val numTriples: Long, val objectTypes: List<Long>)
+
+}
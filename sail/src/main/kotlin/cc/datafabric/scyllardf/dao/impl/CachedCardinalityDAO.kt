@@ -0,0 +1,229 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.dao.ICardinalityDAO
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.datastax.driver.core.ResultSetFuture
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheLoader
+import com.google.common.cache.LoadingCache
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import java.io.Closeable
+import java.nio.ByteBuffer
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * The statistics cache shared by all connections of a sail, so queries don't re-read the counters while they're
+ * planned. Entries are evicted by size and reloaded in background once they're older than [refreshMillis], the stale
+ * value is returned until the reload finishes. Entries of counters changed by a flush are invalidated by
+ * [ScyllaRDFCardinalityDAO.flushCards]. Estimates of sketches can't be mapped back from the flushed cells, they're
+ * only refreshed.
+ *
+ * Hits, misses and load time are reported to the registry.
+ */
+internal class CachedCardinalityDAO(
+    private val wrapped: ScyllaRDFCardinalityDAO,
+    maxSize: Long,
+    refreshMillis: Long,
+    metrics: MetricRegistry
+) : ICardinalityDAO, Closeable {
+
+    private sealed class Key {
+        object NumTriples : Key()
+        data class Context(val id: ByteBuffer) : Key()
+        data class Subject(val id: ByteBuffer) : Key()
+        data class Object(val id: ByteBuffer) : Key()
+        data class SubjectPredicate(val subj: ByteBuffer, val pred: ByteBuffer) : Key()
+        data class Predicate(val id: ByteBuffer) : Key()
+        data class PredicateBucket(val pred: ByteBuffer, val bucket: Int) : Key()
+        data class Distinct(val kind: HyperLogLog.Kind, val id: ByteBuffer) : Key()
+    }
+
+    private val refreshExecutor = Executors.newFixedThreadPool(2, ThreadFactoryBuilder()
+        .setNameFormat("scylla-rdf-statistics-refresh-%d")
+        .setDaemon(true)
+        .build())
+
+    private val loadTime = metrics.timer(MetricRegistry.name(CachedCardinalityDAO::class.java, "load-time"))
+
+    private val cache: LoadingCache<Key, Long> = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .refreshAfterWrite(refreshMillis, TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build(CacheLoader.asyncReloading(object : CacheLoader<Key, Long>() {
+            override fun load(key: Key): Long {
+                val context = loadTime.time()
+                try {
+                    return read(key)
+                } finally {
+                    context.stop()
+                }
+            }
+        }, refreshExecutor))
+
+    init {
+        metrics.register(MetricRegistry.name(CachedCardinalityDAO::class.java, "hits"),
+            Gauge<Long> { cache.stats().hitCount() })
+        metrics.register(MetricRegistry.name(CachedCardinalityDAO::class.java, "misses"),
+            Gauge<Long> { cache.stats().missCount() })
+        metrics.register(MetricRegistry.name(CachedCardinalityDAO::class.java, "size"),
+            Gauge<Long> { cache.size() })
+    }
+
+    override fun withCache(): ICardinalityDAO {
+        return this
+    }
+
+    override fun numTriples(): Long {
+        return cache.getUnchecked(Key.NumTriples)
+    }
+
+    override fun contextCardinality(context: ByteBuffer?): Long {
+        if (context == null || context == ScyllaRDFSchema.CONTEXT_DEFAULT) {
+            return numTriples()
+        }
+
+        return cache.getUnchecked(Key.Context(context))
+    }
+
+    override fun subjectCardinality(subj: ByteBuffer): Long {
+        return cache.getUnchecked(Key.Subject(subj))
+    }
+
+    override fun predicateCardinality(pred: ByteBuffer): Long {
+        return cache.getUnchecked(Key.Predicate(pred))
+    }
+
+    /**
+     * It's a scan, so it isn't cached.
+     */
+    override fun predicateCardinalities(): Map<ByteBuffer, Long> {
+        return wrapped.predicateCardinalities()
+    }
+
+    override fun objectCardinality(obj: ByteBuffer): Long {
+        return cache.getUnchecked(Key.Object(obj))
+    }
+
+    override fun subjectAndPredicateCardinality(subj: ByteBuffer, pred: ByteBuffer): Long {
+        return cache.getUnchecked(Key.SubjectPredicate(subj, pred))
+    }
+
+    /**
+     * The counters are kept per bucket of objects, so all objects of a bucket share the entry.
+     */
+    override fun objectAndPredicateCardinality(pred: ByteBuffer, obj: ByteBuffer): Long {
+        return cache.getUnchecked(Key.PredicateBucket(pred, wrapped.objectToBucketNumber(obj)))
+    }
+
+    override fun predicateDistinctSubjects(pred: ByteBuffer): Long {
+        return cache.getUnchecked(Key.Distinct(HyperLogLog.Kind.PREDICATE_SUBJECTS, pred))
+    }
+
+    override fun predicateDistinctObjects(pred: ByteBuffer): Long {
+        return cache.getUnchecked(Key.Distinct(HyperLogLog.Kind.PREDICATE_OBJECTS, pred))
+    }
+
+    override fun contextDistinctSubjects(context: ByteBuffer): Long {
+        return cache.getUnchecked(Key.Distinct(HyperLogLog.Kind.CONTEXT_SUBJECTS, context))
+    }
+
+    override fun contextDistinctObjects(context: ByteBuffer): Long {
+        return cache.getUnchecked(Key.Distinct(HyperLogLog.Kind.CONTEXT_OBJECTS, context))
+    }
+
+    /**
+     * The counts are already kept in memory.
+     */
+    override fun tablePartitions(table: ScyllaRDFSchema.Table): Long? {
+        return wrapped.tablePartitions(table)
+    }
+
+    override fun incrementCardC(context: ByteBuffer, add: Long): List<ResultSetFuture> {
+        return wrapped.incrementCardC(context, add)
+    }
+
+    override fun incrementCardP(pred: ByteBuffer, add: Long): ResultSetFuture {
+        return wrapped.incrementCardP(pred, add)
+    }
+
+    override fun incrementCardPO(pred: ByteBuffer, obj: ByteBuffer, add: Long): ResultSetFuture {
+        return wrapped.incrementCardPO(pred, obj, add)
+    }
+
+    override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?) {
+        wrapped.incrementCards(subj, pred, obj, context)
+    }
+
+    override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>) {
+        wrapped.incrementCards(subj, pred, obj, contexts)
+    }
+
+    override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?) {
+        wrapped.decrementCards(subj, pred, obj, context)
+    }
+
+    override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>) {
+        wrapped.decrementCards(subj, pred, obj, contexts)
+    }
+
+    override fun flushCards() {
+        wrapped.flushCards()
+    }
+
+    override fun discardCards() {
+        wrapped.discardCards()
+    }
+
+    override fun withOwnDeltas(): ICardinalityDAO {
+        return wrapped.withOwnDeltas()
+    }
+
+    override fun clearContext(context: ByteBuffer?) {
+        wrapped.clearContext(context)
+    }
+
+    /**
+     * Drops the entries of the counters which have been changed by the flushed deltas. The total is always
+     * invalidated, since the flushed deltas are subtracted from [deltas] once they're written.
+     */
+    fun invalidate(deltas: CardinalityAccumulator.Deltas) {
+        val keys = mutableListOf<Key>(Key.NumTriples)
+
+        deltas.contexts.keys.mapTo(keys) { Key.Context(it) }
+        deltas.predicates.keys.mapTo(keys) { Key.Predicate(it) }
+        deltas.predicateBuckets.keys.mapTo(keys) { Key.PredicateBucket(it.pred, it.bucket) }
+        deltas.distinct.keys.mapTo(keys) { Key.Distinct(it.kind, it.id) }
+
+        cache.invalidateAll(keys)
+    }
+
+    fun invalidateAll() {
+        cache.invalidateAll()
+    }
+
+    override fun close() {
+        refreshExecutor.shutdownNow()
+    }
+
+    private fun read(key: Key): Long {
+        return when (key) {
+            Key.NumTriples -> wrapped.numTriples()
+            is Key.Context -> wrapped.contextCardinality(key.id)
+            is Key.Subject -> wrapped.subjectCardinality(key.id)
+            is Key.Object -> wrapped.objectCardinality(key.id)
+            is Key.SubjectPredicate -> wrapped.subjectAndPredicateCardinality(key.subj, key.pred)
+            is Key.Predicate -> wrapped.predicateCardinality(key.id)
+            is Key.PredicateBucket -> wrapped.predicateBucketCardinality(key.pred, key.bucket)
+            is Key.Distinct -> when (key.kind) {
+                HyperLogLog.Kind.PREDICATE_SUBJECTS -> wrapped.predicateDistinctSubjects(key.id)
+                HyperLogLog.Kind.PREDICATE_OBJECTS -> wrapped.predicateDistinctObjects(key.id)
+                HyperLogLog.Kind.CONTEXT_SUBJECTS -> wrapped.contextDistinctSubjects(key.id)
+                HyperLogLog.Kind.CONTEXT_OBJECTS -> wrapped.contextDistinctObjects(key.id)
+            }
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Accumulates deltas of the cardinality counters in memory, so that they can be written to Scylla
+ * in a single UPDATE per counter.
+ *
+ * Writers share the read lock and update [LongAdder]s, so they don't block each other. [swap] takes the write lock
+ * to make sure that no delta is added to the deltas which are being flushed.
+ *
+ * The swapped deltas stay pending until [restore] is called, so reads don't miss the deltas being written. The flush
+ * subtracts each delta from them once it's written, the rest is merged back by [restore].
+ *
+ * Deltas of sketch cells and sketches of distinct items aren't counted by [size], their number is bounded by the size
+ * of the sketches and by the number of predicates and contexts.
+ */
+internal class CardinalityAccumulator {
+
+    private val lock = ReentrantReadWriteLock()
+
+    @Volatile
+    private var current = Deltas()
+
+    /**
+     * The deltas being flushed, guarded by the lock.
+     */
+    private val flushing = mutableListOf<Deltas>()
+
+    fun add(
+        context: ByteBuffer, pred: ByteBuffer, bucket: Int, delta: Long, cells: List<CountMinSketch.Cell> = emptyList()
+    ) {
+        lock.read {
+            val deltas = current
+
+            deltas.total.add(delta)
+            if (context != ScyllaRDFSchema.CONTEXT_DEFAULT) {
+                deltas.contexts.computeIfAbsent(context) { LongAdder() }.add(delta)
+            }
+            deltas.predicates.computeIfAbsent(pred) { LongAdder() }.add(delta)
+            deltas.predicateBuckets.computeIfAbsent(PredicateBucket(pred, bucket)) { LongAdder() }.add(delta)
+            cells.forEach { deltas.sketchCells.computeIfAbsent(it) { LongAdder() }.add(delta) }
+        }
+    }
+
+    /**
+     * Adds the hash of an item to the pending sketch of distinct items.
+     */
+    fun addDistinct(key: DistinctKey, hash: Long) {
+        lock.read {
+            current.distinct.computeIfAbsent(key) { HyperLogLog() }.add(hash)
+        }
+    }
+
+    /**
+     * Number of counters with pending deltas.
+     */
+    fun size(): Int {
+        return current.size()
+    }
+
+    /**
+     * Returns the pending deltas and starts accumulating new ones. The returned deltas are still pending until
+     * they're passed to [restore].
+     */
+    fun swap(): Deltas {
+        return lock.write {
+            val deltas = current
+            current = Deltas()
+            flushing.add(deltas)
+            deltas
+        }
+    }
+
+    /**
+     * Merges the deltas which aren't written back into the pending ones.
+     */
+    fun restore(deltas: Deltas) {
+        lock.write {
+            flushing.remove(deltas)
+            current.merge(deltas)
+        }
+    }
+
+    /**
+     * Drops the pending deltas of the given context, or all deltas if the context is null.
+     */
+    fun discard(context: ByteBuffer?) {
+        lock.write {
+            if (context == null || context == ScyllaRDFSchema.CONTEXT_DEFAULT) {
+                current = Deltas()
+            } else {
+                val removed = current.contexts.remove(context)
+                if (removed != null) {
+                    current.total.add(-removed.sum())
+                }
+
+                current.distinct.remove(DistinctKey(HyperLogLog.Kind.CONTEXT_SUBJECTS, context))
+                current.distinct.remove(DistinctKey(HyperLogLog.Kind.CONTEXT_OBJECTS, context))
+            }
+        }
+    }
+
+    fun pendingTotal(): Long {
+        return pending { it.total.sum() }
+    }
+
+    fun pendingContext(context: ByteBuffer): Long {
+        return pending { it.contexts[context]?.sum() ?: 0L }
+    }
+
+    fun pendingPredicate(pred: ByteBuffer): Long {
+        return pending { it.predicates[pred]?.sum() ?: 0L }
+    }
+
+    fun pendingPredicates(): Map<ByteBuffer, Long> {
+        return lock.read {
+            val predicates = HashMap<ByteBuffer, Long>()
+            (flushing + current).forEach { deltas ->
+                deltas.predicates.forEach { pred, delta -> predicates.merge(pred, delta.sum()) { a, b -> a + b } }
+            }
+            predicates
+        }
+    }
+
+    fun pendingPredicateBucket(pred: ByteBuffer, bucket: Int): Long {
+        return pending { it.predicateBuckets[PredicateBucket(pred, bucket)]?.sum() ?: 0L }
+    }
+
+    fun pendingSketchCell(cell: CountMinSketch.Cell): Long {
+        return pending { it.sketchCells[cell]?.sum() ?: 0L }
+    }
+
+    fun pendingDistinct(key: DistinctKey): HyperLogLog? {
+        return lock.read {
+            (flushing + current)
+                .mapNotNull { it.distinct[key] }
+                .fold(null as HyperLogLog?) { merged, sketch -> merged?.merge(sketch) ?: sketch }
+        }
+    }
+
+    private inline fun pending(value: (Deltas) -> Long): Long {
+        return lock.read { flushing.fold(value(current)) { sum, deltas -> sum + value(deltas) } }
+    }
+
+    class Deltas {
+        val total = LongAdder()
+        val contexts = ConcurrentHashMap<ByteBuffer, LongAdder>()
+        val predicates = ConcurrentHashMap<ByteBuffer, LongAdder>()
+        val predicateBuckets = ConcurrentHashMap<PredicateBucket, LongAdder>()
+        val sketchCells = ConcurrentHashMap<CountMinSketch.Cell, LongAdder>()
+        val distinct = ConcurrentHashMap<DistinctKey, HyperLogLog>()
+
+        fun size(): Int {
+            return contexts.size + predicates.size + predicateBuckets.size
+        }
+
+        fun isEmpty(): Boolean {
+            return size() == 0 && sketchCells.isEmpty() && distinct.isEmpty() && total.sum() == 0L
+        }
+
+        /**
+         * Adds the non-zero deltas of the other ones.
+         */
+        fun merge(other: Deltas) {
+            total.add(other.total.sum())
+            merge(contexts, other.contexts)
+            merge(predicates, other.predicates)
+            merge(predicateBuckets, other.predicateBuckets)
+            merge(sketchCells, other.sketchCells)
+            other.distinct.forEach { key, sketch -> distinct.merge(key, sketch) { a, b -> a.merge(b) } }
+        }
+
+        private fun <K> merge(target: ConcurrentHashMap<K, LongAdder>, source: Map<K, LongAdder>) {
+            source.forEach { key, delta ->
+                val add = delta.sum()
+                if (add != 0L) {
+                    target.computeIfAbsent(key) { LongAdder() }.add(add)
+                }
+            }
+        }
+    }
+
+    data class PredicateBucket(val pred: ByteBuffer, val bucket: Int)
+
+    data class DistinctKey(val kind: HyperLogLog.Kind, val id: ByteBuffer)
+
+}
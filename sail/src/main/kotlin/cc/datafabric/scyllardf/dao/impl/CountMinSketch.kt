@@ -0,0 +1,46 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.model.ByteBuffers
+import com.google.common.hash.Hashing
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * The layout of the count-min sketches stored in [cc.datafabric.scyllardf.dao.ScyllaRDFSchema.Table.CARD_SKETCH].
+ * A sketch is [depth] rows of [width] counters, an item is counted in one counter of each row and its frequency is
+ * estimated by the smallest of them. The estimate is never less than the true frequency and exceeds it by at most
+ * `e / width` of all counted items with probability `1 - exp(-depth)`.
+ *
+ * The counters are Scylla counters, so sketches updated by several instances are merged by the store.
+ */
+internal class CountMinSketch(val width: Int, val depth: Int) {
+
+    enum class Kind(val id: Int) {
+        SUBJECT(0),
+        OBJECT(1),
+        SUBJECT_PREDICATE(2)
+    }
+
+    data class Cell(val kind: Kind, val row: Int, val column: Int)
+
+    companion object {
+        private val HASH_FUNCTION = Hashing.murmur3_128()
+    }
+
+    /**
+     * Counters of the item, one per row. The columns are derived from two halves of a single hash.
+     */
+    fun cells(kind: Kind, vararg item: ByteBuffer): List<Cell> {
+        val hasher = HASH_FUNCTION.newHasher()
+        item.forEach { ByteBuffers.putLengthPrefixed(hasher, it) }
+
+        val bytes = ByteBuffer.wrap(hasher.hash().asBytes()).order(ByteOrder.LITTLE_ENDIAN)
+        val hash1 = bytes.getLong(0)
+        val hash2 = bytes.getLong(8)
+
+        return (0 until depth).map { row ->
+            Cell(kind, row, Math.floorMod(hash1 + row * hash2, width.toLong()).toInt())
+        }
+    }
+
+}
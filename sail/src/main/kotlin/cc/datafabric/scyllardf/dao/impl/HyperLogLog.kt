@@ -0,0 +1,113 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.model.ByteBuffers
+import com.google.common.hash.Hashing
+import java.nio.ByteBuffer
+
+/**
+ * Estimates the number of distinct items by [M] registers of the max rank of hashes, the standard error is about
+ * `1.04 / sqrt(M)`, i.e. 1.6%. Sketches are merged by taking the max of each register, so a sketch of the deltas
+ * can be merged into the stored one, see [cc.datafabric.scyllardf.dao.ScyllaRDFSchema.Table.CARD_HLL].
+ *
+ * Items can't be removed, so the estimates don't decrease when statements are removed.
+ */
+internal class HyperLogLog private constructor(private val registers: ByteArray) {
+
+    enum class Kind(val id: Int) {
+        PREDICATE_SUBJECTS(0),
+        PREDICATE_OBJECTS(1),
+        CONTEXT_SUBJECTS(2),
+        CONTEXT_OBJECTS(3)
+    }
+
+    companion object {
+        private const val P = 12
+        const val M = 1 shl P
+
+        private val ALPHA = 0.7213 / (1 + 1.079 / M)
+        private val HASH_FUNCTION = Hashing.murmur3_128()
+
+        fun hash(item: ByteBuffer): Long {
+            return ByteBuffers.withBytes(item) { bytes, offset, length ->
+                HASH_FUNCTION.hashBytes(bytes, offset, length).asLong()
+            }
+        }
+
+        /**
+         * @param bytes the registers written by [toByteBuffer], null for an empty sketch
+         */
+        fun fromByteBuffer(bytes: ByteBuffer?): HyperLogLog {
+            val registers = ByteArray(M)
+            if (bytes != null) {
+                require(bytes.remaining() == M) { "A sketch must have $M registers!" }
+                bytes.duplicate().get(registers)
+            }
+
+            return HyperLogLog(registers)
+        }
+    }
+
+    constructor() : this(ByteArray(M))
+
+    /**
+     * The first [P] bits of the hash select the register, the rank is the position of the first set bit of the rest.
+     */
+    fun add(hash: Long) {
+        val index = (hash ushr (64 - P)).toInt()
+        val rank = (java.lang.Long.numberOfLeadingZeros((hash shl P) or (1L shl (P - 1))) + 1).toByte()
+
+        synchronized(this) {
+            if (rank > registers[index]) {
+                registers[index] = rank
+            }
+        }
+    }
+
+    /**
+     * @return a new sketch of the items of both sketches
+     */
+    fun merge(other: HyperLogLog): HyperLogLog {
+        val merged = ByteArray(M)
+        synchronized(other) {
+            for (i in 0 until M) {
+                merged[i] = Math.max(registers[i].toInt(), other.registers[i].toInt()).toByte()
+            }
+        }
+
+        return HyperLogLog(merged)
+    }
+
+    /**
+     * Small cardinalities are estimated by linear counting of the empty registers.
+     */
+    fun estimate(): Long {
+        var sum = 0.0
+        var zeros = 0
+        registers.forEach {
+            sum += 1.0 / (1L shl it.toInt())
+            if (it.toInt() == 0) {
+                zeros++
+            }
+        }
+
+        val estimate = ALPHA * M * M / sum
+        if (estimate <= 2.5 * M && zeros > 0) {
+            return Math.round(M * Math.log(M.toDouble() / zeros))
+        }
+
+        return Math.round(estimate)
+    }
+
+    fun toByteBuffer(): ByteBuffer {
+        return synchronized(this) { ByteBuffer.wrap(registers.copyOf()) }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is HyperLogLog && registers.contentEquals(other.registers)
+    }
+
+    override fun hashCode(): Int {
+        return registers.contentHashCode()
+    }
+
+}
@@ -0,0 +1,105 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.SettableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Limits the number of requests being in flight. A permit is acquired before a request is sent and released when
+ * the response is received.
+ *
+ * The caller never blocks: if there is no free permit, the request is queued and sent by the thread which releases
+ * the next permit, usually a thread of the driver. So requests can be sent from the callbacks of other requests.
+ */
+internal class RequestLimiter(private val maxInFlight: Int, metrics: MetricRegistry) {
+
+    private val permits = Semaphore(maxInFlight)
+    private val queue = ConcurrentLinkedQueue<Runnable>()
+
+    private val waitTime = metrics.timer(MetricRegistry.name(RequestLimiter::class.java, "wait-time"))
+
+    init {
+        require(maxInFlight > 0) { "maxInFlight must be positive!" }
+
+        metrics.register(MetricRegistry.name(RequestLimiter::class.java, "permits-in-use"),
+            Gauge<Int> { permitsInUse() })
+        metrics.register(MetricRegistry.name(RequestLimiter::class.java, "permits-max"),
+            Gauge<Int> { maxInFlight })
+        metrics.register(MetricRegistry.name(RequestLimiter::class.java, "queued"),
+            Gauge<Int> { queue.size })
+    }
+
+    /**
+     * Sends the request once a permit is available, the permit is released when the returned future is done.
+     * Cancellation of the returned future is passed to the request, a queued request isn't sent then.
+     */
+    fun <T> submit(request: () -> ListenableFuture<T>): ListenableFuture<T> {
+        if (permits.tryAcquire()) {
+            waitTime.update(0, TimeUnit.NANOSECONDS)
+
+            return send(request)
+        }
+
+        val result = SettableFuture.create<T>()
+        val context = waitTime.time()
+        queue.add(Runnable {
+            context.stop()
+
+            if (result.isCancelled) {
+                release()
+            } else {
+                result.setFuture(send(request))
+            }
+        })
+
+        // A permit could be released before the request was queued
+        sendQueued()
+
+        return result
+    }
+
+    fun permitsInUse(): Int {
+        return maxInFlight - permits.availablePermits()
+    }
+
+    /**
+     * Must be called with a permit acquired.
+     */
+    private fun <T> send(request: () -> ListenableFuture<T>): ListenableFuture<T> {
+        val future = try {
+            request()
+        } catch (ex: Throwable) {
+            release()
+
+            return Futures.immediateFailedFuture(ex)
+        }
+
+        future.addListener(Runnable { release() }, MoreExecutors.directExecutor())
+
+        return future
+    }
+
+    private fun release() {
+        permits.release()
+
+        sendQueued()
+    }
+
+    private fun sendQueued() {
+        while (!queue.isEmpty() && permits.tryAcquire()) {
+            val next = queue.poll()
+            if (next == null) {
+                permits.release()
+            } else {
+                next.run()
+            }
+        }
+    }
+
+}
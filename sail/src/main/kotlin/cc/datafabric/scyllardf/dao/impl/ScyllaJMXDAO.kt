@@ -1,5 +1,6 @@
 package cc.datafabric.scyllardf.dao.impl
 
+import java.io.Closeable
 import java.rmi.server.RMISocketFactory
 import javax.management.JMX
 import javax.management.MBeanServerConnection
@@ -10,31 +11,33 @@ import javax.management.remote.JMXConnectorFactory
 import javax.management.remote.JMXServiceURL
 
 
-class ScyllaJMXDAO private constructor(private val host: String) {
+class ScyllaJMXDAO private constructor(
+    private val jmxConnector: JMXConnector?,
+    private val mbeanServerConn: MBeanServerConnection
+) : Closeable {
 
     companion object {
         private const val URL_FORMAT = "service:jmx:rmi:///jndi/rmi://[%s]:%d/jmxrmi"
-        private const val DEFAULT_PORT = 7199
+        const val DEFAULT_PORT = 7199
         private const val METRIC_ESTIMATED_PARTITION_COUNT = "EstimatedPartitionCount"
 
-        fun create(host: String): ScyllaJMXDAO {
-            val dao = ScyllaJMXDAO(host)
-            dao.init()
-            return dao
-        }
-    }
+        fun create(host: String, port: Int = DEFAULT_PORT): ScyllaJMXDAO {
+            val jmxUrl = JMXServiceURL(String.format(URL_FORMAT, host, port))
 
-    private lateinit var jmxConnector: JMXConnector
-    private lateinit var mbeanServerConn: MBeanServerConnection
+            val env = mutableMapOf<String, Any>()
+            env["com.sun.jndi.rmi.factory.socket"] = RMISocketFactory.getDefaultSocketFactory()
 
-    private fun init() {
-        val jmxUrl = JMXServiceURL(String.format(URL_FORMAT, host, DEFAULT_PORT))
+            val jmxConnector = JMXConnectorFactory.connect(jmxUrl, env)
 
-        val env = mutableMapOf<String, Any>()
-        env["com.sun.jndi.rmi.factory.socket"] = RMISocketFactory.getDefaultSocketFactory()
+            return ScyllaJMXDAO(jmxConnector, jmxConnector.mBeanServerConnection)
+        }
 
-        jmxConnector = JMXConnectorFactory.connect(jmxUrl, env)
-        mbeanServerConn = jmxConnector.mBeanServerConnection
+        /**
+         * Reads the metrics from an already open connection, e.g. the local MBean server. It isn't closed by [close].
+         */
+        fun create(connection: MBeanServerConnection): ScyllaJMXDAO {
+            return ScyllaJMXDAO(null, connection)
+        }
     }
 
     fun getNumberOfPartitions(keyspace: String, tableName: String): Long {
@@ -50,13 +53,17 @@ class ScyllaJMXDAO private constructor(private val host: String) {
                 return 0
             }
 
-            return obj as Long
+            return (obj as Number).toLong()
         } catch (e: MalformedObjectNameException) {
             throw RuntimeException(e)
         }
 
     }
 
+    override fun close() {
+        jmxConnector?.close()
+    }
+
     private interface MetricMBean {
         fun objectName(): ObjectName
     }
@@ -0,0 +1,107 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Cluster-wide numbers of partitions of the index tables, polled in background from the JMX metrics of every node.
+ * A node reports the partitions of its replicas, so the sum over the nodes is divided by the replication factor.
+ *
+ * The connections are kept in a pool with one connection per node, a connection which fails is closed and
+ * re-opened on the next poll. Reads never block, they return the counts of the latest poll.
+ */
+internal class ScyllaJMXPartitionCounts(
+    private val keyspace: String,
+    private val replicationFactor: Int,
+    private val hosts: () -> Collection<String>,
+    private val connect: (String) -> ScyllaJMXDAO,
+    refreshMillis: Long
+) : Closeable {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(ScyllaJMXPartitionCounts::class.java)
+
+        private val TABLES = listOf(
+            ScyllaRDFSchema.Table.S_POC,
+            ScyllaRDFSchema.Table.P_OSC,
+            ScyllaRDFSchema.Table.O_SPC,
+            ScyllaRDFSchema.Table.CS_PO,
+            ScyllaRDFSchema.Table.CP_OS,
+            ScyllaRDFSchema.Table.CO_SP
+        )
+    }
+
+    init {
+        require(replicationFactor > 0) { "replicationFactor must be positive!" }
+    }
+
+    private val pool = ConcurrentHashMap<String, ScyllaJMXDAO>()
+    private val counts = AtomicReference<Map<ScyllaRDFSchema.Table, Long>>(emptyMap())
+
+    private val executor = Executors.newSingleThreadScheduledExecutor(ThreadFactoryBuilder()
+        .setNameFormat("scylla-rdf-jmx-poll-%d")
+        .setDaemon(true)
+        .build())
+
+    init {
+        executor.scheduleWithFixedDelay(Runnable { poll() }, 0, refreshMillis, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * @return the number of partitions of the table, or null if it hasn't been polled from any node yet
+     */
+    fun partitions(table: ScyllaRDFSchema.Table): Long? {
+        return counts.get()[table]
+    }
+
+    /**
+     * Polls all nodes, the counts of a node which can't be polled are skipped.
+     */
+    internal fun poll() {
+        val sums = HashMap<ScyllaRDFSchema.Table, Long>()
+        val current = hosts().toSet()
+
+        current.forEach { host ->
+            try {
+                val dao = pool.computeIfAbsent(host) { connect(it) }
+                val hostCounts = TABLES.associate { table ->
+                    table to dao.getNumberOfPartitions(keyspace, table.toString().toLowerCase())
+                }
+
+                hostCounts.forEach { table, partitions -> sums[table] = (sums[table] ?: 0L) + partitions }
+            } catch (ex: Exception) {
+                LOG.warn("Failed to poll the number of partitions from {}", host, ex)
+                pool.remove(host)?.let { closeQuietly(it) }
+            }
+        }
+
+        // Connections to nodes which have left the cluster
+        pool.keys.filter { it !in current }.forEach { host -> pool.remove(host)?.let { closeQuietly(it) } }
+
+        if (sums.isNotEmpty()) {
+            counts.set(sums.mapValues { Math.max(it.value / replicationFactor, 0L) })
+        }
+    }
+
+    override fun close() {
+        executor.shutdownNow()
+
+        pool.values.forEach { closeQuietly(it) }
+        pool.clear()
+    }
+
+    private fun closeQuietly(dao: ScyllaJMXDAO) {
+        try {
+            dao.close()
+        } catch (ex: Exception) {
+            LOG.debug("Failed to close a JMX connection", ex)
+        }
+    }
+
+}
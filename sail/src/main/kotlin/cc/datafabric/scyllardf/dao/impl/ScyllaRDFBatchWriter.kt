@@ -0,0 +1,89 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.dao.InFlightWindow
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import com.codahale.metrics.MetricRegistry
+import com.datastax.driver.core.BatchStatement
+import com.datastax.driver.core.ResultSetFuture
+import com.datastax.driver.core.Session
+import com.datastax.driver.core.Statement
+import java.nio.ByteBuffer
+
+/**
+ * Groups writes by the table and the partition key and sends them as UNLOGGED batches. All statements in a batch
+ * belong to the same partition, so a batch is routed to a replica by the token-aware policy and is applied
+ * by a single node.
+ *
+ * Inserts and deletes shouldn't be mixed in the same [PartitionGroups], because statements in a batch share the
+ * same timestamp.
+ */
+internal class ScyllaRDFBatchWriter(
+    private val session: Session,
+    private val batchSize: Int,
+    metrics: MetricRegistry
+) {
+
+    private val batchSizes = metrics.histogram(MetricRegistry.name(ScyllaRDFBatchWriter::class.java, "batch-size"))
+    private val partitionsPerWrite = metrics.histogram(
+        MetricRegistry.name(ScyllaRDFBatchWriter::class.java, "partitions-per-write"))
+    private val statementsPerPartition = metrics.histogram(
+        MetricRegistry.name(ScyllaRDFBatchWriter::class.java, "statements-per-partition"))
+    private val requests = metrics.meter(MetricRegistry.name(ScyllaRDFBatchWriter::class.java, "requests"))
+
+    init {
+        require(batchSize > 0) { "batchSize must be positive!" }
+    }
+
+    fun newGroups(): PartitionGroups {
+        return PartitionGroups()
+    }
+
+    /**
+     * Sends the grouped statements, each request is submitted to the window.
+     */
+    fun write(groups: PartitionGroups, window: InFlightWindow) {
+        requests(groups).forEach { request -> window.submit { listOf(session.executeAsync(request)) } }
+    }
+
+    /**
+     * Sends the grouped statements at once and returns the futures of the requests. It never blocks, so it can be
+     * called from a callback of another request.
+     */
+    fun writeAsync(groups: PartitionGroups): List<ResultSetFuture> {
+        return requests(groups).map { session.executeAsync(it) }
+    }
+
+    private fun requests(groups: PartitionGroups): List<Statement> {
+        partitionsPerWrite.update(groups.statements.size)
+
+        return groups.statements.values.flatMap { statements ->
+            statementsPerPartition.update(statements.size)
+
+            statements.chunked(batchSize).map { chunk ->
+                batchSizes.update(chunk.size)
+                requests.mark()
+
+                if (chunk.size == 1) {
+                    chunk[0]
+                } else {
+                    BatchStatement(BatchStatement.Type.UNLOGGED).addAll(chunk)
+                }
+            }
+        }
+    }
+
+    class PartitionGroups internal constructor() {
+
+        internal val statements = LinkedHashMap<Pair<ScyllaRDFSchema.Table, List<ByteBuffer>>, MutableList<Statement>>()
+
+        fun add(table: ScyllaRDFSchema.Table, partitionKey: List<ByteBuffer>, statement: Statement) {
+            statements.getOrPut(Pair(table, partitionKey)) { mutableListOf() }.add(statement)
+        }
+
+        fun isEmpty(): Boolean {
+            return statements.isEmpty()
+        }
+
+    }
+
+}
@@ -1,116 +1,223 @@
 package cc.datafabric.scyllardf.dao.impl
 
 import cc.datafabric.scyllardf.dao.ICardinalityDAO
+import cc.datafabric.scyllardf.dao.InFlightWindow
 import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import cc.datafabric.scyllardf.dao.impl.CardinalityAccumulator.DistinctKey
+import com.datastax.driver.core.BatchStatement
 import com.datastax.driver.core.PreparedStatement
+import com.datastax.driver.core.ResultSet
 import com.datastax.driver.core.ResultSetFuture
 import com.datastax.driver.core.Session
-import com.google.common.base.Function
-import com.google.common.cache.CacheBuilder
-import com.google.common.cache.CacheLoader
+import com.codahale.metrics.MetricRegistry
 import com.google.common.hash.HashCode
 import com.google.common.hash.Hashing
-import com.google.common.primitives.Bytes
+import com.google.common.util.concurrent.FutureCallback
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.MoreExecutors
+import org.slf4j.LoggerFactory
+import java.io.Closeable
 import java.nio.ByteBuffer
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
+ * Deltas of the counters are accumulated in memory and flushed every [flushIntervalMillis] or as soon as
+ * [flushThreshold] counters have pending deltas, a value which isn't positive disables either of them.
+ *
+ * Frequencies of subjects, objects and (subject, predicate) pairs are counted by [CountMinSketch]es, their cells
+ * are accumulated and flushed the same way as the other counters. Distinct subjects and objects of each predicate and
+ * each named graph are counted by [HyperLogLog]s, the pending sketches are merged into the stored ones by
+ * compare-and-set, so sketches of several instances are merged too.
+ *
+ * Partition counts of the index tables are polled via JMX by [ScyllaJMXPartitionCounts] if it's given.
+ *
+ * Reads through [withCache] are served by a [CachedCardinalityDAO] shared by all connections, its entries of the
+ * flushed counters are invalidated after each flush.
+ *
  * @see <a href="https://github.com/DataFabricRus/scylla-rdf/issues/1">ISSUE-1</a>
  */
-internal class ScyllaRDFCardinalityDAO(private val session: Session) : AbstractScyllaRDFDAO(), ICardinalityDAO {
+internal class ScyllaRDFCardinalityDAO(
+    private val session: Session,
+    private val flushIntervalMillis: Long = ScyllaRDFDAOOptions.DEFAULT_CARDINALITY_FLUSH_INTERVAL_MILLIS,
+    private val flushThreshold: Int = ScyllaRDFDAOOptions.DEFAULT_CARDINALITY_FLUSH_THRESHOLD,
+    statisticsCacheSize: Long = ScyllaRDFDAOOptions.DEFAULT_STATISTICS_CACHE_SIZE,
+    statisticsRefreshMillis: Long = ScyllaRDFDAOOptions.DEFAULT_STATISTICS_REFRESH_MILLIS,
+    metrics: MetricRegistry = MetricRegistry(),
+    private val partitionCounts: ScyllaJMXPartitionCounts? = null
+) : AbstractScyllaRDFDAO(), ICardinalityDAO, Closeable {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(ScyllaRDFCardinalityDAO::class.java)
+
+        private const val MAX_CONCURRENT_FLUSH_QUERIES = 64
+        private const val SKETCH_BATCH_SIZE = 100
+        private const val MAX_DISTINCT_MERGE_ATTEMPTS = 10
+
+        private val SKETCH = CountMinSketch(ScyllaRDFSchema.CARD_SKETCH_WIDTH, ScyllaRDFSchema.CARD_SKETCH_DEPTH)
+    }
+
+    private val accumulator = CardinalityAccumulator()
+    private val flushScheduled = AtomicBoolean(false)
+    private val flushExecutor = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "scylla-rdf-cardinality-flush")
+        thread.isDaemon = true
+        thread
+    }
+
+    private val cache = CachedCardinalityDAO(this, statisticsCacheSize, statisticsRefreshMillis, metrics)
 
     private lateinit var selectCardC: PreparedStatement
-    private lateinit var selectCardS: PreparedStatement
+    private lateinit var selectCardTotal: PreparedStatement
     private lateinit var selectCardP: PreparedStatement
-    private lateinit var selectCardO: PreparedStatement
+    private lateinit var selectAllCardP: PreparedStatement
     private lateinit var selectCardPO: PreparedStatement
+    private lateinit var selectCardSketch: PreparedStatement
+    private lateinit var selectCardHll: PreparedStatement
 
     private lateinit var prepIncCardC: PreparedStatement
+    private lateinit var prepIncCardTotal: PreparedStatement
     private lateinit var prepIncCardP: PreparedStatement
     private lateinit var prepIncCardPO: PreparedStatement
-
-    private lateinit var prepDecCardC: PreparedStatement
-    private lateinit var prepDecCardP: PreparedStatement
-    private lateinit var prepDecCardPO: PreparedStatement
+    private lateinit var prepIncCardSketch: PreparedStatement
+    private lateinit var prepInsertCardHll: PreparedStatement
+    private lateinit var prepUpdateCardHll: PreparedStatement
+
+    init {
+        if (flushIntervalMillis > 0) {
+            flushExecutor.scheduleWithFixedDelay({ flushQuietly() }, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS)
+        }
+    }
 
     internal fun createTables() {
         session.execute("CREATE TABLE IF NOT EXISTS ${ScyllaRDFSchema.Table.CARD_C} " +
                 "(id blob PRIMARY KEY, counter counter)")
+        session.execute("CREATE TABLE IF NOT EXISTS ${ScyllaRDFSchema.Table.CARD_TOTAL} " +
+                "(shard int PRIMARY KEY, counter counter)")
         session.execute("CREATE TABLE IF NOT EXISTS ${ScyllaRDFSchema.Table.CARD_P} " +
                 "(id blob PRIMARY KEY, counter counter)")
         session.execute("CREATE TABLE IF NOT EXISTS ${ScyllaRDFSchema.Table.CARD_PO} (" +
                 "predicate blob, bucket int, counter counter, " +
                 "PRIMARY KEY (predicate, bucket))")
+        session.execute("CREATE TABLE IF NOT EXISTS ${ScyllaRDFSchema.Table.CARD_SKETCH} (" +
+                "sketch int, row int, col int, counter counter, " +
+                "PRIMARY KEY ((sketch, row), col))")
+        session.execute("CREATE TABLE IF NOT EXISTS ${ScyllaRDFSchema.Table.CARD_HLL} (" +
+                "id blob, kind int, registers blob, " +
+                "PRIMARY KEY ((id, kind)))")
     }
 
     internal fun prepareStatements() {
         selectCardC = session.prepare("SELECT counter FROM ${ScyllaRDFSchema.Table.CARD_C} WHERE id IN (?)")
-        selectCardS = session.prepare("SELECT SUM(partitions_count) FROM system.size_estimates " +
-                "WHERE keyspace_name = '${session.loggedKeyspace}' AND table_name = '${ScyllaRDFSchema.Table.S_POC}'")
+        selectCardTotal = session.prepare("SELECT counter FROM ${ScyllaRDFSchema.Table.CARD_TOTAL}")
         selectCardP = session.prepare("SELECT counter FROM ${ScyllaRDFSchema.Table.CARD_P} WHERE id = ?")
-        selectCardO = session.prepare("SELECT SUM(partitions_count) FROM system.size_estimates " +
-                "WHERE keyspace_name = '${session.loggedKeyspace}' AND table_name = '${ScyllaRDFSchema.Table.O_SPC}'")
+        selectAllCardP = session.prepare("SELECT id, counter FROM ${ScyllaRDFSchema.Table.CARD_P}")
         selectCardPO = session.prepare("SELECT counter FROM ${ScyllaRDFSchema.Table.CARD_PO} " +
                 "WHERE predicate = ? AND bucket = ?")
+        selectCardSketch = session.prepare("SELECT counter FROM ${ScyllaRDFSchema.Table.CARD_SKETCH} " +
+                "WHERE sketch = ? AND row = ? AND col = ?")
+        selectCardHll = session.prepare("SELECT registers FROM ${ScyllaRDFSchema.Table.CARD_HLL} " +
+                "WHERE id = ? AND kind = ?")
 
         prepIncCardC = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_C} " +
                 "SET counter = counter + ? WHERE id = ?")
+        prepIncCardTotal = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_TOTAL} " +
+                "SET counter = counter + ? WHERE shard = ?")
         prepIncCardP = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_P} " +
                 "SET counter = counter + ? WHERE id = ?")
         prepIncCardPO = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_PO} " +
                 "SET counter = counter + ? WHERE predicate = ? AND bucket = ?")
-
-        prepDecCardC = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_C} " +
-                "SET counter = counter - ? WHERE id = ?")
-        prepDecCardP = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_P} " +
-                "SET counter = counter - ? WHERE id = ?")
-        prepDecCardPO = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_PO} " +
-                "SET counter = counter - ? WHERE predicate = ? AND bucket = ?")
+        prepIncCardSketch = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_SKETCH} " +
+                "SET counter = counter + ? WHERE sketch = ? AND row = ? AND col = ?")
+        prepInsertCardHll = session.prepare("INSERT INTO ${ScyllaRDFSchema.Table.CARD_HLL} (id, kind, registers) " +
+                "VALUES (?, ?, ?) IF NOT EXISTS")
+        prepUpdateCardHll = session.prepare("UPDATE ${ScyllaRDFSchema.Table.CARD_HLL} " +
+                "SET registers = ? WHERE id = ? AND kind = ? IF registers = ?")
     }
 
     override fun withCache(): ICardinalityDAO {
-        return CachedCardinalityDAO(this)
+        return cache
     }
 
+    /**
+     * The sum of the shards of the total counter. Before the counter was sharded, the total was stored in
+     * [ScyllaRDFSchema.Table.CARD_C] with [ScyllaRDFSchema.CONTEXT_DEFAULT] id, so it's added too.
+     */
     override fun numTriples(): Long {
-        val row = session.execute(selectCardC.bind(ScyllaRDFSchema.CONTEXT_DEFAULT))
-                .one()
+        val legacy = session.execute(selectCardC.bind(ScyllaRDFSchema.CONTEXT_DEFAULT)).one()?.getLong(0) ?: 0L
+        val shards = session.execute(selectCardTotal.bind()).all().map { it.getLong(0) }.sum()
 
-        return row?.getLong(0) ?: 0L
+        return legacy + shards + accumulator.pendingTotal()
     }
 
     override fun contextCardinality(context: ByteBuffer?): Long {
-        val c = context ?: ScyllaRDFSchema.CONTEXT_DEFAULT
+        if (context == null || context == ScyllaRDFSchema.CONTEXT_DEFAULT) {
+            return numTriples()
+        }
 
-        val row = session.execute(selectCardC.bind(c)).one()
+        val row = session.execute(selectCardC.bind(context)).one()
 
-        return row?.getLong(0) ?: 0L
+        return (row?.getLong(0) ?: 0L) + accumulator.pendingContext(context)
     }
 
     override fun subjectCardinality(subj: ByteBuffer): Long {
-        val row = session.execute(selectCardS.bind()).one()
-
-        return row?.getLong(0) ?: 0L
+        return sketchEstimate(SKETCH.cells(CountMinSketch.Kind.SUBJECT, subj))
     }
 
     override fun predicateCardinality(pred: ByteBuffer): Long {
         val row = session.execute(selectCardP.bind(pred)).one()
 
-        return row?.getLong(0) ?: 0L
+        return (row?.getLong(0) ?: 0L) + accumulator.pendingPredicate(pred)
+    }
+
+    override fun predicateCardinalities(): Map<ByteBuffer, Long> {
+        val cardinalities = HashMap(accumulator.pendingPredicates())
+        session.execute(selectAllCardP.bind()).forEach { row ->
+            cardinalities.merge(row.getBytes(0), row.getLong(1)) { a, b -> a + b }
+        }
+
+        return cardinalities.filterValues { it > 0 }
     }
 
     override fun objectCardinality(obj: ByteBuffer): Long {
-        val row = session.execute(selectCardO.bind()).one()
+        return sketchEstimate(SKETCH.cells(CountMinSketch.Kind.OBJECT, obj))
+    }
 
-        return row?.getLong(0) ?: 0L
+    override fun subjectAndPredicateCardinality(subj: ByteBuffer, pred: ByteBuffer): Long {
+        return sketchEstimate(SKETCH.cells(CountMinSketch.Kind.SUBJECT_PREDICATE, subj, pred))
+    }
+
+    override fun tablePartitions(table: ScyllaRDFSchema.Table): Long? {
+        return partitionCounts?.partitions(table)
+    }
+
+    override fun predicateDistinctSubjects(pred: ByteBuffer): Long {
+        return distinctEstimate(DistinctKey(HyperLogLog.Kind.PREDICATE_SUBJECTS, pred))
+    }
+
+    override fun predicateDistinctObjects(pred: ByteBuffer): Long {
+        return distinctEstimate(DistinctKey(HyperLogLog.Kind.PREDICATE_OBJECTS, pred))
+    }
+
+    override fun contextDistinctSubjects(context: ByteBuffer): Long {
+        return distinctEstimate(DistinctKey(HyperLogLog.Kind.CONTEXT_SUBJECTS, context))
+    }
+
+    override fun contextDistinctObjects(context: ByteBuffer): Long {
+        return distinctEstimate(DistinctKey(HyperLogLog.Kind.CONTEXT_OBJECTS, context))
     }
 
     override fun objectAndPredicateCardinality(pred: ByteBuffer, obj: ByteBuffer): Long {
-        val bucket = objectToBucketNumber(obj)
+        return predicateBucketCardinality(pred, objectToBucketNumber(obj))
+    }
 
+    internal fun predicateBucketCardinality(pred: ByteBuffer, bucket: Int): Long {
         val row = session.execute(selectCardPO.bind().setBytesUnsafe(0, pred).setInt(1, bucket)).one()
 
-        return row?.getLong(0) ?: 0L
+        return (row?.getLong(0) ?: 0L) + accumulator.pendingPredicateBucket(pred, bucket)
     }
 
     override fun incrementCardC(context: ByteBuffer, add: Long): List<ResultSetFuture> {
@@ -118,13 +225,10 @@ internal class ScyllaRDFCardinalityDAO(private val session: Session) : AbstractS
         if (context != ScyllaRDFSchema.CONTEXT_DEFAULT) {
             futures.add(session.executeAsync(prepIncCardC.bind()
                     .setLong(0, add)
-                    .setBytesUnsafe(1, ScyllaRDFSchema.CONTEXT_DEFAULT)
+                    .setBytesUnsafe(1, context)
             ))
         }
-        futures.add(session.executeAsync(prepIncCardC.bind()
-                .setLong(0, add)
-                .setBytesUnsafe(1, context)
-        ))
+        futures.add(incrementCardTotal(add))
 
         return futures
     }
@@ -146,180 +250,308 @@ internal class ScyllaRDFCardinalityDAO(private val session: Session) : AbstractS
         )
     }
 
-    override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?)
-            : List<ResultSetFuture> {
-        val futures = ArrayList<ResultSetFuture>(3)
+    override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?) {
+        accumulate(subj, pred, obj, context, 1)
+    }
 
-        futures.addAll(incrementCardC(context ?: ScyllaRDFSchema.CONTEXT_DEFAULT, 1))
-        futures.add(incrementCardP(pred, 1))
-        futures.add(incrementCardPO(pred, obj, 1))
+    override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>) {
+        contexts.forEach { accumulate(subj, pred, obj, it, 1) }
+    }
 
-        return futures
+    override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?) {
+        accumulate(subj, pred, obj, context, -1)
     }
 
-    override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>)
-            : List<ResultSetFuture> {
-        val futures = mutableListOf<ResultSetFuture>()
+    override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>) {
+        contexts.forEach { accumulate(subj, pred, obj, it, -1) }
+    }
 
-        contexts
-                .map { incrementCards(subj, pred, obj, it) }
-                .forEach { futures.addAll(it) }
+    /**
+     * The deltas which aren't written, e.g. if a request fails, are kept pending and written by the next flush.
+     */
+    override fun flushCards() {
+        val deltas = accumulator.swap()
+        val size = deltas.size()
 
-        return futures
-    }
+        try {
+            if (!deltas.isEmpty()) {
+                writeDeltas(deltas)
 
-    private fun decrementCardC(context: ByteBuffer, add: Long): ResultSetFuture {
-        return session.executeAsync(prepDecCardC.bind()
-                .setLong(0, add)
-                .setBytesUnsafe(1, context)
-        )
+                LOG.debug("Flushed {} counters", size)
+            }
+        } finally {
+            accumulator.restore(deltas)
+            cache.invalidate(deltas)
+        }
     }
 
-    private fun decrementCardP(pred: ByteBuffer, add: Long): ResultSetFuture {
-        return session.executeAsync(prepDecCardP.bind()
-                .setLong(0, add)
-                .setBytesUnsafe(1, pred)
-        )
-    }
+    /**
+     * Each delta is subtracted from the deltas once it's written, so it's counted either as stored or as pending.
+     * If a submit fails, the requests in flight are waited for anyway, so none of them subtracts its delta after
+     * the deltas are restored.
+     */
+    private fun writeDeltas(deltas: CardinalityAccumulator.Deltas) {
+        val window = InFlightWindow(MAX_CONCURRENT_FLUSH_QUERIES)
 
-    private fun decrementCardPO(pred: ByteBuffer, obj: ByteBuffer, add: Long): ResultSetFuture {
-        val bucket = objectToBucketNumber(obj)
+        try {
+            submitDeltas(deltas, window)
+        } catch (ex: Exception) {
+            window.awaitCompletion()
 
-        return session.executeAsync(prepDecCardPO.bind()
-                .setLong(0, add)
-                .setBytesUnsafe(1, pred)
-                .setInt(2, bucket)
-        )
+            throw ex
+        }
+
+        window.await()
+
+        deltas.distinct.forEach { key, sketch ->
+            if (mergeDistinct(key, sketch)) {
+                deltas.distinct.remove(key)
+            }
+        }
     }
 
-    override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?): List<ResultSetFuture> {
-        val futures = ArrayList<ResultSetFuture>(3)
+    private fun submitDeltas(deltas: CardinalityAccumulator.Deltas, window: InFlightWindow) {
+        val total = deltas.total.sum()
+        if (total != 0L) {
+            window.submit { listOf(onWritten(incrementCardTotal(total)) { deltas.total.add(-total) }) }
+        }
+        deltas.contexts.forEach { context, delta ->
+            val add = delta.sum()
+            if (add != 0L) {
+                window.submit {
+                    val future = session.executeAsync(prepIncCardC.bind().setLong(0, add).setBytesUnsafe(1, context))
+                    listOf(onWritten(future) { delta.add(-add) })
+                }
+            }
+        }
+        deltas.predicates.forEach { pred, delta ->
+            val add = delta.sum()
+            if (add != 0L) {
+                window.submit { listOf(onWritten(incrementCardP(pred, add)) { delta.add(-add) }) }
+            }
+        }
+        deltas.predicateBuckets.forEach { key, delta ->
+            val add = delta.sum()
+            if (add != 0L) {
+                window.submit {
+                    listOf(onWritten(session.executeAsync(prepIncCardPO.bind()
+                        .setLong(0, add)
+                        .setBytesUnsafe(1, key.pred)
+                        .setInt(2, key.bucket)
+                    )) { delta.add(-add) })
+                }
+            }
+        }
 
-        futures.add(decrementCardC(context ?: ScyllaRDFSchema.CONTEXT_DEFAULT, 1))
-        futures.add(decrementCardP(pred, 1))
-        futures.add(decrementCardPO(pred, obj, 1))
+        deltas.sketchCells.entries
+            .map { Triple(it.key, it.value, it.value.sum()) }
+            .filter { it.third != 0L }
+            .groupBy { Pair(it.first.kind, it.first.row) }
+            .values
+            .flatMap { it.chunked(SKETCH_BATCH_SIZE) }
+            .forEach { chunk ->
+                val batch = BatchStatement(BatchStatement.Type.COUNTER)
+                chunk.forEach { (cell, _, add) ->
+                    batch.add(prepIncCardSketch.bind()
+                        .setLong(0, add)
+                        .setInt(1, cell.kind.id)
+                        .setInt(2, cell.row)
+                        .setInt(3, cell.column))
+                }
 
-        return futures
+                window.submit {
+                    listOf(onWritten(session.executeAsync(batch)) {
+                        chunk.forEach { (_, delta, add) -> delta.add(-add) }
+                    })
+                }
+            }
     }
 
-    override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>): List<ResultSetFuture> {
-        val futures = mutableListOf<ResultSetFuture>()
+    override fun discardCards() {
+        accumulator.discard(null)
+    }
 
-        contexts
-                .map { decrementCards(subj, pred, obj, it) }
-                .forEach { futures.addAll(it) }
+    /**
+     * The returned DAO shares only the session with this one, it's never flushed in background, so it doesn't
+     * need to be closed.
+     */
+    override fun withOwnDeltas(): ICardinalityDAO {
+        val dao = ScyllaRDFCardinalityDAO(session, 0, 0)
+        dao.prepareStatements()
 
-        return futures
+        return dao
     }
 
-    override fun clearContext(context: ByteBuffer?) {
-        if (context == null || context == ScyllaRDFSchema.CONTEXT_DEFAULT) {
-            waitUntilDone(
-                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_C}"),
-                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_P}"),
-                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_PO}")
-            )
-        } else {
-            session.execute("DELETE FROM ${ScyllaRDFSchema.Table.CARD_C} WHERE id = ?", context)
-        }
-    }
+    /**
+     * Flushes the pending deltas and stops the periodic flush.
+     */
+    override fun close() {
+        flushExecutor.shutdown()
+        flushExecutor.awaitTermination(1, TimeUnit.MINUTES)
 
-    private fun objectToBucketNumber(obj: ByteBuffer): Int {
-        return Hashing.consistentHash(HashCode.fromInt(obj.hashCode()), ScyllaRDFSchema.CARD_PO_NUM_BUCKETS)
+        flushCards()
+
+        cache.close()
+        partitionCounts?.close()
     }
 
-    private class CachedCardinalityDAO(private val wrapped: ScyllaRDFCardinalityDAO) : ICardinalityDAO {
+    private fun accumulate(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?, delta: Long) {
+        val cells = SKETCH.cells(CountMinSketch.Kind.SUBJECT, subj) +
+            SKETCH.cells(CountMinSketch.Kind.OBJECT, obj) +
+            SKETCH.cells(CountMinSketch.Kind.SUBJECT_PREDICATE, subj, pred)
 
-        companion object {
-            private const val SCYLLA_ESTIMATOR_CARD_S = 0
-            private const val SCYLLA_ESTIMATOR_CARD_O = 1
-            private const val INDEX_NUM_TRIPLES = 2
-        }
+        accumulator.add(context ?: ScyllaRDFSchema.CONTEXT_DEFAULT, pred, objectToBucketNumber(obj), delta, cells)
 
-        private val nonEvictingCache = CacheBuilder
-                .newBuilder()
-                .initialCapacity(3)
-                .refreshAfterWrite(60, TimeUnit.SECONDS)
-                .build<Int, Long>(CacheLoader.from(scyllaEstimatesCacheLoader()))
-        private val evictingCache = CacheBuilder
-                .newBuilder()
-                .maximumSize(1000)
-                .expireAfterAccess(5, TimeUnit.MINUTES)
-                .build<ByteBuffer, Long>()
-
-        override fun withCache(): ICardinalityDAO {
-            throw IllegalStateException("Can't create the cached version of cached version!")
-        }
+        if (delta > 0) {
+            val subjHash = HyperLogLog.hash(subj)
+            val objHash = HyperLogLog.hash(obj)
 
-        override fun numTriples(): Long {
-            return nonEvictingCache.get(INDEX_NUM_TRIPLES)
+            accumulator.addDistinct(DistinctKey(HyperLogLog.Kind.PREDICATE_SUBJECTS, pred), subjHash)
+            accumulator.addDistinct(DistinctKey(HyperLogLog.Kind.PREDICATE_OBJECTS, pred), objHash)
+            if (context != null && context != ScyllaRDFSchema.CONTEXT_DEFAULT) {
+                accumulator.addDistinct(DistinctKey(HyperLogLog.Kind.CONTEXT_SUBJECTS, context), subjHash)
+                accumulator.addDistinct(DistinctKey(HyperLogLog.Kind.CONTEXT_OBJECTS, context), objHash)
+            }
         }
 
-        override fun contextCardinality(context: ByteBuffer?): Long {
-            return evictingCache.get(context ?: ScyllaRDFSchema.CONTEXT_DEFAULT) {
-                wrapped.contextCardinality(context)
+        if (flushThreshold > 0 && accumulator.size() >= flushThreshold && flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute {
+                flushScheduled.set(false)
+                flushQuietly()
             }
         }
+    }
 
-        override fun subjectCardinality(subj: ByteBuffer): Long {
-            return nonEvictingCache.get(SCYLLA_ESTIMATOR_CARD_S)
+    private fun flushQuietly() {
+        try {
+            flushCards()
+        } catch (ex: Exception) {
+            LOG.error("Failed to flush the cardinality counters!", ex)
         }
+    }
 
-        override fun predicateCardinality(pred: ByteBuffer): Long {
-            return evictingCache.get(pred) { wrapped.predicateCardinality(pred) }
-        }
+    private fun onWritten(future: ResultSetFuture, block: () -> Unit): ResultSetFuture {
+        Futures.addCallback(future, object : FutureCallback<ResultSet> {
+            override fun onSuccess(result: ResultSet?) {
+                block()
+            }
 
-        override fun objectCardinality(obj: ByteBuffer): Long {
-            return nonEvictingCache.get(SCYLLA_ESTIMATOR_CARD_O)
-        }
+            override fun onFailure(t: Throwable) {
+            }
+        }, MoreExecutors.directExecutor())
+
+        return future
+    }
+
+    private fun incrementCardTotal(add: Long): ResultSetFuture {
+        val shard = ThreadLocalRandom.current().nextInt(ScyllaRDFSchema.CARD_TOTAL_NUM_SHARDS)
+
+        return session.executeAsync(prepIncCardTotal.bind().setLong(0, add).setInt(1, shard))
+    }
 
-        override fun objectAndPredicateCardinality(pred: ByteBuffer, obj: ByteBuffer): Long {
-            return evictingCache.get(ByteBuffer.wrap(Bytes.concat(pred.array(), obj.array()))) {
-                wrapped.objectAndPredicateCardinality(pred, obj)
+    /**
+     * The pending deltas of the context are dropped. The size of a non-default context is subtracted
+     * from the total, the pending deltas are flushed first, so the size isn't written after it's subtracted.
+     */
+    override fun clearContext(context: ByteBuffer?) {
+        if (context == null || context == ScyllaRDFSchema.CONTEXT_DEFAULT) {
+            accumulator.discard(null)
+
+            waitUntilDone(
+                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_C}"),
+                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_TOTAL}"),
+                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_P}"),
+                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_PO}"),
+                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_SKETCH}"),
+                    session.executeAsync("TRUNCATE TABLE ${ScyllaRDFSchema.Table.CARD_HLL}")
+            )
+        } else {
+            flushCards()
+            accumulator.discard(context)
+
+            val size = contextCardinality(context)
+            if (size != 0L) {
+                waitUntilDone(incrementCardTotal(-size))
             }
-        }
 
-        override fun incrementCardC(context: ByteBuffer, add: Long): List<ResultSetFuture> {
-            return wrapped.incrementCardC(context, add)
+            session.execute("DELETE FROM ${ScyllaRDFSchema.Table.CARD_C} WHERE id = ?", context)
+            session.execute("DELETE FROM ${ScyllaRDFSchema.Table.CARD_HLL} WHERE id = ? AND kind IN ?", context,
+                listOf(HyperLogLog.Kind.CONTEXT_SUBJECTS.id, HyperLogLog.Kind.CONTEXT_OBJECTS.id))
         }
 
-        override fun incrementCardP(pred: ByteBuffer, add: Long): ResultSetFuture {
-            return wrapped.incrementCardP(pred, add)
-        }
+        cache.invalidateAll()
+    }
 
-        override fun incrementCardPO(pred: ByteBuffer, obj: ByteBuffer, add: Long): ResultSetFuture {
-            return wrapped.incrementCardPO(pred, obj, add)
+    /**
+     * The smallest of the item's counters, the cells are read concurrently.
+     */
+    private fun sketchEstimate(cells: List<CountMinSketch.Cell>): Long {
+        val futures = cells.map {
+            session.executeAsync(selectCardSketch.bind().setInt(0, it.kind.id).setInt(1, it.row).setInt(2, it.column))
         }
 
-        override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?): List<ResultSetFuture> {
-            return wrapped.incrementCards(subj, pred, obj, context)
-        }
+        return cells.zip(futures)
+            .map { (cell, future) ->
+                (future.getUninterruptibly().one()?.getLong(0) ?: 0L) + accumulator.pendingSketchCell(cell)
+            }
+            .min() ?: 0L
+    }
 
-        override fun incrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>): List<ResultSetFuture> {
-            return wrapped.incrementCards(subj, pred, obj, contexts)
-        }
+    private fun distinctEstimate(key: DistinctKey): Long {
+        val stored = readDistinct(key)
+        val pending = accumulator.pendingDistinct(key)
 
-        override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?): List<ResultSetFuture> {
-            return wrapped.decrementCards(subj, pred, obj, context)
-        }
+        return (if (pending == null) stored else stored.merge(pending)).estimate()
+    }
 
-        override fun decrementCards(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, contexts: List<ByteBuffer?>): List<ResultSetFuture> {
-            return wrapped.decrementCards(subj, pred, obj, contexts)
-        }
+    private fun readDistinct(key: DistinctKey): HyperLogLog {
+        val row = session.execute(selectCardHll.bind().setBytesUnsafe(0, key.id).setInt(1, key.kind.id)).one()
 
-        override fun clearContext(context: ByteBuffer?) {
-            wrapped.clearContext(context)
-        }
+        return HyperLogLog.fromByteBuffer(row?.getBytes(0))
+    }
 
-        private fun scyllaEstimatesCacheLoader(): Function<Int, Long> {
-            return Function {
-                when (it) {
-                    SCYLLA_ESTIMATOR_CARD_S -> wrapped.subjectCardinality(ByteBuffer.allocate(0))
-                    SCYLLA_ESTIMATOR_CARD_O -> wrapped.objectCardinality(ByteBuffer.allocate(0))
-                    INDEX_NUM_TRIPLES -> wrapped.numTriples()
-                    else -> throw IllegalArgumentException()
-                }
+    /**
+     * Merges the pending sketch into the stored one. The stored sketch is replaced only if it hasn't been changed
+     * since it was read, otherwise the merge is retried with the current one.
+     *
+     * @return false if the sketch isn't merged, since it's changed concurrently
+     */
+    private fun mergeDistinct(key: DistinctKey, pending: HyperLogLog): Boolean {
+        var row = session.execute(selectCardHll.bind().setBytesUnsafe(0, key.id).setInt(1, key.kind.id)).one()
+
+        repeat(MAX_DISTINCT_MERGE_ATTEMPTS) {
+            val stored = row?.getBytes("registers")
+            val merged = HyperLogLog.fromByteBuffer(stored).merge(pending)
+            if (stored != null && merged == HyperLogLog.fromByteBuffer(stored)) {
+                return true
+            }
+
+            val result = if (stored == null) {
+                session.execute(prepInsertCardHll.bind()
+                    .setBytesUnsafe(0, key.id)
+                    .setInt(1, key.kind.id)
+                    .setBytes(2, merged.toByteBuffer()))
+            } else {
+                session.execute(prepUpdateCardHll.bind()
+                    .setBytes(0, merged.toByteBuffer())
+                    .setBytesUnsafe(1, key.id)
+                    .setInt(2, key.kind.id)
+                    .setBytes(3, stored))
+            }
+            if (result.wasApplied()) {
+                return true
             }
+
+            // The current value is returned if the condition isn't met
+            row = result.one()
         }
+
+        LOG.warn("Failed to merge the sketch of distinct items of kind {}, it's changed concurrently", key.kind)
+
+        return false
+    }
+
+    internal fun objectToBucketNumber(obj: ByteBuffer): Int {
+        return Hashing.consistentHash(HashCode.fromInt(obj.hashCode()), ScyllaRDFSchema.CARD_PO_NUM_BUCKETS)
     }
 }
\ No newline at end of file
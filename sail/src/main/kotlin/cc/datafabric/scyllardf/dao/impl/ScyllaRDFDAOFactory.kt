@@ -3,6 +3,8 @@ package cc.datafabric.scyllardf.dao.impl
 import cc.datafabric.scyllardf.dao.ICardinalityDAO
 import cc.datafabric.scyllardf.dao.IDictionaryDAO
 import cc.datafabric.scyllardf.dao.IIndexDAO
+import cc.datafabric.scyllardf.dao.IStatisticsDAO
+import com.codahale.metrics.MetricRegistry
 import com.datastax.driver.core.Cluster
 import com.datastax.driver.core.ConsistencyLevel
 import com.datastax.driver.core.HostDistance
@@ -24,16 +26,24 @@ import java.net.InetAddress
 class ScyllaRDFDAOFactory private constructor(
     private val cluster: Cluster,
     private val keyspace: String,
-    private val replicationFactor: Int
+    private val replicationFactor: Int,
+    private val options: ScyllaRDFDAOOptions
 ) : Closeable {
 
     companion object {
         private val LOG = LoggerFactory.getLogger(ScyllaRDFDAOFactory::class.java)
 
-        fun create(hosts: List<InetAddress>, port: Int, keyspace: String, replicationFactor: Int): ScyllaRDFDAOFactory {
+        fun create(
+            hosts: List<InetAddress>,
+            port: Int,
+            keyspace: String,
+            replicationFactor: Int,
+            options: ScyllaRDFDAOOptions = ScyllaRDFDAOOptions()
+        ): ScyllaRDFDAOFactory {
             return create(hosts, port, keyspace, replicationFactor, PoolingOptions()
                 .setMaxRequestsPerConnection(HostDistance.LOCAL, 1024)
-                .setMaxRequestsPerConnection(HostDistance.REMOTE, 256)
+                .setMaxRequestsPerConnection(HostDistance.REMOTE, 256),
+                options
             )
         }
 
@@ -41,7 +51,8 @@ class ScyllaRDFDAOFactory private constructor(
             hosts: List<InetAddress>,
             port: Int, keyspace: String,
             replicationFactor: Int,
-            poolingOptions: PoolingOptions
+            poolingOptions: PoolingOptions,
+            options: ScyllaRDFDAOOptions = ScyllaRDFDAOOptions()
         ): ScyllaRDFDAOFactory {
             val cluster = Cluster.builder()
                 .addContactPoints(hosts)
@@ -52,7 +63,7 @@ class ScyllaRDFDAOFactory private constructor(
                 .withRetryPolicy(LoggingRetryPolicy(TolerantRetryPolicy()))
                 .build()
 
-            val dao = ScyllaRDFDAOFactory(cluster, keyspace, replicationFactor)
+            val dao = ScyllaRDFDAOFactory(cluster, keyspace, replicationFactor, options)
             dao.initialize()
 
             return dao
@@ -68,18 +79,30 @@ class ScyllaRDFDAOFactory private constructor(
                 .withPort(port)
                 .build()
 
-            val dao = ScyllaRDFDAOFactory(cluster, keyspace, replicationFactor)
+            val dao = ScyllaRDFDAOFactory(cluster, keyspace, replicationFactor, ScyllaRDFDAOOptions())
             dao.initialize()
 
             return dao
         }
     }
 
-    private val session: Session = cluster.connect()
+    private val rawSession: Session = cluster.connect()
+
+    /**
+     * The driver's registry is reported via JMX, so the metrics of the DAOs are exported along with the driver's ones.
+     */
+    val metrics: MetricRegistry = cluster.metrics?.registry ?: MetricRegistry()
+
+    /**
+     * The session shared by all DAOs, it limits the number of requests in flight.
+     */
+    private val session: Session = ThrottledSession(
+        rawSession, RequestLimiter(options.maxConcurrentRequests, metrics))
 
     private lateinit var cardinalityDAO: ScyllaRDFCardinalityDAO
     private lateinit var dictionaryDAO: ScyllaRDFDictionaryDAO
     private lateinit var indexDAO: ScyllaRDFIndexDAO
+    private lateinit var statisticsDAO: ScyllaRDFStatisticsDAO
 
     private fun initialize() {
         val protocolVersion = cluster.configuration.protocolOptions.protocolVersion?.toInt()
@@ -90,7 +113,18 @@ class ScyllaRDFDAOFactory private constructor(
         session.execute("USE $keyspace")
 
         // Cardinality DAO
-        cardinalityDAO = ScyllaRDFCardinalityDAO(session)
+        val partitionCounts = if (options.jmxEnabled) {
+            ScyllaJMXPartitionCounts(
+                keyspace, replicationFactor,
+                { cluster.metadata.allHosts.filter { it.isUp }.map { it.address.hostAddress } },
+                { host -> ScyllaJMXDAO.create(host, options.jmxPort) },
+                options.jmxRefreshMillis)
+        } else {
+            null
+        }
+        cardinalityDAO = ScyllaRDFCardinalityDAO(
+            session, options.cardinalityFlushIntervalMillis, options.cardinalityFlushThreshold,
+            options.statisticsCacheSize, options.statisticsRefreshMillis, metrics, partitionCounts)
         cardinalityDAO.createTables()
         cardinalityDAO.prepareStatements()
 
@@ -100,9 +134,18 @@ class ScyllaRDFDAOFactory private constructor(
         dictionaryDAO.prepareStatements()
 
         // Index DAO
-        indexDAO = ScyllaRDFIndexDAO(session)
+        indexDAO = ScyllaRDFIndexDAO(
+            session, options.batchSize, metrics, options.fetchSize, options.prefetchRatio,
+            options.scanParallelism, options.scanFetchSize, options.dropParallelism, options.dropMaxInFlight)
         indexDAO.createTables()
         indexDAO.prepareStatements()
+
+        // Statistics DAO
+        statisticsDAO = ScyllaRDFStatisticsDAO(
+            session, options.statisticsSampleRatio, options.statisticsMaxRowsPerSecond, options.fetchSize)
+        statisticsDAO.createTables()
+        statisticsDAO.prepareStatements()
+        statisticsDAO.reloadLatestSnapshot()
     }
 
     fun getCardinalityDAO(): ICardinalityDAO {
@@ -117,7 +160,15 @@ class ScyllaRDFDAOFactory private constructor(
         return dictionaryDAO
     }
 
+    fun getStatisticsDAO(): IStatisticsDAO {
+        return statisticsDAO
+    }
+
     override fun close() {
+        if (this::cardinalityDAO.isInitialized) {
+            cardinalityDAO.close()
+        }
+
         cluster.close()
     }
 
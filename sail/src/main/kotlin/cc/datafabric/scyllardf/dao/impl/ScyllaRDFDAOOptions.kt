@@ -0,0 +1,107 @@
+package cc.datafabric.scyllardf.dao.impl
+
+/**
+ * Tuning options of the DAOs created by [ScyllaRDFDAOFactory].
+ */
+data class ScyllaRDFDAOOptions(
+    /**
+     * Max number of statements in an UNLOGGED batch sent to a single partition.
+     */
+    val batchSize: Int = DEFAULT_BATCH_SIZE,
+
+    /**
+     * Max number of requests being in flight, shared by all DAOs.
+     */
+    val maxConcurrentRequests: Int = DEFAULT_MAX_CONCURRENT_REQUESTS,
+
+    /**
+     * Interval between flushes of the accumulated deltas of the cardinality counters.
+     */
+    val cardinalityFlushIntervalMillis: Long = DEFAULT_CARDINALITY_FLUSH_INTERVAL_MILLIS,
+
+    /**
+     * Number of counters with pending deltas which triggers a flush before the interval elapses.
+     */
+    val cardinalityFlushThreshold: Int = DEFAULT_CARDINALITY_FLUSH_THRESHOLD,
+
+    /**
+     * Max number of entries of the statistics cache shared by all connections.
+     */
+    val statisticsCacheSize: Long = DEFAULT_STATISTICS_CACHE_SIZE,
+
+    /**
+     * Entries of the statistics cache older than this are reloaded in background on the next read.
+     */
+    val statisticsRefreshMillis: Long = DEFAULT_STATISTICS_REFRESH_MILLIS,
+
+    /**
+     * Part of the token ring read by a collection of the statistics snapshot.
+     */
+    val statisticsSampleRatio: Double = DEFAULT_STATISTICS_SAMPLE_RATIO,
+
+    /**
+     * Max number of rows per second read by a collection of the statistics snapshot.
+     */
+    val statisticsMaxRowsPerSecond: Double = DEFAULT_STATISTICS_MAX_ROWS_PER_SECOND,
+
+    /**
+     * If enabled, numbers of partitions of the index tables are polled from every node via JMX.
+     */
+    val jmxEnabled: Boolean = false,
+    val jmxPort: Int = ScyllaJMXDAO.DEFAULT_PORT,
+
+    /**
+     * Interval between polls of the numbers of partitions.
+     */
+    val jmxRefreshMillis: Long = DEFAULT_JMX_REFRESH_MILLIS,
+
+    /**
+     * Default number of rows in a page of a statement query.
+     */
+    val fetchSize: Int = DEFAULT_FETCH_SIZE,
+
+    /**
+     * The next page of a statement query is fetched in background once this part of the current page is consumed.
+     */
+    val prefetchRatio: Double = DEFAULT_PREFETCH_RATIO,
+
+    /**
+     * Number of token ranges read concurrently by a full scan.
+     */
+    val scanParallelism: Int = DEFAULT_SCAN_PARALLELISM,
+
+    /**
+     * Number of rows in a page of a full scan or of a partition read while a graph is dropped.
+     */
+    val scanFetchSize: Int = DEFAULT_SCAN_FETCH_SIZE,
+
+    /**
+     * Number of token ranges read concurrently while a graph is dropped.
+     */
+    val dropParallelism: Int = DEFAULT_DROP_PARALLELISM,
+
+    /**
+     * Max number of partitions of a dropped graph being removed concurrently.
+     */
+    val dropMaxInFlight: Int = DEFAULT_DROP_MAX_IN_FLIGHT
+) {
+
+    companion object {
+        const val DEFAULT_BATCH_SIZE = 32
+        const val DEFAULT_MAX_CONCURRENT_REQUESTS = 1024
+        const val DEFAULT_CARDINALITY_FLUSH_INTERVAL_MILLIS = 1000L
+        const val DEFAULT_CARDINALITY_FLUSH_THRESHOLD = 10000
+        const val DEFAULT_STATISTICS_CACHE_SIZE = 10000L
+        const val DEFAULT_STATISTICS_REFRESH_MILLIS = 60000L
+        const val DEFAULT_STATISTICS_SAMPLE_RATIO = 0.05
+        const val DEFAULT_STATISTICS_MAX_ROWS_PER_SECOND = 20000.0
+        const val DEFAULT_JMX_REFRESH_MILLIS = 300000L
+        const val DEFAULT_FETCH_SIZE = 5000
+        const val DEFAULT_PREFETCH_RATIO = 0.5
+        const val DEFAULT_SCAN_PARALLELISM = 8
+        const val DEFAULT_SCAN_FETCH_SIZE = 5000
+        const val DEFAULT_DROP_PARALLELISM = 8
+        const val DEFAULT_DROP_MAX_IN_FLIGHT = 256
+    }
+
+}
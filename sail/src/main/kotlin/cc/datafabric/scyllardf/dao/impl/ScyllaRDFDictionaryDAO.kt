@@ -1,11 +1,10 @@
 package cc.datafabric.scyllardf.dao.impl
 
 import cc.datafabric.scyllardf.dao.IDictionaryDAO
+import cc.datafabric.scyllardf.dao.InFlightWindow
 import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
 import com.datastax.driver.core.PreparedStatement
-import com.datastax.driver.core.ResultSetFuture
 import com.datastax.driver.core.Session
-import com.google.common.util.concurrent.Futures
 import org.eclipse.rdf4j.model.IRI
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory
 import java.nio.ByteBuffer
@@ -41,19 +40,18 @@ internal class ScyllaRDFDictionaryDAO(private val session: Session) : IDictionar
     }
 
     override fun saveKnownVocabulariesDictionary(dictionary: Map<IRI, ByteBuffer>) {
-        var batch = mutableListOf<ResultSetFuture>()
-        dictionary.forEach { key, value ->
-            batch.add(session.executeAsync(prepInsertKnownVocabulariesDictionary.bind()
-                .setString(0, key.stringValue())
-                .setBytesUnsafe(1, value)
-            ))
-
-            if (batch.size > MAX_CONCURRENT_ASYNC_QUERIES) {
-                Futures.allAsList(batch).get()
+        val window = InFlightWindow(MAX_CONCURRENT_ASYNC_QUERIES)
 
-                batch = mutableListOf<ResultSetFuture>()
+        dictionary.forEach { key, value ->
+            window.submit {
+                listOf(session.executeAsync(prepInsertKnownVocabulariesDictionary.bind()
+                    .setString(0, key.stringValue())
+                    .setBytesUnsafe(1, value)
+                ))
             }
         }
+
+        window.await()
     }
 
 }
\ No newline at end of file
@@ -1,20 +1,81 @@
 package cc.datafabric.scyllardf.dao.impl
 
 import cc.datafabric.scyllardf.dao.IIndexDAO
+import cc.datafabric.scyllardf.dao.InFlightWindow
 import cc.datafabric.scyllardf.dao.MultipleResultSetFutureIteration
 import cc.datafabric.scyllardf.dao.ResultSetFutureIteration
 import cc.datafabric.scyllardf.dao.SPOCIteration
 import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
 import cc.datafabric.scyllardf.dao.ScyllaRDFSchema.EMPTY_PREFIX
 import cc.datafabric.scyllardf.dao.TransformRowIteration
+import com.codahale.metrics.MetricRegistry
+import com.datastax.driver.core.BoundStatement
 import com.datastax.driver.core.PreparedStatement
+import com.datastax.driver.core.ResultSet
 import com.datastax.driver.core.ResultSetFuture
 import com.datastax.driver.core.Session
+import com.datastax.driver.core.Statement
+import com.google.common.base.Function
+import com.google.common.util.concurrent.AsyncFunction
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
 import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration
 import org.eclipse.rdf4j.sail.SailException
+import org.slf4j.LoggerFactory
 import java.nio.ByteBuffer
+import java.util.EnumMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
-internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaRDFDAO(), IIndexDAO {
+internal class ScyllaRDFIndexDAO(
+    private val session: Session,
+    batchSize: Int = ScyllaRDFDAOOptions.DEFAULT_BATCH_SIZE,
+    metrics: MetricRegistry = MetricRegistry(),
+    private val fetchSize: Int = ScyllaRDFDAOOptions.DEFAULT_FETCH_SIZE,
+    private val prefetchRatio: Double = ScyllaRDFDAOOptions.DEFAULT_PREFETCH_RATIO,
+    scanParallelism: Int = ScyllaRDFDAOOptions.DEFAULT_SCAN_PARALLELISM,
+    private val scanFetchSize: Int = ScyllaRDFDAOOptions.DEFAULT_SCAN_FETCH_SIZE,
+    private val dropParallelism: Int = ScyllaRDFDAOOptions.DEFAULT_DROP_PARALLELISM,
+    private val dropMaxInFlight: Int = ScyllaRDFDAOOptions.DEFAULT_DROP_MAX_IN_FLIGHT
+) : AbstractScyllaRDFDAO(), IIndexDAO {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(ScyllaRDFIndexDAO::class.java)
+
+        private const val REMOVE_CHUNK_SIZE = 1000
+
+        private const val DROP_PROGRESS_INTERVAL = 10000L
+
+        private const val ALLOW_FILTERING = " ALLOW FILTERING"
+
+        private val CONTEXT_TABLES = setOf(
+            ScyllaRDFSchema.Table.CS_PO, ScyllaRDFSchema.Table.CP_OS, ScyllaRDFSchema.Table.CO_SP)
+
+        /**
+         * The partition key and the first clustering column of the indexes of all contexts.
+         */
+        private val INDEX_COLUMNS = mapOf(
+            ScyllaRDFSchema.Table.S_POC to Pair("subject", "predicate"),
+            ScyllaRDFSchema.Table.P_OSC to Pair("predicate", "object"),
+            ScyllaRDFSchema.Table.O_SPC to Pair("object", "subject")
+        )
+    }
+
+    private val batchWriter = ScyllaRDFBatchWriter(session, batchSize, metrics)
+    private val scanner = TokenRangeScanner(session, scanParallelism, fetchSize)
+    private val limitedStatements = ConcurrentHashMap<PreparedStatement, PreparedStatement>()
+    private val countStatements = ConcurrentHashMap<PreparedStatement, PreparedStatement>()
+
+    private val selectKeysByTokenRange = EnumMap<ScyllaRDFSchema.Table, PreparedStatement>(
+        ScyllaRDFSchema.Table::class.java)
+    private val selectClusteringValues = EnumMap<ScyllaRDFSchema.Table, PreparedStatement>(
+        ScyllaRDFSchema.Table::class.java)
+    private val selectFirstClusteringValue = EnumMap<ScyllaRDFSchema.Table, PreparedStatement>(
+        ScyllaRDFSchema.Table::class.java)
+    private val selectNextClusteringValue = EnumMap<ScyllaRDFSchema.Table, PreparedStatement>(
+        ScyllaRDFSchema.Table::class.java)
 
     private lateinit var prepGetContextIds: PreparedStatement
     private lateinit var prepGetNamespaces: PreparedStatement
@@ -24,9 +85,15 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
     private lateinit var prepDeleteNamespace: PreparedStatement
 
     private lateinit var selectSPOCByS: PreparedStatement
+    private lateinit var selectSPOCBySPredicates: PreparedStatement
     private lateinit var selectSPOCBySP: PreparedStatement
     private lateinit var selectSPOCBySPO: PreparedStatement
     private lateinit var selectSPOC: PreparedStatement
+    private lateinit var selectSPOCBySPOC: PreparedStatement
+    private lateinit var selectSPOCByTokenRange: PreparedStatement
+    private lateinit var selectCSPOKeysByTokenRange: PreparedStatement
+    private lateinit var selectCPOSKeysByTokenRange: PreparedStatement
+    private lateinit var selectCOSPKeysByTokenRange: PreparedStatement
     private lateinit var selectPOSCByP: PreparedStatement
     private lateinit var selectPOSCByPO: PreparedStatement
     private lateinit var selectOSPCByO: PreparedStatement
@@ -54,6 +121,13 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
     private lateinit var deleteCPOS: PreparedStatement
     private lateinit var deleteCOSP: PreparedStatement
 
+    private lateinit var deleteSPOCByS: PreparedStatement
+    private lateinit var deletePOSCByP: PreparedStatement
+    private lateinit var deleteOSPCByO: PreparedStatement
+    private lateinit var deleteCSPOByCS: PreparedStatement
+    private lateinit var deleteCPOSByCP: PreparedStatement
+    private lateinit var deleteCOSPByCO: PreparedStatement
+
     override fun insertInSPOC(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer): ResultSetFuture {
         return session.executeAsync(setBytesUnsafe(insertSPOC.bind(), subj, pred, obj, context))
     }
@@ -92,18 +166,93 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
         if (context == null || context == ScyllaRDFSchema.CONTEXT_DEFAULT) {
             clearAllContexts()
         } else {
-            session.execute(setBytesUnsafe(selectCSPOByC.bind(), context)).forEach {
-                waitUntilDone(
-                        session.executeAsync(setBytesUnsafe(deleteSPOC.bind(), it)),
-                        session.executeAsync(setBytesUnsafe(deletePOSC.bind(), it)),
-                        session.executeAsync(setBytesUnsafe(deleteOSPC.bind(), it)),
-
-                        session.executeAsync(setBytesUnsafe(deleteCPOS.bind(), it)),
-                        session.executeAsync(setBytesUnsafe(deleteCOSP.bind(), it)),
-                        session.executeAsync(setBytesUnsafe(deleteCSPO.bind(), it))
-                )
+            dropContext(context)
+        }
+    }
+
+    /**
+     * Partitions of the context indexes are found by parallel scans of partition keys. The context is only a part
+     * of the partition keys, so the keys of all contexts are read and the ones of other contexts are skipped.
+     *
+     * Each CS_PO partition is removed asynchronously, at most [dropMaxInFlight] at once: its quads are removed from
+     * the default indexes in batches page by page, then the partition is removed by a partition delete. The same is
+     * done for the partitions of the other context indexes. The scanners only block while the window is full.
+     */
+    private fun dropContext(context: ByteBuffer) {
+        val started = System.currentTimeMillis()
+        val window = InFlightWindow(dropMaxInFlight)
+        val partitions = AtomicLong()
+        val removed = AtomicLong()
+        val dropScanner = TokenRangeScanner(session, dropParallelism, scanFetchSize)
+
+        dropScanner.forEach(selectCSPOKeysByTokenRange) { row ->
+            if (row.getBytesUnsafe(0) == context) {
+                val subj = row.getBytesUnsafe(1)
+
+                window.submit { listOf(dropCSPOPartition(context, subj, removed)) }
+
+                if (partitions.incrementAndGet() % DROP_PROGRESS_INTERVAL == 0L) {
+                    LOG.info("Dropping the graph: {} statements of {} subjects removed",
+                        removed.get(), partitions.get())
+                }
+            }
+        }
+        dropScanner.forEach(selectCPOSKeysByTokenRange) { row ->
+            if (row.getBytesUnsafe(0) == context) {
+                val pred = row.getBytesUnsafe(1)
+
+                window.submit { listOf(session.executeAsync(setBytesUnsafe(deleteCPOSByCP.bind(), context, pred))) }
+            }
+        }
+        dropScanner.forEach(selectCOSPKeysByTokenRange) { row ->
+            if (row.getBytesUnsafe(0) == context) {
+                val obj = row.getBytesUnsafe(1)
+
+                window.submit { listOf(session.executeAsync(setBytesUnsafe(deleteCOSPByCO.bind(), context, obj))) }
             }
         }
+
+        window.await()
+
+        LOG.info("Dropped the graph: {} statements of {} subjects removed in {} ms", removed.get(), partitions.get(),
+            System.currentTimeMillis() - started)
+    }
+
+    private fun dropCSPOPartition(context: ByteBuffer, subj: ByteBuffer, removed: AtomicLong)
+            : ListenableFuture<ResultSet> {
+        val rows = session.executeAsync(setBytesUnsafe(selectCSPOByCS.bind(), context, subj)
+            .setFetchSize(scanFetchSize))
+        val quads = Futures.transformAsync(rows, AsyncFunction<ResultSet, List<ResultSet>> {
+            removeFromDefaultIndexes(it!!, removed)
+        }, MoreExecutors.directExecutor())
+
+        return Futures.transformAsync(quads, AsyncFunction<List<ResultSet>, ResultSet> {
+            session.executeAsync(setBytesUnsafe(deleteCSPOByCS.bind(), context, subj))
+        }, MoreExecutors.directExecutor())
+    }
+
+    /**
+     * Removes the quads of the fetched page from the default indexes, the next page is fetched once they're removed.
+     * Only the rows available without fetching are read, so the callbacks never block.
+     */
+    private fun removeFromDefaultIndexes(rows: ResultSet, removed: AtomicLong): ListenableFuture<List<ResultSet>> {
+        val quads = ArrayList<Array<ByteBuffer>>(rows.availableWithoutFetching)
+        while (rows.availableWithoutFetching > 0) {
+            val row = rows.one()
+            quads.add(Array(4) { row.getBytesUnsafe(it) })
+        }
+        removed.addAndGet(quads.size.toLong())
+
+        val deletes = Futures.allAsList(batchWriter.writeAsync(deleteGroups(quads, CONTEXT_TABLES)))
+        if (rows.isFullyFetched) {
+            return deletes
+        }
+
+        return Futures.transformAsync(deletes, AsyncFunction<List<ResultSet>, List<ResultSet>> {
+            Futures.transformAsync(rows.fetchMoreResults(), AsyncFunction<ResultSet, List<ResultSet>> {
+                removeFromDefaultIndexes(it!!, removed)
+            }, MoreExecutors.directExecutor())
+        }, MoreExecutors.directExecutor())
     }
 
     private fun clearAllContexts() {
@@ -192,15 +341,217 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
         waitUntilDone(futures)
     }
 
-    override fun getStatements(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?): SPOCIteration {
-        return SPOCIteration(ResultSetFutureIteration(querySPOC(subj, pred, obj, context)))
+    override fun addStatements(quads: Collection<Array<ByteBuffer>>, window: InFlightWindow) {
+        val groups = batchWriter.newGroups()
+
+        quads.forEach {
+            val s = it[0]
+            val p = it[1]
+            val o = it[2]
+            val c = it[3]
+
+            groups.add(ScyllaRDFSchema.Table.S_POC, listOf(s), setBytesUnsafe(insertSPOC.bind(), s, p, o, c))
+            groups.add(ScyllaRDFSchema.Table.P_OSC, listOf(p), setBytesUnsafe(insertPOSC.bind(), p, o, s, c))
+            groups.add(ScyllaRDFSchema.Table.O_SPC, listOf(o), setBytesUnsafe(insertOSPC.bind(), o, s, p, c))
+
+            if (c != ScyllaRDFSchema.CONTEXT_DEFAULT) {
+                groups.add(ScyllaRDFSchema.Table.CS_PO, listOf(c, s), setBytesUnsafe(insertCSPO.bind(), c, s, p, o))
+                groups.add(ScyllaRDFSchema.Table.CP_OS, listOf(c, p), setBytesUnsafe(insertCPOS.bind(), c, p, o, s))
+                groups.add(ScyllaRDFSchema.Table.CO_SP, listOf(c, o), setBytesUnsafe(insertCOSP.bind(), c, o, s, p))
+            }
+        }
+
+        batchWriter.write(groups, window)
+    }
+
+    override fun removeStatements(quads: Collection<Array<ByteBuffer>>, window: InFlightWindow) {
+        batchWriter.write(deleteGroups(quads, emptySet()), window)
+    }
+
+    override fun removeStatements(
+        subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?,
+        window: InFlightWindow, onRemoved: (List<Array<ByteBuffer>>) -> Unit
+    ) {
+        val partitionDeletes = partitionDeletes(subj, pred, obj, context)
+
+        /**
+         * The default graph isn't in the context indexes, so its quads are read from the default ones.
+         */
+        val defaultGraphOnly = context == ScyllaRDFSchema.CONTEXT_DEFAULT
+        val rows = getStatements(subj, pred, obj, if (defaultGraphOnly) null else context)
+        try {
+            while (rows.hasNext()) {
+                val chunk = ArrayList<Array<ByteBuffer>>(REMOVE_CHUNK_SIZE)
+                while (chunk.size < REMOVE_CHUNK_SIZE && rows.hasNext()) {
+                    val quad = rows.next()
+                    if (!defaultGraphOnly || quad[3] == ScyllaRDFSchema.CONTEXT_DEFAULT) {
+                        chunk.add(quad)
+                    }
+                }
+
+                if (chunk.isNotEmpty()) {
+                    batchWriter.write(deleteGroups(chunk, partitionDeletes.keys), window)
+
+                    onRemoved(chunk)
+                }
+            }
+        } finally {
+            rows.close()
+        }
+
+        /**
+         * The partitions are deleted after all rows are read, because the rows may be read from one of them.
+         */
+        partitionDeletes.values.forEach { statement -> window.submit { listOf(session.executeAsync(statement)) } }
+    }
+
+    /**
+     * Partitions which are removed entirely if all quads matching the pattern are removed.
+     */
+    private fun partitionDeletes(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?)
+            : Map<ScyllaRDFSchema.Table, Statement> {
+        val deletes = mutableMapOf<ScyllaRDFSchema.Table, Statement>()
+
+        if (context == null) {
+            if (subj != null && pred == null && obj == null) {
+                deletes[ScyllaRDFSchema.Table.S_POC] = setBytesUnsafe(deleteSPOCByS.bind(), subj)
+            } else if (subj == null && pred != null && obj == null) {
+                deletes[ScyllaRDFSchema.Table.P_OSC] = setBytesUnsafe(deletePOSCByP.bind(), pred)
+            } else if (subj == null && pred == null && obj != null) {
+                deletes[ScyllaRDFSchema.Table.O_SPC] = setBytesUnsafe(deleteOSPCByO.bind(), obj)
+            }
+        } else if (context != ScyllaRDFSchema.CONTEXT_DEFAULT) {
+            if (subj != null && pred == null && obj == null) {
+                deletes[ScyllaRDFSchema.Table.CS_PO] = setBytesUnsafe(deleteCSPOByCS.bind(), context, subj)
+            } else if (subj == null && pred != null && obj == null) {
+                deletes[ScyllaRDFSchema.Table.CP_OS] = setBytesUnsafe(deleteCPOSByCP.bind(), context, pred)
+            } else if (subj == null && pred == null && obj != null) {
+                deletes[ScyllaRDFSchema.Table.CO_SP] = setBytesUnsafe(deleteCOSPByCO.bind(), context, obj)
+            }
+        }
+
+        return deletes
+    }
+
+    /**
+     * Groups row deletes of the quads, the tables in [skip] are removed by partition deletes.
+     */
+    private fun deleteGroups(quads: Collection<Array<ByteBuffer>>, skip: Set<ScyllaRDFSchema.Table>)
+            : ScyllaRDFBatchWriter.PartitionGroups {
+        val groups = batchWriter.newGroups()
+
+        fun add(table: ScyllaRDFSchema.Table, partitionKey: List<ByteBuffer>, statement: () -> Statement) {
+            if (!skip.contains(table)) {
+                groups.add(table, partitionKey, statement())
+            }
+        }
+
+        quads.forEach {
+            val s = it[0]
+            val p = it[1]
+            val o = it[2]
+            val c = it[3]
+
+            add(ScyllaRDFSchema.Table.S_POC, listOf(s)) { setBytesUnsafe(deleteSPOC.bind(), s, p, o, c) }
+            add(ScyllaRDFSchema.Table.P_OSC, listOf(p)) { setBytesUnsafe(deletePOSC.bind(), p, o, s, c) }
+            add(ScyllaRDFSchema.Table.O_SPC, listOf(o)) { setBytesUnsafe(deleteOSPC.bind(), o, s, p, c) }
+
+            if (c != ScyllaRDFSchema.CONTEXT_DEFAULT) {
+                add(ScyllaRDFSchema.Table.CS_PO, listOf(c, s)) { setBytesUnsafe(deleteCSPO.bind(), c, s, p, o) }
+                add(ScyllaRDFSchema.Table.CP_OS, listOf(c, p)) { setBytesUnsafe(deleteCPOS.bind(), c, p, o, s) }
+                add(ScyllaRDFSchema.Table.CO_SP, listOf(c, o)) { setBytesUnsafe(deleteCOSP.bind(), c, o, s, p) }
+            }
+        }
+
+        return groups
+    }
+
+    override fun containsStatement(quad: Array<ByteBuffer>): ListenableFuture<Boolean> {
+        val future = session.executeAsync(setBytesUnsafe(selectSPOCBySPOC.bind(), quad[0], quad[1], quad[2], quad[3]))
+
+        return Futures.transform(future, Function<ResultSet, Boolean> { it!!.one() != null },
+            MoreExecutors.directExecutor())
+    }
+
+    override fun scanStatements(parallelism: Int, consumer: (Array<ByteBuffer>) -> Unit) {
+        TokenRangeScanner(session, parallelism, scanFetchSize).forEach(selectSPOCByTokenRange) { row ->
+            consumer(Array(4) { row.getBytesUnsafe(it) })
+        }
     }
 
-    override fun getStatements(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, contexts: List<ByteBuffer?>)
-            : SPOCIteration {
+    override fun getStatements(
+        subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?, fetchSize: Int, limit: Int
+    ): SPOCIteration {
+        /**
+         * A full scan is split by token ranges which are read in parallel. A limited one is read by a single query,
+         * since it's likely to be done by the first page.
+         */
+        if (subj == null && pred == null && obj == null && context == null && limit <= 0) {
+            return SPOCIteration(scanner.scan(selectSPOCByTokenRange))
+        }
+
+        return SPOCIteration(ResultSetFutureIteration(
+            querySPOC(subj, pred, obj, context, fetchSize, limit), prefetchRatio))
+    }
+
+    override fun getStatements(
+        subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, contexts: List<ByteBuffer?>, fetchSize: Int,
+        limit: Int
+    ): SPOCIteration {
+        if (contexts.size == 1) {
+            return getStatements(subj, pred, obj, contexts[0], fetchSize, limit)
+        }
+
         return SPOCIteration(MultipleResultSetFutureIteration(contexts.map {
-            querySPOC(subj, pred, obj, it)
-        }))
+            querySPOC(subj, pred, obj, it, fetchSize, limit)
+        }, prefetchRatio))
+    }
+
+    override fun getDistinctKeys(table: ScyllaRDFSchema.Table): CloseableIteration<ByteBuffer, SailException> {
+        val statement = selectKeysByTokenRange[table]
+            ?: throw IllegalArgumentException("Table $table isn't an index of all contexts!")
+
+        return TransformRowIteration(scanner.scan(statement)) { row -> row.getBytesUnsafe(0) }
+    }
+
+    override fun getDistinctClusteringValues(table: ScyllaRDFSchema.Table, key: ByteBuffer, skip: Boolean)
+            : CloseableIteration<ByteBuffer, SailException> {
+        val statement = selectClusteringValues[table]
+            ?: throw IllegalArgumentException("Table $table isn't an index of all contexts!")
+
+        if (skip) {
+            return SkipScanIteration(table, key)
+        }
+
+        return AdjacentDistinctIteration(TransformRowIteration(
+            session.executeAsync(setBytesUnsafe(statement.bind(), key).setFetchSize(fetchSize))
+        ) { row -> row.getBytesUnsafe(0) })
+    }
+
+    override fun countStatements(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?): Long? {
+        val statement = bindSPOC(subj, pred, obj, context)
+        val prepared = statement.preparedStatement()
+        val query = prepared.queryString
+        if (!query.contains(" WHERE ") || query.endsWith(ALLOW_FILTERING)) {
+            return null
+        }
+
+        val countPrepared = countStatements.computeIfAbsent(prepared) {
+            session.prepare("SELECT COUNT(*) FROM " + it.queryString.substringAfter(" FROM "))
+        }
+
+        return session.execute(rebind(statement, countPrepared.bind())).one().getLong(0)
+    }
+
+    override fun getSubjectStatements(subj: ByteBuffer, preds: List<ByteBuffer>?, fetchSize: Int): SPOCIteration {
+        val statement = if (preds == null) {
+            setBytesUnsafe(selectSPOCByS.bind(), subj)
+        } else {
+            selectSPOCBySPredicates.bind().setBytesUnsafe(0, subj).setList(1, preds, ByteBuffer::class.java)
+        }
+
+        return SPOCIteration(ResultSetFutureIteration(
+            session.executeAsync(statement.setFetchSize(fetchSizeOrDefault(fetchSize))), prefetchRatio))
     }
 
     internal fun createTables() {
@@ -274,9 +625,22 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
         deleteCOSP = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.CO_SP} WHERE " +
                 "context = ? AND object = ? AND subject = ? AND predicate = ?")
 
+        deleteSPOCByS = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.S_POC} WHERE subject = ?")
+        deletePOSCByP = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.P_OSC} WHERE predicate = ?")
+        deleteOSPCByO = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.O_SPC} WHERE object = ?")
+        deleteCSPOByCS = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.CS_PO} WHERE " +
+                "context = ? AND subject = ?")
+        deleteCPOSByCP = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.CP_OS} WHERE " +
+                "context = ? AND predicate = ?")
+        deleteCOSPByCO = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.CO_SP} WHERE " +
+                "context = ? AND object = ?")
+
         selectSPOCByS = session.prepare("SELECT subject, predicate, object, context " +
                 "FROM ${ScyllaRDFSchema.Table.S_POC} " +
                 "WHERE subject = ?")
+        selectSPOCBySPredicates = session.prepare("SELECT subject, predicate, object, context " +
+                "FROM ${ScyllaRDFSchema.Table.S_POC} " +
+                "WHERE subject = ? AND predicate IN ?")
         selectSPOCBySP = session.prepare("SELECT subject, predicate, object, context " +
                 "FROM ${ScyllaRDFSchema.Table.S_POC} " +
                 "WHERE subject = ? AND predicate = ?")
@@ -285,6 +649,21 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
                 "WHERE subject = ? AND predicate = ? AND object = ?")
         selectSPOC = session.prepare("SELECT subject, predicate, object, context " +
                 "FROM ${ScyllaRDFSchema.Table.S_POC}")
+        selectSPOCBySPOC = session.prepare("SELECT subject " +
+                "FROM ${ScyllaRDFSchema.Table.S_POC} " +
+                "WHERE subject = ? AND predicate = ? AND object = ? AND context = ?")
+        selectSPOCByTokenRange = session.prepare("SELECT subject, predicate, object, context " +
+                "FROM ${ScyllaRDFSchema.Table.S_POC} " +
+                "WHERE token(subject) > ? AND token(subject) <= ?")
+        selectCSPOKeysByTokenRange = session.prepare("SELECT DISTINCT context, subject " +
+                "FROM ${ScyllaRDFSchema.Table.CS_PO} " +
+                "WHERE token(context, subject) > ? AND token(context, subject) <= ?")
+        selectCPOSKeysByTokenRange = session.prepare("SELECT DISTINCT context, predicate " +
+                "FROM ${ScyllaRDFSchema.Table.CP_OS} " +
+                "WHERE token(context, predicate) > ? AND token(context, predicate) <= ?")
+        selectCOSPKeysByTokenRange = session.prepare("SELECT DISTINCT context, object " +
+                "FROM ${ScyllaRDFSchema.Table.CO_SP} " +
+                "WHERE token(context, object) > ? AND token(context, object) <= ?")
         selectPOSCByPO = session.prepare("SELECT subject, predicate, object, context " +
                 "FROM ${ScyllaRDFSchema.Table.P_OSC} " +
                 "WHERE predicate = ? AND object = ?")
@@ -297,6 +676,16 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
         selectOSPCByO = session.prepare("SELECT subject, predicate, object, context " +
                 "FROM ${ScyllaRDFSchema.Table.O_SPC} " +
                 "WHERE object = ?")
+        INDEX_COLUMNS.forEach { (table, columns) ->
+            val (key, column) = columns
+            selectKeysByTokenRange[table] = session.prepare("SELECT DISTINCT $key FROM $table " +
+                    "WHERE token($key) > ? AND token($key) <= ?")
+            selectClusteringValues[table] = session.prepare("SELECT $column FROM $table WHERE $key = ?")
+            selectFirstClusteringValue[table] = session.prepare("SELECT $column FROM $table " +
+                    "WHERE $key = ? LIMIT 1")
+            selectNextClusteringValue[table] = session.prepare("SELECT $column FROM $table " +
+                    "WHERE $key = ? AND $column > ? LIMIT 1")
+        }
         selectCSPOByCS = session.prepare("SELECT subject, predicate, object, context " +
                 "FROM ${ScyllaRDFSchema.Table.CS_PO} " +
                 "WHERE context = ? AND subject = ?")
@@ -322,35 +711,136 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
                 "FROM ${ScyllaRDFSchema.Table.CS_PO} WHERE context = ? ALLOW FILTERING")
     }
 
-    private fun querySPOC(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?)
-            : ResultSetFuture {
+    /**
+     * If the query is limited, then the page fits the limit, so the query is done by a single round trip.
+     */
+    private fun querySPOC(
+        subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?, fetchSize: Int, limit: Int
+    ): ResultSetFuture {
+        val statement = bindSPOC(subj, pred, obj, context)
+        if (limit <= 0) {
+            return session.executeAsync(statement.setFetchSize(fetchSizeOrDefault(fetchSize)))
+        }
+
+        val limited = limit(statement, limit)
+
+        return session.executeAsync(limited.setFetchSize(Math.min(fetchSizeOrDefault(fetchSize), limit)))
+    }
+
+    /**
+     * Binds the values of the statement to its variant with `LIMIT ?`, the variants are prepared on the first use.
+     */
+    private fun limit(statement: BoundStatement, limit: Int): BoundStatement {
+        val prepared = statement.preparedStatement()
+        val limitedPrepared = limitedStatements.computeIfAbsent(prepared) {
+            val query = it.queryString
+            session.prepare(if (query.endsWith(ALLOW_FILTERING)) {
+                query.removeSuffix(ALLOW_FILTERING) + " LIMIT ?" + ALLOW_FILTERING
+            } else {
+                "$query LIMIT ?"
+            })
+        }
+
+        return rebind(statement, limitedPrepared.bind()).setInt(prepared.variables.size(), limit)
+    }
+
+    /**
+     * Reads the distinct values of the first clustering column of the partition by a query per value, see
+     * [getDistinctClusteringValues].
+     */
+    private inner class SkipScanIteration(private val table: ScyllaRDFSchema.Table, private val key: ByteBuffer)
+        : LookAheadIteration<ByteBuffer, SailException>() {
+
+        private var last: ByteBuffer? = null
+
+        override fun getNextElement(): ByteBuffer? {
+            val previous = last
+            val statement = if (previous == null) {
+                setBytesUnsafe(selectFirstClusteringValue[table]!!.bind(), key)
+            } else {
+                setBytesUnsafe(selectNextClusteringValue[table]!!.bind(), key, previous)
+            }
+
+            val next = session.execute(statement).one()?.getBytesUnsafe(0)
+            last = next
+
+            return next
+        }
+    }
+
+    /**
+     * Drops the values equal to the previous one, the values are read in the clustering order.
+     */
+    private class AdjacentDistinctIteration(private val values: CloseableIteration<ByteBuffer, SailException>)
+        : LookAheadIteration<ByteBuffer, SailException>() {
+
+        private var last: ByteBuffer? = null
+
+        override fun getNextElement(): ByteBuffer? {
+            while (values.hasNext()) {
+                val value = values.next()
+                if (value != last) {
+                    last = value
+                    return value
+                }
+            }
+
+            return null
+        }
+
+        override fun handleClose() {
+            try {
+                super.handleClose()
+            } finally {
+                values.close()
+            }
+        }
+    }
+
+    /**
+     * Copies the values of the statement to the first variables of its variant.
+     */
+    private fun rebind(statement: BoundStatement, variant: BoundStatement): BoundStatement {
+        for (i in 0 until statement.preparedStatement().variables.size()) {
+            variant.setBytesUnsafe(i, statement.getBytesUnsafe(i))
+        }
+
+        return variant
+    }
+
+    private fun fetchSizeOrDefault(fetchSize: Int): Int {
+        return if (fetchSize > 0) fetchSize else this.fetchSize
+    }
+
+    private fun bindSPOC(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, context: ByteBuffer?)
+            : BoundStatement {
         return if (context == null) {
             if (subj == null) {
                 if (pred == null) {
                     if (obj == null) {
-                        session.executeAsync(selectSPOC.bind())
+                        selectSPOC.bind()
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectOSPCByO.bind(), obj))
+                        setBytesUnsafe(selectOSPCByO.bind(), obj)
                     }
                 } else {
                     if (obj == null) {
-                        session.executeAsync(setBytesUnsafe(selectPOSCByP.bind(), pred))
+                        setBytesUnsafe(selectPOSCByP.bind(), pred)
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectPOSCByPO.bind(), pred, obj))
+                        setBytesUnsafe(selectPOSCByPO.bind(), pred, obj)
                     }
                 }
             } else {
                 if (pred == null) {
                     if (obj == null) {
-                        session.executeAsync(setBytesUnsafe(selectSPOCByS.bind(), subj))
+                        setBytesUnsafe(selectSPOCByS.bind(), subj)
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectOSPCByOS.bind(), obj, subj))
+                        setBytesUnsafe(selectOSPCByOS.bind(), obj, subj)
                     }
                 } else {
                     if (obj == null) {
-                        session.executeAsync(setBytesUnsafe(selectSPOCBySP.bind(), subj, pred))
+                        setBytesUnsafe(selectSPOCBySP.bind(), subj, pred)
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectSPOCBySPO.bind(), subj, pred, obj))
+                        setBytesUnsafe(selectSPOCBySPO.bind(), subj, pred, obj)
                     }
                 }
             }
@@ -358,29 +848,29 @@ internal class ScyllaRDFIndexDAO(private val session: Session) : AbstractScyllaR
             if (subj == null) {
                 if (pred == null) {
                     if (obj == null) {
-                        session.executeAsync(setBytesUnsafe(selectCSPOByC.bind(), context))
+                        setBytesUnsafe(selectCSPOByC.bind(), context)
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectCOSPByCO.bind(), context, obj))
+                        setBytesUnsafe(selectCOSPByCO.bind(), context, obj)
                     }
                 } else {
                     if (obj == null) {
-                        session.executeAsync(setBytesUnsafe(selectCPOSByCP.bind(), context, pred))
+                        setBytesUnsafe(selectCPOSByCP.bind(), context, pred)
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectCPOSByCPO.bind(), context, pred, obj))
+                        setBytesUnsafe(selectCPOSByCPO.bind(), context, pred, obj)
                     }
                 }
             } else {
                 if (pred == null) {
                     if (obj == null) {
-                        session.executeAsync(setBytesUnsafe(selectCSPOByCS.bind(), context, subj))
+                        setBytesUnsafe(selectCSPOByCS.bind(), context, subj)
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectCOSPByCOS.bind(), context, obj, subj))
+                        setBytesUnsafe(selectCOSPByCOS.bind(), context, obj, subj)
                     }
                 } else {
                     if (obj == null) {
-                        session.executeAsync(setBytesUnsafe(selectCSPOByCSP.bind(), context, subj, pred))
+                        setBytesUnsafe(selectCSPOByCSP.bind(), context, subj, pred)
                     } else {
-                        session.executeAsync(setBytesUnsafe(selectCSPOByCSPO.bind(), context, subj, pred, obj))
+                        setBytesUnsafe(selectCSPOByCSPO.bind(), context, subj, pred, obj)
                     }
                 }
             }
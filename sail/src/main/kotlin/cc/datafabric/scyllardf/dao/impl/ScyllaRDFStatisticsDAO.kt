@@ -0,0 +1,293 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.coder.impl.AbstractCoder
+import cc.datafabric.scyllardf.dao.IStatisticsDAO
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import cc.datafabric.scyllardf.dao.StatisticsSnapshot
+import com.datastax.driver.core.PreparedStatement
+import com.datastax.driver.core.Row
+import com.datastax.driver.core.Session
+import com.datastax.driver.core.TokenRange
+import com.google.common.reflect.TypeToken
+import com.google.common.util.concurrent.RateLimiter
+import org.slf4j.LoggerFactory
+import java.math.BigInteger
+import java.nio.ByteBuffer
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Collects statistics by reading a random sample of token ranges of S_POC, P_OSC and O_SPC. Unlike the counters,
+ * they don't drift on re-added statements or removals, but they're as old as the latest snapshot.
+ *
+ * The sample is read by a single thread and the reads are limited to [maxRowsPerSecond], so a collection doesn't
+ * compete with queries.
+ */
+internal class ScyllaRDFStatisticsDAO(
+    private val session: Session,
+    private val sampleRatio: Double,
+    private val maxRowsPerSecond: Double,
+    private val fetchSize: Int = ScyllaRDFDAOOptions.DEFAULT_FETCH_SIZE
+) : IStatisticsDAO {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(ScyllaRDFStatisticsDAO::class.java)
+
+        /**
+         * All snapshots are kept in a single partition ordered by version.
+         */
+        private const val SNAPSHOTS_PARTITION = 0
+
+        private const val SPLITS_PER_RANGE = 16
+        private const val NUM_VALUE_TYPES = 4
+
+        private val RING_SIZE = BigInteger.ONE.shiftLeft(64).toDouble()
+        private val OBJECT_TYPES = object : TypeToken<MutableList<Long>>() {}
+    }
+
+    init {
+        require(sampleRatio > 0 && sampleRatio <= 1) { "sampleRatio must be in (0, 1]!" }
+        require(maxRowsPerSecond > 0) { "maxRowsPerSecond must be positive!" }
+    }
+
+    private val latest = AtomicReference<StatisticsSnapshot?>()
+
+    private lateinit var selectLatestSnapshot: PreparedStatement
+    private lateinit var insertSnapshot: PreparedStatement
+    private lateinit var deleteSnapshotsBefore: PreparedStatement
+    private lateinit var selectSPOByTokenRange: PreparedStatement
+    private lateinit var selectPredicatesByTokenRange: PreparedStatement
+    private lateinit var selectObjectsByTokenRange: PreparedStatement
+
+    internal fun createTables() {
+        session.execute("CREATE TABLE IF NOT EXISTS ${ScyllaRDFSchema.Table.STATS} (" +
+                "id int, version bigint, sampled_fraction double, num_triples bigint, " +
+                "distinct_subjects bigint, distinct_predicates bigint, distinct_objects bigint, " +
+                "subject_partition_sizes list<bigint>, object_partition_sizes list<bigint>, " +
+                "predicate_triples map<blob, bigint>, predicate_object_types map<blob, frozen<list<bigint>>>, " +
+                "PRIMARY KEY (id, version)) WITH CLUSTERING ORDER BY (version DESC)")
+    }
+
+    internal fun prepareStatements() {
+        selectLatestSnapshot = session.prepare("SELECT * FROM ${ScyllaRDFSchema.Table.STATS} WHERE id = ? LIMIT 1")
+        insertSnapshot = session.prepare("INSERT INTO ${ScyllaRDFSchema.Table.STATS} " +
+                "(id, version, sampled_fraction, num_triples, distinct_subjects, distinct_predicates, " +
+                "distinct_objects, subject_partition_sizes, object_partition_sizes, predicate_triples, " +
+                "predicate_object_types) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+        deleteSnapshotsBefore = session.prepare("DELETE FROM ${ScyllaRDFSchema.Table.STATS} " +
+                "WHERE id = ? AND version <= ?")
+
+        selectSPOByTokenRange = session.prepare("SELECT subject, predicate, object " +
+                "FROM ${ScyllaRDFSchema.Table.S_POC} " +
+                "WHERE token(subject) > ? AND token(subject) <= ?")
+        selectPredicatesByTokenRange = session.prepare("SELECT DISTINCT predicate " +
+                "FROM ${ScyllaRDFSchema.Table.P_OSC} " +
+                "WHERE token(predicate) > ? AND token(predicate) <= ?")
+        selectObjectsByTokenRange = session.prepare("SELECT object " +
+                "FROM ${ScyllaRDFSchema.Table.O_SPC} " +
+                "WHERE token(object) > ? AND token(object) <= ?")
+    }
+
+    override fun latestSnapshot(): StatisticsSnapshot? {
+        return latest.get()
+    }
+
+    override fun reloadLatestSnapshot(): StatisticsSnapshot? {
+        val row = session.execute(selectLatestSnapshot.bind().setInt(0, SNAPSHOTS_PARTITION)).one()
+        val snapshot = row?.let { toSnapshot(it) }
+
+        latest.set(snapshot)
+
+        return snapshot
+    }
+
+    override fun collectSnapshot(): StatisticsSnapshot {
+        val limiter = RateLimiter.create(maxRowsPerSecond)
+        val ranges = sampleRanges()
+        val fraction = Math.min(ranges.sumByDouble { it.second }, 1.0)
+
+        val scanner = TokenRangeScanner(session, 1, fetchSize)
+
+        val subjects = PartitionSizes()
+        val predicates = HashMap<ByteBuffer, LongArray>()
+        var numTriples = 0L
+        ranges.forEach { (range, _) ->
+            scanner.read(selectSPOByTokenRange, range).forEach { row ->
+                limiter.acquire()
+
+                subjects.add(row.getBytesUnsafe(0))
+                numTriples++
+
+                val objectTypes = predicates.getOrPut(row.getBytesUnsafe(1)) { LongArray(NUM_VALUE_TYPES) }
+                objectTypes[AbstractCoder.valueType(row.getBytesUnsafe(2)).toInt()]++
+            }
+        }
+        subjects.finish()
+
+        var distinctPredicates = 0L
+        ranges.forEach { (range, _) ->
+            scanner.read(selectPredicatesByTokenRange, range).forEach {
+                limiter.acquire()
+                distinctPredicates++
+            }
+        }
+
+        val objects = PartitionSizes()
+        ranges.forEach { (range, _) ->
+            scanner.read(selectObjectsByTokenRange, range).forEach { row ->
+                limiter.acquire()
+                objects.add(row.getBytesUnsafe(0))
+            }
+        }
+        objects.finish()
+
+        val previous = reloadLatestSnapshot()
+        val snapshot = StatisticsSnapshot(
+            version = Math.max(System.currentTimeMillis(), (previous?.version ?: 0) + 1),
+            sampledFraction = fraction,
+            numTriples = extrapolate(numTriples, fraction),
+            distinctSubjects = extrapolate(subjects.partitions, fraction),
+            distinctPredicates = extrapolate(distinctPredicates, fraction),
+            distinctObjects = extrapolate(objects.partitions, fraction),
+            subjectPartitionSizes = subjects.histogram().map { extrapolate(it, fraction) },
+            objectPartitionSizes = objects.histogram().map { extrapolate(it, fraction) },
+            predicates = predicates.entries
+                .sortedByDescending { it.value.sum() }
+                .take(ScyllaRDFSchema.STATS_NUM_TOP_PREDICATES)
+                .associate { (pred, objectTypes) ->
+                    pred to StatisticsSnapshot.PredicateStatistics(
+                        extrapolate(objectTypes.sum(), fraction),
+                        objectTypes.map { extrapolate(it, fraction) })
+                }
+        )
+
+        save(snapshot)
+        latest.set(snapshot)
+
+        LOG.info("Collected statistics version {} from {} triples of {}% of the token ring",
+            snapshot.version, numTriples, Math.round(fraction * 100))
+
+        return snapshot
+    }
+
+    /**
+     * Picks random ranges until they cover [sampleRatio] of the ring.
+     *
+     * @return the ranges with the part of the ring covered by each of them
+     */
+    private fun sampleRanges(): List<Pair<TokenRange, Double>> {
+        val all = TokenRangeScanner(session, 1, fetchSize, splitsPerRange = SPLITS_PER_RANGE).ranges().toMutableList()
+        Collections.shuffle(all)
+
+        val sample = mutableListOf<Pair<TokenRange, Double>>()
+        var covered = 0.0
+        for (range in all) {
+            if (covered >= sampleRatio) {
+                break
+            }
+
+            val width = rangeWidth(range) ?: 1.0 / all.size
+            sample.add(Pair(range, width))
+            covered += width
+        }
+
+        return sample
+    }
+
+    /**
+     * @return the part of the ring covered by the range, or null if the tokens aren't of the Murmur3 partitioner
+     */
+    private fun rangeWidth(range: TokenRange): Double? {
+        val start = range.start.value as? Long ?: return null
+        val end = range.end.value as? Long ?: return null
+
+        // A range ending at the min token ends at the end of the ring
+        var width = BigInteger.valueOf(end).subtract(BigInteger.valueOf(start)).toDouble()
+        if (width <= 0) {
+            width += RING_SIZE
+        }
+
+        return width / RING_SIZE
+    }
+
+    private fun extrapolate(count: Long, fraction: Double): Long {
+        return if (fraction > 0) Math.round(count / fraction) else 0L
+    }
+
+    private fun save(snapshot: StatisticsSnapshot) {
+        session.execute(insertSnapshot.bind()
+            .setInt(0, SNAPSHOTS_PARTITION)
+            .setLong(1, snapshot.version)
+            .setDouble(2, snapshot.sampledFraction)
+            .setLong(3, snapshot.numTriples)
+            .setLong(4, snapshot.distinctSubjects)
+            .setLong(5, snapshot.distinctPredicates)
+            .setLong(6, snapshot.distinctObjects)
+            .setList(7, snapshot.subjectPartitionSizes, Long::class.javaObjectType)
+            .setList(8, snapshot.objectPartitionSizes, Long::class.javaObjectType)
+            .setMap(9, snapshot.predicates.mapValues { it.value.numTriples },
+                ByteBuffer::class.java, Long::class.javaObjectType)
+            .setMap(10, snapshot.predicates.mapValues { it.value.objectTypes.toMutableList() },
+                TypeToken.of(ByteBuffer::class.java), OBJECT_TYPES))
+
+        // Older versions are kept to compare snapshots, the oldest ones are dropped
+        session.execute(deleteSnapshotsBefore.bind()
+            .setInt(0, SNAPSHOTS_PARTITION)
+            .setLong(1, snapshot.version - ScyllaRDFSchema.STATS_RETENTION_MILLIS))
+    }
+
+    private fun toSnapshot(row: Row): StatisticsSnapshot {
+        val triples = row.getMap("predicate_triples", ByteBuffer::class.java, Long::class.javaObjectType)
+        val objectTypes = row.getMap("predicate_object_types", TypeToken.of(ByteBuffer::class.java), OBJECT_TYPES)
+
+        return StatisticsSnapshot(
+            version = row.getLong("version"),
+            sampledFraction = row.getDouble("sampled_fraction"),
+            numTriples = row.getLong("num_triples"),
+            distinctSubjects = row.getLong("distinct_subjects"),
+            distinctPredicates = row.getLong("distinct_predicates"),
+            distinctObjects = row.getLong("distinct_objects"),
+            subjectPartitionSizes = row.getList("subject_partition_sizes", Long::class.javaObjectType),
+            objectPartitionSizes = row.getList("object_partition_sizes", Long::class.javaObjectType),
+            predicates = triples.mapValues { (pred, numTriples) ->
+                StatisticsSnapshot.PredicateStatistics(numTriples, objectTypes[pred] ?: emptyList<Long>())
+            }
+        )
+    }
+
+    /**
+     * Counts partitions by size. Rows of a token range come ordered by the partition key, so a partition ends
+     * once the key changes.
+     */
+    private class PartitionSizes {
+
+        private val counts = LongArray(64)
+        var partitions = 0L
+
+        private var current: ByteBuffer? = null
+        private var size = 0L
+
+        fun add(key: ByteBuffer) {
+            if (key != current) {
+                finish()
+                current = key
+            }
+            size++
+        }
+
+        fun finish() {
+            if (size > 0) {
+                counts[63 - java.lang.Long.numberOfLeadingZeros(size)]++
+                partitions++
+            }
+            current = null
+            size = 0
+        }
+
+        fun histogram(): List<Long> {
+            return counts.toList().dropLastWhile { it == 0L }
+        }
+
+    }
+
+}
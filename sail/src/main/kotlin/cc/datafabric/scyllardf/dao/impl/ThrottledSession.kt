@@ -0,0 +1,173 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import com.datastax.driver.core.ResultSet
+import com.datastax.driver.core.ResultSetFuture
+import com.datastax.driver.core.Row
+import com.datastax.driver.core.Session
+import com.datastax.driver.core.SimpleStatement
+import com.datastax.driver.core.Statement
+import com.datastax.driver.core.exceptions.DriverException
+import com.datastax.driver.core.exceptions.DriverInternalError
+import com.google.common.base.Function
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.Uninterruptibles
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sends all requests through the [RequestLimiter], so the number of requests in flight is bounded for all DAOs
+ * sharing the session. If the limit is reached, [executeAsync] doesn't block, the request is queued and sent once
+ * one of the requests in flight is done.
+ *
+ * Pages are fetched through the limiter too, both by [ResultSet.fetchMoreResults] and when the rows of a page are
+ * read to the end.
+ */
+internal class ThrottledSession(
+    private val delegate: Session,
+    private val limiter: RequestLimiter
+) : Session by delegate {
+
+    companion object {
+        private fun propagateCause(ex: ExecutionException): RuntimeException {
+            val cause = ex.cause
+
+            return when (cause) {
+                is Error -> throw cause
+                is DriverException -> cause.copy()
+                is RuntimeException -> cause
+                else -> DriverInternalError("Unexpected exception thrown", cause)
+            }
+        }
+    }
+
+    override fun executeAsync(statement: Statement): ResultSetFuture {
+        val future = limiter.submit<ResultSet> { delegate.executeAsync(statement) }
+
+        return ThrottledResultSetFuture(Futures.transform(future, Function<ResultSet, ResultSet> {
+            ThrottledResultSet(it!!)
+        }, MoreExecutors.directExecutor()))
+    }
+
+    override fun executeAsync(query: String): ResultSetFuture {
+        return executeAsync(SimpleStatement(query))
+    }
+
+    override fun executeAsync(query: String, vararg values: Any?): ResultSetFuture {
+        return executeAsync(SimpleStatement(query, *values))
+    }
+
+    override fun executeAsync(query: String, values: Map<String, Any>): ResultSetFuture {
+        return executeAsync(SimpleStatement(query, values))
+    }
+
+    override fun execute(statement: Statement): ResultSet {
+        return executeAsync(statement).uninterruptibly
+    }
+
+    override fun execute(query: String): ResultSet {
+        return execute(SimpleStatement(query))
+    }
+
+    override fun execute(query: String, vararg values: Any?): ResultSet {
+        return execute(SimpleStatement(query, *values))
+    }
+
+    override fun execute(query: String, values: Map<String, Any>): ResultSet {
+        return execute(SimpleStatement(query, values))
+    }
+
+    /**
+     * Throws the errors of a request the same way as the futures of the driver do.
+     */
+    private class ThrottledResultSetFuture(
+        private val future: ListenableFuture<ResultSet>
+    ) : ResultSetFuture, ListenableFuture<ResultSet> by future {
+
+        override fun getUninterruptibly(): ResultSet {
+            try {
+                return Uninterruptibles.getUninterruptibly(future)
+            } catch (ex: ExecutionException) {
+                throw propagateCause(ex)
+            }
+        }
+
+        override fun getUninterruptibly(timeout: Long, unit: TimeUnit): ResultSet {
+            try {
+                return Uninterruptibles.getUninterruptibly(future, timeout, unit)
+            } catch (ex: ExecutionException) {
+                throw propagateCause(ex)
+            }
+        }
+
+        override fun cancel(mayInterruptIfRunning: Boolean): Boolean {
+            return future.cancel(mayInterruptIfRunning)
+        }
+    }
+
+    /**
+     * The next page is fetched through the limiter before the rows of the current one run out, so the driver
+     * doesn't fetch it by itself.
+     */
+    private inner class ThrottledResultSet(private val resultSet: ResultSet) : ResultSet by resultSet {
+
+        override fun fetchMoreResults(): ListenableFuture<ResultSet> {
+            if (resultSet.isFullyFetched) {
+                return Futures.immediateFuture(this)
+            }
+
+            return Futures.transform(limiter.submit { resultSet.fetchMoreResults() },
+                Function<ResultSet, ResultSet> { this }, MoreExecutors.directExecutor())
+        }
+
+        override fun isExhausted(): Boolean {
+            fetchIfNeeded()
+
+            return resultSet.isExhausted
+        }
+
+        override fun one(): Row? {
+            fetchIfNeeded()
+
+            return resultSet.one()
+        }
+
+        override fun all(): MutableList<Row> {
+            return iterator().asSequence().toMutableList()
+        }
+
+        override fun iterator(): MutableIterator<Row> {
+            val rows = resultSet.iterator()
+
+            return object : MutableIterator<Row> {
+                override fun hasNext(): Boolean {
+                    fetchIfNeeded()
+
+                    return rows.hasNext()
+                }
+
+                override fun next(): Row {
+                    fetchIfNeeded()
+
+                    return rows.next()
+                }
+
+                override fun remove() {
+                    rows.remove()
+                }
+            }
+        }
+
+        private fun fetchIfNeeded() {
+            if (resultSet.availableWithoutFetching == 0 && !resultSet.isFullyFetched) {
+                try {
+                    Uninterruptibles.getUninterruptibly(fetchMoreResults())
+                } catch (ex: ExecutionException) {
+                    throw propagateCause(ex)
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import com.datastax.driver.core.PreparedStatement
+import com.datastax.driver.core.ResultSet
+import com.datastax.driver.core.Row
+import com.datastax.driver.core.Session
+import com.datastax.driver.core.TokenRange
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration
+import org.eclipse.rdf4j.sail.SailException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Reads a whole table by splitting the token ring into ranges and reading [parallelism] ranges concurrently.
+ *
+ * The ranges are taken from the token ring, so each of them is owned by a single set of replicas, optionally
+ * split further into [splitsPerRange] parts. They're ordered round-robin by the owner and are routed to it, so
+ * the ranges being read at the same time are spread over all nodes.
+ *
+ * The statement must have the start and the end of a range as parameters, e.g.
+ * `WHERE token(subject) > ? AND token(subject) <= ?`.
+ */
+internal class TokenRangeScanner(
+    private val session: Session,
+    private val parallelism: Int,
+    private val fetchSize: Int = DEFAULT_FETCH_SIZE,
+    private val bufferSize: Int = DEFAULT_BUFFER_SIZE,
+    private val splitsPerRange: Int = 1
+) {
+
+    companion object {
+        const val DEFAULT_FETCH_SIZE = 5000
+        const val DEFAULT_BUFFER_SIZE = 10000
+
+        private const val OFFER_TIMEOUT_MILLIS = 100L
+
+        private val END = Any()
+        private val THREAD_FACTORY = ThreadFactoryBuilder()
+            .setNameFormat("scylla-rdf-scan-%d")
+            .setDaemon(true)
+            .build()
+    }
+
+    init {
+        require(parallelism > 0) { "parallelism must be positive!" }
+        require(bufferSize > 0) { "bufferSize must be positive!" }
+        require(splitsPerRange > 0) { "splitsPerRange must be positive!" }
+    }
+
+    /**
+     * Returns rows of all ranges merged in a single iteration. Ranges are read in background and their rows are
+     * put in a buffer of [bufferSize] rows, so a slow consumer blocks the readers. Closing the iteration stops
+     * the readers.
+     */
+    fun scan(statement: PreparedStatement): CloseableIteration<Row, SailException> {
+        return ScanIteration(statement)
+    }
+
+    /**
+     * Reads all ranges and blocks until they're read. The consumer is called concurrently by the readers.
+     */
+    fun forEach(statement: PreparedStatement, consumer: (Row) -> Unit) {
+        val executor = newExecutor()
+
+        try {
+            ranges()
+                .map { range -> executor.submit(Callable { read(statement, range).forEach(consumer) }) }
+                .forEach { it.get() }
+        } catch (ex: ExecutionException) {
+            throw SailException(ex.cause)
+        } catch (ex: Exception) {
+            throw SailException(ex)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    internal fun ranges(): List<TokenRange> {
+        val metadata = session.cluster.metadata
+        val keyspace = session.loggedKeyspace
+
+        val byOwner = metadata.tokenRanges
+            .flatMap { range -> range.splitEvenly(splitsPerRange).flatMap { it.unwrap() } }
+            .groupBy { range -> keyspace?.let { metadata.getReplicas(it, range).firstOrNull() } }
+            .values
+            .map { it.iterator() }
+
+        val ranges = mutableListOf<TokenRange>()
+        while (byOwner.any { it.hasNext() }) {
+            byOwner.filter { it.hasNext() }.forEach { ranges.add(it.next()) }
+        }
+
+        return ranges
+    }
+
+    internal fun read(statement: PreparedStatement, range: TokenRange): ResultSet {
+        val bound = statement.bind()
+            .setToken(0, range.start)
+            .setToken(1, range.end)
+            .setFetchSize(fetchSize)
+            .setRoutingToken(range.end)
+
+        return session.execute(bound)
+    }
+
+    private fun newExecutor(): ExecutorService {
+        return Executors.newFixedThreadPool(parallelism, THREAD_FACTORY)
+    }
+
+    private inner class ScanIteration(statement: PreparedStatement) : LookAheadIteration<Row, SailException>() {
+
+        private val buffer = ArrayBlockingQueue<Any>(bufferSize)
+        private val executor = newExecutor()
+        private val remaining = AtomicInteger()
+        private val failure = AtomicReference<Throwable>()
+
+        @Volatile
+        private var closed = false
+
+        init {
+            val ranges = ranges()
+            remaining.set(ranges.size)
+
+            if (ranges.isEmpty()) {
+                buffer.add(END)
+            }
+
+            ranges.forEach { range ->
+                executor.submit(Runnable {
+                    try {
+                        for (row in read(statement, range)) {
+                            if (!put(row)) {
+                                break
+                            }
+                        }
+                    } catch (ex: Throwable) {
+                        if (!closed) {
+                            failure.compareAndSet(null, ex)
+                            put(END)
+                        }
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            put(END)
+                        }
+                    }
+                })
+            }
+
+            executor.shutdown()
+        }
+
+        override fun getNextElement(): Row? {
+            val element = try {
+                buffer.take()
+            } catch (ex: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw SailException(ex)
+            }
+
+            if (element === END) {
+                val t = failure.get()
+                if (t != null) {
+                    throw SailException(t)
+                }
+
+                return null
+            }
+
+            return element as Row
+        }
+
+        override fun handleClose() {
+            try {
+                super.handleClose()
+            } finally {
+                closed = true
+                executor.shutdownNow()
+                buffer.clear()
+            }
+        }
+
+        /**
+         * Waits for a free slot in the buffer while the iteration is open.
+         *
+         * @return false if the iteration is closed
+         */
+        private fun put(element: Any): Boolean {
+            while (!closed) {
+                try {
+                    if (buffer.offer(element, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true
+                    }
+                } catch (ex: InterruptedException) {
+                    return false
+                }
+            }
+
+            return false
+        }
+
+    }
+
+}
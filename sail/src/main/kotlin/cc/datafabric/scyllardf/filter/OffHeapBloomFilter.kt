@@ -0,0 +1,118 @@
+package cc.datafabric.scyllardf.filter
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * A Bloom filter with the bit array allocated off-heap, so large filters don't add to GC pauses.
+ *
+ * Bit positions are derived from two 64-bit hashes of the key (Kirsch-Mitzenmacher), so a key is hashed once
+ * regardless of the number of hash functions. The filter isn't thread-safe.
+ */
+internal class OffHeapBloomFilter private constructor(
+    val capacity: Long,
+    private val numBits: Long,
+    private val numHashes: Int,
+    private val bits: ByteBuffer
+) {
+
+    companion object {
+        private val LN2 = Math.log(2.0)
+
+        fun create(capacity: Long, fpp: Double): OffHeapBloomFilter {
+            require(capacity > 0) { "capacity must be positive!" }
+            require(fpp > 0 && fpp < 1) { "fpp must be in (0, 1)!" }
+
+            val numBits = Math.max(64, Math.ceil(-capacity * Math.log(fpp) / (LN2 * LN2)).toLong())
+            val numHashes = Math.max(1, Math.round(numBits.toDouble() / capacity * LN2).toInt())
+
+            return OffHeapBloomFilter(capacity, numBits, numHashes, allocate(numBits))
+        }
+
+        fun readFrom(input: DataInputStream): OffHeapBloomFilter {
+            val capacity = input.readLong()
+            val numBits = input.readLong()
+            val numHashes = input.readInt()
+            val count = input.readLong()
+
+            val bits = allocate(numBits)
+            val chunk = ByteArray(64 * 1024)
+            while (bits.hasRemaining()) {
+                val length = Math.min(chunk.size, bits.remaining())
+                input.readFully(chunk, 0, length)
+                bits.put(chunk, 0, length)
+            }
+            bits.clear()
+
+            val filter = OffHeapBloomFilter(capacity, numBits, numHashes, bits)
+            filter.count = count
+
+            return filter
+        }
+
+        private fun allocate(numBits: Long): ByteBuffer {
+            val numBytes = (numBits + 7) / 8
+            require(numBytes <= Int.MAX_VALUE) { "The filter is too large!" }
+
+            return ByteBuffer.allocateDirect(numBytes.toInt())
+        }
+    }
+
+    /**
+     * Number of keys put in the filter, including the ones which were already there.
+     */
+    var count = 0L
+        private set
+
+    fun isFull(): Boolean {
+        return count >= capacity
+    }
+
+    fun put(hash1: Long, hash2: Long) {
+        for (i in 0 until numHashes) {
+            val bit = position(hash1, hash2, i)
+            val index = (bit ushr 3).toInt()
+
+            bits.put(index, (bits.get(index).toInt() or (1 shl (bit and 7).toInt())).toByte())
+        }
+
+        count++
+    }
+
+    fun mightContain(hash1: Long, hash2: Long): Boolean {
+        for (i in 0 until numHashes) {
+            val bit = position(hash1, hash2, i)
+
+            if (bits.get((bit ushr 3).toInt()).toInt() and (1 shl (bit and 7).toInt()) == 0) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    fun writeTo(output: DataOutputStream) {
+        output.writeLong(capacity)
+        output.writeLong(numBits)
+        output.writeInt(numHashes)
+        output.writeLong(count)
+
+        val source = bits.duplicate()
+        source.clear()
+
+        val chunk = ByteArray(64 * 1024)
+        while (source.hasRemaining()) {
+            val length = Math.min(chunk.size, source.remaining())
+            source.get(chunk, 0, length)
+            output.write(chunk, 0, length)
+        }
+    }
+
+    private fun position(hash1: Long, hash2: Long, i: Int): Long {
+        val combined = hash1 + i * hash2
+
+        return (combined and Long.MAX_VALUE) % numBits
+    }
+
+}
@@ -0,0 +1,83 @@
+package cc.datafabric.scyllardf.filter
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * A Bloom filter which grows with the number of keys. When the current filter is full, a new one with twice the
+ * capacity and a half of the false positive probability is added, so the overall probability stays below
+ * the double of the initial one.
+ *
+ * @see <a href="https://doi.org/10.1016/j.ipl.2006.10.007">Scalable Bloom Filters</a>
+ */
+internal class ScalableBloomFilter private constructor(
+    private val initialCapacity: Long,
+    private val fpp: Double,
+    private val filters: MutableList<OffHeapBloomFilter>
+) {
+
+    companion object {
+        private const val TIGHTENING_RATIO = 0.5
+
+        fun create(initialCapacity: Long, fpp: Double): ScalableBloomFilter {
+            return ScalableBloomFilter(initialCapacity, fpp,
+                mutableListOf(OffHeapBloomFilter.create(initialCapacity, fpp)))
+        }
+
+        fun readFrom(input: DataInputStream): ScalableBloomFilter {
+            val initialCapacity = input.readLong()
+            val fpp = input.readDouble()
+            val size = input.readInt()
+
+            return ScalableBloomFilter(initialCapacity, fpp, MutableList(size) { OffHeapBloomFilter.readFrom(input) })
+        }
+    }
+
+    private val lock = ReentrantReadWriteLock()
+
+    fun put(hash1: Long, hash2: Long) {
+        lock.write {
+            var last = filters.last()
+            if (last.isFull()) {
+                val nextFpp = fpp * Math.pow(TIGHTENING_RATIO, filters.size.toDouble())
+
+                last = OffHeapBloomFilter.create(last.capacity * 2, nextFpp)
+                filters.add(last)
+            }
+
+            last.put(hash1, hash2)
+        }
+    }
+
+    fun mightContain(hash1: Long, hash2: Long): Boolean {
+        return lock.read { filters.any { it.mightContain(hash1, hash2) } }
+    }
+
+    /**
+     * Number of keys put in the filter.
+     */
+    fun count(): Long {
+        return lock.read { filters.map { it.count }.sum() }
+    }
+
+    fun clear() {
+        lock.write {
+            filters.clear()
+            filters.add(OffHeapBloomFilter.create(initialCapacity, fpp))
+        }
+    }
+
+    fun writeTo(output: DataOutputStream) {
+        lock.read {
+            output.writeLong(initialCapacity)
+            output.writeDouble(fpp)
+            output.writeInt(filters.size)
+
+            filters.forEach { it.writeTo(output) }
+        }
+    }
+
+}
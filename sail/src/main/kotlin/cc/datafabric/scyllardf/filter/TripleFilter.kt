@@ -0,0 +1,182 @@
+package cc.datafabric.scyllardf.filter
+
+import cc.datafabric.scyllardf.dao.IIndexDAO
+import cc.datafabric.scyllardf.model.ByteBuffers
+import com.google.common.hash.Hashing
+import org.slf4j.LoggerFactory
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Answers whether an encoded (s, p, o, c) quad is definitely not written through this instance. Each quad is put in
+ * the filter twice: with its context and with any context, so (s, p, o) lookups without a context are answered too.
+ *
+ * The filter knows only about the quads written through this instance since it was built, not the ones written by
+ * other instances or by the bulk loader, so a negative answer is only a hint. It's used to skip the check whether
+ * an added quad is already stored, a wrong answer causes a duplicate write which is counted again. Reads never rely
+ * on it. A positive answer has to be confirmed by a read. Removed quads stay in the filter, they cause false
+ * positives only.
+ */
+class TripleFilter private constructor(
+    private val expectedInsertions: Long,
+    private val fpp: Double,
+    @Volatile private var filter: ScalableBloomFilter
+) {
+
+    /**
+     * The filter being rebuilt, quads are put in both filters until it replaces the current one.
+     */
+    private var rebuilt: ScalableBloomFilter? = null
+    private val rebuildLock = ReentrantReadWriteLock()
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(TripleFilter::class.java)
+
+        private const val SNAPSHOT_MAGIC = 0x53524246
+        private const val SNAPSHOT_VERSION = 2
+
+        private val ANY_CONTEXT = ByteBuffer.allocate(0)
+        private val HASH_FUNCTION = Hashing.murmur3_128()
+
+        fun create(expectedInsertions: Long, fpp: Double): TripleFilter {
+            return TripleFilter(expectedInsertions, fpp, ScalableBloomFilter.create(expectedInsertions * 2, fpp))
+        }
+
+        /**
+         * The snapshot is used only if it's saved with the same parameters, the same number of triples and contains
+         * all quads of the sample. It can still miss quads written since it was saved, e.g. if as many quads are
+         * removed, they're rewritten on their next addition then.
+         *
+         * @param numTriples the current number of triples, if it differs from the number saved with the snapshot,
+         * then the snapshot is outdated
+         * @param sample some of the stored quads, if any of them isn't in the snapshot, then it's outdated
+         * @return null if there is no snapshot or it's outdated
+         */
+        fun load(
+            path: Path, expectedInsertions: Long, fpp: Double, numTriples: Long, sample: Collection<Array<ByteBuffer>>
+        ): TripleFilter? {
+            if (!Files.exists(path)) {
+                return null
+            }
+
+            val filter = DataInputStream(BufferedInputStream(Files.newInputStream(path))).use { input ->
+                if (input.readInt() != SNAPSHOT_MAGIC || input.readInt() != SNAPSHOT_VERSION) {
+                    LOG.warn("{} isn't a snapshot of the triple filter, ignoring it", path)
+                    return null
+                }
+
+                if (input.readLong() != expectedInsertions || input.readDouble() != fpp) {
+                    LOG.info("The snapshot of the triple filter has other parameters, ignoring it")
+                    return null
+                }
+
+                val savedNumTriples = input.readLong()
+                if (savedNumTriples != numTriples) {
+                    LOG.info("The snapshot of the triple filter is outdated, {} triples instead of {}",
+                        savedNumTriples, numTriples)
+                    return null
+                }
+
+                TripleFilter(expectedInsertions, fpp, ScalableBloomFilter.readFrom(input))
+            }
+
+            if (!sample.all { filter.mightContain(it[0], it[1], it[2], it[3]) }) {
+                LOG.info("The snapshot of the triple filter is outdated, some of the stored triples aren't in it")
+                return null
+            }
+
+            return filter
+        }
+    }
+
+    fun put(quad: Array<ByteBuffer>) {
+        rebuildLock.read {
+            put(filter, quad)
+            rebuilt?.let { put(it, quad) }
+        }
+    }
+
+    /**
+     * @param context null means any context
+     */
+    fun mightContain(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?): Boolean {
+        val hash = hash(subj, pred, obj, context ?: ANY_CONTEXT)
+
+        return filter.mightContain(hash.first, hash.second)
+    }
+
+    fun clear() {
+        rebuildLock.read {
+            filter.clear()
+            rebuilt?.clear()
+        }
+    }
+
+    /**
+     * Replaces the filter with a new one built from all stored quads. The quads put during the scan are put in both
+     * filters, so the ones whose writes the scan misses aren't lost.
+     */
+    fun rebuild(indexDao: IIndexDAO, parallelism: Int) {
+        val started = System.currentTimeMillis()
+        val target = ScalableBloomFilter.create(expectedInsertions * 2, fpp)
+
+        rebuildLock.write { rebuilt = target }
+        try {
+            indexDao.scanStatements(parallelism) { put(target, it) }
+
+            rebuildLock.write { filter = target }
+        } finally {
+            rebuildLock.write { rebuilt = null }
+        }
+
+        LOG.info("Rebuilt the triple filter with {} keys in {} ms", target.count(),
+            System.currentTimeMillis() - started)
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and moves it in place.
+     */
+    fun save(path: Path, numTriples: Long) {
+        val tmp = path.resolveSibling(path.fileName.toString() + ".tmp")
+
+        DataOutputStream(BufferedOutputStream(Files.newOutputStream(tmp))).use { output ->
+            output.writeInt(SNAPSHOT_MAGIC)
+            output.writeInt(SNAPSHOT_VERSION)
+            output.writeLong(expectedInsertions)
+            output.writeDouble(fpp)
+            output.writeLong(numTriples)
+
+            filter.writeTo(output)
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    private fun put(target: ScalableBloomFilter, quad: Array<ByteBuffer>) {
+        val withContext = hash(quad[0], quad[1], quad[2], quad[3])
+        target.put(withContext.first, withContext.second)
+
+        val anyContext = hash(quad[0], quad[1], quad[2], ANY_CONTEXT)
+        target.put(anyContext.first, anyContext.second)
+    }
+
+    private fun hash(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer): Pair<Long, Long> {
+        val hasher = HASH_FUNCTION.newHasher()
+        arrayOf(subj, pred, obj, context).forEach { ByteBuffers.putLengthPrefixed(hasher, it) }
+
+        val bytes = ByteBuffer.wrap(hasher.hash().asBytes()).order(ByteOrder.LITTLE_ENDIAN)
+
+        return Pair(bytes.getLong(0), bytes.getLong(8))
+    }
+
+}
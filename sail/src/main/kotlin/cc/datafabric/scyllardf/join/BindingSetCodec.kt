@@ -0,0 +1,77 @@
+package cc.datafabric.scyllardf.join
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import cc.datafabric.scyllardf.model.ByteBuffers
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * Writes binding sets as encoded values, so they can be kept off-heap or spilled to disk. The values read back
+ * are encoded values which are decoded only if needed.
+ *
+ * @param names all binding names which may appear in the binding sets
+ */
+internal class BindingSetCodec(private val coder: ICoderFacade, names: Collection<String>) {
+
+    private val names = names.toList()
+    private val indexes = this.names.withIndex().associate { it.value to it.index }
+
+    /**
+     * @return the encoded values of the join variables, all of them must be bound
+     */
+    fun key(bindings: BindingSet, joinNames: List<String>): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val output = DataOutputStream(bytes)
+
+        joinNames.forEach { name ->
+            val value = bindings.getValue(name)
+                ?: throw IllegalArgumentException("The join variable $name isn't bound!")
+
+            writeValue(output, coder.encode(value)!!)
+        }
+
+        return bytes.toByteArray()
+    }
+
+    fun write(bindings: BindingSet): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val output = DataOutputStream(bytes)
+
+        output.writeShort(bindings.size())
+        bindings.forEach { binding ->
+            val index = indexes[binding.name]
+                ?: throw IllegalArgumentException("Unexpected binding ${binding.name}!")
+
+            output.writeShort(index)
+            writeValue(output, coder.encode(binding.value)!!)
+        }
+
+        return bytes.toByteArray()
+    }
+
+    fun read(record: ByteArray): QueryBindingSet {
+        val buffer = ByteBuffer.wrap(record)
+        val count = buffer.short.toInt()
+        val bindings = QueryBindingSet(count)
+
+        repeat(count) {
+            val name = names[buffer.short.toInt()]
+            val value = ByteArray(buffer.int)
+            buffer.get(value)
+
+            bindings.addBinding(name, coder.decode(ByteBuffer.wrap(value)))
+        }
+
+        return bindings
+    }
+
+    private fun writeValue(output: DataOutputStream, value: ByteBuffer) {
+        output.writeInt(value.remaining())
+
+        ByteBuffers.withBytes(value) { bytes, offset, length -> output.write(bytes, offset, length) }
+    }
+
+}
@@ -0,0 +1,17 @@
+package cc.datafabric.scyllardf.join
+
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+
+/**
+ * A join evaluated by [HashJoinIteration]. The right argument is the build side, so it should be the smaller one.
+ */
+class HashJoin(leftArg: TupleExpr, rightArg: TupleExpr) : Join(leftArg, rightArg) {
+
+    /**
+     * Variables bound by both arguments, the build side is keyed on their values.
+     */
+    val joinNames: List<String>
+        get() = leftArg.assuredBindingNames.intersect(rightArg.assuredBindingNames).sorted()
+
+}
@@ -0,0 +1,232 @@
+package cc.datafabric.scyllardf.join
+
+import com.google.common.hash.Hashing
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.QueryResults
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet
+import org.slf4j.LoggerFactory
+import java.nio.ByteBuffer
+import java.nio.file.Path
+import java.util.ArrayDeque
+
+/**
+ * Evaluates the build side of the [HashJoin] once, puts it in an [OffHeapHashTable] keyed on the encoded values of
+ * the join variables and probes it with the bindings of the other side.
+ *
+ * If the build side doesn't fit in the [memory] left by the other hash joins of the query, both sides are split in
+ * partitions by the hash of the key and spilled to [SpillFile]s (Grace hash join), then the partitions are joined
+ * one by one.
+ *
+ * A record is joined only if it's compatible with the probed bindings, since variables which aren't join variables
+ * may be shared too, e.g. if they're optional on either side.
+ */
+internal class HashJoinIteration(
+    private val strategy: EvaluationStrategy,
+    private val join: HashJoin,
+    private val bindings: BindingSet,
+    private val codec: BindingSetCodec,
+    private val memory: MemoryBudget,
+    private val spillDirectory: Path?
+) : LookAheadIteration<BindingSet, QueryEvaluationException>() {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(HashJoinIteration::class.java)
+
+        private const val PARTITION_BITS = 4
+        private const val NUM_PARTITIONS = 1 shl PARTITION_BITS
+
+        private val HASH_FUNCTION = Hashing.murmur3_32()
+    }
+
+    private val joinNames = join.joinNames
+    private val results = ArrayDeque<BindingSet>()
+
+    private var table = OffHeapHashTable(memory)
+    private var probeIter: CloseableIteration<BindingSet, QueryEvaluationException>? = null
+
+    private var buildPartitions: List<SpillFile>? = null
+    private var probePartitions: List<SpillFile>? = null
+    private var partitionIdx = 0
+    private var partitionRecords: Iterator<ByteArray>? = null
+
+    private var isBuilt = false
+
+    override fun getNextElement(): BindingSet? {
+        if (!isBuilt) {
+            build()
+            isBuilt = true
+        }
+
+        while (results.isEmpty()) {
+            if (probePartitions == null) {
+                val probe = probeIter!!
+                if (!probe.hasNext()) {
+                    return null
+                }
+
+                val leftBindings = probe.next()
+                val key = codec.key(leftBindings, joinNames)
+
+                probe(leftBindings, hash(key), key)
+            } else {
+                val records = partitionRecords
+                if (records != null && records.hasNext()) {
+                    val (hash, key, record) = unpack(records.next())
+
+                    probe(codec.read(record), hash, key)
+                } else if (partitionIdx < NUM_PARTITIONS) {
+                    loadPartition(partitionIdx++)
+                } else {
+                    return null
+                }
+            }
+        }
+
+        return results.poll()
+    }
+
+    override fun handleClose() {
+        try {
+            super.handleClose()
+        } finally {
+            try {
+                probeIter?.close()
+            } finally {
+                table.close()
+                buildPartitions?.forEach { it.close() }
+                probePartitions?.forEach { it.close() }
+            }
+        }
+    }
+
+    private fun build() {
+        val buildIter = strategy.evaluate(join.rightArg, bindings)
+        try {
+            while (buildIter.hasNext()) {
+                val rightBindings = buildIter.next()
+                val key = codec.key(rightBindings, joinNames)
+                val hash = hash(key)
+                val record = codec.write(rightBindings)
+
+                val partitions = buildPartitions ?: if (table.put(hash, key, record)) {
+                    continue
+                } else {
+                    spillBuildSide()
+                }
+
+                partitions[partitionOf(hash)].write(pack(hash, key, record))
+            }
+        } finally {
+            buildIter.close()
+        }
+
+        val probe = strategy.evaluate(join.leftArg, bindings)
+        probeIter = probe
+
+        if (buildPartitions != null) {
+            val partitions = List(NUM_PARTITIONS) { SpillFile(spillDirectory) }
+            probePartitions = partitions
+
+            while (probe.hasNext()) {
+                val leftBindings = probe.next()
+                val key = codec.key(leftBindings, joinNames)
+                val hash = hash(key)
+
+                partitions[partitionOf(hash)].write(pack(hash, key, codec.write(leftBindings)))
+            }
+
+            probe.close()
+
+            LOG.debug("Spilled {} build and {} probe bindings of the hash join",
+                buildPartitions!!.map { it.size }.sum(), partitions.map { it.size }.sum())
+        }
+    }
+
+    private fun spillBuildSide(): List<SpillFile> {
+        LOG.debug("The build side of the hash join exceeds {} bytes left of {}, spilling it to disk",
+            memory.limit - memory.reservedBytes, memory.limit)
+
+        val partitions = List(NUM_PARTITIONS) { SpillFile(spillDirectory) }
+        table.forEach { hash, key, record -> partitions[partitionOf(hash)].write(pack(hash, key, record)) }
+        table.clear()
+
+        buildPartitions = partitions
+
+        return partitions
+    }
+
+    /**
+     * A partition may still exceed the budget if the keys are skewed, then it's loaded anyway.
+     */
+    private fun loadPartition(idx: Int) {
+        table.close()
+        table = OffHeapHashTable(memory, false)
+
+        buildPartitions!![idx].iterator().forEach {
+            val (hash, key, record) = unpack(it)
+
+            if (!table.put(hash, key, record)) {
+                throw QueryEvaluationException("A partition of the hash join is too large!")
+            }
+        }
+
+        if (memory.reservedBytes > memory.limit) {
+            LOG.warn("A partition of the hash join takes {} bytes, the budget of the query is {}",
+                table.allocatedBytes, memory.limit)
+        }
+
+        partitionRecords = probePartitions!![idx].iterator()
+    }
+
+    private fun probe(leftBindings: BindingSet, hash: Int, key: ByteArray) {
+        table.forEachMatch(hash, key) { record ->
+            val rightBindings = codec.read(record)
+            if (QueryResults.bindingSetsCompatible(leftBindings, rightBindings)) {
+                val result = QueryBindingSet(leftBindings)
+                rightBindings.forEach {
+                    if (!result.hasBinding(it.name)) {
+                        result.addBinding(it)
+                    }
+                }
+
+                results.add(result)
+            }
+        }
+    }
+
+    private fun hash(key: ByteArray): Int {
+        return HASH_FUNCTION.hashBytes(key).asInt()
+    }
+
+    /**
+     * The partition is taken from the high bits, the buckets of the table use the low ones.
+     */
+    private fun partitionOf(hash: Int): Int {
+        return hash ushr (32 - PARTITION_BITS)
+    }
+
+    private fun pack(hash: Int, key: ByteArray, record: ByteArray): ByteArray {
+        return ByteBuffer.allocate(8 + key.size + record.size)
+            .putInt(hash)
+            .putInt(key.size)
+            .put(key)
+            .put(record)
+            .array()
+    }
+
+    private fun unpack(bytes: ByteArray): Triple<Int, ByteArray, ByteArray> {
+        val buffer = ByteBuffer.wrap(bytes)
+        val hash = buffer.int
+        val key = ByteArray(buffer.int)
+        buffer.get(key)
+        val record = ByteArray(buffer.remaining())
+        buffer.get(record)
+
+        return Triple(hash, key, record)
+    }
+
+}
@@ -0,0 +1,42 @@
+package cc.datafabric.scyllardf.join
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bytes which may be allocated off-heap by the hash joins of a single query. The tables of all joins of the query
+ * reserve their bytes from the same budget, so a query with several hash joins doesn't take a multiple of it.
+ */
+internal class MemoryBudget(val limit: Long) {
+
+    private val reserved = AtomicLong()
+
+    val reservedBytes: Long
+        get() = reserved.get()
+
+    /**
+     * @return false if the bytes don't fit in the rest of the budget, nothing is reserved then
+     */
+    fun tryReserve(bytes: Long): Boolean {
+        while (true) {
+            val current = reserved.get()
+            if (current + bytes > limit) {
+                return false
+            }
+            if (reserved.compareAndSet(current, current + bytes)) {
+                return true
+            }
+        }
+    }
+
+    /**
+     * Reserves the bytes even if they exceed the budget.
+     */
+    fun reserve(bytes: Long) {
+        reserved.addAndGet(bytes)
+    }
+
+    fun release(bytes: Long) {
+        reserved.addAndGet(-bytes)
+    }
+
+}
@@ -0,0 +1,217 @@
+package cc.datafabric.scyllardf.join
+
+import java.io.Closeable
+import java.nio.ByteBuffer
+
+/**
+ * A multimap from keys to records allocated off-heap, so large build sides of hash joins don't add to GC pauses.
+ *
+ * Entries are appended to a single arena and chained per bucket, an entry is
+ * `[next: int][hash: int][key length: int][record length: int][key][record]`. The arena and the bucket heads grow
+ * by doubling while the allocated bytes fit in the [budget], then [put] refuses new entries. If the table isn't
+ * [strict], it grows beyond the budget, but its bytes are still reserved from it. The table isn't thread-safe.
+ */
+internal class OffHeapHashTable(
+    private val budget: MemoryBudget,
+    private val strict: Boolean = true
+) : Closeable {
+
+    companion object {
+        private const val HEADER_SIZE = 16
+        private const val NO_ENTRY = -1
+        private const val INITIAL_ARENA_SIZE = 64 * 1024
+        private const val INITIAL_BUCKETS = 1024
+        private const val LOAD_FACTOR = 0.75
+    }
+
+    private var arena = ByteBuffer.allocateDirect(INITIAL_ARENA_SIZE)
+    private var heads = newHeads(INITIAL_BUCKETS)
+    private var numBuckets = INITIAL_BUCKETS
+    private var closed = false
+
+    var size = 0
+        private set
+
+    init {
+        budget.reserve(allocatedBytes)
+    }
+
+    /**
+     * Bytes allocated off-heap.
+     */
+    val allocatedBytes: Long
+        get() = arena.capacity().toLong() + heads.capacity()
+
+    /**
+     * @return false if the entry doesn't fit in the budget, the table isn't changed then
+     */
+    fun put(hash: Int, key: ByteArray, record: ByteArray): Boolean {
+        val entrySize = HEADER_SIZE + key.size + record.size
+
+        if (size + 1 > numBuckets * LOAD_FACTOR && !rehash(numBuckets * 2)) {
+            return false
+        }
+        if (arena.remaining() < entrySize && !growArena(arena.position().toLong() + entrySize)) {
+            return false
+        }
+
+        val offset = arena.position()
+        val bucket = hash and (numBuckets - 1)
+
+        arena.putInt(heads.getInt(bucket * 4))
+        arena.putInt(hash)
+        arena.putInt(key.size)
+        arena.putInt(record.size)
+        arena.put(key)
+        arena.put(record)
+
+        heads.putInt(bucket * 4, offset)
+        size++
+
+        return true
+    }
+
+    /**
+     * Calls the consumer with records of all entries with the key.
+     */
+    fun forEachMatch(hash: Int, key: ByteArray, consumer: (ByteArray) -> Unit) {
+        var offset = heads.getInt((hash and (numBuckets - 1)) * 4)
+
+        while (offset != NO_ENTRY) {
+            if (arena.getInt(offset + 4) == hash && keyEquals(offset, key)) {
+                val keyLength = arena.getInt(offset + 8)
+                val record = ByteArray(arena.getInt(offset + 12))
+
+                val view = arena.duplicate()
+                view.position(offset + HEADER_SIZE + keyLength)
+                view.get(record)
+
+                consumer(record)
+            }
+
+            offset = arena.getInt(offset)
+        }
+    }
+
+    /**
+     * Calls the consumer with the hash, the key and the record of each entry in the insertion order.
+     */
+    fun forEach(consumer: (Int, ByteArray, ByteArray) -> Unit) {
+        val view = arena.duplicate()
+        view.flip()
+
+        while (view.hasRemaining()) {
+            view.getInt()
+            val hash = view.getInt()
+            val key = ByteArray(view.getInt())
+            val record = ByteArray(view.getInt())
+            view.get(key)
+            view.get(record)
+
+            consumer(hash, key, record)
+        }
+    }
+
+    /**
+     * Drops all entries and shrinks the table to the initial size.
+     */
+    fun clear() {
+        budget.release(allocatedBytes)
+
+        arena = ByteBuffer.allocateDirect(INITIAL_ARENA_SIZE)
+        heads = newHeads(INITIAL_BUCKETS)
+        numBuckets = INITIAL_BUCKETS
+        size = 0
+
+        budget.reserve(allocatedBytes)
+    }
+
+    /**
+     * Returns the allocated bytes to the budget, the table can't be used after that.
+     */
+    override fun close() {
+        if (!closed) {
+            closed = true
+            budget.release(allocatedBytes)
+        }
+    }
+
+    private fun keyEquals(offset: Int, key: ByteArray): Boolean {
+        if (arena.getInt(offset + 8) != key.size) {
+            return false
+        }
+
+        val start = offset + HEADER_SIZE
+        for (i in key.indices) {
+            if (arena.get(start + i) != key[i]) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    private fun growArena(required: Long): Boolean {
+        var capacity = arena.capacity().toLong()
+        while (capacity < required) {
+            capacity *= 2
+        }
+        capacity = Math.min(capacity, Int.MAX_VALUE.toLong())
+
+        if (capacity < required || !reserve(capacity - arena.capacity())) {
+            return false
+        }
+
+        val grown = ByteBuffer.allocateDirect(capacity.toInt())
+        arena.flip()
+        grown.put(arena)
+        arena = grown
+
+        return true
+    }
+
+    /**
+     * The entries are relinked in the new buckets by walking the arena, so no entries are copied.
+     */
+    private fun rehash(buckets: Int): Boolean {
+        if (!reserve(buckets * 4L - heads.capacity())) {
+            return false
+        }
+
+        val rehashed = newHeads(buckets)
+        var offset = 0
+        while (offset < arena.position()) {
+            val bucket = arena.getInt(offset + 4) and (buckets - 1)
+
+            arena.putInt(offset, rehashed.getInt(bucket * 4))
+            rehashed.putInt(bucket * 4, offset)
+
+            offset += HEADER_SIZE + arena.getInt(offset + 8) + arena.getInt(offset + 12)
+        }
+
+        heads = rehashed
+        numBuckets = buckets
+
+        return true
+    }
+
+    private fun reserve(bytes: Long): Boolean {
+        if (strict) {
+            return budget.tryReserve(bytes)
+        }
+
+        budget.reserve(bytes)
+
+        return true
+    }
+
+    private fun newHeads(buckets: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(buckets * 4)
+        for (i in 0 until buckets) {
+            buffer.putInt(i * 4, NO_ENTRY)
+        }
+
+        return buffer
+    }
+
+}
@@ -0,0 +1,92 @@
+package cc.datafabric.scyllardf.join
+
+import java.io.Closeable
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * A temporary file of length-prefixed records written and read through memory-mapped regions. Records are
+ * appended to the current region, a record which doesn't fit in it starts a new one. The file is deleted on close.
+ */
+internal class SpillFile(directory: Path?, private val regionSize: Int = DEFAULT_REGION_SIZE) : Closeable {
+
+    companion object {
+        const val DEFAULT_REGION_SIZE = 8 * 1024 * 1024
+
+        private const val PREFIX = "scylla-rdf-spill-"
+    }
+
+    private class Region(val offset: Long, var used: Int)
+
+    private val path: Path = if (directory == null) {
+        Files.createTempFile(PREFIX, null)
+    } else {
+        Files.createTempFile(directory, PREFIX, null)
+    }
+    private val channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+    private val regions = mutableListOf<Region>()
+
+    private var current: MappedByteBuffer? = null
+    private var end = 0L
+
+    var size = 0L
+        private set
+
+    fun write(record: ByteArray) {
+        val required = 4 + record.size
+
+        var buffer = current
+        if (buffer == null || buffer.remaining() < required) {
+            val length = Math.max(regionSize, required)
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, end, length.toLong())
+            regions.add(Region(end, 0))
+
+            end += length
+            current = buffer
+        }
+
+        buffer!!.putInt(record.size)
+        buffer.put(record)
+
+        regions.last().used += required
+        size++
+    }
+
+    /**
+     * Returns the records in the order they were written, the regions are mapped one by one.
+     */
+    fun iterator(): Iterator<ByteArray> {
+        current = null
+
+        return regions.asSequence()
+            .flatMap { region ->
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, region.offset, region.used.toLong())
+
+                generateSequence {
+                    if (buffer.hasRemaining()) {
+                        val record = ByteArray(buffer.getInt())
+                        buffer.get(record)
+
+                        record
+                    } else {
+                        null
+                    }
+                }
+            }
+            .iterator()
+    }
+
+    override fun close() {
+        current = null
+
+        try {
+            channel.close()
+        } finally {
+            Files.deleteIfExists(path)
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package cc.datafabric.scyllardf.join
+
+import org.eclipse.rdf4j.model.IRI
+import org.eclipse.rdf4j.query.algebra.AbstractQueryModelNode
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
+import org.eclipse.rdf4j.query.algebra.QueryModelVisitor
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.Var
+
+/**
+ * A join of statement patterns sharing the subject, evaluated by [SubjectStarIteration] from a single read of
+ * the subject's S_POC partition instead of a lookup per pattern. The patterns are kept in the order chosen by
+ * the join optimizer, the first one finds the subjects if the subject isn't bound.
+ */
+class SubjectStar(patterns: List<StatementPattern>) : AbstractQueryModelNode(), TupleExpr {
+
+    private val members = patterns.toMutableList()
+
+    init {
+        require(members.size > 1) { "A star consists of at least two patterns!" }
+
+        members.forEach { it.parentNode = this }
+    }
+
+    val patterns: List<StatementPattern>
+        get() = members
+
+    val subjectVar: Var
+        get() = patterns[0].subjectVar
+
+    /**
+     * Distinct predicates of the patterns, or null if any of them is a variable, then the whole partition is read.
+     */
+    val predicates: List<IRI>?
+        get() {
+            if (patterns.any { !it.predicateVar.hasValue() }) {
+                return null
+            }
+
+            return patterns.map { it.predicateVar.value as IRI }.distinct()
+        }
+
+    /**
+     * The same patterns as a plain join, e.g. to read them one by one.
+     */
+    fun toJoin(): TupleExpr {
+        return patterns.map { it.clone() as TupleExpr }.reduce { left, right -> Join(left, right) }
+    }
+
+    override fun getBindingNames(): Set<String> {
+        return patterns.flatMapTo(LinkedHashSet()) { it.bindingNames }
+    }
+
+    override fun getAssuredBindingNames(): Set<String> {
+        return patterns.flatMapTo(LinkedHashSet()) { it.assuredBindingNames }
+    }
+
+    override fun <X : Exception> visit(visitor: QueryModelVisitor<X>) {
+        visitor.meetOther(this)
+    }
+
+    override fun <X : Exception> visitChildren(visitor: QueryModelVisitor<X>) {
+        patterns.forEach { it.visit(visitor) }
+    }
+
+    override fun replaceChildNode(current: QueryModelNode, replacement: QueryModelNode) {
+        val index = members.indexOfFirst { it === current }
+        if (index < 0) {
+            super.replaceChildNode(current, replacement)
+            return
+        }
+        if (replacement !is StatementPattern) {
+            throw IllegalArgumentException("A star consists of statement patterns only!")
+        }
+
+        members[index] = replacement
+        replacement.parentNode = this
+    }
+
+    override fun clone(): SubjectStar {
+        return SubjectStar(patterns.map { it.clone() })
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is SubjectStar && patterns == other.patterns
+    }
+
+    override fun hashCode(): Int {
+        return patterns.hashCode() xor "SubjectStar".hashCode()
+    }
+
+}
@@ -0,0 +1,143 @@
+package cc.datafabric.scyllardf.join
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.Iterations
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet
+import java.nio.ByteBuffer
+
+/**
+ * Matches the patterns of a [SubjectStar] against the quads of a single subject and returns all combinations
+ * of the matches. The quads are read on the first call, so the read is already in flight while the iteration
+ * waits in a block of a bind join. Values are compared by their encoded form and bound as encoded values.
+ *
+ * Combinations are produced lazily by a depth-first walk over the patterns, so a subject with many values of
+ * several predicates doesn't materialize the whole cross product.
+ */
+internal class SubjectStarIteration(
+    private val coder: ICoderFacade,
+    patterns: List<StatementPattern>,
+    private val quads: CloseableIteration<Array<ByteBuffer>, QueryEvaluationException>,
+    private val bindings: BindingSet
+) : LookAheadIteration<BindingSet, QueryEvaluationException>() {
+
+    /**
+     * A position of a pattern, either a constant or a variable.
+     */
+    private class Term(val name: String, val value: ByteBuffer?)
+
+    private val terms = patterns.map { sp ->
+        listOf(sp.subjectVar, sp.predicateVar, sp.objectVar).map { toTerm(it) }
+    }
+
+    /**
+     * Quads matching the constants of each pattern, set once the quads are read.
+     */
+    private var candidates: List<List<Array<ByteBuffer>>>? = null
+
+    /**
+     * Values bound before matching the pattern at the same index, the last one is a complete combination.
+     */
+    private val frames = arrayOfNulls<Map<String, ByteBuffer>>(patterns.size + 1)
+    private val cursors = IntArray(patterns.size)
+    private var depth = 0
+
+    override fun getNextElement(): BindingSet? {
+        val candidates = this.candidates ?: readCandidates()
+
+        while (depth >= 0) {
+            if (depth == terms.size) {
+                depth--
+
+                return toBindingSet(frames[terms.size]!!)
+            }
+
+            var matched: Map<String, ByteBuffer>? = null
+            val levelCandidates = candidates[depth]
+            while (matched == null && cursors[depth] < levelCandidates.size) {
+                matched = match(terms[depth], levelCandidates[cursors[depth]++], frames[depth]!!)
+            }
+
+            if (matched == null) {
+                cursors[depth] = 0
+                depth--
+            } else {
+                frames[++depth] = matched
+            }
+        }
+
+        return null
+    }
+
+    override fun handleClose() {
+        try {
+            super.handleClose()
+        } finally {
+            quads.close()
+        }
+    }
+
+    private fun readCandidates(): List<List<Array<ByteBuffer>>> {
+        val all = Iterations.asList(quads)
+
+        val initial = HashMap<String, ByteBuffer>()
+        terms.flatten()
+            .filter { it.value == null && bindings.hasBinding(it.name) }
+            .forEach { initial[it.name] = coder.encode(bindings.getValue(it.name))!! }
+        frames[0] = initial
+
+        val candidates = terms.map { pattern ->
+            all.filter { quad -> pattern.indices.all { pattern[it].value == null || pattern[it].value == quad[it] } }
+        }
+        this.candidates = candidates
+
+        return candidates
+    }
+
+    /**
+     * @return the frame extended by the variables of the pattern, or null if the quad conflicts with the frame
+     */
+    private fun match(pattern: List<Term>, quad: Array<ByteBuffer>, frame: Map<String, ByteBuffer>)
+            : Map<String, ByteBuffer>? {
+        var extended: MutableMap<String, ByteBuffer>? = null
+
+        pattern.forEachIndexed { index, term ->
+            if (term.value == null) {
+                val bound = extended?.get(term.name) ?: frame[term.name]
+
+                if (bound == null) {
+                    if (extended == null) {
+                        extended = HashMap(frame)
+                    }
+                    extended!![term.name] = quad[index]
+                } else if (bound != quad[index]) {
+                    return null
+                }
+            }
+        }
+
+        return extended ?: frame
+    }
+
+    private fun toBindingSet(frame: Map<String, ByteBuffer>): BindingSet {
+        val result = QueryBindingSet(bindings)
+
+        frame.forEach { (name, value) ->
+            if (!result.hasBinding(name)) {
+                result.addBinding(name, coder.decode(value))
+            }
+        }
+
+        return result
+    }
+
+    private fun toTerm(v: Var): Term {
+        return Term(v.name, if (v.hasValue()) coder.encode(v.value) else null)
+    }
+
+}
@@ -0,0 +1,115 @@
+package cc.datafabric.scyllardf.loader
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.Properties
+import java.util.TreeSet
+
+/**
+ * Chunks of each file which were written to Scylla. Chunks are written out of order, so the progress of a file
+ * is kept as a watermark (all chunks up to it are written) and the set of written chunks above it.
+ *
+ * The checkpoint is a properties file with a line per file: `<path>=complete` or `<path>=<watermark>:<chunk>,...`.
+ */
+internal class BulkLoadCheckpoint(private val path: Path?) {
+
+    companion object {
+        private const val COMPLETE = "complete"
+    }
+
+    private val files = mutableMapOf<String, FileProgress>()
+
+    init {
+        if (path != null && Files.exists(path)) {
+            val props = Properties()
+            Files.newBufferedReader(path).use { props.load(it) }
+
+            props.stringPropertyNames().forEach { key ->
+                files[key] = FileProgress.parse(props.getProperty(key))
+            }
+        }
+    }
+
+    @Synchronized
+    fun isComplete(file: Path): Boolean {
+        return files[key(file)]?.complete ?: false
+    }
+
+    @Synchronized
+    fun isWritten(file: Path, chunk: Long): Boolean {
+        return files[key(file)]?.contains(chunk) ?: false
+    }
+
+    @Synchronized
+    fun markWritten(file: Path, chunk: Long) {
+        files.getOrPut(key(file)) { FileProgress() }.add(chunk)
+    }
+
+    @Synchronized
+    fun markComplete(file: Path) {
+        files.getOrPut(key(file)) { FileProgress() }.complete = true
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it in place, so a crash doesn't leave a broken checkpoint.
+     */
+    @Synchronized
+    fun save() {
+        if (path == null) {
+            return
+        }
+
+        val props = Properties()
+        files.forEach { (key, progress) -> props.setProperty(key, progress.toString()) }
+
+        val tmp = path.resolveSibling(path.fileName.toString() + ".tmp")
+        Files.newBufferedWriter(tmp).use { props.store(it, null) }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    private fun key(file: Path): String {
+        return file.toAbsolutePath().normalize().toString()
+    }
+
+    private class FileProgress(
+        var watermark: Long = -1,
+        val written: TreeSet<Long> = TreeSet(),
+        var complete: Boolean = false
+    ) {
+
+        companion object {
+            fun parse(value: String): FileProgress {
+                if (value == COMPLETE) {
+                    return FileProgress(complete = true)
+                }
+
+                val parts = value.split(":", limit = 2)
+                val written = TreeSet<Long>()
+                if (parts.size > 1 && parts[1].isNotEmpty()) {
+                    parts[1].split(",").mapTo(written) { it.toLong() }
+                }
+
+                return FileProgress(parts[0].toLong(), written)
+            }
+        }
+
+        fun contains(chunk: Long): Boolean {
+            return complete || chunk <= watermark || written.contains(chunk)
+        }
+
+        fun add(chunk: Long) {
+            written.add(chunk)
+
+            while (written.isNotEmpty() && written.first() == watermark + 1) {
+                watermark = written.pollFirst()!!
+            }
+        }
+
+        override fun toString(): String {
+            return if (complete) COMPLETE else "$watermark:${written.joinToString(",")}"
+        }
+
+    }
+
+}
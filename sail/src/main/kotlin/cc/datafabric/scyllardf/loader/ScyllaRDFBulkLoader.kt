@@ -0,0 +1,320 @@
+package cc.datafabric.scyllardf.loader
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import cc.datafabric.scyllardf.dao.ICardinalityDAO
+import cc.datafabric.scyllardf.dao.IIndexDAO
+import cc.datafabric.scyllardf.dao.InFlightWindow
+import com.codahale.metrics.MetricRegistry
+import org.eclipse.rdf4j.model.Statement
+import org.eclipse.rdf4j.rio.RDFFormat
+import org.eclipse.rdf4j.rio.Rio
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler
+import org.eclipse.rdf4j.rio.helpers.BasicParserSettings
+import org.eclipse.rdf4j.sail.SailException
+import org.slf4j.LoggerFactory
+import java.io.BufferedInputStream
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import java.util.zip.GZIPInputStream
+
+/**
+ * Loads N-Triples, N-Quads and Turtle files (optionally gzipped) directly to Scylla.
+ *
+ * Files are parsed one by one by the calling thread, parsed statements are encoded by
+ * [ScyllaRDFBulkLoaderOptions.encoderThreads] workers and written by a single writer in partition-grouped batches.
+ * The stages are connected with bounded queues, so a slow stage blocks the previous one instead of filling the heap.
+ *
+ * Counters are accumulated in memory apart from the other writers of the cardinality DAO, see
+ * [ICardinalityDAO.withOwnDeltas], and flushed only along with the checkpoint, so after a crash the load is resumed
+ * from the last checkpoint. If the load fails, the deltas of the chunks written after the last checkpoint are
+ * discarded, since the chunks are written again by the next run.
+ *
+ * A file is split into chunks of the same size on every run, so [ScyllaRDFBulkLoaderOptions.chunkSize] must not be
+ * changed between runs. Blank node ids are preserved, so resuming a file with anonymous blank nodes (e.g. `[]` in
+ * Turtle) isn't supported.
+ */
+class ScyllaRDFBulkLoader(
+    private val indexDao: IIndexDAO,
+    cardinalityDao: ICardinalityDAO,
+    private val coder: ICoderFacade,
+    private val options: ScyllaRDFBulkLoaderOptions = ScyllaRDFBulkLoaderOptions(),
+    metrics: MetricRegistry = MetricRegistry()
+) {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(ScyllaRDFBulkLoader::class.java)
+
+        private const val POLL_TIMEOUT_MILLIS = 100L
+        private const val GZIP_SUFFIX = ".gz"
+
+        fun formatOf(file: Path): RDFFormat {
+            return Rio.getParserFormatForFileName(file.fileName.toString().removeSuffix(GZIP_SUFFIX))
+                .orElseThrow { IllegalArgumentException("Unsupported format of $file!") }
+        }
+    }
+
+    private val cardinalityDao = cardinalityDao.withOwnDeltas()
+
+    private val loadedStatements = metrics.meter(MetricRegistry.name(ScyllaRDFBulkLoader::class.java, "statements"))
+
+    /**
+     * @return number of statements written by this run
+     */
+    fun load(files: List<Path>): Long {
+        val formats = files.map { formatOf(it) }
+        val checkpoint = BulkLoadCheckpoint(options.checkpointFile)
+        val pipeline = Pipeline()
+
+        val threadNumber = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(options.encoderThreads + 1) { runnable ->
+            val thread = Thread(runnable, "scylla-rdf-loader-${threadNumber.getAndIncrement()}")
+            thread.isDaemon = true
+            thread
+        }
+
+        var failed = false
+        try {
+            repeat(options.encoderThreads) {
+                executor.submit(Runnable { pipeline.guard { encode(pipeline) } })
+            }
+            val writer = executor.submit(Callable { pipeline.guard { write(pipeline, checkpoint) } })
+
+            files.forEachIndexed { i, file ->
+                if (checkpoint.isComplete(file)) {
+                    LOG.info("Skipping {}, it's already loaded", file)
+                } else {
+                    LOG.info("Loading {}", file)
+                    parse(file, formats[i], pipeline, checkpoint)
+                }
+            }
+            repeat(options.encoderThreads) { pipeline.put(pipeline.parsed, ParsedChunk.END) }
+
+            val total = writer.get()
+
+            files.forEach { checkpoint.markComplete(it) }
+            checkpoint.save()
+
+            return total
+        } catch (ex: Exception) {
+            failed = true
+            val cause = pipeline.fail(ex)
+
+            throw cause as? SailException ?: SailException(cause)
+        } finally {
+            executor.shutdownNow()
+
+            if (failed) {
+                // The writer mustn't add deltas after they're discarded
+                executor.awaitTermination(1, TimeUnit.MINUTES)
+                cardinalityDao.discardCards()
+            }
+        }
+    }
+
+    private fun parse(file: Path, format: RDFFormat, pipeline: Pipeline, checkpoint: BulkLoadCheckpoint) {
+        val parser = Rio.createParser(format)
+        parser.parserConfig.set(BasicParserSettings.PRESERVE_BNODE_IDS, true)
+        parser.setRDFHandler(object : AbstractRDFHandler() {
+            private var index = 0L
+            private var statements = ArrayList<Statement>(options.chunkSize)
+
+            override fun handleStatement(st: Statement) {
+                statements.add(st)
+                if (statements.size == options.chunkSize) {
+                    emit()
+                }
+            }
+
+            override fun endRDF() {
+                if (statements.isNotEmpty()) {
+                    emit()
+                }
+            }
+
+            private fun emit() {
+                if (!checkpoint.isWritten(file, index)) {
+                    pipeline.put(pipeline.parsed, ParsedChunk(file, index, statements))
+                }
+
+                index++
+                statements = ArrayList(options.chunkSize)
+            }
+        })
+
+        open(file).use { parser.parse(it, file.toUri().toString()) }
+    }
+
+    private fun encode(pipeline: Pipeline) {
+        while (true) {
+            val chunk = pipeline.take(pipeline.parsed)
+            if (chunk === ParsedChunk.END) {
+                pipeline.put(pipeline.encoded, EncodedChunk.END)
+                return
+            }
+
+            pipeline.put(pipeline.encoded, EncodedChunk(chunk.file, chunk.index, chunk.statements.map {
+                coder.encode(it)
+            }))
+        }
+    }
+
+    private fun write(pipeline: Pipeline, checkpoint: BulkLoadCheckpoint): Long {
+        val window = InFlightWindow(options.maxInFlightWrites)
+        val pending = mutableListOf<EncodedChunk>()
+        val progress = Progress()
+
+        var ends = 0
+        while (ends < options.encoderThreads) {
+            val chunk = pipeline.take(pipeline.encoded)
+            if (chunk === EncodedChunk.END) {
+                ends++
+                continue
+            }
+
+            indexDao.addStatements(chunk.quads, window)
+            chunk.quads.forEach { cardinalityDao.incrementCards(it[0], it[1], it[2], it[3]) }
+
+            pending.add(chunk)
+            if (pending.size >= options.checkpointInterval) {
+                saveCheckpoint(window, pending, checkpoint)
+            }
+
+            loadedStatements.mark(chunk.quads.size.toLong())
+            progress.update(chunk.quads.size)
+        }
+
+        saveCheckpoint(window, pending, checkpoint)
+        progress.done()
+
+        return progress.total
+    }
+
+    /**
+     * Waits until the pending chunks are written, then flushes the counters and marks the chunks as written.
+     */
+    private fun saveCheckpoint(
+        window: InFlightWindow,
+        pending: MutableList<EncodedChunk>,
+        checkpoint: BulkLoadCheckpoint
+    ) {
+        window.await()
+        cardinalityDao.flushCards()
+
+        pending.forEach { checkpoint.markWritten(it.file!!, it.index) }
+        checkpoint.save()
+
+        pending.clear()
+    }
+
+    private fun open(file: Path): InputStream {
+        val input = BufferedInputStream(Files.newInputStream(file))
+
+        return if (file.fileName.toString().endsWith(GZIP_SUFFIX)) {
+            GZIPInputStream(input)
+        } else {
+            input
+        }
+    }
+
+    private inner class Progress {
+        private val started = System.currentTimeMillis()
+        private var reportedAt = started
+        private var reportedTotal = 0L
+
+        var total = 0L
+            private set
+
+        fun update(written: Int) {
+            total += written
+
+            val now = System.currentTimeMillis()
+            if (now - reportedAt >= options.progressIntervalMillis) {
+                LOG.info("Loaded {} statements, {} statements/s", total,
+                    (total - reportedTotal) * 1000 / (now - reportedAt))
+
+                reportedAt = now
+                reportedTotal = total
+            }
+        }
+
+        fun done() {
+            val elapsed = Math.max(System.currentTimeMillis() - started, 1)
+
+            LOG.info("Loaded {} statements in {} s, {} statements/s", total, elapsed / 1000, total * 1000 / elapsed)
+        }
+    }
+
+    /**
+     * Queues between the stages. If any of the stages fails, the others stop waiting on the queues.
+     */
+    private inner class Pipeline {
+        val parsed: BlockingQueue<ParsedChunk> = ArrayBlockingQueue(options.queueCapacity)
+        val encoded: BlockingQueue<EncodedChunk> = ArrayBlockingQueue(options.queueCapacity)
+
+        private val failure = AtomicReference<Throwable>()
+
+        fun <T> put(queue: BlockingQueue<T>, item: T) {
+            while (!queue.offer(item, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure()
+            }
+        }
+
+        fun <T> take(queue: BlockingQueue<T>): T {
+            while (true) {
+                val item = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                if (item != null) {
+                    return item
+                }
+
+                checkFailure()
+            }
+        }
+
+        fun <T> guard(block: () -> T): T {
+            try {
+                return block.invoke()
+            } catch (ex: Throwable) {
+                fail(ex)
+                throw ex
+            }
+        }
+
+        /**
+         * @return the first failure
+         */
+        fun fail(t: Throwable): Throwable {
+            failure.compareAndSet(null, t)
+
+            return failure.get()
+        }
+
+        private fun checkFailure() {
+            if (failure.get() != null) {
+                throw CancellationException("The load was aborted!")
+            }
+        }
+    }
+
+    private class ParsedChunk(val file: Path?, val index: Long, val statements: List<Statement>) {
+        companion object {
+            val END = ParsedChunk(null, -1, emptyList())
+        }
+    }
+
+    private class EncodedChunk(val file: Path?, val index: Long, val quads: List<Array<ByteBuffer>>) {
+        companion object {
+            val END = EncodedChunk(null, -1, emptyList())
+        }
+    }
+
+}
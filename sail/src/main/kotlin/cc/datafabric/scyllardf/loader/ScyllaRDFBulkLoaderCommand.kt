@@ -0,0 +1,81 @@
+package cc.datafabric.scyllardf.loader
+
+import cc.datafabric.scyllardf.coder.CoderFacade
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDAOFactory
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDAOOptions
+import java.net.InetAddress
+import java.nio.file.Path
+import java.nio.file.Paths
+import kotlin.system.exitProcess
+
+/**
+ * Command line interface of [ScyllaRDFBulkLoader]:
+ *
+ * ```
+ * java -cp sail.jar cc.datafabric.scyllardf.loader.ScyllaRDFBulkLoaderCommand \
+ *     --hosts 127.0.0.1 --keyspace triplestore --checkpoint load.checkpoint data/*.nt.gz
+ * ```
+ */
+object ScyllaRDFBulkLoaderCommand {
+
+    private const val USAGE = "Usage: ScyllaRDFBulkLoaderCommand --hosts <host,...> [--port 9042] " +
+        "[--keyspace triplestore] [--replication-factor 1] [--threads <n>] [--chunk-size 10000] " +
+        "[--batch-size 32] [--max-in-flight 256] [--checkpoint <file>] <file>..."
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val options = mutableMapOf<String, String>()
+        val files = mutableListOf<Path>()
+
+        var i = 0
+        while (i < args.size) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 >= args.size) {
+                    exit("Missing value of ${args[i]}!")
+                }
+
+                options[args[i].removePrefix("--")] = args[i + 1]
+                i += 2
+            } else {
+                files.add(Paths.get(args[i]))
+                i++
+            }
+        }
+
+        if (!options.containsKey("hosts") || files.isEmpty()) {
+            exit(USAGE)
+        }
+
+        val loaderOptions = ScyllaRDFBulkLoaderOptions(
+            encoderThreads = options["threads"]?.toInt() ?: Runtime.getRuntime().availableProcessors(),
+            chunkSize = options["chunk-size"]?.toInt() ?: 10000,
+            maxInFlightWrites = options["max-in-flight"]?.toInt() ?: 256,
+            checkpointFile = options["checkpoint"]?.let { Paths.get(it) }
+        )
+
+        val daoOptions = ScyllaRDFDAOOptions(
+            batchSize = options["batch-size"]?.toInt() ?: ScyllaRDFDAOOptions.DEFAULT_BATCH_SIZE
+        )
+
+        ScyllaRDFDAOFactory.create(
+            options.getValue("hosts").split(",").map { InetAddress.getByName(it.trim()) },
+            options["port"]?.toInt() ?: 9042,
+            options["keyspace"] ?: "triplestore",
+            options["replication-factor"]?.toInt() ?: 1,
+            daoOptions
+        ).use { factory ->
+            val coder = CoderFacade()
+            coder.initialize(factory.getDictionaryDAO(), true)
+
+            ScyllaRDFBulkLoader(
+                factory.getIndexDAO(), factory.getCardinalityDAO(), coder, loaderOptions, factory.metrics
+            ).load(files)
+        }
+    }
+
+    private fun exit(message: String): Nothing {
+        System.err.println(message)
+        exitProcess(1)
+    }
+
+}
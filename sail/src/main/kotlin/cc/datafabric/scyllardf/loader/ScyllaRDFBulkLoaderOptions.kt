@@ -0,0 +1,49 @@
+package cc.datafabric.scyllardf.loader
+
+import java.nio.file.Path
+
+/**
+ * Tuning options of [ScyllaRDFBulkLoader].
+ */
+data class ScyllaRDFBulkLoaderOptions(
+    /**
+     * Number of threads encoding parsed statements.
+     */
+    val encoderThreads: Int = Runtime.getRuntime().availableProcessors(),
+
+    /**
+     * Number of statements passed between the stages at once.
+     */
+    val chunkSize: Int = 10000,
+
+    /**
+     * Max number of chunks waiting in each of the queues between the stages.
+     */
+    val queueCapacity: Int = 16,
+
+    /**
+     * Max number of write requests being sent to Scylla concurrently.
+     */
+    val maxInFlightWrites: Int = 256,
+
+    /**
+     * Number of written chunks after which the counters are flushed and the checkpoint is saved.
+     */
+    val checkpointInterval: Int = 100,
+
+    /**
+     * The file the progress is saved to. If it's null, the load can't be resumed.
+     */
+    val checkpointFile: Path? = null,
+
+    val progressIntervalMillis: Long = 10000
+) {
+
+    init {
+        require(encoderThreads > 0) { "encoderThreads must be positive!" }
+        require(chunkSize > 0) { "chunkSize must be positive!" }
+        require(queueCapacity > 0) { "queueCapacity must be positive!" }
+        require(checkpointInterval > 0) { "checkpointInterval must be positive!" }
+    }
+
+}
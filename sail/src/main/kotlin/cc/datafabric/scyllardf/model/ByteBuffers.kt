@@ -0,0 +1,36 @@
+package cc.datafabric.scyllardf.model
+
+import com.google.common.hash.Hasher
+import java.nio.ByteBuffer
+
+/**
+ * Encoded values are usually wrapped arrays, but the ones read by the driver may be slices of a larger buffer, so
+ * their bytes are read without changing the position.
+ */
+internal object ByteBuffers {
+
+    /**
+     * Calls the block with the remaining bytes of the buffer as an array, an offset and a length. The bytes are
+     * copied only if the buffer isn't backed by an array.
+     */
+    inline fun <T> withBytes(buffer: ByteBuffer, block: (ByteArray, Int, Int) -> T): T {
+        if (buffer.hasArray()) {
+            return block(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+        }
+
+        val bytes = ByteArray(buffer.remaining())
+        buffer.duplicate().get(bytes)
+
+        return block(bytes, 0, bytes.size)
+    }
+
+    /**
+     * Puts the length before the bytes, so a hash of several buffers differs if the bytes are split differently.
+     */
+    fun putLengthPrefixed(hasher: Hasher, buffer: ByteBuffer) {
+        hasher.putInt(buffer.remaining())
+
+        withBytes(buffer) { bytes, offset, length -> hasher.putBytes(bytes, offset, length) }
+    }
+
+}
@@ -0,0 +1,13 @@
+package cc.datafabric.scyllardf.model
+
+import java.nio.ByteBuffer
+
+/**
+ * A value read from Scylla which keeps its encoded form. It's used as is when the value is bound to a pattern
+ * or compared to another encoded value, so the value is decoded only if its lexical form is needed.
+ */
+interface IEncodedValue {
+
+    val encoded: ByteBuffer
+
+}
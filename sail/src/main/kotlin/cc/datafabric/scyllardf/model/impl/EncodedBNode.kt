@@ -1,6 +1,7 @@
 package cc.datafabric.scyllardf.model.impl
 
 import cc.datafabric.scyllardf.coder.ICoder
+import cc.datafabric.scyllardf.model.IEncodedValue
 import org.eclipse.rdf4j.model.BNode
 import org.eclipse.rdf4j.model.impl.SimpleBNode
 import java.nio.ByteBuffer
@@ -8,10 +9,13 @@ import java.nio.ByteBuffer
 internal class EncodedBNode(
     private val coder: ICoder<BNode>,
     private val hash: ByteBuffer
-) : BNode {
+) : BNode, IEncodedValue {
 
     private var decodedBNode: BNode? = null
 
+    override val encoded: ByteBuffer
+        get() = hash
+
     private fun decodeIfNeeded() {
         if (decodedBNode == null) {
             synchronized(this) {
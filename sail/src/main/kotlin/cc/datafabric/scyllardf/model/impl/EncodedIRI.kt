@@ -1,6 +1,7 @@
 package cc.datafabric.scyllardf.model.impl
 
 import cc.datafabric.scyllardf.coder.ICoder
+import cc.datafabric.scyllardf.model.IEncodedValue
 import org.eclipse.rdf4j.model.IRI
 import org.eclipse.rdf4j.model.impl.SimpleIRI
 import java.nio.ByteBuffer
@@ -8,10 +9,13 @@ import java.nio.ByteBuffer
 internal class EncodedIRI constructor(
     private val coder: ICoder<IRI>,
     private val hash: ByteBuffer
-) : IRI {
+) : IRI, IEncodedValue {
 
     private var decodedIRI: IRI? = null
 
+    override val encoded: ByteBuffer
+        get() = hash
+
     private fun decodeIfNeeded() {
         if (decodedIRI == null) {
             synchronized(this) {
@@ -1,6 +1,7 @@
 package cc.datafabric.scyllardf.model.impl
 
 import cc.datafabric.scyllardf.coder.ICoder
+import cc.datafabric.scyllardf.model.IEncodedValue
 import org.eclipse.rdf4j.model.IRI
 import org.eclipse.rdf4j.model.Literal
 import org.eclipse.rdf4j.model.impl.SimpleLiteral
@@ -13,10 +14,13 @@ import javax.xml.datatype.XMLGregorianCalendar
 internal class EncodedLiteral constructor(
     private val coder: ICoder<Literal>,
     private val hash: ByteBuffer
-) : Literal {
+) : Literal, IEncodedValue {
 
     private var decodedLiteral: Literal? = null
 
+    override val encoded: ByteBuffer
+        get() = hash
+
     private fun decodeIfNeeded() {
         if (decodedLiteral == null) {
             synchronized(this) {
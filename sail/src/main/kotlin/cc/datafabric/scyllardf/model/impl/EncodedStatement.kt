@@ -0,0 +1,65 @@
+package cc.datafabric.scyllardf.model.impl
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.eclipse.rdf4j.model.IRI
+import org.eclipse.rdf4j.model.Resource
+import org.eclipse.rdf4j.model.Statement
+import org.eclipse.rdf4j.model.Value
+import java.nio.ByteBuffer
+import java.util.Objects
+
+/**
+ * A statement backed by an encoded (s, p, o, c) quad. The encoded values are created only for the positions which
+ * are accessed, e.g. the evaluation of a statement pattern reads only the positions of unbound variables.
+ */
+internal class EncodedStatement(
+    private val coder: ICoderFacade,
+    private val spoc: Array<ByteBuffer>
+) : Statement {
+
+    override fun getSubject(): Resource {
+        return coder.decode(spoc[0]) as Resource
+    }
+
+    override fun getPredicate(): IRI {
+        return coder.decode(spoc[1]) as IRI
+    }
+
+    override fun getObject(): Value {
+        return coder.decode(spoc[2])
+    }
+
+    override fun getContext(): Resource? {
+        return if (spoc[3] == ScyllaRDFSchema.CONTEXT_DEFAULT) {
+            null
+        } else {
+            coder.decode(spoc[3]) as Resource
+        }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) {
+            return true
+        }
+
+        if (other is EncodedStatement) {
+            return spoc.contentEquals(other.spoc)
+        }
+        if (other is Statement) {
+            return subject == other.subject && predicate == other.predicate && `object` == other.`object` &&
+                context == other.context
+        }
+
+        return false
+    }
+
+    override fun hashCode(): Int {
+        return Objects.hash(subject, predicate, `object`, context)
+    }
+
+    override fun toString(): String {
+        return "($subject, $predicate, ${`object`}) [$context]"
+    }
+
+}
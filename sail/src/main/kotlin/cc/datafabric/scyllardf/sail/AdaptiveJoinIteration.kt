@@ -0,0 +1,147 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy
+import org.slf4j.LoggerFactory
+
+/**
+ * Evaluates a left-deep join by blocks of [BLOCK_SIZE] rows of its first argument, each block is joined with
+ * the rest of the join in the latest order. The rows of the first argument and the rows of the join per row of
+ * the first argument are counted, once either differs from the estimate by [replanRatio] times, the rest of
+ * the join is re-planned by [JoinOrderOptimizer] with the lookups observed so far. Blocks are joined
+ * independently, so the next block just uses the new order.
+ *
+ * If the first argument is a statement pattern which isn't read to the end, the number of rows read so far is
+ * recorded to the [ObservedCardinalities] on close if it's above the estimate.
+ */
+internal class AdaptiveJoinIteration(
+    private val strategy: EvaluationStrategy,
+    private val statistics: ScyllaRDFEvaluationStatistics,
+    private val optimizer: JoinOrderOptimizer,
+    args: List<TupleExpr>,
+    estimatedRows: Double,
+    private val bindings: BindingSet,
+    private val replanRatio: Double
+) : LookAheadIteration<BindingSet, QueryEvaluationException>() {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(AdaptiveJoinIteration::class.java)
+
+        const val BLOCK_SIZE = 1024
+        const val MAX_REPLANS = 4
+    }
+
+    // The arguments are re-parented to the join of each block
+    private val first = args[0].clone()
+    private var rest = args.drop(1).map { it.clone() }
+
+    private val initialFirstRows = statistics.estimateRows(first)
+    private var estimatedFirstRows = Math.max(initialFirstRows, 1.0)
+    private var estimatedRowsPerFirst = estimatedRows / estimatedFirstRows
+
+    private val firstIter = strategy.evaluate(first, bindings)
+    private var blockIter: CloseableIteration<BindingSet, QueryEvaluationException>? = null
+    private var blockFirstRows = 0
+    private var firstExhausted = false
+
+    private var firstRows = 0L
+    private var joinedFirstRows = 0L
+    private var joinedRows = 0L
+    private var replans = 0
+
+    override fun getNextElement(): BindingSet? {
+        while (true) {
+            val current = blockIter
+            if (current != null) {
+                if (current.hasNext()) {
+                    joinedRows++
+
+                    return current.next()
+                }
+
+                current.close()
+                blockIter = null
+                joinedFirstRows += blockFirstRows
+
+                adapt()
+            }
+
+            val block = ArrayList<BindingSet>(BLOCK_SIZE)
+            while (block.size < BLOCK_SIZE) {
+                if (!firstIter.hasNext()) {
+                    firstExhausted = true
+                    break
+                }
+
+                block.add(firstIter.next())
+            }
+            if (block.isEmpty()) {
+                return null
+            }
+
+            firstRows += block.size
+            blockFirstRows = block.size
+            blockIter = strategy.evaluate(join(block), bindings)
+        }
+    }
+
+    override fun handleClose() {
+        try {
+            super.handleClose()
+        } finally {
+            try {
+                blockIter?.close()
+            } finally {
+                firstIter.close()
+            }
+
+            val observed = statistics.observed
+            if (observed != null && first is StatementPattern && firstRows > initialFirstRows && !firstExhausted) {
+                observed.record(first, bindings.bindingNames, firstRows)
+            }
+        }
+    }
+
+    private fun join(block: List<BindingSet>): TupleExpr {
+        val assignment = BindingSetAssignment()
+        assignment.bindingNames = first.bindingNames + bindings.bindingNames
+        assignment.bindingSets = block
+
+        return rest.fold(assignment as TupleExpr) { left, right -> Join(left, right) }
+    }
+
+    /**
+     * The ratio of the rows per row of the first argument is smoothed by a row, so joins which return nothing
+     * aren't re-planned.
+     */
+    private fun adapt() {
+        if (replans >= MAX_REPLANS || rest.size < 2) {
+            return
+        }
+
+        val rowsPerFirst = joinedRows.toDouble() / Math.max(joinedFirstRows, 1L)
+        val firstRatio = firstRows / estimatedFirstRows
+        val joinRatio = (rowsPerFirst + 1) / (estimatedRowsPerFirst + 1)
+        if (firstRatio < replanRatio && joinRatio < replanRatio && joinRatio > 1 / replanRatio) {
+            return
+        }
+
+        val order = optimizer.orderRest(first, BLOCK_SIZE.toDouble(), rest)
+        LOG.debug("The rest of a join is re-planned after {} rows of the first argument and {} rows per row, " +
+            "estimated {} and {}: {}", firstRows, rowsPerFirst, estimatedFirstRows, estimatedRowsPerFirst,
+            order.joinToString { it.signature })
+
+        rest = order
+        estimatedFirstRows = Math.max(firstRows.toDouble(), 1.0)
+        estimatedRowsPerFirst = rowsPerFirst
+        replans++
+    }
+
+}
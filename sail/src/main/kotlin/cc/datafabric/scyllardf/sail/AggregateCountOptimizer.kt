@@ -0,0 +1,74 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.algebra.Count
+import org.eclipse.rdf4j.query.algebra.Group
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+
+/**
+ * Replaces `COUNT(*)` of a single statement pattern by a [PatternCount], so the statements aren't read. A count
+ * of a variable of the pattern is the same, since it's always bound. `GROUP BY ?p` is replaced only if all
+ * positions of the pattern are variables, then the counts are read from the counters of the predicates.
+ *
+ * The pattern has to match either all contexts or a named graph given by a value, the counters don't tell
+ * anything about the default graph alone. A variable which occurs in the pattern twice is filtered after
+ * the read, so such patterns aren't replaced. Queries with a dataset aren't replaced either.
+ */
+class AggregateCountOptimizer : QueryOptimizer {
+
+    override fun optimize(tupleExpr: TupleExpr, dataset: Dataset?, bindings: BindingSet) {
+        if (dataset == null) {
+            tupleExpr.visit(GroupVisitor())
+        }
+    }
+
+    private class GroupVisitor : AbstractQueryModelVisitor<RuntimeException>() {
+
+        override fun meet(node: Group) {
+            super.meet(node)
+
+            val sp = node.arg as? StatementPattern ?: return
+            val elem = node.groupElements.singleOrNull() ?: return
+            val count = elem.operator as? Count ?: return
+            if (count.isDistinct || !isCountable(sp)) {
+                return
+            }
+
+            val countArg = count.arg
+            if (countArg != null && (countArg !is Var || countArg.hasValue() || countArg.name !in sp.bindingNames)) {
+                return
+            }
+
+            val groupNames = node.groupBindingNames
+            val byPredicate = when {
+                groupNames.isEmpty() -> false
+                groupNames == setOf(sp.predicateVar.name) && isScan(sp) -> true
+                else -> return
+            }
+
+            node.replaceWith(PatternCount(sp.clone(), elem.name, byPredicate))
+        }
+
+        private fun isCountable(sp: StatementPattern): Boolean {
+            val names = sp.varList.filter { !it.hasValue() }.map { it.name }
+            val contextVar = sp.contextVar
+            val contexts = if (sp.scope == StatementPattern.Scope.DEFAULT_CONTEXTS) {
+                contextVar == null
+            } else {
+                contextVar != null && contextVar.hasValue()
+            }
+
+            return contexts && names.size == names.toSet().size
+        }
+
+        private fun isScan(sp: StatementPattern): Boolean {
+            return sp.contextVar == null && listOf(sp.subjectVar, sp.predicateVar, sp.objectVar).none { it.hasValue() }
+        }
+    }
+
+}
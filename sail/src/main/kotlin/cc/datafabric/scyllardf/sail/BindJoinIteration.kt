@@ -0,0 +1,99 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.algebra.LeftJoin
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException
+import java.util.ArrayDeque
+
+/**
+ * Joins the left bindings with the right expression keeping lookups of up to [blockSize] left bindings in flight.
+ * The right expression is evaluated as soon as a left binding is taken, the DAO sends the query asynchronously,
+ * so the round trips of the whole block overlap instead of being made one by one. Results are returned in the
+ * order of the left bindings.
+ *
+ * If [leftJoin] is set, then the left binding is returned if none of the right ones matches the condition,
+ * the same as in [org.eclipse.rdf4j.query.algebra.evaluation.iterator.LeftJoinIterator].
+ */
+internal class BindJoinIteration(
+    private val strategy: EvaluationStrategy,
+    private val left: CloseableIteration<BindingSet, QueryEvaluationException>,
+    private val right: TupleExpr,
+    private val blockSize: Int,
+    private val leftJoin: LeftJoin? = null
+) : LookAheadIteration<BindingSet, QueryEvaluationException>() {
+
+    private class Lookup(
+        val leftBindings: BindingSet,
+        val rightIter: CloseableIteration<BindingSet, QueryEvaluationException>
+    ) {
+        var matched = false
+    }
+
+    private val lookups = ArrayDeque<Lookup>(blockSize)
+    private val scopeBindingNames = leftJoin?.bindingNames
+
+    override fun getNextElement(): BindingSet? {
+        while (true) {
+            fillBlock()
+
+            val lookup = lookups.peekFirst() ?: return null
+
+            while (lookup.rightIter.hasNext()) {
+                val rightBindings = lookup.rightIter.next()
+
+                if (matches(rightBindings)) {
+                    lookup.matched = true
+
+                    return rightBindings
+                }
+            }
+
+            lookups.removeFirst().rightIter.close()
+
+            if (leftJoin != null && !lookup.matched) {
+                return lookup.leftBindings
+            }
+        }
+    }
+
+    override fun handleClose() {
+        try {
+            super.handleClose()
+        } finally {
+            try {
+                lookups.forEach { it.rightIter.close() }
+                lookups.clear()
+            } finally {
+                left.close()
+            }
+        }
+    }
+
+    private fun fillBlock() {
+        while (lookups.size < blockSize && left.hasNext()) {
+            val leftBindings = left.next()
+
+            lookups.addLast(Lookup(leftBindings, strategy.evaluate(right, leftBindings)))
+        }
+    }
+
+    private fun matches(rightBindings: BindingSet): Boolean {
+        val condition = leftJoin?.condition ?: return true
+
+        val scopeBindings = QueryBindingSet(rightBindings)
+        scopeBindings.retainAll(scopeBindingNames!!)
+
+        return try {
+            strategy.isTrue(condition, scopeBindings)
+        } catch (ex: ValueExprEvaluationException) {
+            false
+        }
+    }
+
+}
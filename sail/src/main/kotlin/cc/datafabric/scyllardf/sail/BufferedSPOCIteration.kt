@@ -0,0 +1,44 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration
+import org.eclipse.rdf4j.sail.SailException
+import java.nio.ByteBuffer
+
+/**
+ * Returns statements from the transaction's buffer followed by the stored ones. Stored statements which are also in
+ * the buffer are skipped, so they're returned only once, as well as the ones which are removed on commit.
+ */
+internal class BufferedSPOCIteration(
+    private val buffered: List<Array<ByteBuffer>>,
+    private val removed: Set<List<ByteBuffer>>,
+    private val stored: CloseableIteration<Array<ByteBuffer>, SailException>
+) : LookAheadIteration<Array<ByteBuffer>, SailException>() {
+
+    private val bufferedKeys = buffered.map { it.asList() }.toHashSet()
+    private var bufferedIdx = 0
+
+    override fun getNextElement(): Array<ByteBuffer>? {
+        if (bufferedIdx < buffered.size) {
+            return buffered[bufferedIdx++]
+        }
+
+        while (stored.hasNext()) {
+            val next = stored.next()
+            if (!bufferedKeys.contains(next.asList()) && !removed.contains(next.asList())) {
+                return next
+            }
+        }
+
+        return null
+    }
+
+    override fun handleClose() {
+        try {
+            super.handleClose()
+        } finally {
+            stored.close()
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.eclipse.rdf4j.query.algebra.AbstractQueryModelNode
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
+import org.eclipse.rdf4j.query.algebra.QueryModelVisitor
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.Var
+
+/**
+ * Distinct values of a variable of the pattern read from the keys of the [table], see [DistinctValuesOptimizer].
+ * If the pattern has a value, the values of the variable are the first clustering column of its partition,
+ * otherwise they're the partition keys. If they can't be read so, then the pattern is evaluated and its values
+ * are made distinct as usual.
+ */
+class DistinctValues(
+    pattern: StatementPattern,
+    val name: String,
+    val table: ScyllaRDFSchema.Table
+) : AbstractQueryModelNode(), TupleExpr {
+
+    var pattern: StatementPattern = pattern
+        private set
+
+    init {
+        pattern.parentNode = this
+    }
+
+    /**
+     * The position of the pattern with a value, if any.
+     */
+    val keyVar: Var?
+        get() = listOf(pattern.subjectVar, pattern.predicateVar, pattern.objectVar).firstOrNull { it.hasValue() }
+
+    override fun getBindingNames(): Set<String> {
+        return setOf(name)
+    }
+
+    override fun getAssuredBindingNames(): Set<String> {
+        return bindingNames
+    }
+
+    override fun getSignature(): String {
+        return "${super.getSignature()} ($name FROM $table)"
+    }
+
+    override fun <X : Exception> visit(visitor: QueryModelVisitor<X>) {
+        visitor.meetOther(this)
+    }
+
+    override fun <X : Exception> visitChildren(visitor: QueryModelVisitor<X>) {
+        pattern.visit(visitor)
+    }
+
+    override fun replaceChildNode(current: QueryModelNode, replacement: QueryModelNode) {
+        if (current !== pattern) {
+            super.replaceChildNode(current, replacement)
+            return
+        }
+        if (replacement !is StatementPattern) {
+            throw IllegalArgumentException("Distinct values are of a statement pattern only!")
+        }
+
+        pattern = replacement
+        replacement.parentNode = this
+    }
+
+    override fun clone(): DistinctValues {
+        return DistinctValues(pattern.clone(), name, table)
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is DistinctValues && pattern == other.pattern && name == other.name && table == other.table
+    }
+
+    override fun hashCode(): Int {
+        return pattern.hashCode() xor name.hashCode() xor table.hashCode()
+    }
+
+}
@@ -0,0 +1,97 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.algebra.Distinct
+import org.eclipse.rdf4j.query.algebra.Projection
+import org.eclipse.rdf4j.query.algebra.Reduced
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+
+/**
+ * Replaces DISTINCT of a single variable of a single statement pattern by [DistinctValues], so the values are read
+ * from the keys of an index instead of all statements:
+ *
+ * - `SELECT DISTINCT ?s { ?s ?p ?o }` and the same of the predicate or the object read the partition keys of
+ *   S_POC, P_OSC or O_SPC,
+ * - `SELECT DISTINCT ?p { <s> ?p ?o }`, `SELECT DISTINCT ?o { ?s <p> ?o }` and `SELECT DISTINCT ?s { ?s ?p <o> }`
+ *   read the first clustering column of the partition of the value.
+ *
+ * The pattern has to match all contexts and its variables have to differ, queries with a dataset aren't replaced.
+ */
+class DistinctValuesOptimizer : QueryOptimizer {
+
+    companion object {
+        /**
+         * The index whose partition key is the first position and whose first clustering column is the second one.
+         */
+        private val CLUSTERING_TABLES = mapOf(
+            Pair(Position.SUBJECT, Position.PREDICATE) to ScyllaRDFSchema.Table.S_POC,
+            Pair(Position.PREDICATE, Position.OBJECT) to ScyllaRDFSchema.Table.P_OSC,
+            Pair(Position.OBJECT, Position.SUBJECT) to ScyllaRDFSchema.Table.O_SPC
+        )
+
+        private val KEY_TABLES = mapOf(
+            Position.SUBJECT to ScyllaRDFSchema.Table.S_POC,
+            Position.PREDICATE to ScyllaRDFSchema.Table.P_OSC,
+            Position.OBJECT to ScyllaRDFSchema.Table.O_SPC
+        )
+    }
+
+    private enum class Position { SUBJECT, PREDICATE, OBJECT }
+
+    override fun optimize(tupleExpr: TupleExpr, dataset: Dataset?, bindings: BindingSet) {
+        if (dataset == null) {
+            tupleExpr.visit(DistinctVisitor())
+        }
+    }
+
+    private class DistinctVisitor : AbstractQueryModelVisitor<RuntimeException>() {
+
+        override fun meet(node: Distinct) {
+            super.meet(node)
+            replace(node)
+        }
+
+        override fun meet(node: Reduced) {
+            super.meet(node)
+            replace(node)
+        }
+
+        private fun replace(node: UnaryTupleOperator) {
+            val projection = node.arg as? Projection ?: return
+            val sp = projection.arg as? StatementPattern ?: return
+            val name = projection.projectionElemList.elements.singleOrNull()?.sourceName ?: return
+            if (sp.scope != StatementPattern.Scope.DEFAULT_CONTEXTS || sp.contextVar != null) {
+                return
+            }
+
+            val positions = mapOf(
+                Position.SUBJECT to sp.subjectVar,
+                Position.PREDICATE to sp.predicateVar,
+                Position.OBJECT to sp.objectVar
+            )
+            val names = positions.values.filter { !it.hasValue() }.map { it.name }
+            if (names.size != names.toSet().size) {
+                return
+            }
+
+            val position = positions.entries.firstOrNull { (_, v) -> !v.hasValue() && v.name == name }?.key ?: return
+            val bound = positions.filterValues(Var::hasValue).keys
+            val table = when (bound.size) {
+                0 -> KEY_TABLES[position]
+                1 -> CLUSTERING_TABLES[Pair(bound.single(), position)]
+                else -> null
+            } ?: return
+
+            sp.replaceWith(DistinctValues(sp.clone(), name, table))
+            node.replaceWith(projection)
+        }
+    }
+
+}
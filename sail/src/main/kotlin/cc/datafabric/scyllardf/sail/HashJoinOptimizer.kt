@@ -0,0 +1,49 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.join.HashJoin
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+
+/**
+ * Replaces joins of two statement patterns which are both estimated to match at least [threshold] statements by
+ * [HashJoin]s, the smaller pattern becomes the build side. A nested loop over such patterns would send a lookup
+ * for each binding of the outer one.
+ */
+class HashJoinOptimizer(
+    private val statistics: ScyllaRDFEvaluationStatistics,
+    private val threshold: Long
+) : QueryOptimizer {
+
+    override fun optimize(tupleExpr: TupleExpr, dataset: Dataset?, bindings: BindingSet) {
+        tupleExpr.visit(JoinVisitor())
+    }
+
+    private inner class JoinVisitor : AbstractQueryModelVisitor<RuntimeException>() {
+
+        override fun meet(node: Join) {
+            super.meet(node)
+
+            val left = node.leftArg
+            val right = node.rightArg
+            if (node is HashJoin || left !is StatementPattern || right !is StatementPattern) {
+                return
+            }
+
+            val leftRows = statistics.estimateRows(left)
+            val rightRows = statistics.estimateRows(right)
+            if (leftRows < threshold || rightRows < threshold) {
+                return
+            }
+
+            val hashJoin = if (leftRows < rightRows) HashJoin(right, left) else HashJoin(left, right)
+            if (hashJoin.joinNames.isNotEmpty()) {
+                node.replaceWith(hashJoin)
+            }
+        }
+    }
+}
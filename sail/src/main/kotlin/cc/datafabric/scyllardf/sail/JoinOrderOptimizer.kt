@@ -0,0 +1,310 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDAOOptions
+import cc.datafabric.scyllardf.join.HashJoin
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment
+import org.eclipse.rdf4j.query.algebra.Filter
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector
+import org.slf4j.LoggerFactory
+
+/**
+ * Orders the arguments of joins by the estimated cost of their evaluation in Scylla. The cost counts round trips:
+ * a lookup per binding of the left side of a bind join, the pages of a partition and the requests of a full scan
+ * of the ring. The index a pattern hits is chosen by its positions bound by values or by the left side, the same
+ * way as [cc.datafabric.scyllardf.dao.impl.ScyllaRDFIndexDAO] does.
+ *
+ * Left-deep plans of up to [MAX_DP_ARGS] arguments are enumerated by dynamic programming over the subsets of the
+ * arguments, larger joins are ordered greedily by the cheapest next argument. A pattern is joined by a [HashJoin]
+ * instead of a bind join if both sides are estimated to have at least [hashJoinThreshold] rows and it's cheaper.
+ *
+ * The rows of a lookup of a pattern which has been observed with the same bound positions are taken from
+ * [ScyllaRDFEvaluationStatistics.observedRows] instead of the estimate.
+ */
+class JoinOrderOptimizer(
+    private val statistics: ScyllaRDFEvaluationStatistics,
+    private val hashJoinThreshold: Long,
+    private val pageSize: Int = ScyllaRDFDAOOptions.DEFAULT_FETCH_SIZE
+) : QueryOptimizer {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(JoinOrderOptimizer::class.java)
+
+        const val MAX_DP_ARGS = 12
+
+        /**
+         * Costs relative to a round trip to Scylla.
+         */
+        private const val ROW_COST = 0.001
+        private const val HASH_ROW_COST = 0.0005
+
+        /**
+         * Round trips of a full scan, it reads the token ranges of all nodes.
+         */
+        private const val SCAN_ROUND_TRIPS = 256.0
+    }
+
+    /**
+     * An argument of a join.
+     *
+     * @param pattern the pattern read by the argument, also if it's under filters
+     */
+    private class Arg(
+        val expr: TupleExpr,
+        val pattern: StatementPattern?,
+        val rows: Double,
+        val roundTrips: Double,
+        val names: Set<String>
+    )
+
+    /**
+     * @param leftRows estimated rows of the plan the argument is joined to
+     */
+    private class Step(
+        val arg: Arg,
+        val hash: Boolean,
+        val table: ScyllaRDFSchema.Table?,
+        val cost: Double,
+        val leftRows: Double = 0.0
+    )
+
+    /**
+     * A left-deep plan of the arguments in [mask].
+     */
+    private class Plan(val mask: Int, val steps: List<Step>, val rows: Double, val cost: Double, val names: Set<String>)
+
+    override fun optimize(tupleExpr: TupleExpr, dataset: Dataset?, bindings: BindingSet) {
+        tupleExpr.visit(JoinVisitor())
+    }
+
+    /**
+     * Orders the rest of a join whose first argument is known to have [firstRows] rows, see [AdaptiveJoinIteration].
+     */
+    internal fun orderRest(first: TupleExpr, firstRows: Double, rest: List<TupleExpr>): List<TupleExpr> {
+        val firstArg = toArg(first)
+        val args = listOf(Arg(first, firstArg.pattern, firstRows, firstArg.roundTrips, firstArg.names)) +
+            rest.map { toArg(it) }
+        val plan = if (args.size <= MAX_DP_ARGS) enumerate(args, true) else greedy(args, true)
+
+        return plan.steps.drop(1).map { it.arg.expr }
+    }
+
+    private inner class JoinVisitor : AbstractQueryModelVisitor<RuntimeException>() {
+
+        override fun meet(node: Join) {
+            val exprs = mutableListOf<TupleExpr>()
+            collectArgs(node, exprs)
+            exprs.forEach { it.visit(this) }
+
+            val args = exprs.map { toArg(it) }
+            val plan = if (args.size <= MAX_DP_ARGS) enumerate(args) else greedy(args)
+
+            if (LOG.isDebugEnabled) {
+                LOG.debug("Join of {} arguments is planned with cost {}:\n{}", args.size, plan.cost,
+                    plan.steps.mapIndexed { i, step -> describe(step, i == 0) }.joinToString("\n"))
+            }
+
+            node.replaceWith(build(plan))
+        }
+
+        private fun collectArgs(expr: TupleExpr, args: MutableList<TupleExpr>) {
+            if (expr is Join && expr !is HashJoin) {
+                collectArgs(expr.leftArg, args)
+                collectArgs(expr.rightArg, args)
+            } else {
+                args.add(expr)
+            }
+        }
+    }
+
+    private fun toArg(expr: TupleExpr): Arg {
+        var inner = expr
+        while (inner is Filter) {
+            inner = inner.arg
+        }
+
+        val pattern = inner as? StatementPattern
+        val rows = if (expr is BindingSetAssignment) {
+            expr.bindingSets.count().toDouble()
+        } else {
+            statistics.estimateRows(expr)
+        }
+        val roundTrips = when {
+            pattern != null -> 1.0
+            expr is BindingSetAssignment -> 0.0
+            else -> StatementPatternCollector.process(expr).size.toDouble()
+        }
+
+        return Arg(expr, pattern, Math.max(rows, 0.0), roundTrips, expr.assuredBindingNames)
+    }
+
+    /**
+     * Best left-deep plan of all arguments, the plans of each subset are extended by every argument not in it.
+     *
+     * @param fixedFirst if the first argument has to be the first one in the plan
+     */
+    private fun enumerate(args: List<Arg>, fixedFirst: Boolean = false): Plan {
+        val best = arrayOfNulls<Plan>(1 shl args.size)
+        args.forEachIndexed { i, arg ->
+            if (i == 0 || !fixedFirst) {
+                best[1 shl i] = first(i, arg)
+            }
+        }
+
+        for (mask in 1 until best.size) {
+            val plan = best[mask] ?: continue
+            args.forEachIndexed { i, arg ->
+                if (mask and (1 shl i) == 0) {
+                    val next = extend(plan, i, arg)
+                    val current = best[next.mask]
+                    if (current == null || next.cost < current.cost) {
+                        best[next.mask] = next
+                    }
+                }
+            }
+        }
+
+        return best.last()!!
+    }
+
+    private fun greedy(args: List<Arg>, fixedFirst: Boolean = false): Plan {
+        var plan = if (fixedFirst) {
+            first(0, args[0])
+        } else {
+            args.mapIndexed { i, arg -> first(i, arg) }.minBy { it.cost }!!
+        }
+        while (plan.steps.size < args.size) {
+            val current = plan
+            plan = args.indices
+                .filter { current.mask and (1 shl it) == 0 }
+                .map { extend(current, it, args[it]) }
+                .minBy { it.cost }!!
+        }
+
+        return plan
+    }
+
+    private fun first(i: Int, arg: Arg): Plan {
+        val table = table(arg.pattern, emptySet())
+        val cost = accessCost(arg, table, arg.rows)
+
+        return Plan(1 shl i, listOf(Step(arg, false, table, cost)), arg.rows, cost, arg.names)
+    }
+
+    private fun extend(plan: Plan, i: Int, arg: Arg): Plan {
+        val shared = plan.names.intersect(arg.names)
+        val divisor = shared
+            .map { Math.max(plan.rows, distinctValues(arg, it)) }
+            .max() ?: 1.0
+        val observedRows = arg.pattern?.let { statistics.observedRows(it, plan.names) }
+        val rows = if (observedRows != null) {
+            plan.rows * observedRows
+        } else {
+            plan.rows * arg.rows / Math.max(divisor, 1.0)
+        }
+
+        // A lookup for each binding of the left side
+        val lookups = Math.max(plan.rows, 1.0)
+        val table = table(arg.pattern, plan.names)
+        var step = Step(arg, false, table, lookups * accessCost(arg, table, rows / lookups), plan.rows)
+
+        if (arg.pattern != null && shared.isNotEmpty() &&
+            plan.rows >= hashJoinThreshold && arg.rows >= hashJoinThreshold) {
+            val standalone = table(arg.pattern, emptySet())
+            val hashCost = accessCost(arg, standalone, arg.rows) + (plan.rows + arg.rows) * HASH_ROW_COST
+            if (hashCost < step.cost) {
+                step = Step(arg, true, standalone, hashCost, plan.rows)
+            }
+        }
+
+        return Plan(plan.mask or (1 shl i), plan.steps + step, rows, plan.cost + step.cost + rows * ROW_COST,
+            plan.names + arg.names)
+    }
+
+    /**
+     * Cost of reading [rows] rows of the argument once.
+     */
+    private fun accessCost(arg: Arg, table: ScyllaRDFSchema.Table?, rows: Double): Double {
+        val roundTrips = if (arg.pattern == null) {
+            arg.roundTrips
+        } else if (table == null) {
+            SCAN_ROUND_TRIPS + Math.floor(rows / pageSize)
+        } else {
+            // The pages of the partition
+            1.0 + Math.floor(rows / pageSize)
+        }
+
+        return roundTrips + rows * ROW_COST
+    }
+
+    private fun distinctValues(arg: Arg, name: String): Double {
+        return if (arg.pattern != null && arg.pattern.bindingNames.contains(name)) {
+            statistics.estimateDistinctValues(arg.pattern, name)
+        } else {
+            Math.max(arg.rows, 1.0)
+        }
+    }
+
+    /**
+     * The index table read by the pattern if the variables in [bound] have values, null for a full scan.
+     */
+    private fun table(sp: StatementPattern?, bound: Set<String>): ScyllaRDFSchema.Table? {
+        if (sp == null) {
+            return null
+        }
+
+        fun isBound(v: Var?) = v != null && (v.hasValue() || v.name in bound)
+        val s = isBound(sp.subjectVar)
+        val p = isBound(sp.predicateVar)
+        val o = isBound(sp.objectVar)
+        val c = isBound(sp.contextVar)
+
+        return when {
+            s && o && !p -> if (c) ScyllaRDFSchema.Table.CO_SP else ScyllaRDFSchema.Table.O_SPC
+            s -> if (c) ScyllaRDFSchema.Table.CS_PO else ScyllaRDFSchema.Table.S_POC
+            p -> if (c) ScyllaRDFSchema.Table.CP_OS else ScyllaRDFSchema.Table.P_OSC
+            o -> if (c) ScyllaRDFSchema.Table.CO_SP else ScyllaRDFSchema.Table.O_SPC
+            else -> null
+        }
+    }
+
+    /**
+     * A hash join builds the smaller side.
+     */
+    private fun build(plan: Plan): TupleExpr {
+        return plan.steps.drop(1).fold(plan.steps[0].arg.expr) { expr, step ->
+            when {
+                !step.hash -> Join(expr, step.arg.expr)
+                step.arg.rows <= step.leftRows -> HashJoin(expr, step.arg.expr)
+                else -> HashJoin(step.arg.expr, expr)
+            }
+        }
+    }
+
+    private fun describe(step: Step, first: Boolean): String {
+        val sp = step.arg.pattern
+        val arg = if (sp == null) {
+            step.arg.expr.signature
+        } else {
+            listOf(sp.subjectVar, sp.predicateVar, sp.objectVar, sp.contextVar)
+                .filterNotNull()
+                .joinToString(" ", "(", ")") { if (it.hasValue()) "<${it.value}>" else "?${it.name}" }
+        }
+        val kind = when {
+            first -> "read"
+            step.hash -> "hash join"
+            else -> "bind join"
+        }
+
+        return String.format("  %s %s on %s, cost %.2f", arg, kind, step.table ?: "scan", step.cost)
+    }
+
+}
@@ -0,0 +1,71 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.algebra.Extension
+import org.eclipse.rdf4j.query.algebra.Filter
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.LeftJoin
+import org.eclipse.rdf4j.query.algebra.Projection
+import org.eclipse.rdf4j.query.algebra.Slice
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+
+/**
+ * Pushes LIMIT, and OFFSET plus LIMIT, down to the pattern which drives the evaluation, see
+ * [LimitedStatementPattern]. Projections, extensions and the left side of optional patterns return at least
+ * a row per row of their argument, so the limit is passed through them as is. The leading pattern of a join or
+ * a filtered pattern only gets smaller pages, since some of its rows may be dropped. Anything else, e.g. an order
+ * or DISTINCT, stops the pushdown.
+ *
+ * A pattern isn't limited exactly if its rows are filtered after they're read, i.e. if a variable occurs in it
+ * twice or if it matches named graphs by a variable. Queries with a dataset aren't limited either.
+ */
+class LimitPushdownOptimizer : QueryOptimizer {
+
+    override fun optimize(tupleExpr: TupleExpr, dataset: Dataset?, bindings: BindingSet) {
+        if (dataset == null) {
+            tupleExpr.visit(SliceVisitor())
+        }
+    }
+
+    private class SliceVisitor : AbstractQueryModelVisitor<RuntimeException>() {
+
+        override fun meet(node: Slice) {
+            super.meet(node)
+
+            if (!node.hasLimit()) {
+                return
+            }
+
+            val rows = Math.max(node.offset, 0L) + node.limit
+            if (rows in 1..Int.MAX_VALUE.toLong()) {
+                pushDown(node.arg, rows, true)
+            }
+        }
+
+        private fun pushDown(expr: TupleExpr, rows: Long, exact: Boolean) {
+            when (expr) {
+                is LimitedStatementPattern -> return
+                is StatementPattern ->
+                    expr.replaceWith(LimitedStatementPattern(expr, rows, exact && isLimitedByStore(expr)))
+                is Projection -> pushDown(expr.arg, rows, exact)
+                is Extension -> pushDown(expr.arg, rows, exact)
+                is Filter -> pushDown(expr.arg, rows, false)
+                is LeftJoin -> pushDown(expr.leftArg, rows, exact)
+                is Join -> pushDown(expr.leftArg, rows, false)
+            }
+        }
+
+        private fun isLimitedByStore(sp: StatementPattern): Boolean {
+            val names = sp.varList.filter { !it.hasValue() }.map { it.name }
+            val contextVar = sp.contextVar
+
+            return names.size == names.toSet().size &&
+                !(sp.scope == StatementPattern.Scope.NAMED_CONTEXTS && contextVar != null && !contextVar.hasValue())
+        }
+    }
+
+}
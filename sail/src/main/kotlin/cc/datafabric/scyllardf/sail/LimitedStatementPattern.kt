@@ -0,0 +1,17 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+
+/**
+ * A statement pattern under a LIMIT, see [LimitPushdownOptimizer]. If [exact], then at most [rowLimit] statements
+ * of it are needed and the query to Scylla is limited by them. Otherwise the pattern leads a join, so the rows
+ * needed aren't known, and [rowLimit] only makes the pages smaller.
+ */
+class LimitedStatementPattern(sp: StatementPattern, val rowLimit: Long, val exact: Boolean)
+    : StatementPattern(sp.scope, sp.subjectVar, sp.predicateVar, sp.objectVar, sp.contextVar) {
+
+    override fun getSignature(): String {
+        return super.getSignature() + (if (exact) " LIMIT " else " FETCH ") + rowLimit
+    }
+
+}
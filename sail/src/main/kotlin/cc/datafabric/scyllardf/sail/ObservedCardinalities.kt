@@ -0,0 +1,116 @@
+package cc.datafabric.scyllardf.sail
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.IterationWrapper
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Numbers of rows returned by evaluations of statement patterns, shared by all connections of a sail. A pattern
+ * is observed by its values and the positions of the variables bound by the bindings of the evaluation, so
+ * the lookups of a bind join are averaged regardless of the left values.
+ *
+ * Observations expire [expireMillis] after the first one, so they follow the changes of the data.
+ */
+class ObservedCardinalities(
+    maxSize: Long = DEFAULT_SIZE,
+    expireMillis: Long = DEFAULT_EXPIRE_MILLIS
+) {
+
+    companion object {
+        const val DEFAULT_SIZE = 10000L
+        const val DEFAULT_EXPIRE_MILLIS = 10L * 60 * 1000
+    }
+
+    private class Observation {
+        val evaluations = AtomicLong()
+        val rows = AtomicLong()
+    }
+
+    private val cache: Cache<String, Observation> = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS)
+        .build()
+
+    /**
+     * Records an evaluation of the pattern which has returned [rows] rows.
+     *
+     * @param boundNames names of the variables bound by the bindings of the evaluation
+     */
+    fun record(sp: StatementPattern, boundNames: Set<String>, rows: Long) {
+        val observation = cache.get(key(sp, boundNames)) { Observation() }
+        observation.evaluations.incrementAndGet()
+        observation.rows.addAndGet(rows)
+    }
+
+    /**
+     * Wraps the iteration of an evaluation of the pattern, its rows are recorded once it's read to the end.
+     */
+    fun observe(
+        sp: StatementPattern,
+        boundNames: Set<String>,
+        iter: CloseableIteration<BindingSet, QueryEvaluationException>
+    ): CloseableIteration<BindingSet, QueryEvaluationException> {
+        return object : IterationWrapper<BindingSet, QueryEvaluationException>(iter) {
+
+            private var rows = 0L
+            private var recorded = false
+
+            override fun hasNext(): Boolean {
+                // A closed iteration has no next element either
+                val closed = isClosed
+                val hasNext = super.hasNext()
+                if (!hasNext && !closed && !recorded) {
+                    recorded = true
+                    record(sp, boundNames, rows)
+                }
+
+                return hasNext
+            }
+
+            override fun next(): BindingSet {
+                val next = super.next()
+                rows++
+
+                return next
+            }
+        }
+    }
+
+    /**
+     * @return the average number of rows of an evaluation of the pattern, or null if it hasn't been observed
+     */
+    fun rowsPerEvaluation(sp: StatementPattern, boundNames: Set<String>): Double? {
+        val observation = cache.getIfPresent(key(sp, boundNames)) ?: return null
+        val evaluations = observation.evaluations.get()
+
+        return if (evaluations > 0) observation.rows.get().toDouble() / evaluations else null
+    }
+
+    fun invalidateAll() {
+        cache.invalidateAll()
+    }
+
+    /**
+     * Values, bound positions and unbound variables by the position of their first occurrence, since the names
+     * of anonymous variables differ between queries.
+     */
+    private fun key(sp: StatementPattern, boundNames: Set<String>): String {
+        val vars = listOf(sp.subjectVar, sp.predicateVar, sp.objectVar, sp.contextVar)
+
+        return vars.joinToString(" ", "${sp.scope} ") { v ->
+            when {
+                v == null -> "-"
+                v.hasValue() -> "<${v.value}>"
+                v.name in boundNames -> "$"
+                else -> "?" + vars.indexOfFirst { it?.name == v.name }
+            }
+        }
+    }
+
+}
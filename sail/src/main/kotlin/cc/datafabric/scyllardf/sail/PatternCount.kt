@@ -0,0 +1,89 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.query.algebra.AbstractQueryModelNode
+import org.eclipse.rdf4j.query.algebra.Count
+import org.eclipse.rdf4j.query.algebra.Group
+import org.eclipse.rdf4j.query.algebra.GroupElem
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
+import org.eclipse.rdf4j.query.algebra.QueryModelVisitor
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+
+/**
+ * `COUNT(*)` of the statements matching the pattern, grouped by its predicate if [byPredicate], see
+ * [AggregateCountOptimizer]. It's answered by a count of a single partition or from the counters if approximate
+ * counts are enabled, if it can't be, then it's evaluated as the original group, see [toGroup].
+ */
+class PatternCount(
+    pattern: StatementPattern,
+    val countName: String,
+    val byPredicate: Boolean
+) : AbstractQueryModelNode(), TupleExpr {
+
+    var pattern: StatementPattern = pattern
+        private set
+
+    init {
+        pattern.parentNode = this
+    }
+
+    val predicateName: String?
+        get() = if (byPredicate) pattern.predicateVar.name else null
+
+    /**
+     * The same count as a group of the pattern.
+     */
+    fun toGroup(): Group {
+        val group = Group(pattern.clone(), listOfNotNull(predicateName))
+        group.addGroupElement(GroupElem(countName, Count(null)))
+
+        return group
+    }
+
+    override fun getBindingNames(): Set<String> {
+        return listOfNotNull(predicateName, countName).toSet()
+    }
+
+    override fun getAssuredBindingNames(): Set<String> {
+        return bindingNames
+    }
+
+    override fun getSignature(): String {
+        return super.getSignature() + " (" + countName + (if (byPredicate) " BY PREDICATE)" else ")")
+    }
+
+    override fun <X : Exception> visit(visitor: QueryModelVisitor<X>) {
+        visitor.meetOther(this)
+    }
+
+    override fun <X : Exception> visitChildren(visitor: QueryModelVisitor<X>) {
+        pattern.visit(visitor)
+    }
+
+    override fun replaceChildNode(current: QueryModelNode, replacement: QueryModelNode) {
+        if (current !== pattern) {
+            super.replaceChildNode(current, replacement)
+            return
+        }
+        if (replacement !is StatementPattern) {
+            throw IllegalArgumentException("A count is of a statement pattern only!")
+        }
+
+        pattern = replacement
+        replacement.parentNode = this
+    }
+
+    override fun clone(): PatternCount {
+        return PatternCount(pattern.clone(), countName, byPredicate)
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is PatternCount && pattern == other.pattern && countName == other.countName &&
+            byPredicate == other.byPredicate
+    }
+
+    override fun hashCode(): Int {
+        return pattern.hashCode() xor countName.hashCode() xor byPredicate.hashCode()
+    }
+
+}
@@ -0,0 +1,249 @@
+package cc.datafabric.scyllardf.sail
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import org.eclipse.rdf4j.model.BNode
+import org.eclipse.rdf4j.model.IRI
+import org.eclipse.rdf4j.model.Value
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.algebra.AbstractAggregateOperator
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
+import org.eclipse.rdf4j.query.algebra.Service
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.ValueConstant
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+
+/**
+ * Optimized plans shared by all connections of a sail, so a query which differs from a planned one only by the
+ * values of its statement patterns isn't planned again. Plans are keyed by the algebra with the values of the
+ * statement patterns, given or bound by the bindings, replaced by parameters. On a hit, a copy of the plan gets
+ * the values of the query.
+ *
+ * Values used outside of statement patterns, e.g. in filters, are kept in the key as is, since the optimizers fold
+ * expressions depending on them. Equal values share a parameter, so patterns grouped by an equal subject are only
+ * reused by queries with equal subjects too.
+ *
+ * The plan of the first query is reused for the others, even though their values may be more or less selective.
+ * All plans are dropped once the number of triples changes by [invalidationRatio] or a new statistics snapshot
+ * is collected.
+ */
+class QueryPlanCache(
+    maxSize: Long,
+    metrics: MetricRegistry,
+    private val invalidationRatio: Double = DEFAULT_INVALIDATION_RATIO
+) {
+
+    companion object {
+        const val DEFAULT_SIZE = 1000L
+        const val DEFAULT_INVALIDATION_RATIO = 0.2
+    }
+
+    /**
+     * @param slots the parameters of the variables having a value in the order they're visited, -1 if the value
+     * isn't a parameter
+     */
+    private class Entry(val plan: TupleExpr, val slots: IntArray, val planningNanos: Long)
+
+    /**
+     * The key of a query and the values of its parameters.
+     */
+    private class Fingerprint(val key: String, val parameters: List<Value>)
+
+    private val cache: Cache<String, Entry> = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .recordStats()
+        .build()
+
+    private val planningTime = metrics.timer(MetricRegistry.name(QueryPlanCache::class.java, "planning-time"))
+    private val planningTimeSaved = metrics.counter(
+        MetricRegistry.name(QueryPlanCache::class.java, "planning-time-saved-nanos"))
+
+    private var baseNumTriples: Long? = null
+    private var baseSnapshotVersion: Long? = null
+
+    init {
+        metrics.register(MetricRegistry.name(QueryPlanCache::class.java, "hit-rate"),
+            Gauge<Double> { cache.stats().hitRate() })
+        metrics.register(MetricRegistry.name(QueryPlanCache::class.java, "size"),
+            Gauge<Long> { cache.size() })
+    }
+
+    /**
+     * Returns the optimized plan of the query, either a copy of a cached plan or the query optimized in place
+     * by the planner.
+     */
+    fun plan(expr: TupleExpr, bindings: BindingSet, planner: (TupleExpr) -> Unit): TupleExpr {
+        val fingerprint = fingerprint(expr, bindings)
+        if (fingerprint == null) {
+            optimize(expr, planner)
+
+            return expr
+        }
+
+        val cached = cache.getIfPresent(fingerprint.key)
+        if (cached != null) {
+            planningTimeSaved.inc(cached.planningNanos)
+
+            return bind(cached, fingerprint.parameters)
+        }
+
+        val planningNanos = optimize(expr, planner)
+        val plan = expr.clone()
+        cache.put(fingerprint.key, Entry(plan, slots(plan, fingerprint.parameters), planningNanos))
+
+        return expr
+    }
+
+    /**
+     * Drops all plans if the statistics have changed significantly since the plans were made.
+     */
+    @Synchronized
+    fun onStatistics(numTriples: Long, snapshotVersion: Long?) {
+        val base = baseNumTriples
+        val changed = base == null ||
+            Math.abs(numTriples - base) > invalidationRatio * Math.max(base, 1L) ||
+            snapshotVersion != baseSnapshotVersion
+
+        if (changed) {
+            if (base != null) {
+                cache.invalidateAll()
+            }
+
+            baseNumTriples = numTriples
+            baseSnapshotVersion = snapshotVersion
+        }
+    }
+
+    fun invalidateAll() {
+        cache.invalidateAll()
+    }
+
+    private fun optimize(expr: TupleExpr, planner: (TupleExpr) -> Unit): Long {
+        val context = planningTime.time()
+        var elapsed = 0L
+        try {
+            planner(expr)
+        } finally {
+            elapsed = context.stop()
+        }
+
+        return elapsed
+    }
+
+    private fun bind(entry: Entry, parameters: List<Value>): TupleExpr {
+        val plan = entry.plan.clone()
+
+        var index = 0
+        plan.visit(object : AbstractQueryModelVisitor<RuntimeException>() {
+            override fun meet(node: Var) {
+                if (node.hasValue()) {
+                    val slot = entry.slots[index++]
+                    if (slot >= 0) {
+                        node.value = parameters[slot]
+                    }
+                }
+            }
+        })
+
+        return plan
+    }
+
+    private fun slots(plan: TupleExpr, parameters: List<Value>): IntArray {
+        val slots = mutableListOf<Int>()
+        plan.visit(object : AbstractQueryModelVisitor<RuntimeException>() {
+            override fun meet(node: Var) {
+                if (node.hasValue()) {
+                    slots.add(parameters.indexOf(node.value))
+                }
+            }
+        })
+
+        return slots.toIntArray()
+    }
+
+    /**
+     * @return null if the query can't be cached
+     */
+    private fun fingerprint(expr: TupleExpr, bindings: BindingSet): Fingerprint? {
+        // Variables used outside of statement patterns aren't parameters
+        val usedOutsidePatterns = HashSet<String>()
+        expr.visit(object : AbstractQueryModelVisitor<RuntimeException>() {
+            override fun meet(node: Var) {
+                if (node.parentNode !is StatementPattern) {
+                    usedOutsidePatterns.add(node.name)
+                }
+            }
+        })
+
+        val key = StringBuilder()
+        val parameters = mutableListOf<Value>()
+        val literals = HashSet<Value>()
+        var cacheable = true
+
+        expr.visit(object : AbstractQueryModelVisitor<RuntimeException>() {
+
+            override fun meetNode(node: QueryModelNode) {
+                key.append(node.signature)
+                if (node is AbstractAggregateOperator && node.isDistinct) {
+                    key.append(" DISTINCT")
+                }
+
+                key.append('(')
+                node.visitChildren(this)
+                key.append(')')
+            }
+
+            override fun meet(node: Service) {
+                cacheable = false
+            }
+
+            override fun meet(node: ValueConstant) {
+                literals.add(node.value)
+                meetNode(node)
+            }
+
+            override fun meet(node: Var) {
+                val bound = if (node.name in usedOutsidePatterns) null else bindings.getValue(node.name)
+                val value = node.value ?: bound
+
+                if (node.parentNode is StatementPattern && value != null) {
+                    var slot = parameters.indexOf(value)
+                    if (slot < 0) {
+                        slot = parameters.size
+                        parameters.add(value)
+                    }
+
+                    key.append(if (node.isConstant) "" else node.name).append('$').append(slot).append(kind(value))
+                } else {
+                    val literal = node.value ?: bindings.getValue(node.name)
+                    if (literal != null) {
+                        literals.add(literal)
+                    }
+
+                    key.append(node.name).append('=').append(literal)
+                }
+                key.append(' ')
+            }
+        })
+
+        // A value which is also used as is can't be told from the parameter in the plan
+        if (!cacheable || parameters.any { it in literals }) {
+            return null
+        }
+
+        return Fingerprint(key.toString(), parameters)
+    }
+
+    private fun kind(value: Value): String {
+        return when (value) {
+            is IRI -> "i"
+            is BNode -> "b"
+            else -> "l"
+        }
+    }
+
+}
@@ -2,31 +2,167 @@ package cc.datafabric.scyllardf.sail
 
 import cc.datafabric.scyllardf.coder.ICoderFacade
 import cc.datafabric.scyllardf.dao.ICardinalityDAO
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import cc.datafabric.scyllardf.dao.StatisticsSnapshot
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
 import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
 import org.eclipse.rdf4j.query.algebra.Var
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics
 
-class ScyllaRDFEvaluationStatistics(private val dao: ICardinalityDAO, private val coder: ICoderFacade)
-    : EvaluationStatistics() {
+/**
+ * Estimates cardinalities by the counters and the sketches. If there's a statistics snapshot, the number of triples
+ * and the sizes of the sampled predicates are taken from it, since the counters drift on re-added statements.
+ * Patterns whose evaluations have been [observed] get the observed number of rows instead of an estimate.
+ */
+class ScyllaRDFEvaluationStatistics(
+    private val dao: ICardinalityDAO,
+    private val coder: ICoderFacade,
+    private val snapshot: StatisticsSnapshot? = null,
+    val observed: ObservedCardinalities? = null
+) : EvaluationStatistics() {
 
     override fun createCardinalityCalculator(): CardinalityCalculator {
-        return ScyllaRDFCardinalityCalculator(dao, coder)
+        return ScyllaRDFCardinalityCalculator(dao, coder, snapshot, observed)
     }
 
-    private class ScyllaRDFCardinalityCalculator(private val dao: ICardinalityDAO, private val coder: ICoderFacade)
-        : CardinalityCalculator() {
+    /**
+     * Estimated number of statements matching the pattern or rows of the expression. The cardinality of a pattern
+     * is its selectivity.
+     */
+    fun estimateRows(expr: TupleExpr): Double {
+        return getCardinality(expr) * (snapshot?.numTriples ?: dao.numTriples())
+    }
+
+    /**
+     * Estimated number of distinct values of the variable in the statements matching the pattern.
+     */
+    fun estimateDistinctValues(sp: StatementPattern, name: String): Double {
+        return ScyllaRDFCardinalityCalculator(dao, coder, snapshot, observed)
+            .distinctValues(sp, name, estimateRows(sp))
+    }
+
+    /**
+     * Observed number of rows of an evaluation of the pattern if the variables in [boundNames] are bound.
+     */
+    fun observedRows(sp: StatementPattern, boundNames: Set<String>): Double? {
+        return observed?.rowsPerEvaluation(sp, boundNames.intersect(sp.bindingNames))
+    }
+
+    private class ScyllaRDFCardinalityCalculator(
+        private val dao: ICardinalityDAO,
+        private val coder: ICoderFacade,
+        private val snapshot: StatisticsSnapshot?,
+        private val observed: ObservedCardinalities?
+    ) : CardinalityCalculator() {
 
+        /**
+         * Counters of (subject, predicate) and (predicate, object) pairs are used if both terms are bound, so the
+         * predicate isn't counted twice. Otherwise the terms are assumed to be independent.
+         */
         override fun getCardinality(sp: StatementPattern): Double {
-            return if (isBound(sp.subjectVar) && isBound(sp.predicateVar) && isBound(sp.objectVar)) {
-                0.0
-            } else {
-                getSubjectCardinality(sp) * getPredicateCardinality(sp) * getObjectCardinality(sp)
+            val observedRows = observed?.rowsPerEvaluation(sp, emptySet())
+            if (observedRows != null) {
+                return observedRows / Math.max(numTriples(), 1.0)
+            }
+
+            val subjBound = isBound(sp.subjectVar)
+            val predBound = isBound(sp.predicateVar)
+            val objBound = isBound(sp.objectVar)
+
+            return when {
+                subjBound && predBound && objBound -> 0.0
+                subjBound && predBound -> getSubjectAndPredicateCardinality(sp) * getObjectCardinality(sp.objectVar)
+                predBound && objBound -> getObjectCardinality(sp)
+                else -> getSubjectCardinality(sp) * getPredicateCardinality(sp) * getObjectCardinality(sp)
+            }
+        }
+
+        /**
+         * The rows of both arguments are assumed to match if they have the same value of the join variables, so the
+         * result has `rowsL * rowsR / max(distinctL, distinctR)` rows for the most selective join variable. Distinct
+         * values of a variable of a statement pattern are estimated by the sketches of its predicate or its named
+         * graph, or by the number of partitions of the index of its position. The rows of the argument are used
+         * otherwise.
+         */
+        override fun meet(node: Join) {
+            node.leftArg.visit(this)
+            val leftSelectivity = cardinality
+            node.rightArg.visit(this)
+            val rightSelectivity = cardinality
+
+            val numTriples = Math.max(numTriples(), 1.0)
+            val joinVars = node.leftArg.bindingNames.intersect(node.rightArg.bindingNames)
+
+            val divisor = joinVars
+                .map { Math.max(
+                    distinctValues(node.leftArg, it, leftSelectivity * numTriples),
+                    distinctValues(node.rightArg, it, rightSelectivity * numTriples)
+                ) }
+                .max() ?: 1.0
+
+            cardinality = leftSelectivity * rightSelectivity * numTriples / divisor
+        }
+
+        /**
+         * A [PatternCount] is a single row, or a row per predicate. [DistinctValues] of the partition keys are
+         * the partitions of the table, the values of a single partition are estimated by its pattern.
+         */
+        override fun meetOther(node: QueryModelNode) {
+            val rows = when {
+                node is PatternCount && node.byPredicate -> dao.tablePartitions(ScyllaRDFSchema.Table.P_OSC)
+                node is PatternCount -> 1L
+                node is DistinctValues && node.keyVar == null -> dao.tablePartitions(node.table)
+                node is DistinctValues -> {
+                    node.pattern.visit(this)
+                    return
+                }
+                else -> {
+                    super.meetOther(node)
+                    return
+                }
             }
+
+            cardinality = (rows?.toDouble() ?: 1.0) / Math.max(numTriples(), 1.0)
+        }
+
+        fun distinctValues(arg: TupleExpr, name: String, rows: Double): Double {
+            if (arg !is StatementPattern) {
+                return Math.max(rows, 1.0)
+            }
+
+            val distinct = when {
+                isBound(arg.predicateVar) && arg.subjectVar.name == name && !isBound(arg.subjectVar) ->
+                    dao.predicateDistinctSubjects(coder.encode(arg.predicateVar.value)!!)
+                isBound(arg.predicateVar) && arg.objectVar.name == name && !isBound(arg.objectVar) ->
+                    dao.predicateDistinctObjects(coder.encode(arg.predicateVar.value)!!)
+                isBound(arg.contextVar) && arg.subjectVar.name == name && !isBound(arg.subjectVar) ->
+                    dao.contextDistinctSubjects(coder.encode(arg.contextVar.value)!!)
+                isBound(arg.contextVar) && arg.objectVar.name == name && !isBound(arg.objectVar) ->
+                    dao.contextDistinctObjects(coder.encode(arg.contextVar.value)!!)
+                arg.subjectVar.name == name && !isBound(arg.subjectVar) ->
+                    dao.tablePartitions(ScyllaRDFSchema.Table.S_POC)
+                arg.predicateVar.name == name && !isBound(arg.predicateVar) ->
+                    dao.tablePartitions(ScyllaRDFSchema.Table.P_OSC)
+                arg.objectVar.name == name && !isBound(arg.objectVar) ->
+                    dao.tablePartitions(ScyllaRDFSchema.Table.O_SPC)
+                else -> null
+            }
+
+            return Math.max(Math.min(distinct?.toDouble() ?: rows, rows), 1.0)
+        }
+
+        private fun getSubjectAndPredicateCardinality(sp: StatementPattern): Double {
+            return dao.subjectAndPredicateCardinality(
+                coder.encode(sp.subjectVar.value)!!,
+                coder.encode(sp.predicateVar.value)!!
+            ).div(numTriples())
         }
 
         override fun getSubjectCardinality(v: Var?): Double {
             return if (isBound(v)) {
-                dao.subjectCardinality(coder.encode(v!!.value)!!).div(dao.numTriples().toDouble())
+                dao.subjectCardinality(coder.encode(v!!.value)!!).div(numTriples())
             } else {
                 1.0
             }
@@ -34,7 +170,10 @@ class ScyllaRDFEvaluationStatistics(private val dao: ICardinalityDAO, private va
 
         override fun getPredicateCardinality(v: Var?): Double {
             return if (isBound(v)) {
-                dao.predicateCardinality(coder.encode(v!!.value)!!).div(dao.numTriples().toDouble())
+                val pred = coder.encode(v!!.value)!!
+                val sampled = snapshot?.predicates?.get(pred)?.numTriples
+
+                (sampled ?: dao.predicateCardinality(pred)).div(numTriples())
             } else {
                 1.0
             }
@@ -42,7 +181,7 @@ class ScyllaRDFEvaluationStatistics(private val dao: ICardinalityDAO, private va
 
         override fun getObjectCardinality(v: Var?): Double {
             return if (isBound(v)) {
-                dao.objectCardinality(coder.encode(v!!.value)!!).div(dao.numTriples().toDouble())
+                dao.objectCardinality(coder.encode(v!!.value)!!).div(numTriples())
             } else {
                 1.0
             }
@@ -53,7 +192,7 @@ class ScyllaRDFEvaluationStatistics(private val dao: ICardinalityDAO, private va
                 dao.objectAndPredicateCardinality(
                     coder.encode(sp.predicateVar.value)!!,
                     coder.encode(sp.objectVar.value)!!
-                ).div(dao.numTriples().toDouble())
+                ).div(numTriples())
             } else if (isBound(sp.objectVar)) {
                 getObjectCardinality(sp.objectVar)
             } else {
@@ -61,6 +200,10 @@ class ScyllaRDFEvaluationStatistics(private val dao: ICardinalityDAO, private va
             }
         }
 
+        private fun numTriples(): Double {
+            return (snapshot?.numTriples ?: dao.numTriples()).toDouble()
+        }
+
         private fun isBound(v: Var?): Boolean {
             return v != null && v.hasValue()
         }
@@ -0,0 +1,286 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import cc.datafabric.scyllardf.join.BindingSetCodec
+import cc.datafabric.scyllardf.join.HashJoin
+import cc.datafabric.scyllardf.join.HashJoinIteration
+import cc.datafabric.scyllardf.join.MemoryBudget
+import cc.datafabric.scyllardf.join.SubjectStar
+import cc.datafabric.scyllardf.join.SubjectStarIteration
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration
+import org.eclipse.rdf4j.common.iteration.ConvertingIteration
+import org.eclipse.rdf4j.common.iteration.DistinctIteration
+import org.eclipse.rdf4j.common.iteration.EmptyIteration
+import org.eclipse.rdf4j.common.iteration.SingletonIteration
+import org.eclipse.rdf4j.model.IRI
+import org.eclipse.rdf4j.model.Resource
+import org.eclipse.rdf4j.model.Value
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.LeftJoin
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource
+import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedServiceResolver
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet
+import org.eclipse.rdf4j.query.algebra.helpers.VarNameCollector
+
+/**
+ * Evaluates joins with a statement pattern on the right side as bind joins, see [BindJoinIteration], so lookups
+ * of the pattern for a block of left bindings are sent concurrently. [HashJoin]s chosen by the planner are
+ * evaluated by [HashJoinIteration]. Other joins are evaluated as usual.
+ *
+ * A [SubjectStar] is matched by [SubjectStarIteration] from a single read of the subject's partition. If the
+ * subject isn't bound, then the first pattern of the star finds the subjects and the rest of the star is bind
+ * joined to it.
+ *
+ * If the joins are ordered by [JoinOrderOptimizer], a join of at least 3 arguments is evaluated adaptively by
+ * [AdaptiveJoinIteration] and the rows of evaluated patterns are recorded to the [ObservedCardinalities].
+ * Patterns under a LIMIT are read by limited queries, see [LimitedStatementPattern]. A [PatternCount] is answered
+ * from the counters or by a count of a single partition, [DistinctValues] are read from the keys of an index.
+ */
+class ScyllaRDFEvaluationStrategy(
+    tripleSource: TripleSource,
+    dataset: Dataset?,
+    serviceResolver: FederatedServiceResolver?,
+    private val statistics: EvaluationStatistics,
+    private val coder: ICoderFacade,
+    private val options: ScyllaRDFQueryOptions
+) : StrictEvaluationStrategy(tripleSource, dataset, serviceResolver, 0, statistics) {
+
+    companion object {
+        /**
+         * Pages of a pattern leading a join under a LIMIT fit this many times the limit, since the join may drop
+         * some of the rows.
+         */
+        private const val LEADING_FETCH_FACTOR = 2
+    }
+
+    /**
+     * A strategy evaluates a single query, so the hash joins of the query share the budget.
+     */
+    private val hashJoinMemory = MemoryBudget(options.hashJoinMemoryBudget)
+
+    override fun evaluate(expr: TupleExpr, bindings: BindingSet)
+            : CloseableIteration<BindingSet, QueryEvaluationException> {
+        if (expr is SubjectStar) {
+            return evaluate(expr, bindings)
+        }
+        if (expr is PatternCount) {
+            return evaluate(expr, bindings)
+        }
+        if (expr is DistinctValues) {
+            return evaluate(expr, bindings)
+        }
+
+        return super.evaluate(expr, bindings)
+    }
+
+    override fun evaluate(join: Join, bindings: BindingSet)
+            : CloseableIteration<BindingSet, QueryEvaluationException> {
+        if (join is HashJoin) {
+            val codec = BindingSetCodec(coder, join.bindingNames + bindings.bindingNames)
+
+            return HashJoinIteration(this, join, bindings, codec, hashJoinMemory, options.spillDirectory)
+        }
+        if (statistics is ScyllaRDFEvaluationStatistics && isAdaptive(join)) {
+            val args = mutableListOf<TupleExpr>()
+            collectArgs(join, args)
+
+            if (args.size >= 3 && args.none { it is HashJoin }) {
+                val optimizer = JoinOrderOptimizer(statistics, options.hashJoinThreshold, options.fetchSize)
+
+                return AdaptiveJoinIteration(this, statistics, optimizer, args, statistics.estimateRows(join),
+                    bindings, options.adaptiveReplanRatio)
+            }
+        }
+        if (isBindJoinable(join.rightArg)) {
+            return BindJoinIteration(this, evaluate(join.leftArg, bindings), join.rightArg,
+                options.bindJoinBlockSize)
+        }
+
+        return super.evaluate(join, bindings)
+    }
+
+    /**
+     * The rows of an exactly limited pattern aren't observed, since they aren't all of its rows.
+     */
+    override fun evaluate(sp: StatementPattern, bindings: BindingSet)
+            : CloseableIteration<BindingSet, QueryEvaluationException> {
+        val source = tripleSource
+        val iter = if (sp is LimitedStatementPattern && source is ScyllaRDFTripleSource) {
+            val limit = sp.rowLimit.toInt()
+            if (sp.exact) {
+                return source.withLimit(0, limit) { super.evaluate(sp, bindings) }
+            }
+
+            source.withLimit(Math.min(limit * LEADING_FETCH_FACTOR, options.fetchSize), 0) {
+                super.evaluate(sp, bindings)
+            }
+        } else {
+            super.evaluate(sp, bindings)
+        }
+        val observed = (statistics as? ScyllaRDFEvaluationStatistics)?.observed ?: return iter
+
+        return observed.observe(sp, bindings.bindingNames, iter)
+    }
+
+    /**
+     * Only well designed optional patterns are evaluated as bind joins, the others are left to
+     * [org.eclipse.rdf4j.query.algebra.evaluation.iterator.BadlyDesignedLeftJoinIterator].
+     */
+    override fun evaluate(leftJoin: LeftJoin, bindings: BindingSet)
+            : CloseableIteration<BindingSet, QueryEvaluationException> {
+        if (isBindJoinable(leftJoin.rightArg)) {
+            val problemVars = VarNameCollector.process(leftJoin.rightArg)
+            problemVars.removeAll(leftJoin.leftArg.bindingNames)
+            problemVars.retainAll(bindings.bindingNames)
+
+            if (problemVars.isEmpty()) {
+                return BindJoinIteration(this, evaluate(leftJoin.leftArg, bindings), leftJoin.rightArg,
+                    options.bindJoinBlockSize, leftJoin)
+            }
+        }
+
+        return super.evaluate(leftJoin, bindings)
+    }
+
+    /**
+     * A dataset restricts the contexts of each pattern, so such stars are read pattern by pattern. The same is done
+     * if the connection has pending changes, see [ScyllaRDFSailConnection.getSubjectQuadsForEvaluation].
+     */
+    private fun evaluate(star: SubjectStar, bindings: BindingSet)
+            : CloseableIteration<BindingSet, QueryEvaluationException> {
+        if (dataset != null || tripleSource !is ScyllaRDFTripleSource) {
+            return evaluate(star.toJoin(), bindings)
+        }
+
+        val subjectVar = star.subjectVar
+        val subj = subjectVar.value ?: bindings.getValue(subjectVar.name)
+        if (subj == null) {
+            val rest = star.patterns.drop(1).map { it.clone() }
+            val restExpr = if (rest.size == 1) rest[0] else SubjectStar(rest)
+
+            return BindJoinIteration(this, evaluate(star.patterns[0], bindings), restExpr,
+                Math.max(options.bindJoinBlockSize, 1))
+        }
+        if (subj !is Resource) {
+            return EmptyIteration()
+        }
+
+        val preds = star.predicates?.map { coder.encode(it)!! }
+        val quads = (tripleSource as ScyllaRDFTripleSource).getSubjectQuads(coder.encode(subj)!!, preds)
+            ?: return evaluate(star.toJoin(), bindings)
+
+        return SubjectStarIteration(coder, star.patterns, quads, bindings)
+    }
+
+    /**
+     * A count is evaluated as the original group if its variables are bound by the bindings or if it can't be
+     * answered without reading the statements, see [ScyllaRDFTripleSource.countStatements].
+     */
+    private fun evaluate(count: PatternCount, bindings: BindingSet)
+            : CloseableIteration<BindingSet, QueryEvaluationException> {
+        val source = tripleSource
+        val names = count.pattern.bindingNames + count.bindingNames
+        if (source !is ScyllaRDFTripleSource || bindings.bindingNames.any { it in names }) {
+            return evaluate(count.toGroup(), bindings)
+        }
+
+        val vf = source.valueFactory
+        if (count.byPredicate) {
+            val counts = source.countPredicates() ?: return evaluate(count.toGroup(), bindings)
+
+            return CloseableIteratorIteration<BindingSet, QueryEvaluationException>(counts.map { (pred, n) ->
+                val result = QueryBindingSet(bindings)
+                result.addBinding(count.pattern.predicateVar.name, pred)
+                result.addBinding(count.countName, vf.createLiteral(n.toString(), XMLSchema.INTEGER))
+                result
+            }.iterator())
+        }
+
+        val sp = count.pattern
+        val subj = sp.subjectVar.value
+        val pred = sp.predicateVar.value
+        val n = if ((subj != null && subj !is Resource) || (pred != null && pred !is IRI)) {
+            0L
+        } else {
+            val contexts = listOfNotNull(sp.contextVar?.value as Resource?).toTypedArray()
+
+            source.countStatements(subj as Resource?, pred as IRI?, sp.objectVar.value, *contexts)
+                ?: return evaluate(count.toGroup(), bindings)
+        }
+
+        val result = QueryBindingSet(bindings)
+        result.addBinding(count.countName, vf.createLiteral(n.toString(), XMLSchema.INTEGER))
+
+        return SingletonIteration(result)
+    }
+
+    /**
+     * If the variables are bound by the bindings or if the connection has changes which aren't written yet, then
+     * the values are read from the statements matching the pattern and made distinct in memory.
+     */
+    private fun evaluate(distinct: DistinctValues, bindings: BindingSet)
+            : CloseableIteration<BindingSet, QueryEvaluationException> {
+        val source = tripleSource
+        val names = distinct.pattern.bindingNames + distinct.name
+        val values = if (source is ScyllaRDFTripleSource && bindings.bindingNames.none { it in names }) {
+            source.getDistinctValues(distinct.table, distinct.keyVar?.value)
+        } else {
+            null
+        }
+
+        if (values == null) {
+            return DistinctIteration(object : ConvertingIteration<BindingSet, BindingSet, QueryEvaluationException>(
+                evaluate(distinct.pattern.clone(), bindings)
+            ) {
+                override fun convert(bindingSet: BindingSet): BindingSet {
+                    val result = QueryBindingSet(bindings)
+                    result.setBinding(distinct.name, bindingSet.getValue(distinct.name))
+
+                    return result
+                }
+            })
+        }
+
+        return object : ConvertingIteration<Value, BindingSet, QueryEvaluationException>(values) {
+            override fun convert(value: Value): BindingSet {
+                val result = QueryBindingSet(bindings)
+                result.addBinding(distinct.name, value)
+
+                return result
+            }
+        }
+    }
+
+    /**
+     * Only the top join of a plan is adaptive, the joins of its blocks have no parent.
+     */
+    private fun isAdaptive(join: Join): Boolean {
+        val parent = join.parentNode
+
+        return options.costBasedJoinOrderEnabled && options.adaptiveReplanRatio > 0 &&
+            parent != null && parent !is Join
+    }
+
+    private fun collectArgs(expr: TupleExpr, args: MutableList<TupleExpr>) {
+        if (expr is Join && expr !is HashJoin) {
+            collectArgs(expr.leftArg, args)
+            collectArgs(expr.rightArg, args)
+        } else {
+            args.add(expr)
+        }
+    }
+
+    private fun isBindJoinable(rightArg: TupleExpr): Boolean {
+        return options.bindJoinBlockSize > 1 && (rightArg is StatementPattern || rightArg is SubjectStar)
+    }
+
+}
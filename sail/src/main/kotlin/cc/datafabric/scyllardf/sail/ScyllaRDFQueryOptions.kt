@@ -0,0 +1,87 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDAOOptions
+import java.nio.file.Path
+
+/**
+ * Tuning options of the query evaluation, see [ScyllaRDFEvaluationStrategy].
+ */
+data class ScyllaRDFQueryOptions(
+    /**
+     * Max number of left bindings whose lookups of the right pattern of a join are in flight, 1 disables bind joins.
+     */
+    val bindJoinBlockSize: Int = DEFAULT_BIND_JOIN_BLOCK_SIZE,
+
+    /**
+     * If enabled, patterns sharing the subject are matched from a single read of the subject's partition.
+     */
+    val subjectStarEnabled: Boolean = true,
+
+    /**
+     * If enabled and the cardinalities are estimated, joins are ordered by [JoinOrderOptimizer] which also chooses
+     * between bind and hash joins, otherwise by the optimizer of RDF4J.
+     */
+    val costBasedJoinOrderEnabled: Boolean = true,
+
+    /**
+     * The rest of a join is re-planned during its evaluation once the observed rows differ from the estimate by this
+     * ratio, see [AdaptiveJoinIteration]. 0 disables the adaptive evaluation.
+     */
+    val adaptiveReplanRatio: Double = DEFAULT_ADAPTIVE_REPLAN_RATIO,
+
+    /**
+     * If enabled, LIMIT and OFFSET are pushed down to the pattern which drives the evaluation, see
+     * [LimitPushdownOptimizer].
+     */
+    val limitPushdownEnabled: Boolean = true,
+
+    /**
+     * If enabled, COUNT of a single pattern is answered by a count of a single partition, or from the counters if
+     * [approximateCountsEnabled], see [AggregateCountOptimizer].
+     */
+    val countPushdownEnabled: Boolean = true,
+
+    /**
+     * If enabled, COUNT of all statements, of a named graph or of a predicate is answered from the counters. The
+     * counters are approximate: a statement added again by the bulk loader or through another instance is counted
+     * twice, and concurrent changes may be counted before they're written.
+     */
+    val approximateCountsEnabled: Boolean = false,
+
+    /**
+     * If enabled, DISTINCT values of a single pattern are read from the keys of an index, see
+     * [DistinctValuesOptimizer].
+     */
+    val distinctPushdownEnabled: Boolean = true,
+
+    /**
+     * Min estimated number of statements matching each of two joined patterns to evaluate them by a hash join.
+     */
+    val hashJoinThreshold: Long = DEFAULT_HASH_JOIN_THRESHOLD,
+
+    /**
+     * Max number of bytes of the off-heap tables of all hash joins of a query, if the build side of a hash join
+     * doesn't fit in the rest, it's spilled to disk.
+     */
+    val hashJoinMemoryBudget: Long = DEFAULT_HASH_JOIN_MEMORY_BUDGET,
+
+    /**
+     * Directory of the spilled partitions of hash joins, the default temporary directory if not set.
+     */
+    val spillDirectory: Path? = null,
+
+    /**
+     * Number of rows in a page, the same as the one of the DAOs. It bounds the first page of a limited pattern and
+     * is used to estimate the pages of a partition.
+     */
+    val fetchSize: Int = ScyllaRDFDAOOptions.DEFAULT_FETCH_SIZE
+) {
+
+    companion object {
+        const val DEFAULT_BIND_JOIN_BLOCK_SIZE = 256
+        const val DEFAULT_ADAPTIVE_REPLAN_RATIO = 10.0
+        const val DEFAULT_HASH_JOIN_THRESHOLD = 100000L
+        const val DEFAULT_HASH_JOIN_MEMORY_BUDGET = 64L * 1024 * 1024
+    }
+
+}
@@ -19,7 +19,9 @@ import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryModelNormalizer
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.SameTermFilterOptimizer
 
 class ScyllaRDFQueryPlanner(
-    private val strategy: EvaluationStrategy, private val statistics: EvaluationStatistics
+    private val strategy: EvaluationStrategy,
+    private val statistics: EvaluationStatistics,
+    private val options: ScyllaRDFQueryOptions = ScyllaRDFQueryOptions()
 ) : QueryOptimizer {
 
     override fun optimize(tupleExpr: TupleExpr, dataset: Dataset?, bindings: BindingSet) {
@@ -41,6 +43,31 @@ class ScyllaRDFQueryPlanner(
 
         PushBindingSetAssignmentUnderExtensionOptimizer().optimize(tupleExpr, dataset, bindings)
 
-        QueryJoinOptimizer(statistics).optimize(tupleExpr, dataset, bindings)
+        val costBased = statistics is ScyllaRDFEvaluationStatistics && options.costBasedJoinOrderEnabled
+        if (costBased) {
+            val optimizer = JoinOrderOptimizer(statistics as ScyllaRDFEvaluationStatistics,
+                options.hashJoinThreshold, options.fetchSize)
+            optimizer.optimize(tupleExpr, dataset, bindings)
+        } else {
+            QueryJoinOptimizer(statistics).optimize(tupleExpr, dataset, bindings)
+        }
+
+        if (options.limitPushdownEnabled) {
+            LimitPushdownOptimizer().optimize(tupleExpr, dataset, bindings)
+        }
+        if (options.countPushdownEnabled) {
+            AggregateCountOptimizer().optimize(tupleExpr, dataset, bindings)
+        }
+        if (options.distinctPushdownEnabled) {
+            DistinctValuesOptimizer().optimize(tupleExpr, dataset, bindings)
+        }
+
+        if (options.subjectStarEnabled) {
+            SubjectStarOptimizer().optimize(tupleExpr, dataset, bindings)
+        }
+
+        if (statistics is ScyllaRDFEvaluationStatistics && !costBased) {
+            HashJoinOptimizer(statistics, options.hashJoinThreshold).optimize(tupleExpr, dataset, bindings)
+        }
     }
 }
\ No newline at end of file
@@ -3,29 +3,78 @@ package cc.datafabric.scyllardf.sail
 import cc.datafabric.scyllardf.coder.CoderFacade
 import cc.datafabric.scyllardf.coder.ICoderFacade
 import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDAOFactory
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDAOOptions
+import cc.datafabric.scyllardf.filter.TripleFilter
+import org.eclipse.rdf4j.common.iteration.Iterations
 import org.eclipse.rdf4j.model.ValueFactory
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory
 import org.eclipse.rdf4j.sail.NotifyingSailConnection
 import org.eclipse.rdf4j.sail.SailException
 import org.eclipse.rdf4j.sail.helpers.AbstractNotifyingSail
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import org.slf4j.LoggerFactory
+import java.nio.file.Paths
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 
 class ScyllaRDFSail(private val config: ScyllaRDFSailConfig) : AbstractNotifyingSail() {
 
     companion object {
         private val LOG = LoggerFactory.getLogger(ScyllaRDFSail::class.java)
+
+        private const val TRIPLE_FILTER_SAMPLE_SIZE = 1000
     }
 
     private lateinit var daoFactory: ScyllaRDFDAOFactory
     private lateinit var coder: CoderFacade
+    private var tripleFilter: TripleFilter? = null
+    private var statisticsCollector: ScheduledExecutorService? = null
+    private var planCache: QueryPlanCache? = null
+    private var observedCardinalities: ObservedCardinalities? = null
 
     override fun initializeInternal() {
         try {
             daoFactory = ScyllaRDFDAOFactory.create(
-                    config.scyllaHosts, config.scyllaPort, config.scyllaKeyspace, config.scyllaReplicationFactor)
+                    config.scyllaHosts, config.scyllaPort, config.scyllaKeyspace, config.scyllaReplicationFactor,
+                    ScyllaRDFDAOOptions(
+                        batchSize = config.batchSize,
+                        maxConcurrentRequests = config.maxConcurrentRequests,
+                        cardinalityFlushIntervalMillis = config.cardinalityFlushIntervalMillis,
+                        cardinalityFlushThreshold = config.cardinalityFlushThreshold,
+                        statisticsCacheSize = config.statisticsCacheSize,
+                        statisticsRefreshMillis = config.statisticsRefreshMillis,
+                        statisticsSampleRatio = config.statisticsSampleRatio,
+                        statisticsMaxRowsPerSecond = config.statisticsMaxRowsPerSecond,
+                        jmxEnabled = config.jmxEnabled,
+                        jmxPort = config.jmxPort,
+                        jmxRefreshMillis = config.jmxRefreshMillis,
+                        fetchSize = config.fetchSize,
+                        prefetchRatio = config.prefetchRatio,
+                        scanParallelism = config.scanParallelism,
+                        scanFetchSize = config.scanFetchSize,
+                        dropParallelism = config.dropParallelism,
+                        dropMaxInFlight = config.dropMaxInFlight
+                    ))
 
             coder = CoderFacade()
             coder.initialize(daoFactory.getDictionaryDAO(), true)
+
+            if (config.tripleFilterEnabled) {
+                tripleFilter = loadTripleFilter()
+            }
+
+            if (config.planCacheSize > 0) {
+                planCache = QueryPlanCache(config.planCacheSize, daoFactory.metrics)
+            }
+
+            if (config.adaptiveReplanRatio > 0) {
+                observedCardinalities = ObservedCardinalities()
+            }
+
+            if (config.statisticsCollectionIntervalMillis > 0) {
+                statisticsCollector = startStatisticsCollector(config.statisticsCollectionIntervalMillis)
+            }
         } catch (ex: Exception) {
             throw SailException(ex)
         }
@@ -38,7 +87,27 @@ class ScyllaRDFSail(private val config: ScyllaRDFSailConfig) : AbstractNotifying
             daoFactory.getIndexDAO(),
             daoFactory.getCardinalityDAO(),
             config.cardinalityEstimationEnabled,
-            coder
+            coder,
+            config.writeBufferSize,
+            config.maxInFlightWrites,
+            tripleFilter,
+            daoFactory.getStatisticsDAO(),
+            planCache,
+            observedCardinalities,
+            ScyllaRDFQueryOptions(
+                bindJoinBlockSize = config.bindJoinBlockSize,
+                subjectStarEnabled = config.subjectStarEnabled,
+                costBasedJoinOrderEnabled = config.costBasedJoinOrderEnabled,
+                adaptiveReplanRatio = config.adaptiveReplanRatio,
+                limitPushdownEnabled = config.limitPushdownEnabled,
+                countPushdownEnabled = config.countPushdownEnabled,
+                approximateCountsEnabled = config.approximateCountsEnabled,
+                distinctPushdownEnabled = config.distinctPushdownEnabled,
+                hashJoinThreshold = config.hashJoinThreshold,
+                hashJoinMemoryBudget = config.hashJoinMemoryBudget,
+                spillDirectory = config.spillDirectory?.let { Paths.get(it) },
+                fetchSize = config.fetchSize
+            )
         )
     }
 
@@ -51,7 +120,84 @@ class ScyllaRDFSail(private val config: ScyllaRDFSailConfig) : AbstractNotifying
     }
 
     override fun shutDownInternal() {
-        daoFactory.close()
+        statisticsCollector?.shutdownNow()
+
+        try {
+            saveTripleFilter()
+        } finally {
+            daoFactory.close()
+        }
+    }
+
+    /**
+     * Collects a statistics snapshot in background every [intervalMillis]. If another instance has collected one
+     * within the interval, it's only reloaded.
+     */
+    private fun startStatisticsCollector(intervalMillis: Long): ScheduledExecutorService {
+        val executor = Executors.newSingleThreadScheduledExecutor(ThreadFactoryBuilder()
+            .setNameFormat("scylla-rdf-statistics-collector-%d")
+            .setDaemon(true)
+            .build())
+
+        val statisticsDao = daoFactory.getStatisticsDAO()
+
+        executor.scheduleWithFixedDelay(Runnable {
+            try {
+                val latest = statisticsDao.reloadLatestSnapshot()
+                if (latest == null || System.currentTimeMillis() - latest.version >= intervalMillis) {
+                    statisticsDao.collectSnapshot()
+                }
+            } catch (ex: Exception) {
+                LOG.warn("Failed to collect the statistics", ex)
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS)
+
+        return executor
+    }
+
+    /**
+     * The snapshot is checked against the first stored quads of the scan order, see [TripleFilter.load].
+     */
+    private fun loadTripleFilter(): TripleFilter {
+        val numTriples = daoFactory.getCardinalityDAO().numTriples()
+        val snapshot = config.tripleFilterSnapshot?.let { Paths.get(it) }
+
+        val loaded = snapshot?.let {
+            val sample = Iterations.asList(daoFactory.getIndexDAO()
+                .getStatements(null, null, null, listOf(null), 0, TRIPLE_FILTER_SAMPLE_SIZE))
+
+            TripleFilter.load(it, config.tripleFilterExpectedInsertions, config.tripleFilterFpp, numTriples, sample)
+        }
+        if (loaded != null) {
+            LOG.info("Loaded the triple filter from {}", snapshot)
+
+            return loaded
+        }
+
+        val filter = TripleFilter.create(config.tripleFilterExpectedInsertions, config.tripleFilterFpp)
+        filter.rebuild(daoFactory.getIndexDAO(), Runtime.getRuntime().availableProcessors())
+
+        return filter
+    }
+
+    /**
+     * The counters are flushed first, so the number of triples saved with the snapshot matches the stored one.
+     */
+    private fun saveTripleFilter() {
+        val filter = tripleFilter
+        val snapshot = config.tripleFilterSnapshot
+        if (filter == null || snapshot == null) {
+            return
+        }
+
+        try {
+            val cardinalityDao = daoFactory.getCardinalityDAO()
+            cardinalityDao.flushCards()
+
+            filter.save(Paths.get(snapshot), cardinalityDao.numTriples())
+        } catch (ex: Exception) {
+            LOG.warn("Failed to save the triple filter to {}", snapshot, ex)
+        }
     }
 
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package cc.datafabric.scyllardf.sail
 
+import cc.datafabric.scyllardf.dao.impl.ScyllaJMXDAO
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDAOOptions
 import org.eclipse.rdf4j.model.IRI
 import org.eclipse.rdf4j.model.Model
 import org.eclipse.rdf4j.model.Resource
@@ -23,6 +25,47 @@ class ScyllaRDFSailConfig : AbstractSailImplConfig() {
 
         private val SCYLLA_RDF_CARDINALITY_ESTIMATION_ENABLED =
             VF.createIRI(NAMESPACE_PREFIX, "cardinalityEstimationEnabled")
+        private val SCYLLA_RDF_WRITE_BUFFER_SIZE = VF.createIRI(NAMESPACE_PREFIX, "writeBufferSize")
+        private val SCYLLA_RDF_MAX_IN_FLIGHT_WRITES = VF.createIRI(NAMESPACE_PREFIX, "maxInFlightWrites")
+        private val SCYLLA_RDF_BATCH_SIZE = VF.createIRI(NAMESPACE_PREFIX, "batchSize")
+        private val SCYLLA_RDF_MAX_CONCURRENT_REQUESTS = VF.createIRI(NAMESPACE_PREFIX, "maxConcurrentRequests")
+        private val SCYLLA_RDF_CARDINALITY_FLUSH_INTERVAL =
+            VF.createIRI(NAMESPACE_PREFIX, "cardinalityFlushIntervalMillis")
+        private val SCYLLA_RDF_CARDINALITY_FLUSH_THRESHOLD = VF.createIRI(NAMESPACE_PREFIX, "cardinalityFlushThreshold")
+        private val SCYLLA_RDF_STATISTICS_CACHE_SIZE = VF.createIRI(NAMESPACE_PREFIX, "statisticsCacheSize")
+        private val SCYLLA_RDF_STATISTICS_REFRESH_MILLIS = VF.createIRI(NAMESPACE_PREFIX, "statisticsRefreshMillis")
+        private val SCYLLA_RDF_STATISTICS_COLLECTION_INTERVAL =
+            VF.createIRI(NAMESPACE_PREFIX, "statisticsCollectionIntervalMillis")
+        private val SCYLLA_RDF_STATISTICS_SAMPLE_RATIO = VF.createIRI(NAMESPACE_PREFIX, "statisticsSampleRatio")
+        private val SCYLLA_RDF_STATISTICS_MAX_ROWS_PER_SECOND =
+            VF.createIRI(NAMESPACE_PREFIX, "statisticsMaxRowsPerSecond")
+        private val SCYLLA_RDF_JMX_ENABLED = VF.createIRI(NAMESPACE_PREFIX, "jmxEnabled")
+        private val SCYLLA_RDF_JMX_PORT = VF.createIRI(NAMESPACE_PREFIX, "jmxPort")
+        private val SCYLLA_RDF_JMX_REFRESH_MILLIS = VF.createIRI(NAMESPACE_PREFIX, "jmxRefreshMillis")
+        private val SCYLLA_RDF_FETCH_SIZE = VF.createIRI(NAMESPACE_PREFIX, "fetchSize")
+        private val SCYLLA_RDF_PREFETCH_RATIO = VF.createIRI(NAMESPACE_PREFIX, "prefetchRatio")
+        private val SCYLLA_RDF_SCAN_PARALLELISM = VF.createIRI(NAMESPACE_PREFIX, "scanParallelism")
+        private val SCYLLA_RDF_SCAN_FETCH_SIZE = VF.createIRI(NAMESPACE_PREFIX, "scanFetchSize")
+        private val SCYLLA_RDF_DROP_PARALLELISM = VF.createIRI(NAMESPACE_PREFIX, "dropParallelism")
+        private val SCYLLA_RDF_DROP_MAX_IN_FLIGHT = VF.createIRI(NAMESPACE_PREFIX, "dropMaxInFlight")
+        private val SCYLLA_RDF_BIND_JOIN_BLOCK_SIZE = VF.createIRI(NAMESPACE_PREFIX, "bindJoinBlockSize")
+        private val SCYLLA_RDF_SUBJECT_STAR_ENABLED = VF.createIRI(NAMESPACE_PREFIX, "subjectStarEnabled")
+        private val SCYLLA_RDF_COST_BASED_JOIN_ORDER_ENABLED =
+            VF.createIRI(NAMESPACE_PREFIX, "costBasedJoinOrderEnabled")
+        private val SCYLLA_RDF_ADAPTIVE_REPLAN_RATIO = VF.createIRI(NAMESPACE_PREFIX, "adaptiveReplanRatio")
+        private val SCYLLA_RDF_LIMIT_PUSHDOWN_ENABLED = VF.createIRI(NAMESPACE_PREFIX, "limitPushdownEnabled")
+        private val SCYLLA_RDF_COUNT_PUSHDOWN_ENABLED = VF.createIRI(NAMESPACE_PREFIX, "countPushdownEnabled")
+        private val SCYLLA_RDF_APPROXIMATE_COUNTS_ENABLED = VF.createIRI(NAMESPACE_PREFIX, "approximateCountsEnabled")
+        private val SCYLLA_RDF_DISTINCT_PUSHDOWN_ENABLED = VF.createIRI(NAMESPACE_PREFIX, "distinctPushdownEnabled")
+        private val SCYLLA_RDF_PLAN_CACHE_SIZE = VF.createIRI(NAMESPACE_PREFIX, "planCacheSize")
+        private val SCYLLA_RDF_HASH_JOIN_THRESHOLD = VF.createIRI(NAMESPACE_PREFIX, "hashJoinThreshold")
+        private val SCYLLA_RDF_HASH_JOIN_MEMORY_BUDGET = VF.createIRI(NAMESPACE_PREFIX, "hashJoinMemoryBudget")
+        private val SCYLLA_RDF_SPILL_DIRECTORY = VF.createIRI(NAMESPACE_PREFIX, "spillDirectory")
+        private val SCYLLA_RDF_TRIPLE_FILTER_ENABLED = VF.createIRI(NAMESPACE_PREFIX, "tripleFilterEnabled")
+        private val SCYLLA_RDF_TRIPLE_FILTER_EXPECTED_INSERTIONS =
+            VF.createIRI(NAMESPACE_PREFIX, "tripleFilterExpectedInsertions")
+        private val SCYLLA_RDF_TRIPLE_FILTER_FPP = VF.createIRI(NAMESPACE_PREFIX, "tripleFilterFpp")
+        private val SCYLLA_RDF_TRIPLE_FILTER_SNAPSHOT = VF.createIRI(NAMESPACE_PREFIX, "tripleFilterSnapshot")
 
         private val ELASTICSEARCH_HOST: IRI = VF.createIRI(NAMESPACE_PREFIX, "elasticsearchHost")
         private val ELASTICSEARCH_MAX_DOCUMENTS: IRI = VF
@@ -36,6 +79,176 @@ class ScyllaRDFSailConfig : AbstractSailImplConfig() {
 
     var cardinalityEstimationEnabled = false
 
+    /**
+     * Max number of statements added in a transaction, they're kept in memory until it's committed. A larger
+     * transaction fails, large datasets should be loaded by the bulk loader.
+     */
+    var writeBufferSize: Int = 100000
+
+    /**
+     * Max number of write requests being sent to Scylla concurrently on a flush.
+     */
+    var maxInFlightWrites: Int = 256
+
+    /**
+     * Max number of statements in an UNLOGGED batch sent to a single partition.
+     */
+    var batchSize: Int = ScyllaRDFDAOOptions.DEFAULT_BATCH_SIZE
+
+    /**
+     * Max number of requests being sent to Scylla concurrently by all connections.
+     */
+    var maxConcurrentRequests: Int = ScyllaRDFDAOOptions.DEFAULT_MAX_CONCURRENT_REQUESTS
+
+    /**
+     * Interval between flushes of the cardinality counters accumulated in memory.
+     */
+    var cardinalityFlushIntervalMillis: Long = ScyllaRDFDAOOptions.DEFAULT_CARDINALITY_FLUSH_INTERVAL_MILLIS
+
+    /**
+     * Number of counters with pending deltas which triggers an early flush.
+     */
+    var cardinalityFlushThreshold: Int = ScyllaRDFDAOOptions.DEFAULT_CARDINALITY_FLUSH_THRESHOLD
+
+    /**
+     * Max number of entries of the statistics cache shared by all connections.
+     */
+    var statisticsCacheSize: Long = ScyllaRDFDAOOptions.DEFAULT_STATISTICS_CACHE_SIZE
+
+    /**
+     * Cached statistics older than this are reloaded in background on the next read.
+     */
+    var statisticsRefreshMillis: Long = ScyllaRDFDAOOptions.DEFAULT_STATISTICS_REFRESH_MILLIS
+
+    /**
+     * Interval between collections of the statistics snapshot by sampling the indexes, 0 disables them.
+     */
+    var statisticsCollectionIntervalMillis: Long = 3600000
+
+    /**
+     * Part of the token ring sampled by a collection of the statistics snapshot.
+     */
+    var statisticsSampleRatio: Double = ScyllaRDFDAOOptions.DEFAULT_STATISTICS_SAMPLE_RATIO
+
+    /**
+     * Max number of rows per second read by a collection of the statistics snapshot.
+     */
+    var statisticsMaxRowsPerSecond: Double = ScyllaRDFDAOOptions.DEFAULT_STATISTICS_MAX_ROWS_PER_SECOND
+
+    /**
+     * If enabled, numbers of partitions of the index tables are polled from every node via JMX and used by the
+     * cardinality estimation.
+     */
+    var jmxEnabled = false
+    var jmxPort: Int = ScyllaJMXDAO.DEFAULT_PORT
+    var jmxRefreshMillis: Long = ScyllaRDFDAOOptions.DEFAULT_JMX_REFRESH_MILLIS
+
+    /**
+     * Number of rows in a page of a statement query.
+     */
+    var fetchSize: Int = ScyllaRDFDAOOptions.DEFAULT_FETCH_SIZE
+
+    /**
+     * The next page is fetched in background once this part of the current page is consumed.
+     */
+    var prefetchRatio: Double = ScyllaRDFDAOOptions.DEFAULT_PREFETCH_RATIO
+
+    /**
+     * Number of token ranges read concurrently by a full scan.
+     */
+    var scanParallelism: Int = ScyllaRDFDAOOptions.DEFAULT_SCAN_PARALLELISM
+
+    /**
+     * Number of rows in a page of a full scan or of a partition read while a graph is dropped.
+     */
+    var scanFetchSize: Int = ScyllaRDFDAOOptions.DEFAULT_SCAN_FETCH_SIZE
+
+    /**
+     * Number of token ranges read concurrently while a graph is dropped.
+     */
+    var dropParallelism: Int = ScyllaRDFDAOOptions.DEFAULT_DROP_PARALLELISM
+
+    /**
+     * Max number of partitions of a dropped graph being removed concurrently.
+     */
+    var dropMaxInFlight: Int = ScyllaRDFDAOOptions.DEFAULT_DROP_MAX_IN_FLIGHT
+
+    /**
+     * Max number of left bindings of a join whose lookups are sent concurrently, 1 disables bind joins.
+     */
+    var bindJoinBlockSize: Int = ScyllaRDFQueryOptions.DEFAULT_BIND_JOIN_BLOCK_SIZE
+
+    /**
+     * If enabled, patterns sharing the subject are matched from a single read of the subject's partition.
+     */
+    var subjectStarEnabled = true
+
+    /**
+     * If enabled, joins are ordered by the estimated round trips to Scylla. It requires the cardinality estimation.
+     */
+    var costBasedJoinOrderEnabled = true
+
+    /**
+     * The rest of a join is re-planned during its evaluation once the observed rows differ from the estimate by
+     * this ratio, and the rows of evaluated patterns are used by the planner. 0 disables it.
+     */
+    var adaptiveReplanRatio: Double = ScyllaRDFQueryOptions.DEFAULT_ADAPTIVE_REPLAN_RATIO
+
+    /**
+     * If enabled, LIMIT and OFFSET are passed to Scylla by the queries of the pattern driving the evaluation.
+     */
+    var limitPushdownEnabled = true
+
+    /**
+     * If enabled, COUNT of a single pattern is answered by a count of a single partition, or from the counters if
+     * [approximateCountsEnabled].
+     */
+    var countPushdownEnabled = true
+
+    /**
+     * If enabled, COUNT of all statements, of a named graph or of a predicate is answered from the counters. They're
+     * approximate, e.g. a statement added again by the bulk loader is counted twice.
+     */
+    var approximateCountsEnabled = false
+
+    /**
+     * If enabled, DISTINCT values of a single pattern are read from the keys of an index, e.g. all predicates from
+     * the partition keys of P_OSC.
+     */
+    var distinctPushdownEnabled = true
+
+    /**
+     * Max number of optimized plans reused by queries differing only by values of their patterns, 0 disables
+     * the cache.
+     */
+    var planCacheSize: Long = QueryPlanCache.DEFAULT_SIZE
+
+    /**
+     * Two joined patterns are evaluated by a hash join if both are estimated to match at least this number
+     * of statements. It requires the cardinality estimation.
+     */
+    var hashJoinThreshold: Long = ScyllaRDFQueryOptions.DEFAULT_HASH_JOIN_THRESHOLD
+
+    /**
+     * Max number of bytes kept off-heap by the hash joins of a query before they spill to [spillDirectory].
+     */
+    var hashJoinMemoryBudget: Long = ScyllaRDFQueryOptions.DEFAULT_HASH_JOIN_MEMORY_BUDGET
+    var spillDirectory: String? = null
+
+    /**
+     * If enabled, a Bloom filter of stored triples is used to skip duplicate writes and lookups of missing triples.
+     * It's valid only if the store isn't written by other instances.
+     */
+    var tripleFilterEnabled = false
+    var tripleFilterExpectedInsertions: Long = 10000000
+    var tripleFilterFpp: Double = 0.01
+
+    /**
+     * The file the filter is saved to on shutdown and loaded from on startup. If it isn't set, the filter is
+     * rebuilt by scanning all triples on every startup.
+     */
+    var tripleFilterSnapshot: String? = null
+
     var elasticsearchHost: String? = null
     var elasticsearchMaxDocuments: Int = 100
 
@@ -51,6 +264,46 @@ class ScyllaRDFSailConfig : AbstractSailImplConfig() {
         m.add(implNode, SCYLLA_PORT, VF.createLiteral(scyllaPort))
 
         m.add(implNode, SCYLLA_RDF_CARDINALITY_ESTIMATION_ENABLED, VF.createLiteral(cardinalityEstimationEnabled))
+        m.add(implNode, SCYLLA_RDF_WRITE_BUFFER_SIZE, VF.createLiteral(writeBufferSize))
+        m.add(implNode, SCYLLA_RDF_MAX_IN_FLIGHT_WRITES, VF.createLiteral(maxInFlightWrites))
+        m.add(implNode, SCYLLA_RDF_BATCH_SIZE, VF.createLiteral(batchSize))
+        m.add(implNode, SCYLLA_RDF_MAX_CONCURRENT_REQUESTS, VF.createLiteral(maxConcurrentRequests))
+        m.add(implNode, SCYLLA_RDF_CARDINALITY_FLUSH_INTERVAL, VF.createLiteral(cardinalityFlushIntervalMillis))
+        m.add(implNode, SCYLLA_RDF_CARDINALITY_FLUSH_THRESHOLD, VF.createLiteral(cardinalityFlushThreshold))
+        m.add(implNode, SCYLLA_RDF_STATISTICS_CACHE_SIZE, VF.createLiteral(statisticsCacheSize))
+        m.add(implNode, SCYLLA_RDF_STATISTICS_REFRESH_MILLIS, VF.createLiteral(statisticsRefreshMillis))
+        m.add(implNode, SCYLLA_RDF_STATISTICS_COLLECTION_INTERVAL, VF.createLiteral(statisticsCollectionIntervalMillis))
+        m.add(implNode, SCYLLA_RDF_STATISTICS_SAMPLE_RATIO, VF.createLiteral(statisticsSampleRatio))
+        m.add(implNode, SCYLLA_RDF_STATISTICS_MAX_ROWS_PER_SECOND, VF.createLiteral(statisticsMaxRowsPerSecond))
+        m.add(implNode, SCYLLA_RDF_JMX_ENABLED, VF.createLiteral(jmxEnabled))
+        m.add(implNode, SCYLLA_RDF_JMX_PORT, VF.createLiteral(jmxPort))
+        m.add(implNode, SCYLLA_RDF_JMX_REFRESH_MILLIS, VF.createLiteral(jmxRefreshMillis))
+        m.add(implNode, SCYLLA_RDF_FETCH_SIZE, VF.createLiteral(fetchSize))
+        m.add(implNode, SCYLLA_RDF_PREFETCH_RATIO, VF.createLiteral(prefetchRatio))
+        m.add(implNode, SCYLLA_RDF_SCAN_PARALLELISM, VF.createLiteral(scanParallelism))
+        m.add(implNode, SCYLLA_RDF_SCAN_FETCH_SIZE, VF.createLiteral(scanFetchSize))
+        m.add(implNode, SCYLLA_RDF_DROP_PARALLELISM, VF.createLiteral(dropParallelism))
+        m.add(implNode, SCYLLA_RDF_DROP_MAX_IN_FLIGHT, VF.createLiteral(dropMaxInFlight))
+        m.add(implNode, SCYLLA_RDF_BIND_JOIN_BLOCK_SIZE, VF.createLiteral(bindJoinBlockSize))
+        m.add(implNode, SCYLLA_RDF_SUBJECT_STAR_ENABLED, VF.createLiteral(subjectStarEnabled))
+        m.add(implNode, SCYLLA_RDF_COST_BASED_JOIN_ORDER_ENABLED, VF.createLiteral(costBasedJoinOrderEnabled))
+        m.add(implNode, SCYLLA_RDF_ADAPTIVE_REPLAN_RATIO, VF.createLiteral(adaptiveReplanRatio))
+        m.add(implNode, SCYLLA_RDF_LIMIT_PUSHDOWN_ENABLED, VF.createLiteral(limitPushdownEnabled))
+        m.add(implNode, SCYLLA_RDF_COUNT_PUSHDOWN_ENABLED, VF.createLiteral(countPushdownEnabled))
+        m.add(implNode, SCYLLA_RDF_APPROXIMATE_COUNTS_ENABLED, VF.createLiteral(approximateCountsEnabled))
+        m.add(implNode, SCYLLA_RDF_DISTINCT_PUSHDOWN_ENABLED, VF.createLiteral(distinctPushdownEnabled))
+        m.add(implNode, SCYLLA_RDF_PLAN_CACHE_SIZE, VF.createLiteral(planCacheSize))
+        m.add(implNode, SCYLLA_RDF_HASH_JOIN_THRESHOLD, VF.createLiteral(hashJoinThreshold))
+        m.add(implNode, SCYLLA_RDF_HASH_JOIN_MEMORY_BUDGET, VF.createLiteral(hashJoinMemoryBudget))
+        if (spillDirectory != null) {
+            m.add(implNode, SCYLLA_RDF_SPILL_DIRECTORY, VF.createLiteral(spillDirectory))
+        }
+        m.add(implNode, SCYLLA_RDF_TRIPLE_FILTER_ENABLED, VF.createLiteral(tripleFilterEnabled))
+        m.add(implNode, SCYLLA_RDF_TRIPLE_FILTER_EXPECTED_INSERTIONS, VF.createLiteral(tripleFilterExpectedInsertions))
+        m.add(implNode, SCYLLA_RDF_TRIPLE_FILTER_FPP, VF.createLiteral(tripleFilterFpp))
+        if (tripleFilterSnapshot != null) {
+            m.add(implNode, SCYLLA_RDF_TRIPLE_FILTER_SNAPSHOT, VF.createLiteral(tripleFilterSnapshot))
+        }
 
         if (elasticsearchHost != null) {
             m.add(implNode, ELASTICSEARCH_HOST, VF.createLiteral(elasticsearchHost))
@@ -82,6 +335,113 @@ class ScyllaRDFSailConfig : AbstractSailImplConfig() {
                 .getPropertyLiteral(m, implNode, SCYLLA_RDF_CARDINALITY_ESTIMATION_ENABLED)
                 .orElse(VF.createLiteral(cardinalityEstimationEnabled))
                 .stringValue()!!.toBoolean()
+            writeBufferSize = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_WRITE_BUFFER_SIZE)
+                .orElse(VF.createLiteral(writeBufferSize))
+                .stringValue().toInt()
+            maxInFlightWrites = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_MAX_IN_FLIGHT_WRITES)
+                .orElse(VF.createLiteral(maxInFlightWrites))
+                .stringValue().toInt()
+            batchSize = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_BATCH_SIZE)
+                .orElse(VF.createLiteral(batchSize))
+                .stringValue().toInt()
+            maxConcurrentRequests = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_MAX_CONCURRENT_REQUESTS)
+                .orElse(VF.createLiteral(maxConcurrentRequests))
+                .stringValue().toInt()
+            cardinalityFlushIntervalMillis = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_CARDINALITY_FLUSH_INTERVAL)
+                .orElse(VF.createLiteral(cardinalityFlushIntervalMillis))
+                .stringValue().toLong()
+            cardinalityFlushThreshold = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_CARDINALITY_FLUSH_THRESHOLD)
+                .orElse(VF.createLiteral(cardinalityFlushThreshold))
+                .stringValue().toInt()
+            statisticsCacheSize = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_STATISTICS_CACHE_SIZE)
+                .orElse(VF.createLiteral(statisticsCacheSize))
+                .stringValue().toLong()
+            statisticsRefreshMillis = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_STATISTICS_REFRESH_MILLIS)
+                .orElse(VF.createLiteral(statisticsRefreshMillis))
+                .stringValue().toLong()
+            statisticsCollectionIntervalMillis = Models
+                .getPropertyLiteral(m, implNode, SCYLLA_RDF_STATISTICS_COLLECTION_INTERVAL)
+                .orElse(VF.createLiteral(statisticsCollectionIntervalMillis))
+                .stringValue().toLong()
+            statisticsSampleRatio = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_STATISTICS_SAMPLE_RATIO)
+                .orElse(VF.createLiteral(statisticsSampleRatio))
+                .stringValue().toDouble()
+            statisticsMaxRowsPerSecond = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_STATISTICS_MAX_ROWS_PER_SECOND)
+                .orElse(VF.createLiteral(statisticsMaxRowsPerSecond))
+                .stringValue().toDouble()
+            jmxEnabled = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_JMX_ENABLED)
+                .orElse(VF.createLiteral(jmxEnabled))
+                .stringValue()!!.toBoolean()
+            jmxPort = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_JMX_PORT)
+                .orElse(VF.createLiteral(jmxPort))
+                .stringValue().toInt()
+            jmxRefreshMillis = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_JMX_REFRESH_MILLIS)
+                .orElse(VF.createLiteral(jmxRefreshMillis))
+                .stringValue().toLong()
+            fetchSize = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_FETCH_SIZE)
+                .orElse(VF.createLiteral(fetchSize))
+                .stringValue().toInt()
+            prefetchRatio = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_PREFETCH_RATIO)
+                .orElse(VF.createLiteral(prefetchRatio))
+                .stringValue().toDouble()
+            scanParallelism = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_SCAN_PARALLELISM)
+                .orElse(VF.createLiteral(scanParallelism))
+                .stringValue().toInt()
+            scanFetchSize = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_SCAN_FETCH_SIZE)
+                .orElse(VF.createLiteral(scanFetchSize))
+                .stringValue().toInt()
+            dropParallelism = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_DROP_PARALLELISM)
+                .orElse(VF.createLiteral(dropParallelism))
+                .stringValue().toInt()
+            dropMaxInFlight = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_DROP_MAX_IN_FLIGHT)
+                .orElse(VF.createLiteral(dropMaxInFlight))
+                .stringValue().toInt()
+            bindJoinBlockSize = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_BIND_JOIN_BLOCK_SIZE)
+                .orElse(VF.createLiteral(bindJoinBlockSize))
+                .stringValue().toInt()
+            subjectStarEnabled = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_SUBJECT_STAR_ENABLED)
+                .orElse(VF.createLiteral(subjectStarEnabled))
+                .stringValue()!!.toBoolean()
+            costBasedJoinOrderEnabled = Models.getPropertyLiteral(m, implNode,
+                SCYLLA_RDF_COST_BASED_JOIN_ORDER_ENABLED)
+                .orElse(VF.createLiteral(costBasedJoinOrderEnabled))
+                .stringValue()!!.toBoolean()
+            adaptiveReplanRatio = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_ADAPTIVE_REPLAN_RATIO)
+                .orElse(VF.createLiteral(adaptiveReplanRatio))
+                .stringValue().toDouble()
+            limitPushdownEnabled = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_LIMIT_PUSHDOWN_ENABLED)
+                .orElse(VF.createLiteral(limitPushdownEnabled))
+                .stringValue()!!.toBoolean()
+            countPushdownEnabled = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_COUNT_PUSHDOWN_ENABLED)
+                .orElse(VF.createLiteral(countPushdownEnabled))
+                .stringValue()!!.toBoolean()
+            approximateCountsEnabled = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_APPROXIMATE_COUNTS_ENABLED)
+                .orElse(VF.createLiteral(approximateCountsEnabled))
+                .stringValue()!!.toBoolean()
+            distinctPushdownEnabled = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_DISTINCT_PUSHDOWN_ENABLED)
+                .orElse(VF.createLiteral(distinctPushdownEnabled))
+                .stringValue()!!.toBoolean()
+            planCacheSize = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_PLAN_CACHE_SIZE)
+                .orElse(VF.createLiteral(planCacheSize))
+                .stringValue().toLong()
+            hashJoinThreshold = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_HASH_JOIN_THRESHOLD)
+                .orElse(VF.createLiteral(hashJoinThreshold))
+                .stringValue().toLong()
+            hashJoinMemoryBudget = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_HASH_JOIN_MEMORY_BUDGET)
+                .orElse(VF.createLiteral(hashJoinMemoryBudget))
+                .stringValue().toLong()
+            spillDirectory = Models.getPropertyString(m, implNode, SCYLLA_RDF_SPILL_DIRECTORY).orElse(null)
+            tripleFilterEnabled = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_TRIPLE_FILTER_ENABLED)
+                .orElse(VF.createLiteral(tripleFilterEnabled))
+                .stringValue()!!.toBoolean()
+            tripleFilterExpectedInsertions = Models
+                .getPropertyLiteral(m, implNode, SCYLLA_RDF_TRIPLE_FILTER_EXPECTED_INSERTIONS)
+                .orElse(VF.createLiteral(tripleFilterExpectedInsertions))
+                .stringValue().toLong()
+            tripleFilterFpp = Models.getPropertyLiteral(m, implNode, SCYLLA_RDF_TRIPLE_FILTER_FPP)
+                .orElse(VF.createLiteral(tripleFilterFpp))
+                .stringValue().toDouble()
+            tripleFilterSnapshot = Models.getPropertyString(m, implNode, SCYLLA_RDF_TRIPLE_FILTER_SNAPSHOT).orElse(null)
 
             elasticsearchHost = Models.getPropertyString(m, implNode, ELASTICSEARCH_HOST).orElse(null)
             if (!elasticsearchHost.isNullOrEmpty()) {
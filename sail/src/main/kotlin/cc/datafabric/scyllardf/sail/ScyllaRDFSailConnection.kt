@@ -3,7 +3,14 @@ package cc.datafabric.scyllardf.sail
 import cc.datafabric.scyllardf.coder.ICoderFacade
 import cc.datafabric.scyllardf.dao.ICardinalityDAO
 import cc.datafabric.scyllardf.dao.IIndexDAO
+import cc.datafabric.scyllardf.dao.IStatisticsDAO
+import cc.datafabric.scyllardf.dao.InFlightWindow
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import cc.datafabric.scyllardf.filter.TripleFilter
+import com.google.common.util.concurrent.Uninterruptibles
 import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.ConvertingIteration
+import org.eclipse.rdf4j.common.iteration.Iterations
 import org.eclipse.rdf4j.model.*
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory
 import org.eclipse.rdf4j.query.BindingSet
@@ -12,19 +19,25 @@ import org.eclipse.rdf4j.query.QueryEvaluationException
 import org.eclipse.rdf4j.query.algebra.QueryRoot
 import org.eclipse.rdf4j.query.algebra.TupleExpr
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics
-import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategyFactory
 import org.eclipse.rdf4j.sail.SailException
-import org.eclipse.rdf4j.sail.evaluation.SailTripleSource
 import org.eclipse.rdf4j.sail.helpers.AbstractSail
 import org.eclipse.rdf4j.sail.helpers.NotifyingSailConnectionBase
 import org.slf4j.LoggerFactory
+import java.nio.ByteBuffer
 
 class ScyllaRDFSailConnection(
         sail: AbstractSail,
         private val indexDao: IIndexDAO,
         private val cardinalityDao: ICardinalityDAO,
         private val cardinalityEstimationEnabled: Boolean,
-        private val coder: ICoderFacade
+        private val coder: ICoderFacade,
+        private val writeBufferSize: Int = 100000,
+        private val maxInFlightWrites: Int = 256,
+        private val tripleFilter: TripleFilter? = null,
+        private val statisticsDao: IStatisticsDAO? = null,
+        private val planCache: QueryPlanCache? = null,
+        private val observedCardinalities: ObservedCardinalities? = null,
+        private val queryOptions: ScyllaRDFQueryOptions = ScyllaRDFQueryOptions()
 ) : NotifyingSailConnectionBase(sail) {
 
     companion object {
@@ -32,7 +45,13 @@ class ScyllaRDFSailConnection(
         private val VF = SimpleValueFactory.getInstance()
     }
 
-    private val tripleSource = SailTripleSource(this, false, VF)
+    private val tripleSource = ScyllaRDFTripleSource(this, VF)
+
+    /**
+     * Statements added and removed in the current transaction, they're written to Scylla on commit. A transaction
+     * can't change more than [writeBufferSize] statements, since a part of it written earlier couldn't be rolled back.
+     */
+    private val writeBuffer = TransactionWriteBuffer()
 
     override fun removeNamespaceInternal(prefix: String) {
         indexDao.removeNamespace(prefix)
@@ -70,66 +89,252 @@ class ScyllaRDFSailConnection(
         val o = coder.encode(obj)!!
 
         if (contexts.isNullOrEmpty() || (contexts.size == 1 && contexts[0] == null)) {
-            indexDao.addStatementBlocking(s, p, o)
-
-            cardinalityDao.incrementCards(s, p, o, null)
+            writeBuffer.add(s, p, o, null)
         } else {
-            val c = coder.encode(contexts)
-
-            indexDao.addStatementBlocking(s, p, o, c)
-
-            cardinalityDao.incrementCards(s, p, o, c)
+            coder.encode(contexts).forEach { writeBuffer.add(s, p, o, it) }
         }
 
+        checkWriteBufferSize()
+
         notifyStatementAdded(subj, pred, obj, *contexts)
     }
 
     override fun removeStatementsInternal(subj: Resource?, pred: IRI?, obj: Value?, vararg contexts: Resource?) {
+        if (subj == null && pred == null && obj == null) {
+            clearInternal(*contexts)
+            return
+        }
         if (subj == null || pred == null || obj == null) {
-            /**
-             * It's not possible to remove by a partial BGP, because it's inefficient, e.g. remove *,P,*,* from CSPO.
-             *
-             * We may want to use materialized views to support this functionality.
-             */
-            throw SailException("All subject, predicate and object must be set!")
+            removeMatchingStatements(subj, pred, obj, *contexts)
+            return
         }
 
         val s = coder.encode(subj)!!
         val p = coder.encode(pred)!!
         val o = coder.encode(obj)!!
 
-        if (contexts.isNullOrEmpty() || (contexts.size == 1 && contexts[0] == null)) {
-            indexDao.removeStatementBlocking(s, p, o, listOf(null))
+        // No contexts means all contexts, the statement is removed from the ones it's stored in
+        val c = if (contexts.isNullOrEmpty()) {
+            writeBuffer.remove(s, p, o, emptyList())
 
-            cardinalityDao.decrementCards(s, p, o, null)
+            Iterations.asList(indexDao.getStatements(s, p, o, listOf(null))).map { it[3] }
         } else {
-            val c = coder.encode(contexts)
-            indexDao.removeStatementBlocking(s, p, o, c)
-
-            cardinalityDao.decrementCards(s, p, o, c)
+            coder.encode(contexts)
         }
 
+        c.forEach { writeBuffer.removeOnCommit(s, p, o, it) }
+
+        checkWriteBufferSize()
+
         notifyStatementRemoved(subj, pred, obj, *contexts)
     }
 
+    /**
+     * Removes statements matching a partial pattern right away. No contexts means any context, a null context means
+     * the default graph, the same as for fully bound statements. The counters are decremented once the removals are
+     * done, if a request fails, only for the statements which aren't stored anymore.
+     */
+    private fun removeMatchingStatements(subj: Resource?, pred: IRI?, obj: Value?, vararg contexts: Resource?) {
+        val s = coder.encode(subj)
+        val p = coder.encode(pred)
+        val o = coder.encode(obj)
+        val c = if (contexts.isNullOrEmpty()) {
+            listOf(null)
+        } else {
+            coder.encode(contexts).map { it ?: ScyllaRDFSchema.CONTEXT_DEFAULT }
+        }
+
+        writeBuffer.remove(s, p, o, if (contexts.isNullOrEmpty()) emptyList() else c)
+
+        val window = InFlightWindow(maxInFlightWrites)
+        val removed = mutableListOf<Array<ByteBuffer>>()
+
+        try {
+            c.forEach { context ->
+                indexDao.removeStatements(s, p, o, context, window) { quads ->
+                    if (hasConnectionListeners()) {
+                        quads.forEach { notifyStatementRemoved(coder.decode(it)) }
+                    }
+
+                    removed.addAll(quads)
+                }
+            }
+
+            window.await()
+        } catch (ex: Exception) {
+            window.awaitCompletion()
+
+            val remaining = findStored(removed)
+            removed.filterNot { remaining.contains(it.asList()) }
+                .forEach { cardinalityDao.decrementCards(it[0], it[1], it[2], it[3]) }
+
+            throw ex
+        }
+
+        removed.forEach { cardinalityDao.decrementCards(it[0], it[1], it[2], it[3]) }
+
+        LOG.debug("Removed {} statements", removed.size)
+    }
+
     override fun getStatementsInternal(
             subj: Resource?, pred: IRI?, obj: Value?, includeInferred: Boolean, vararg contexts: Resource?
     ): CloseableIteration<out Statement, SailException> {
-        return if (contexts.isNullOrEmpty() || (contexts.size == 1 && contexts[0] == null)) {
-            coder.toStatementIteration(indexDao.getStatements(
-                    coder.encode(subj),
-                    coder.encode(pred),
-                    coder.encode(obj),
-                    null
-            ))
+        return getStatementsInternal(subj, pred, obj, 0, 0, *contexts)
+    }
+
+    /**
+     * The limit is passed to the DAO only if there are no changes in the write buffer, since buffered removals
+     * could drop some of the limited rows.
+     */
+    private fun getStatementsInternal(
+            subj: Resource?, pred: IRI?, obj: Value?, fetchSize: Int, limit: Int, vararg contexts: Resource?
+    ): CloseableIteration<out Statement, SailException> {
+        val s = coder.encode(subj)
+        val p = coder.encode(pred)
+        val o = coder.encode(obj)
+
+        val c = if (contexts.isNullOrEmpty() || (contexts.size == 1 && contexts[0] == null)) {
+            listOf(null)
         } else {
-            coder.toStatementIteration(indexDao.getStatements(
-                    coder.encode(subj),
-                    coder.encode(pred),
-                    coder.encode(obj),
-                    coder.encode(contexts)
-            ))
+            coder.encode(contexts)
+        }
+
+        val stored = indexDao.getStatements(s, p, o, c, fetchSize, if (writeBuffer.isEmpty()) limit else 0)
+
+        if (writeBuffer.isEmpty()) {
+            return coder.toStatementIteration(stored)
+        }
+
+        val buffered = if (contexts.isNullOrEmpty()) {
+            writeBuffer.match(s, p, o, emptyList())
+        } else {
+            writeBuffer.match(s, p, o, coder.encode(contexts))
+        }
+
+        return coder.toStatementIteration(BufferedSPOCIteration(buffered, writeBuffer.removedKeys(), stored))
+    }
+
+    /**
+     * Skips the iteration tracking of [getStatements], the iterations are closed with the query result. Pending
+     * changes of an update operation are flushed first, the same as [getStatements] does, the fetch size and
+     * the limit aren't applied then.
+     *
+     * @param fetchSize number of rows in a page, 0 means the default of the DAO
+     * @param limit max number of statements to read, 0 means no limit
+     */
+    internal fun getStatementsForEvaluation(
+        subj: Resource?, pred: IRI?, obj: Value?, fetchSize: Int, limit: Int, vararg contexts: Resource?
+    ): CloseableIteration<out Statement, SailException> {
+        if (pendingAdds()) {
+            return getStatements(subj, pred, obj, false, *contexts)
+        }
+
+        return getStatementsInternal(subj, pred, obj, fetchSize, limit, *contexts)
+    }
+
+    /**
+     * Counts the statements by a count of a single partition, the same statements as [getStatements] would return.
+     * All statements, the ones of a named graph or of a predicate are counted from the counters only if
+     * [ScyllaRDFQueryOptions.approximateCountsEnabled], since the counters aren't exact. Returns null if there are
+     * changes which aren't written yet or if the statements can't be counted without reading them, e.g. in several
+     * contexts.
+     */
+    internal fun countStatementsForEvaluation(subj: Resource?, pred: IRI?, obj: Value?, vararg contexts: Resource?)
+            : Long? {
+        if (pendingAdds() || !writeBuffer.isEmpty()) {
+            return null
+        }
+        if (contexts.size > 1 || (contexts.size == 1 && contexts[0] == null)) {
+            return null
+        }
+
+        val s = coder.encode(subj)
+        val p = coder.encode(pred)
+        val o = coder.encode(obj)
+        val c = contexts.getOrNull(0)?.let { coder.encode(it) }
+        val approximate = queryOptions.approximateCountsEnabled
+
+        return when {
+            approximate && s == null && p == null && o == null -> if (c == null) {
+                cardinalityDao.numTriples()
+            } else {
+                cardinalityDao.contextCardinality(c)
+            }
+            approximate && s == null && o == null && c == null -> cardinalityDao.predicateCardinality(p!!)
+            else -> indexDao.countStatements(s, p, o, c)
+        }
+    }
+
+    /**
+     * Numbers of statements of all predicates from the counters, or null if approximate counts aren't enabled or
+     * there are changes which aren't written yet, see [countStatementsForEvaluation].
+     */
+    internal fun countPredicatesForEvaluation(): Map<IRI, Long>? {
+        if (!queryOptions.approximateCountsEnabled || pendingAdds() || !writeBuffer.isEmpty()) {
+            return null
+        }
+
+        return cardinalityDao.predicateCardinalities()
+            .mapKeys { coder.decode(it.key) as IRI }
+    }
+
+    /**
+     * Distinct values of a position of the statements in all contexts read from the keys of the index: the partition
+     * keys if [key] is null, otherwise the first clustering column of its partition, see [IIndexDAO.getDistinctKeys]
+     * and [IIndexDAO.getDistinctClusteringValues]. The objects of a predicate are read by a skip scan if it has more
+     * statements per object than a page holds. Returns null if there are changes which aren't written yet.
+     */
+    internal fun getDistinctValuesForEvaluation(table: ScyllaRDFSchema.Table, key: Value?)
+            : CloseableIteration<Value, SailException>? {
+        if (pendingAdds() || !writeBuffer.isEmpty()) {
+            return null
+        }
+
+        val values = if (key == null) {
+            indexDao.getDistinctKeys(table)
+        } else {
+            val k = coder.encode(key)!!
+            val skip = if (table == ScyllaRDFSchema.Table.P_OSC) {
+                val cachedCardinalityDao = cardinalityDao.withCache()
+                val rows = cachedCardinalityDao.predicateCardinality(k)
+                val objects = Math.max(cachedCardinalityDao.predicateDistinctObjects(k), 1L)
+
+                rows / objects > queryOptions.fetchSize
+            } else {
+                false
+            }
+
+            indexDao.getDistinctClusteringValues(table, k, skip)
+        }
+
+        return object : ConvertingIteration<ByteBuffer, Value, SailException>(values) {
+            override fun convert(value: ByteBuffer): Value {
+                return coder.decode(value)
+            }
+        }
+    }
+
+    /**
+     * Reads the quads of the subject in all contexts from its S_POC partition, restricted to the predicates if they're
+     * given, see [IIndexDAO.getSubjectStatements]. Returns null if there are pending changes of an update operation,
+     * the caller should read the patterns one by one then, so the changes are flushed by [getStatements].
+     */
+    internal fun getSubjectQuadsForEvaluation(subj: ByteBuffer, preds: List<ByteBuffer>?)
+            : CloseableIteration<Array<ByteBuffer>, SailException>? {
+        if (pendingAdds()) {
+            return null
         }
+
+        val stored = indexDao.getSubjectStatements(subj, preds)
+
+        if (writeBuffer.isEmpty()) {
+            return stored
+        }
+
+        val buffered = writeBuffer.match(subj, null, null, emptyList())
+            .filter { preds == null || preds.contains(it[1]) }
+
+        return BufferedSPOCIteration(buffered, writeBuffer.removedKeys(), stored)
     }
 
     override fun evaluateInternal(
@@ -144,47 +349,72 @@ class ScyllaRDFSailConnection(
         val statistics: EvaluationStatistics = if (cardinalityEstimationEnabled) {
             LOG.debug("The cardinality estimation is used!")
 
-            ScyllaRDFEvaluationStatistics(cardinalityDao.withCache(), coder)
+            // The cache is shared by all connections of the sail
+            val cachedCardinalityDao = cardinalityDao.withCache()
+            val snapshot = statisticsDao?.latestSnapshot()
+            planCache?.onStatistics(cachedCardinalityDao.numTriples(), snapshot?.version)
+
+            ScyllaRDFEvaluationStatistics(cachedCardinalityDao, coder, snapshot, observedCardinalities)
         } else {
             EvaluationStatistics()
         }
 
-        val strategy = StrictEvaluationStrategyFactory().createEvaluationStrategy(dataset, tripleSource, statistics)
+        val strategy = ScyllaRDFEvaluationStrategy(tripleSource, dataset, null, statistics, coder, queryOptions)
 
-        val queryPlanner = ScyllaRDFQueryPlanner(strategy, statistics)
-        queryPlanner.optimize(expr, dataset, bindings)
+        val queryPlanner = ScyllaRDFQueryPlanner(strategy, statistics, queryOptions)
+        val plan = if (planCache != null && dataset == null) {
+            planCache.plan(expr, bindings) { queryPlanner.optimize(it, dataset, bindings) }
+        } else {
+            queryPlanner.optimize(expr, dataset, bindings)
+            expr
+        }
 
-        LOG.debug("Query: {}", expr)
+        LOG.debug("Query: {}", plan)
 
-        return strategy.evaluate(expr, bindings)
+        return strategy.evaluate(plan, bindings)
     }
 
     override fun pendingRemovals(): Boolean {
         return false
     }
 
+    /**
+     * Buffered statements are counted only if they aren't stored yet, buffered removals only if they're stored.
+     */
     override fun sizeInternal(vararg contexts: Resource?): Long {
         return if (contexts.isNullOrEmpty() || contexts[0] == null) {
-            cardinalityDao.numTriples()
+            cardinalityDao.numTriples() + countBuffered(null)
         } else {
             contexts.filterNotNull()
-                    .stream()
-                    .map { cardinalityDao.contextCardinality(coder.encode(it)) }
-                    .reduce { a: Long, b: Long -> a + b }
-                    .orElse(0)
+                    .map { coder.encode(it)!! }
+                    .map { cardinalityDao.contextCardinality(it) + countBuffered(it) }
+                    .sum()
         }
     }
 
     override fun clearInternal(vararg contexts: Resource?) {
         if (contexts.isEmpty()) {
             // It means the default graph
+            writeBuffer.clear()
+
             indexDao.clearContext(null)
             cardinalityDao.clearContext(null)
+            tripleFilter?.clear()
         } else {
             contexts.forEach { context ->
                 coder.encode(context).let {
+                    if (it == null) {
+                        writeBuffer.clear()
+                    } else {
+                        writeBuffer.remove(null, null, null, listOf(it))
+                    }
+
+                    val predicates = if (it == null) emptyMap() else countPredicates(it)
+
                     indexDao.clearContext(it)
                     cardinalityDao.clearContext(it)
+                    predicates.map { (pred, size) -> cardinalityDao.incrementCardP(pred, -size) }
+                        .forEach { future -> future.getUninterruptibly() }
                 }
             }
         }
@@ -196,16 +426,171 @@ class ScyllaRDFSailConnection(
 
     override fun commitInternal() {
         LOG.debug("commitInternal")
+
+        flushWriteBuffer()
     }
 
     override fun rollbackInternal() {
         LOG.debug("rollbackInternal")
+
+        writeBuffer.clear()
     }
 
     override fun closeInternal() {
         LOG.debug("closeInternal")
     }
 
+    /**
+     * Writes the buffered changes in partition-grouped batches, the removals first, keeping at most
+     * [maxInFlightWrites] requests in flight. The counters are updated in memory once the requests are done and
+     * flushed by the cardinality DAO.
+     *
+     * The buffer is cleared only if all changes are written. If a request fails, the quads which are changed anyway
+     * are found by reads, they're counted and dropped from the buffer, the rest is kept, so the commit can be
+     * retried or the transaction rolled back.
+     */
+    private fun flushWriteBuffer() {
+        if (writeBuffer.isEmpty()) {
+            return
+        }
+
+        flushRemovals()
+        flushAdditions()
+
+        writeBuffer.clear()
+    }
+
+    private fun flushRemovals() {
+        // The counters are decremented only for the statements which are stored
+        val quads = findStored(writeBuffer.removals()).map { it.toTypedArray() }
+        if (quads.isEmpty()) {
+            return
+        }
+
+        val window = InFlightWindow(maxInFlightWrites)
+
+        try {
+            indexDao.removeStatements(quads, window)
+
+            window.await()
+        } catch (ex: Exception) {
+            window.awaitCompletion()
+
+            val remaining = findStored(quads)
+            onRemoved(quads.filterNot { remaining.contains(it.asList()) })
+
+            throw ex
+        }
+
+        onRemoved(quads)
+
+        LOG.debug("Removed {} statements", quads.size)
+    }
+
+    private fun flushAdditions() {
+        val quads = skipStored(writeBuffer.additions())
+        if (quads.isEmpty()) {
+            return
+        }
+
+        // The quads are put in the filter before they're written, so the other connections check them
+        if (tripleFilter != null) {
+            quads.forEach { tripleFilter.put(it) }
+        }
+
+        val window = InFlightWindow(maxInFlightWrites)
+
+        try {
+            indexDao.addStatements(quads, window)
+
+            window.await()
+        } catch (ex: Exception) {
+            window.awaitCompletion()
+
+            val written = findStored(quads)
+            onAdded(quads.filter { written.contains(it.asList()) })
+
+            throw ex
+        }
+
+        onAdded(quads)
+
+        LOG.debug("Flushed {} statements", quads.size)
+    }
+
+    private fun onRemoved(quads: List<Array<ByteBuffer>>) {
+        quads.forEach { cardinalityDao.decrementCards(it[0], it[1], it[2], it[3]) }
+
+        writeBuffer.forget(quads)
+    }
+
+    private fun onAdded(quads: List<Array<ByteBuffer>>) {
+        quads.forEach { cardinalityDao.incrementCards(it[0], it[1], it[2], it[3]) }
+
+        writeBuffer.forget(quads)
+    }
+
+    private fun checkWriteBufferSize() {
+        if (writeBuffer.size > writeBufferSize) {
+            throw SailException("The transaction changes more than $writeBufferSize statements, " +
+                    "commit it in smaller parts or increase the size of the write buffer!")
+        }
+    }
+
+    /**
+     * Numbers of statements of each predicate in the named graph by counts of its CP_OS partitions. The predicate
+     * counters aren't kept per graph, so these are subtracted from them when the graph is cleared.
+     */
+    private fun countPredicates(context: ByteBuffer): Map<ByteBuffer, Long> {
+        if (context == ScyllaRDFSchema.CONTEXT_DEFAULT) {
+            return emptyMap()
+        }
+
+        return cardinalityDao.predicateCardinalities().keys
+            .associateWith { indexDao.countStatements(null, it, null, context) ?: 0L }
+            .filterValues { it > 0 }
+    }
+
+    /**
+     * Drops the quads which are already stored, so they aren't rewritten and the counters aren't incremented again.
+     * Only the quads which might be in the filter are checked, without the filter none is checked.
+     */
+    private fun skipStored(quads: List<Array<ByteBuffer>>): List<Array<ByteBuffer>> {
+        if (tripleFilter == null) {
+            return quads
+        }
+
+        val stored = findStored(quads.filter { tripleFilter.mightContain(it[0], it[1], it[2], it[3]) })
+        if (stored.isEmpty()) {
+            return quads
+        }
+
+        LOG.debug("{} of {} statements are already stored", stored.size, quads.size)
+
+        return quads.filterNot { stored.contains(it.asList()) }
+    }
+
+    /**
+     * Number of the buffered statements which aren't stored yet minus the number of the stored ones which are removed
+     * on commit, in all contexts if the context is null.
+     */
+    private fun countBuffered(context: ByteBuffer?): Long {
+        val added = writeBuffer.match(null, null, null, listOf(context))
+        val removed = writeBuffer.removals().filter { context == null || it[3] == context }
+
+        return (added.size - findStored(added).size - findStored(removed).size).toLong()
+    }
+
+    /**
+     * The quads which are stored, checked by concurrent reads.
+     */
+    private fun findStored(quads: List<Array<ByteBuffer>>): Set<List<ByteBuffer>> {
+        return quads
+            .map { Pair(it, indexDao.containsStatement(it)) }
+            .filter { Uninterruptibles.getUninterruptibly(it.second) }
+            .mapTo(HashSet()) { it.first.asList() }
+    }
+
     private fun notifyStatementAdded(subj: Resource, pred: IRI, obj: Value, vararg contexts: Resource?) {
         if (contexts.isNullOrEmpty() || (contexts.size == 1 && contexts[0] == null)) {
             notifyStatementAdded(VF.createStatement(subj, pred, obj))
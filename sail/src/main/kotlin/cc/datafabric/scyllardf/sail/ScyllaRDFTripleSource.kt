@@ -0,0 +1,105 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.ExceptionConvertingIteration
+import org.eclipse.rdf4j.model.IRI
+import org.eclipse.rdf4j.model.Resource
+import org.eclipse.rdf4j.model.Statement
+import org.eclipse.rdf4j.model.Value
+import org.eclipse.rdf4j.model.ValueFactory
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource
+import java.nio.ByteBuffer
+
+/**
+ * Reads statements of the evaluated patterns right from the connection. The statements and their values are
+ * backed by the encoded quads, see [cc.datafabric.scyllardf.model.IEncodedValue], so values bound by one
+ * pattern are passed to the next one without being decoded and encoded again. Joins, DISTINCT and sameTerm
+ * compare the encoded values by bytes, a value is decoded only if its lexical form is used, e.g. by a filter
+ * or in the query result.
+ */
+internal class ScyllaRDFTripleSource(
+    private val connection: ScyllaRDFSailConnection,
+    private val vf: ValueFactory
+) : TripleSource {
+
+    private var fetchSize = 0
+    private var limit = 0
+
+    override fun getStatements(subj: Resource?, pred: IRI?, obj: Value?, vararg contexts: Resource?)
+            : CloseableIteration<out Statement, QueryEvaluationException> {
+        return object : ExceptionConvertingIteration<Statement, QueryEvaluationException>(
+            connection.getStatementsForEvaluation(subj, pred, obj, fetchSize, limit, *contexts)
+        ) {
+            override fun convert(e: Exception): QueryEvaluationException {
+                return e as? QueryEvaluationException ?: QueryEvaluationException(e)
+            }
+        }
+    }
+
+    /**
+     * Statements read by [getStatements] called by the block are limited, see [LimitedStatementPattern].
+     *
+     * @param fetchSize number of rows in a page, 0 means the default of the DAO
+     * @param limit max number of statements to read, 0 means no limit
+     */
+    fun <T> withLimit(fetchSize: Int, limit: Int, block: () -> T): T {
+        this.fetchSize = fetchSize
+        this.limit = limit
+        try {
+            return block()
+        } finally {
+            this.fetchSize = 0
+            this.limit = 0
+        }
+    }
+
+    /**
+     * Reads the encoded quads of the subject from a single partition, see
+     * [ScyllaRDFSailConnection.getSubjectQuadsForEvaluation].
+     */
+    fun getSubjectQuads(subj: ByteBuffer, preds: List<ByteBuffer>?)
+            : CloseableIteration<Array<ByteBuffer>, QueryEvaluationException>? {
+        val quads = connection.getSubjectQuadsForEvaluation(subj, preds) ?: return null
+
+        return object : ExceptionConvertingIteration<Array<ByteBuffer>, QueryEvaluationException>(quads) {
+            override fun convert(e: Exception): QueryEvaluationException {
+                return e as? QueryEvaluationException ?: QueryEvaluationException(e)
+            }
+        }
+    }
+
+    /**
+     * See [ScyllaRDFSailConnection.countStatementsForEvaluation].
+     */
+    fun countStatements(subj: Resource?, pred: IRI?, obj: Value?, vararg contexts: Resource?): Long? {
+        return connection.countStatementsForEvaluation(subj, pred, obj, *contexts)
+    }
+
+    /**
+     * See [ScyllaRDFSailConnection.countPredicatesForEvaluation].
+     */
+    fun countPredicates(): Map<IRI, Long>? {
+        return connection.countPredicatesForEvaluation()
+    }
+
+    /**
+     * See [ScyllaRDFSailConnection.getDistinctValuesForEvaluation].
+     */
+    fun getDistinctValues(table: ScyllaRDFSchema.Table, key: Value?)
+            : CloseableIteration<Value, QueryEvaluationException>? {
+        val values = connection.getDistinctValuesForEvaluation(table, key) ?: return null
+
+        return object : ExceptionConvertingIteration<Value, QueryEvaluationException>(values) {
+            override fun convert(e: Exception): QueryEvaluationException {
+                return e as? QueryEvaluationException ?: QueryEvaluationException(e)
+            }
+        }
+    }
+
+    override fun getValueFactory(): ValueFactory {
+        return vf
+    }
+
+}
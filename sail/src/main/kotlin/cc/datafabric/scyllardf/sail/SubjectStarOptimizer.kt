@@ -0,0 +1,83 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.join.HashJoin
+import cc.datafabric.scyllardf.join.SubjectStar
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.Dataset
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+
+/**
+ * Groups statement patterns of a join which share the subject into [SubjectStar]s, so all of them are matched
+ * from a single read of the subject's S_POC partition instead of a lookup per pattern. A star takes the place
+ * of its first pattern in the join order. Patterns of named graphs or with a context variable aren't grouped.
+ */
+class SubjectStarOptimizer : QueryOptimizer {
+
+    override fun optimize(tupleExpr: TupleExpr, dataset: Dataset?, bindings: BindingSet) {
+        if (dataset == null) {
+            tupleExpr.visit(JoinVisitor())
+        }
+    }
+
+    private class JoinVisitor : AbstractQueryModelVisitor<RuntimeException>() {
+
+        override fun meet(node: Join) {
+            if (node is HashJoin) {
+                super.meet(node)
+                return
+            }
+
+            val args = mutableListOf<TupleExpr>()
+            collectArgs(node, args)
+            args.forEach { it.visit(this) }
+
+            val stars = args.asSequence()
+                .filterIsInstance<StatementPattern>()
+                .filter { isStarMember(it) }
+                .groupBy { subjectKey(it) }
+                .filterValues { it.size > 1 }
+            if (stars.isEmpty()) {
+                return
+            }
+
+            val grouped = mutableListOf<TupleExpr>()
+            val added = HashSet<Any>()
+            args.forEach { arg ->
+                val key = if (arg is StatementPattern && isStarMember(arg)) subjectKey(arg) else null
+                val star = key?.let { stars[it] }
+
+                if (star == null) {
+                    grouped.add(arg)
+                } else if (added.add(key!!)) {
+                    grouped.add(SubjectStar(star))
+                }
+            }
+
+            node.replaceWith(grouped.reduce { left, right -> Join(left, right) })
+        }
+
+        private fun collectArgs(expr: TupleExpr, args: MutableList<TupleExpr>) {
+            if (expr is Join && expr !is HashJoin) {
+                collectArgs(expr.leftArg, args)
+                collectArgs(expr.rightArg, args)
+            } else {
+                args.add(expr)
+            }
+        }
+
+        private fun isStarMember(sp: StatementPattern): Boolean {
+            return sp.scope == StatementPattern.Scope.DEFAULT_CONTEXTS && sp.contextVar == null
+        }
+
+        /**
+         * The value of a constant subject or the name of a variable.
+         */
+        private fun subjectKey(sp: StatementPattern): Any {
+            return sp.subjectVar.value ?: sp.subjectVar.name
+        }
+    }
+}
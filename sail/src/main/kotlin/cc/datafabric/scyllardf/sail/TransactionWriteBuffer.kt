@@ -0,0 +1,104 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import java.nio.ByteBuffer
+
+/**
+ * Keeps encoded statements added and removed in the current transaction until they're flushed to Scylla.
+ *
+ * Statements are stored as (s, p, o, c) arrays, the default graph is stored as [ScyllaRDFSchema.CONTEXT_DEFAULT].
+ * The order of additions is preserved, duplicates are ignored. A quad is either added or removed, the later change
+ * replaces the earlier one.
+ */
+internal class TransactionWriteBuffer {
+
+    private val quads = LinkedHashMap<List<ByteBuffer>, Array<ByteBuffer>>()
+    private val removals = LinkedHashMap<List<ByteBuffer>, Array<ByteBuffer>>()
+
+    val size: Int
+        get() = quads.size + removals.size
+
+    fun isEmpty(): Boolean {
+        return quads.isEmpty() && removals.isEmpty()
+    }
+
+    fun add(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?) {
+        val quad = arrayOf(subj, pred, obj, context ?: ScyllaRDFSchema.CONTEXT_DEFAULT)
+
+        removals.remove(quad.asList())
+        quads.putIfAbsent(quad.asList(), quad)
+    }
+
+    /**
+     * Drops the quad from the buffer and records its removal from Scylla on commit.
+     */
+    fun removeOnCommit(subj: ByteBuffer, pred: ByteBuffer, obj: ByteBuffer, context: ByteBuffer?) {
+        val quad = arrayOf(subj, pred, obj, context ?: ScyllaRDFSchema.CONTEXT_DEFAULT)
+
+        quads.remove(quad.asList())
+        removals.putIfAbsent(quad.asList(), quad)
+    }
+
+    /**
+     * @param contexts null entries match any context, an empty list matches any context too
+     */
+    fun match(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, contexts: List<ByteBuffer?>)
+        : List<Array<ByteBuffer>> {
+        return quads.values.filter { matches(it, subj, pred, obj, contexts) }
+    }
+
+    /**
+     * Drops the matching quads from the buffer, both added and removed ones, e.g. if they're removed from Scylla
+     * right away.
+     */
+    fun remove(subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, contexts: List<ByteBuffer?>) {
+        quads.values.removeAll { matches(it, subj, pred, obj, contexts) }
+        removals.values.removeAll { matches(it, subj, pred, obj, contexts) }
+    }
+
+    /**
+     * Added quads in the order they were added.
+     */
+    fun additions(): List<Array<ByteBuffer>> {
+        return quads.values.toList()
+    }
+
+    /**
+     * Quads removed on commit, in the order they were removed.
+     */
+    fun removals(): List<Array<ByteBuffer>> {
+        return removals.values.toList()
+    }
+
+    /**
+     * Keys of the quads removed on commit, stored quads with these keys are hidden from reads.
+     */
+    fun removedKeys(): Set<List<ByteBuffer>> {
+        return removals.keys.toHashSet()
+    }
+
+    /**
+     * Drops the quads which are already written to Scylla, both added and removed ones.
+     */
+    fun forget(written: Collection<Array<ByteBuffer>>) {
+        written.forEach {
+            quads.remove(it.asList())
+            removals.remove(it.asList())
+        }
+    }
+
+    fun clear() {
+        quads.clear()
+        removals.clear()
+    }
+
+    private fun matches(
+        quad: Array<ByteBuffer>, subj: ByteBuffer?, pred: ByteBuffer?, obj: ByteBuffer?, contexts: List<ByteBuffer?>
+    ): Boolean {
+        return (subj == null || subj == quad[0])
+            && (pred == null || pred == quad[1])
+            && (obj == null || obj == quad[2])
+            && (contexts.isEmpty() || contexts.any { it == null || it == quad[3] })
+    }
+
+}
@@ -0,0 +1,47 @@
+package cc.datafabric.scyllardf.dao
+
+import com.datastax.driver.core.ResultSet
+import com.google.common.util.concurrent.SettableFuture
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+
+class PagePrefetcherTest {
+
+    @Test
+    fun testFetchesOnceRatioIsConsumed() {
+        val resultSet = Mockito.mock(ResultSet::class.java)
+        val next = SettableFuture.create<ResultSet>()
+        Mockito.`when`(resultSet.isFullyFetched).thenReturn(false)
+        Mockito.`when`(resultSet.fetchMoreResults()).thenReturn(next)
+
+        val prefetcher = PagePrefetcher(0.5)
+
+        Mockito.`when`(resultSet.availableWithoutFetching).thenReturn(99)
+        prefetcher.onRowConsumed(resultSet)
+        Mockito.`when`(resultSet.availableWithoutFetching).thenReturn(60)
+        prefetcher.onRowConsumed(resultSet)
+        Mockito.verify(resultSet, Mockito.never()).fetchMoreResults()
+
+        Mockito.`when`(resultSet.availableWithoutFetching).thenReturn(49)
+        prefetcher.onRowConsumed(resultSet)
+        Mockito.`when`(resultSet.availableWithoutFetching).thenReturn(48)
+        prefetcher.onRowConsumed(resultSet)
+        Mockito.verify(resultSet, Mockito.times(1)).fetchMoreResults()
+
+        prefetcher.cancel()
+        assertTrue(next.isCancelled)
+    }
+
+    @Test
+    fun testSkipsFullyFetched() {
+        val resultSet = Mockito.mock(ResultSet::class.java)
+        Mockito.`when`(resultSet.isFullyFetched).thenReturn(true)
+
+        val prefetcher = PagePrefetcher(1.0)
+        prefetcher.onRowConsumed(resultSet)
+
+        Mockito.verify(resultSet, Mockito.never()).fetchMoreResults()
+    }
+
+}
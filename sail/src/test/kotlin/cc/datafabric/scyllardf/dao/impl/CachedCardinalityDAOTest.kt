@@ -0,0 +1,78 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import com.codahale.metrics.MetricRegistry
+import org.cassandraunit.AbstractCassandraUnit4CQLTestCase
+import org.cassandraunit.dataset.cql.ClassPathCQLDataSet
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+
+class CachedCardinalityDAOTest : AbstractCassandraUnit4CQLTestCase() {
+
+    companion object {
+        private val subj1 = toByteBuffer("urn:subj:1")
+        private val subj2 = toByteBuffer("urn:subj:2")
+        private val pred = toByteBuffer("urn:pred")
+        private val obj = toByteBuffer("urn:obj")
+
+        private fun toByteBuffer(str: String): ByteBuffer {
+            return ByteBuffer.wrap(str.toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    private lateinit var metrics: MetricRegistry
+    private lateinit var dao: ScyllaRDFCardinalityDAO
+
+    override fun getDataSet() = ClassPathCQLDataSet(
+            "cc/datafabric/scyllardf/empty.cql", true, true)
+
+    @BeforeEach
+    fun beforeEach() {
+        super.before()
+
+        metrics = MetricRegistry()
+        dao = ScyllaRDFCardinalityDAO(session, 60000, 100000, 100, 60000, metrics)
+        dao.createTables()
+        dao.prepareStatements()
+    }
+
+    @AfterEach
+    fun afterEach() {
+        dao.close()
+
+        super.after()
+    }
+
+    @Test
+    fun cacheIsSharedAndInvalidatedByFlush() {
+        val cached = dao.withCache()
+        assertSame(cached, dao.withCache())
+
+        dao.incrementCards(subj1, pred, obj, null)
+        dao.flushCards()
+
+        assertEquals(1L, cached.predicateCardinality(pred))
+        assertEquals(1L, cached.numTriples())
+
+        // Pending deltas aren't seen until they're flushed
+        dao.incrementCards(subj2, pred, obj, null)
+        assertEquals(1L, cached.predicateCardinality(pred))
+
+        dao.flushCards()
+
+        assertEquals(2L, cached.predicateCardinality(pred))
+        assertEquals(2L, cached.numTriples())
+        assertEquals(2L, cached.objectAndPredicateCardinality(pred, obj))
+
+        assertEquals(1L, gauge("hits"))
+        assertEquals(5L, gauge("misses"))
+    }
+
+    private fun gauge(name: String): Any {
+        return metrics.gauges[MetricRegistry.name(CachedCardinalityDAO::class.java, name)]!!.value
+    }
+
+}
@@ -0,0 +1,84 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+
+class CardinalityAccumulatorTest {
+
+    private val pred = ByteBuffer.wrap(byteArrayOf(1))
+    private val context = ByteBuffer.wrap(byteArrayOf(2))
+
+    @Test
+    fun testAddAndSwap() {
+        val accumulator = CardinalityAccumulator()
+
+        accumulator.add(ScyllaRDFSchema.CONTEXT_DEFAULT, pred, 3, 1)
+        accumulator.add(context, pred, 3, 1)
+        accumulator.add(context, pred, 4, -1)
+
+        assertEquals(1, accumulator.pendingTotal())
+        assertEquals(0, accumulator.pendingContext(context))
+        assertEquals(1, accumulator.pendingPredicate(pred))
+        assertEquals(2, accumulator.pendingPredicateBucket(pred, 3))
+        assertEquals(-1, accumulator.pendingPredicateBucket(pred, 4))
+        assertEquals(4, accumulator.size())
+
+        val deltas = accumulator.swap()
+
+        assertEquals(1, deltas.total.sum())
+        assertEquals(2, deltas.predicateBuckets[CardinalityAccumulator.PredicateBucket(pred, 3)]!!.sum())
+        assertEquals(0, accumulator.size())
+
+        // The deltas being flushed are pending until they're written
+        assertEquals(1, accumulator.pendingTotal())
+        assertEquals(2, accumulator.pendingPredicateBucket(pred, 3))
+
+        deltas.total.add(-1)
+        deltas.predicateBuckets.values.forEach { it.reset() }
+        accumulator.restore(deltas)
+
+        assertEquals(0, accumulator.pendingTotal())
+        assertEquals(0, accumulator.pendingPredicateBucket(pred, 3))
+        assertEquals(1, accumulator.pendingPredicate(pred))
+    }
+
+    @Test
+    fun testRestoreUnwrittenDeltas() {
+        val accumulator = CardinalityAccumulator()
+
+        accumulator.add(context, pred, 3, 1)
+        val failed = accumulator.swap()
+        accumulator.add(context, pred, 3, 1)
+
+        assertEquals(2, accumulator.pendingContext(context))
+        assertEquals(mapOf(pred to 2L), accumulator.pendingPredicates())
+
+        accumulator.restore(failed)
+
+        val deltas = accumulator.swap()
+        assertEquals(2, deltas.total.sum())
+        assertEquals(2, deltas.contexts[context]!!.sum())
+        assertEquals(2, accumulator.pendingContext(context))
+    }
+
+    @Test
+    fun testDiscardContext() {
+        val accumulator = CardinalityAccumulator()
+
+        accumulator.add(ScyllaRDFSchema.CONTEXT_DEFAULT, pred, 0, 1)
+        accumulator.add(context, pred, 0, 1)
+        accumulator.add(context, pred, 0, 1)
+
+        accumulator.discard(context)
+
+        assertEquals(0, accumulator.pendingContext(context))
+        assertEquals(1, accumulator.pendingTotal())
+
+        accumulator.discard(null)
+
+        assertTrue(accumulator.swap().isEmpty())
+    }
+
+}
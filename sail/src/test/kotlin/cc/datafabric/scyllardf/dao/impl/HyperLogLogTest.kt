@@ -0,0 +1,43 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+
+class HyperLogLogTest {
+
+    private fun hash(i: Int): Long {
+        return HyperLogLog.hash(ByteBuffer.wrap("urn:item:$i".toByteArray(Charsets.UTF_8)))
+    }
+
+    @Test
+    fun testEstimate() {
+        val sketch = HyperLogLog()
+        assertEquals(0, sketch.estimate())
+
+        (1..100).forEach { sketch.add(hash(it)) }
+        // Duplicates aren't counted
+        (1..100).forEach { sketch.add(hash(it)) }
+        assertTrue(sketch.estimate() in 98..102)
+
+        (101..100000).forEach { sketch.add(hash(it)) }
+        assertTrue(sketch.estimate() in 95000..105000)
+    }
+
+    @Test
+    fun testMergeAndSerialize() {
+        val left = HyperLogLog()
+        val right = HyperLogLog()
+        (1..20000).forEach { left.add(hash(it)) }
+        (10001..30000).forEach { right.add(hash(it)) }
+
+        val merged = left.merge(right)
+        assertTrue(merged.estimate() in 28500..31500)
+        assertEquals(merged, right.merge(left))
+
+        val restored = HyperLogLog.fromByteBuffer(merged.toByteBuffer())
+        assertEquals(merged, restored)
+        assertEquals(merged.estimate(), restored.estimate())
+    }
+
+}
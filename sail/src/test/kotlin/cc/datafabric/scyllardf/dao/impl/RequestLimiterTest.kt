@@ -0,0 +1,65 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.SettableFuture
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class RequestLimiterTest {
+
+    @Test
+    fun testInFlightRequestsAreCapped() {
+        val limiter = RequestLimiter(2, MetricRegistry())
+        val sent = mutableListOf<SettableFuture<Int>>()
+        var maxInFlight = 0
+
+        // The submits never block, queued requests are sent by the thread which completes a request
+        val results = (1..10).map {
+            limiter.submit<Int> {
+                maxInFlight = Math.max(maxInFlight, limiter.permitsInUse())
+                SettableFuture.create<Int>().also { sent.add(it) }
+            }
+        }
+        assertEquals(2, sent.size)
+
+        var i = 0
+        while (i < sent.size) {
+            sent[i].set(i)
+            i++
+        }
+
+        assertEquals(10, sent.size)
+        assertEquals(2, maxInFlight)
+        assertEquals((0 until 10).toList(), results.map { it.get() })
+        assertEquals(0, limiter.permitsInUse())
+    }
+
+    @Test
+    fun testCancelledRequestIsNotSent() {
+        val limiter = RequestLimiter(1, MetricRegistry())
+        val first = SettableFuture.create<Int>()
+        var sent = 0
+
+        limiter.submit<Int> { sent++; first }
+        val queued: ListenableFuture<Int> = limiter.submit { sent++; SettableFuture.create<Int>() }
+        queued.cancel(true)
+        first.set(1)
+
+        assertEquals(1, sent)
+        assertTrue(queued.isCancelled)
+        assertEquals(0, limiter.permitsInUse())
+    }
+
+    @Test
+    fun testFailedRequestReleasesPermit() {
+        val limiter = RequestLimiter(1, MetricRegistry())
+
+        val failed = limiter.submit<Int> { throw IllegalStateException() }
+
+        assertTrue(failed.isDone)
+        assertEquals(0, limiter.permitsInUse())
+    }
+
+}
@@ -0,0 +1,80 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.lang.management.ManagementFactory
+import javax.management.ObjectName
+
+class ScyllaJMXPartitionCountsTest {
+
+    interface PartitionCountStubMBean {
+        val value: Any
+    }
+
+    class PartitionCountStub(override val value: Any) : PartitionCountStubMBean
+
+    companion object {
+        private const val KEYSPACE = "jmx_test"
+    }
+
+    private val server = ManagementFactory.getPlatformMBeanServer()
+    private val names = mutableListOf<ObjectName>()
+
+    @BeforeEach
+    fun beforeEach() {
+        listOf("s_poc" to 1000L, "p_osc" to 20L, "o_spc" to 3000L, "cs_po" to 0L, "cp_os" to 0L, "co_sp" to -1L)
+            .forEach { (table, count) ->
+                val name = ObjectName("org.apache.cassandra.metrics:type=Table,keyspace=$KEYSPACE," +
+                    "scope=$table,name=EstimatedPartitionCount")
+                server.registerMBean(PartitionCountStub(count), name)
+                names.add(name)
+            }
+    }
+
+    @AfterEach
+    fun afterEach() {
+        names.forEach { server.unregisterMBean(it) }
+    }
+
+    @Test
+    fun testCountsAreAggregatedOverNodes() {
+        val counts = ScyllaJMXPartitionCounts(KEYSPACE, 2, { listOf("node1", "node2", "down") }, { host ->
+            if (host == "down") {
+                throw IOException("Connection refused")
+            }
+
+            ScyllaJMXDAO.create(server)
+        }, 3600000)
+
+        try {
+            counts.poll()
+
+            // Both nodes report the same replicas, the node which is down is skipped
+            assertEquals(1000L, counts.partitions(ScyllaRDFSchema.Table.S_POC))
+            assertEquals(20L, counts.partitions(ScyllaRDFSchema.Table.P_OSC))
+            assertEquals(3000L, counts.partitions(ScyllaRDFSchema.Table.O_SPC))
+            assertEquals(0L, counts.partitions(ScyllaRDFSchema.Table.CO_SP))
+        } finally {
+            counts.close()
+        }
+    }
+
+    @Test
+    fun testNoCountsIfNoNodeCanBePolled() {
+        val counts = ScyllaJMXPartitionCounts(KEYSPACE, 1, { listOf("down") }, { throw IOException() }, 3600000)
+
+        try {
+            counts.poll()
+
+            assertNull(counts.partitions(ScyllaRDFSchema.Table.S_POC))
+        } finally {
+            counts.close()
+        }
+    }
+
+}
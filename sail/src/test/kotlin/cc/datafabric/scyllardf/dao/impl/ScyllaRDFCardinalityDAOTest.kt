@@ -0,0 +1,128 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import org.cassandraunit.AbstractCassandraUnit4CQLTestCase
+import org.cassandraunit.dataset.cql.ClassPathCQLDataSet
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+
+class ScyllaRDFCardinalityDAOTest : AbstractCassandraUnit4CQLTestCase() {
+
+    companion object {
+        private val type = toByteBuffer("urn:type")
+        private val label = toByteBuffer("urn:label")
+        private val clazz = toByteBuffer("urn:Class")
+
+        private fun toByteBuffer(str: String): ByteBuffer {
+            return ByteBuffer.wrap(str.toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    private lateinit var dao: ScyllaRDFCardinalityDAO
+
+    override fun getDataSet() = ClassPathCQLDataSet(
+            "cc/datafabric/scyllardf/empty.cql", true, true)
+
+    @BeforeEach
+    fun beforeEach() {
+        super.before()
+
+        dao = ScyllaRDFCardinalityDAO(session, 60000, 100000)
+        dao.createTables()
+        dao.prepareStatements()
+    }
+
+    @AfterEach
+    fun afterEach() {
+        dao.close()
+
+        super.after()
+    }
+
+    @Test
+    fun sketchesTellHubsFromRareTerms() {
+        (1..500).forEach {
+            val item = toByteBuffer("urn:item:$it")
+            dao.incrementCards(item, type, clazz, null)
+            dao.incrementCards(item, label, toByteBuffer("label $it"), null)
+        }
+
+        val item = toByteBuffer("urn:item:1")
+
+        // Pending deltas are counted before they're flushed
+        assertTrue(dao.objectCardinality(clazz) >= 500)
+
+        dao.flushCards()
+
+        assertTrue(dao.objectCardinality(clazz) >= 500)
+        assertTrue(dao.objectCardinality(toByteBuffer("label 1")) in 1..10)
+        assertTrue(dao.subjectCardinality(item) in 2..10)
+        assertTrue(dao.subjectAndPredicateCardinality(item, type) in 1..10)
+        assertTrue(dao.objectCardinality(toByteBuffer("missing")) < 10)
+
+        dao.decrementCards(item, label, toByteBuffer("label 1"), null)
+        dao.flushCards()
+
+        assertTrue(dao.subjectAndPredicateCardinality(item, label) in 0..10)
+        assertTrue(dao.subjectCardinality(item) in 1..10)
+    }
+
+    @Test
+    fun cardinalitiesOfAllPredicates() {
+        (1..10).forEach {
+            dao.incrementCards(toByteBuffer("urn:item:$it"), type, clazz, null)
+        }
+        dao.flushCards()
+
+        dao.incrementCards(toByteBuffer("urn:item:1"), label, toByteBuffer("label 1"), null)
+        dao.decrementCards(toByteBuffer("urn:item:1"), type, clazz, null)
+
+        // Pending deltas are added to the flushed counters
+        assertEquals(mapOf(type to 9L, label to 1L), dao.predicateCardinalities())
+
+        (2..10).forEach {
+            dao.decrementCards(toByteBuffer("urn:item:$it"), type, clazz, null)
+        }
+        dao.flushCards()
+
+        assertEquals(mapOf(label to 1L), dao.predicateCardinalities())
+    }
+
+    @Test
+    fun distinctSubjectsAndObjectsOfPredicatesAndGraphs() {
+        val graph = toByteBuffer("urn:graph")
+        (1..1000).forEach {
+            val item = toByteBuffer("urn:item:$it")
+            dao.incrementCards(item, type, clazz, graph)
+            dao.incrementCards(item, label, toByteBuffer("label ${it % 10}"), null)
+        }
+
+        // Pending sketches are counted before they're flushed
+        assertTrue(dao.predicateDistinctSubjects(type) in 950..1050)
+
+        dao.flushCards()
+
+        assertTrue(dao.predicateDistinctSubjects(type) in 950..1050)
+        assertEquals(1L, dao.predicateDistinctObjects(type))
+        assertEquals(10L, dao.predicateDistinctObjects(label))
+        assertTrue(dao.contextDistinctSubjects(graph) in 950..1050)
+        assertEquals(1L, dao.contextDistinctObjects(graph))
+
+        // A flush of another instance is merged into the stored sketch
+        val other = ScyllaRDFCardinalityDAO(session, 60000, 100000)
+        other.prepareStatements()
+        (1001..2000).forEach { other.incrementCards(toByteBuffer("urn:item:$it"), type, clazz, null) }
+        other.flushCards()
+        other.close()
+
+        assertTrue(dao.predicateDistinctSubjects(type) in 1900..2100)
+
+        dao.clearContext(graph)
+
+        assertEquals(0L, dao.contextDistinctSubjects(graph))
+    }
+
+}
@@ -1,5 +1,6 @@
 package cc.datafabric.scyllardf.dao.impl
 
+import cc.datafabric.scyllardf.dao.InFlightWindow
 import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
 import org.cassandraunit.AbstractCassandraUnit4CQLTestCase
 import org.cassandraunit.dataset.cql.ClassPathCQLDataSet
@@ -68,6 +69,124 @@ class ScyllaRDFIndexDAOTest : AbstractCassandraUnit4CQLTestCase() {
         checkAllTables(1, subj, pred, obj, graph1)
     }
 
+    @Test
+    fun addStatementsInBatches() {
+        val window = InFlightWindow(4)
+        val subj2 = toByteBuffer("urn:subj:2")
+
+        dao.addStatements(listOf(
+                arrayOf(subj, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT),
+                arrayOf(subj2, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT),
+                arrayOf(subj, pred, obj, graph1)
+        ), window)
+        window.await()
+
+        checkAllTables(1, subj, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+        checkAllTables(1, subj2, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+        checkAllTables(1, subj, pred, obj, graph1)
+
+        dao.removeStatements(listOf(arrayOf(subj, pred, obj, graph1)), window)
+        window.await()
+
+        checkAllTables(1, subj, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+        checkAllTables(0, subj, pred, obj, graph1)
+    }
+
+    @Test
+    fun removeStatementsByPattern() {
+        val window = InFlightWindow(4)
+        val subj2 = toByteBuffer("urn:subj:2")
+        val obj2 = toByteBuffer("urn:obj:2")
+
+        dao.addStatements(listOf(
+                arrayOf(subj, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT),
+                arrayOf(subj, pred, obj2, graph1),
+                arrayOf(subj2, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+        ), window)
+        window.await()
+
+        val removed = mutableListOf<Array<ByteBuffer>>()
+        dao.removeStatements(subj, null, null, null, window) { removed.addAll(it) }
+        window.await()
+
+        assertEquals(2, removed.size)
+        checkAllTables(0, subj, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+        checkAllTables(0, subj, pred, obj2, graph1)
+        checkAllTables(1, subj2, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+
+        dao.removeStatements(null, pred, null, ScyllaRDFSchema.CONTEXT_DEFAULT, window) {}
+        window.await()
+
+        checkAllTables(0, subj2, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+    }
+
+    @Test
+    fun getAllStatementsByTokenRanges() {
+        val window = InFlightWindow(4)
+
+        dao.addStatements((1..100).map {
+            arrayOf(toByteBuffer("urn:subj:$it"), pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+        }, window)
+        window.await()
+
+        val subjects = Iterations.asList(dao.getStatements(null, null, null, null)).map { it[0] }.toSet()
+        assertEquals(100, subjects.size)
+
+        val iter = dao.getStatements(null, null, null, null)
+        iter.next()
+        iter.close()
+
+        assertFalse(iter.hasNext())
+    }
+
+    @Test
+    fun getLimitedStatements() {
+        val window = InFlightWindow(4)
+
+        dao.addStatements((1..100).map {
+            arrayOf(toByteBuffer("urn:subj:$it"), pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT)
+        }, window)
+        window.await()
+
+        assertEquals(10, Iterations.asList(dao.getStatements(null, pred, null, null, 0, 10)).size)
+        assertEquals(10, Iterations.asList(dao.getStatements(null, null, null, null, 0, 10)).size)
+        val subj1 = toByteBuffer("urn:subj:1")
+        assertEquals(1, Iterations.asList(dao.getStatements(subj1, null, null, null, 0, 10)).size)
+    }
+
+    @Test
+    fun countStatementsOfPartition() {
+        dao.addStatementBlocking(subj, pred, obj)
+        dao.addStatementBlocking(subj, pred, toByteBuffer("urn:obj:2"))
+        dao.addStatementBlocking(subj, pred, obj, listOf(graph1))
+
+        assertEquals(3L, dao.countStatements(subj, null, null, null))
+        assertEquals(2L, dao.countStatements(null, pred, obj, null))
+        assertEquals(1L, dao.countStatements(subj, pred, null, graph1))
+        // A full scan isn't counted
+        assertEquals(null, dao.countStatements(null, null, null, null))
+    }
+
+    @Test
+    fun getDistinctKeysAndClusteringValues() {
+        val pred2 = toByteBuffer("urn:pred:2")
+        dao.addStatementBlocking(subj, pred, obj)
+        dao.addStatementBlocking(subj, pred, toByteBuffer("urn:obj:2"))
+        dao.addStatementBlocking(subj, pred2, obj)
+        dao.addStatementBlocking(toByteBuffer("urn:subj:2"), pred, obj, listOf(graph1))
+
+        assertEquals(setOf(pred, pred2), Iterations.asSet(dao.getDistinctKeys(ScyllaRDFSchema.Table.P_OSC)))
+        assertEquals(2, Iterations.asList(dao.getDistinctKeys(ScyllaRDFSchema.Table.S_POC)).size)
+
+        // The objects of a predicate are repeated by subjects and contexts
+        listOf(false, true).forEach { skip ->
+            assertEquals(listOf(obj, toByteBuffer("urn:obj:2")).sorted(),
+                Iterations.asList(dao.getDistinctClusteringValues(ScyllaRDFSchema.Table.P_OSC, pred, skip)).sorted())
+            assertEquals(listOf(pred, pred2).sorted(),
+                Iterations.asList(dao.getDistinctClusteringValues(ScyllaRDFSchema.Table.S_POC, subj, skip)).sorted())
+        }
+    }
+
     @Test
     fun clearDefaultContext() {
         dao.addStatementBlocking(subj, pred, obj)
@@ -97,6 +216,35 @@ class ScyllaRDFIndexDAOTest : AbstractCassandraUnit4CQLTestCase() {
         checkAllTables(0, subj, pred, obj, graph2)
     }
 
+    @Test
+    fun dropLargeContext() {
+        // Small pages and a small window, so the partitions are read page by page and the scanners wait for the window
+        val dropDao = ScyllaRDFIndexDAO(session, scanFetchSize = 7, dropParallelism = 2, dropMaxInFlight = 3)
+        dropDao.prepareStatements()
+        val window = InFlightWindow(16)
+
+        dropDao.addStatements((1..20).flatMap { s ->
+            (1..30).map { o -> arrayOf(toByteBuffer("urn:subj:$s"), pred, toByteBuffer("urn:obj:$o"), graph1) }
+        }, window)
+        dropDao.addStatements((1..5).map {
+            arrayOf(toByteBuffer("urn:subj:$it"), pred, toByteBuffer("urn:obj:$it"), graph2)
+        }, window)
+        window.await()
+
+        assertEquals(600, Iterations.asList(dropDao.getStatements(null, null, null, graph1)).size)
+
+        dropDao.clearContext(graph1)
+
+        assertEquals(0, Iterations.asList(dropDao.getStatements(null, null, null, graph1)).size)
+        assertEquals(0, Iterations.asList(dropDao.getStatements(null, pred, null, graph1)).size)
+        assertEquals(0, Iterations.asList(dropDao.getStatements(null, null, toByteBuffer("urn:obj:1"), graph1)).size)
+
+        val rest = Iterations.asList(dropDao.getStatements(null, null, null, null))
+        assertEquals(5, rest.size)
+        rest.forEach { assertEquals(graph2, it[3]) }
+        checkAllTables(1, toByteBuffer("urn:subj:1"), pred, toByteBuffer("urn:obj:1"), graph2)
+    }
+
     @Test
     fun testSetEmptyNamespace() {
         val prefix = ""
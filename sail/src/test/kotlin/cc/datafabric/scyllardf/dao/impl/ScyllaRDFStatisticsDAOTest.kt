@@ -0,0 +1,97 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import cc.datafabric.scyllardf.coder.impl.AbstractCoder
+import cc.datafabric.scyllardf.dao.InFlightWindow
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.cassandraunit.AbstractCassandraUnit4CQLTestCase
+import org.cassandraunit.dataset.cql.ClassPathCQLDataSet
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+
+class ScyllaRDFStatisticsDAOTest : AbstractCassandraUnit4CQLTestCase() {
+
+    companion object {
+        private val type = iri("urn:type")
+        private val label = iri("urn:label")
+        private val clazz = iri("urn:Class")
+
+        private fun iri(str: String): ByteBuffer {
+            return ByteBuffer.wrap(byteArrayOf(AbstractCoder.MARKER_VALUE_TYPE_IRI) + str.toByteArray(Charsets.UTF_8))
+        }
+
+        private fun literal(str: String): ByteBuffer {
+            return ByteBuffer.wrap(
+                byteArrayOf(AbstractCoder.MARKER_VALUE_TYPE_LITERAL) + str.toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    private lateinit var indexDao: ScyllaRDFIndexDAO
+    private lateinit var dao: ScyllaRDFStatisticsDAO
+
+    override fun getDataSet() = ClassPathCQLDataSet(
+            "cc/datafabric/scyllardf/empty.cql", true, true)
+
+    @BeforeEach
+    fun beforeEach() {
+        super.before()
+
+        indexDao = ScyllaRDFIndexDAO(session)
+        indexDao.createTables()
+        indexDao.prepareStatements()
+
+        dao = ScyllaRDFStatisticsDAO(session, 1.0, 1000000.0)
+        dao.createTables()
+        dao.prepareStatements()
+    }
+
+    @AfterEach
+    fun afterEach() {
+        super.after()
+    }
+
+    @Test
+    fun collectAndReloadSnapshot() {
+        assertNull(dao.reloadLatestSnapshot())
+
+        val quads = (1..100).flatMap {
+            val item = iri("urn:item:$it")
+            listOf(
+                arrayOf(item, type, clazz, ScyllaRDFSchema.CONTEXT_DEFAULT),
+                arrayOf(item, label, literal("label $it"), ScyllaRDFSchema.CONTEXT_DEFAULT)
+            )
+        }
+        val window = InFlightWindow(16)
+        indexDao.addStatements(quads, window)
+        window.await()
+
+        val snapshot = dao.collectSnapshot()
+
+        // The whole ring is sampled
+        assertEquals(200L, snapshot.numTriples)
+        assertEquals(100L, snapshot.distinctSubjects)
+        assertEquals(2L, snapshot.distinctPredicates)
+        assertEquals(101L, snapshot.distinctObjects)
+
+        // Each subject has 2 statements, the class has 100 of them
+        assertEquals(listOf(0L, 100L), snapshot.subjectPartitionSizes)
+        assertEquals(100L, snapshot.objectPartitionSizes[0])
+        assertEquals(1L, snapshot.objectPartitionSizes[6])
+
+        assertEquals(100L, snapshot.predicates[type]!!.numTriples)
+        assertEquals(100L, snapshot.predicates[type]!!.objectTypes[AbstractCoder.MARKER_VALUE_TYPE_IRI.toInt()])
+        assertEquals(100L, snapshot.predicates[label]!!.objectTypes[AbstractCoder.MARKER_VALUE_TYPE_LITERAL.toInt()])
+
+        assertEquals(snapshot, dao.latestSnapshot())
+        assertEquals(snapshot, dao.reloadLatestSnapshot())
+
+        val next = dao.collectSnapshot()
+        assertTrue(next.version > snapshot.version)
+        assertEquals(next, dao.reloadLatestSnapshot())
+    }
+
+}
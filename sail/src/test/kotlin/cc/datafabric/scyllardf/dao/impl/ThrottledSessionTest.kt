@@ -0,0 +1,49 @@
+package cc.datafabric.scyllardf.dao.impl
+
+import com.codahale.metrics.MetricRegistry
+import com.datastax.driver.core.SimpleStatement
+import org.cassandraunit.AbstractCassandraUnit4CQLTestCase
+import org.cassandraunit.dataset.cql.ClassPathCQLDataSet
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+class ThrottledSessionTest : AbstractCassandraUnit4CQLTestCase() {
+
+    override fun getDataSet() = ClassPathCQLDataSet(
+            "cc/datafabric/scyllardf/empty.cql", true, true)
+
+    @BeforeEach
+    fun beforeEach() {
+        super.before()
+
+        session.execute("CREATE TABLE IF NOT EXISTS throttled (id int PRIMARY KEY)")
+        (1..50).forEach { session.execute("INSERT INTO throttled (id) VALUES (?)", it) }
+    }
+
+    @AfterEach
+    fun afterEach() {
+        super.after()
+    }
+
+    @Test
+    fun testPagesAndQueuedRequestsKeepTheLimit() {
+        val limiter = RequestLimiter(1, MetricRegistry())
+        val throttled = ThrottledSession(session, limiter)
+
+        // The requests are queued instead of blocking, at most one is in flight
+        val futures = (1..10).map { throttled.executeAsync("SELECT id FROM throttled WHERE id = ?", it) }
+        assertTrue(limiter.permitsInUse() <= 1)
+        assertEquals((1..10).toList(), futures.map { it.uninterruptibly.one()!!.getInt(0) })
+
+        // Pages of 7 rows are fetched through the limiter
+        val ids = throttled.execute(SimpleStatement("SELECT id FROM throttled").setFetchSize(7))
+            .map { it.getInt(0) }
+
+        assertEquals((1..50).toSet(), ids.toSet())
+        assertEquals(0, limiter.permitsInUse())
+    }
+
+}
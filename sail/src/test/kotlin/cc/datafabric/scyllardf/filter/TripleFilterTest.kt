@@ -0,0 +1,96 @@
+package cc.datafabric.scyllardf.filter
+
+import cc.datafabric.scyllardf.dao.IIndexDAO
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.Mockito
+import java.nio.ByteBuffer
+import java.nio.file.Path
+
+class TripleFilterTest {
+
+    private val subj = toByteBuffer("urn:subj")
+    private val pred = toByteBuffer("urn:pred")
+    private val obj = toByteBuffer("urn:obj")
+    private val graph = toByteBuffer("urn:graph")
+
+    @Test
+    fun testMightContain() {
+        val filter = TripleFilter.create(100, 0.01)
+        filter.put(arrayOf(subj, pred, obj, graph))
+
+        assertTrue(filter.mightContain(subj, pred, obj, graph))
+        assertTrue(filter.mightContain(subj, pred, obj, null))
+        assertFalse(filter.mightContain(subj, pred, obj, ScyllaRDFSchema.CONTEXT_DEFAULT))
+        assertFalse(filter.mightContain(obj, pred, subj, null))
+
+        filter.clear()
+
+        assertFalse(filter.mightContain(subj, pred, obj, graph))
+    }
+
+    @Test
+    fun testGrowsBeyondExpectedInsertions() {
+        val filter = TripleFilter.create(10, 0.01)
+        val quads = (0 until 1000).map { arrayOf(toByteBuffer("urn:subj:$it"), pred, obj, graph) }
+
+        quads.forEach { filter.put(it) }
+
+        assertTrue(quads.all { filter.mightContain(it[0], it[1], it[2], it[3]) })
+        assertTrue((1000 until 2000).count { filter.mightContain(toByteBuffer("urn:subj:$it"), pred, obj, graph) } < 50)
+    }
+
+    @Test
+    fun testSnapshot(@TempDir dir: Path) {
+        val path = dir.resolve("filter.snapshot")
+
+        val filter = TripleFilter.create(100, 0.01)
+        filter.put(arrayOf(subj, pred, obj, graph))
+        filter.save(path, 1)
+
+        val sample = listOf(arrayOf(subj, pred, obj, graph))
+
+        assertNull(TripleFilter.load(path, 100, 0.01, 2, sample))
+        assertNull(TripleFilter.load(path, 200, 0.01, 1, sample))
+        assertNull(TripleFilter.load(path, 100, 0.01, 1, sample + listOf(arrayOf(obj, pred, subj, graph))))
+
+        val loaded = TripleFilter.load(path, 100, 0.01, 1, sample)!!
+
+        assertTrue(loaded.mightContain(subj, pred, obj, graph))
+        assertFalse(loaded.mightContain(obj, pred, subj, graph))
+    }
+
+    /**
+     * A quad put while the stored quads are scanned is in the rebuilt filter, even if the scan doesn't return it.
+     */
+    @Test
+    fun testPutDuringRebuild() {
+        val filter = TripleFilter.create(100, 0.01)
+        val stored = arrayOf(subj, pred, obj, graph)
+        val added = arrayOf(obj, pred, subj, graph)
+        val removed = arrayOf(subj, pred, subj, graph)
+        filter.put(removed)
+
+        val indexDao = Mockito.mock(IIndexDAO::class.java)
+        Mockito.doAnswer { invocation ->
+            @Suppress("UNCHECKED_CAST")
+            val consumer = invocation.arguments[1] as (Array<ByteBuffer>) -> Unit
+
+            filter.put(added)
+            consumer.invoke(stored)
+        }.`when`(indexDao).scanStatements(Mockito.anyInt(), Mockito.any())
+
+        filter.rebuild(indexDao, 1)
+
+        assertTrue(filter.mightContain(stored[0], stored[1], stored[2], stored[3]))
+        assertTrue(filter.mightContain(added[0], added[1], added[2], added[3]))
+        assertFalse(filter.mightContain(removed[0], removed[1], removed[2], removed[3]))
+    }
+
+    private fun toByteBuffer(str: String): ByteBuffer {
+        return ByteBuffer.wrap(str.toByteArray(Charsets.UTF_8))
+    }
+
+}
@@ -0,0 +1,154 @@
+package cc.datafabric.scyllardf.join
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import org.eclipse.rdf4j.common.iteration.Iterations
+import org.eclipse.rdf4j.model.Value
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment
+import org.eclipse.rdf4j.query.algebra.LeftJoin
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.Mockito
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+
+class HashJoinIterationTest {
+
+    companion object {
+        private val VF = SimpleValueFactory.getInstance()
+
+        private const val NUM_SUBJECTS = 1000
+    }
+
+    private val values = ConcurrentHashMap<ByteBuffer, Value>()
+
+    // Values are encoded as their strings and decoded back by a lookup
+    private val coder = Mockito.mock(ICoderFacade::class.java) { invocation ->
+        val arg = invocation.arguments[0]
+        if (arg is Value) {
+            ByteBuffer.wrap(arg.stringValue().toByteArray()).also { values[it] = arg }
+        } else {
+            values[arg as ByteBuffer]
+        }
+    }
+
+    private val strategy = StrictEvaluationStrategy(Mockito.mock(TripleSource::class.java), null)
+
+    @Test
+    fun testJoinInMemory() {
+        val join = HashJoin(
+            rows(listOf("s", "o"), listOf("s1", "a"), listOf("s2", "b"), listOf("s3", "c")),
+            rows(listOf("s", "n"), listOf("s1", "x"), listOf("s1", "y"), listOf("s2", "z"), listOf("s4", "w")))
+        val memory = MemoryBudget(Long.MAX_VALUE)
+
+        assertEquals(setOf(
+            mapOf("s" to "s1", "o" to "a", "n" to "x"),
+            mapOf("s" to "s1", "o" to "a", "n" to "y"),
+            mapOf("s" to "s2", "o" to "b", "n" to "z")
+        ), evaluate(join, memory, null).toSet())
+        assertEquals(0L, memory.reservedBytes)
+    }
+
+    /**
+     * ?o is shared by both sides, but it isn't a join variable, since it's optional on the left side.
+     */
+    @Test
+    fun testSharedVariableWhichIsNotJoinVariable() {
+        val left = LeftJoin(
+            rows(listOf("s"), listOf("s1"), listOf("s2"), listOf("s3")),
+            rows(listOf("s", "o"), listOf("s1", "a"), listOf("s2", "b")))
+        val right = rows(listOf("s", "o", "n"),
+            listOf("s1", "a", "x"), listOf("s1", "b", "y"), listOf("s2", "a", "w"), listOf("s3", "c", "z"))
+        val join = HashJoin(left, right)
+
+        assertEquals(listOf("s"), join.joinNames)
+        assertEquals(setOf(
+            mapOf("s" to "s1", "o" to "a", "n" to "x"),
+            mapOf("s" to "s3", "o" to "c", "n" to "z")
+        ), evaluate(join, MemoryBudget(Long.MAX_VALUE), null).toSet())
+    }
+
+    /**
+     * The budget is taken by another join of the query, so the build side is spilled once the initial table is full.
+     */
+    @Test
+    fun testSpilledJoin(@TempDir dir: Path) {
+        val memory = MemoryBudget(256 * 1024)
+        memory.reserve(memory.limit)
+
+        // Even subjects have ?o on the left side, it must match ?o of the right side
+        val left = LeftJoin(
+            rows(listOf("s"), *(1..NUM_SUBJECTS).map { listOf("s$it") }.toTypedArray()),
+            rows(listOf("s", "o"), *(2..NUM_SUBJECTS step 2).map { listOf("s$it", "a$it") }.toTypedArray()))
+        val right = rows(listOf("s", "o", "n"), *(1..NUM_SUBJECTS).flatMap {
+            listOf(listOf("s$it", "a$it", "x$it"), listOf("s$it", "b$it", "y$it"))
+        }.toTypedArray())
+
+        val iter = HashJoinIteration(strategy, HashJoin(left, right), EmptyBindingSet.getInstance(),
+            BindingSetCodec(coder, listOf("s", "o", "n")), memory, dir)
+        val results = try {
+            assertTrue(iter.hasNext())
+            assertTrue(Files.list(dir).count() > 0)
+
+            Iterations.asList(iter).map { toMap(it) }
+        } finally {
+            iter.close()
+        }
+
+        assertEquals(NUM_SUBJECTS * 3 / 2, results.size)
+        assertEquals(results.size, results.toSet().size)
+        assertTrue(results.contains(mapOf("s" to "s2", "o" to "a2", "n" to "x2")))
+        assertFalse(results.contains(mapOf("s" to "s2", "o" to "b2", "n" to "y2")))
+        assertTrue(results.contains(mapOf("s" to "s1", "o" to "a1", "n" to "x1")))
+        assertTrue(results.contains(mapOf("s" to "s1", "o" to "b1", "n" to "y1")))
+        assertFalse(Files.list(dir).findAny().isPresent)
+
+        memory.release(memory.limit)
+        assertEquals(0L, memory.reservedBytes)
+    }
+
+    private fun evaluate(join: HashJoin, memory: MemoryBudget, dir: Path?): List<Map<String, String>> {
+        val codec = BindingSetCodec(coder, join.bindingNames)
+        val iter = HashJoinIteration(strategy, join, EmptyBindingSet.getInstance(), codec, memory, dir)
+
+        return try {
+            Iterations.asList(iter).map { toMap(it) }
+        } finally {
+            iter.close()
+        }
+    }
+
+    private fun toMap(bindings: BindingSet): Map<String, String> {
+        return bindings.associate { it.name to it.value.stringValue().removePrefix("urn:") }
+    }
+
+    /**
+     * A null value leaves the variable unbound.
+     */
+    private fun rows(names: List<String>, vararg rows: List<String?>): TupleExpr {
+        return BindingSetAssignment().apply {
+            bindingNames = names.toSet()
+            bindingSets = rows.map { row ->
+                QueryBindingSet().apply {
+                    names.zip(row).forEach { (name, value) ->
+                        if (value != null) {
+                            addBinding(name, VF.createIRI("urn:$value"))
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package cc.datafabric.scyllardf.join
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class OffHeapHashTableTest {
+
+    @Test
+    fun testPutAndMatchAfterRehash() {
+        val table = OffHeapHashTable(MemoryBudget(Long.MAX_VALUE))
+
+        (0 until 10000).forEach {
+            val key = "key:${it % 5000}".toByteArray()
+            assertTrue(table.put(key.contentHashCode(), key, "value:$it".toByteArray()))
+        }
+
+        val key = "key:42".toByteArray()
+        val matches = mutableListOf<String>()
+        table.forEachMatch(key.contentHashCode(), key) { matches.add(String(it)) }
+
+        assertEquals(setOf("value:42", "value:5042"), matches.toSet())
+        assertEquals(10000, table.size)
+
+        var count = 0
+        table.forEach { _, _, _ -> count++ }
+        assertEquals(10000, count)
+    }
+
+    @Test
+    fun testRefusesEntriesOverBudget() {
+        val table = OffHeapHashTable(MemoryBudget(128 * 1024))
+        val record = ByteArray(1024)
+
+        var i = 0
+        while (table.put(i, "key:$i".toByteArray(), record)) {
+            i++
+        }
+
+        assertTrue(i > 0)
+        assertTrue(table.allocatedBytes <= 128 * 1024)
+        assertFalse(table.put(i, "key:$i".toByteArray(), record))
+
+        val key = "key:0".toByteArray()
+        val matches = mutableListOf<ByteArray>()
+        table.forEachMatch(0, key) { matches.add(it) }
+        assertArrayEquals(record, matches.single())
+    }
+
+}
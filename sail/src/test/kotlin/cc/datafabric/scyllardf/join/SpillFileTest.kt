@@ -0,0 +1,30 @@
+package cc.datafabric.scyllardf.join
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+class SpillFileTest {
+
+    @Test
+    fun testRecordsSpanRegions(@TempDir dir: Path) {
+        val file = SpillFile(dir, 1024)
+
+        (0 until 1000).forEach { file.write("record:$it".toByteArray()) }
+        file.write(ByteArray(4096) { 1 })
+
+        val records = file.iterator().asSequence().toList()
+
+        assertEquals(1001, records.size)
+        assertEquals("record:999", String(records[999]))
+        assertEquals(4096, records[1000].size)
+
+        file.close()
+
+        assertFalse(Files.list(dir).findAny().isPresent)
+    }
+
+}
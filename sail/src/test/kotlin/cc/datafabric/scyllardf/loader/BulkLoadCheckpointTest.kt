@@ -0,0 +1,46 @@
+package cc.datafabric.scyllardf.loader
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
+import java.nio.file.Paths
+
+class BulkLoadCheckpointTest {
+
+    @Test
+    fun testSaveAndLoad(@TempDir dir: Path) {
+        val path = dir.resolve("load.checkpoint")
+        val first = dir.resolve("first.nt")
+        val second = dir.resolve("second.nq")
+
+        val checkpoint = BulkLoadCheckpoint(path)
+        checkpoint.markWritten(first, 0)
+        checkpoint.markWritten(first, 1)
+        checkpoint.markWritten(first, 3)
+        checkpoint.markComplete(second)
+        checkpoint.save()
+
+        val restored = BulkLoadCheckpoint(path)
+
+        assertTrue(restored.isWritten(first, 0))
+        assertTrue(restored.isWritten(first, 1))
+        assertFalse(restored.isWritten(first, 2))
+        assertTrue(restored.isWritten(first, 3))
+        assertFalse(restored.isWritten(first, 4))
+        assertFalse(restored.isComplete(first))
+
+        assertTrue(restored.isComplete(second))
+        assertTrue(restored.isWritten(second, 100))
+    }
+
+    @Test
+    fun testWithoutFile() {
+        val checkpoint = BulkLoadCheckpoint(null)
+        checkpoint.markWritten(Paths.get("first.nt"), 0)
+        checkpoint.save()
+
+        assertTrue(checkpoint.isWritten(Paths.get("first.nt"), 0))
+    }
+
+}
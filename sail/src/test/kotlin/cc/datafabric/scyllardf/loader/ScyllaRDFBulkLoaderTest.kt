@@ -0,0 +1,111 @@
+package cc.datafabric.scyllardf.loader
+
+import cc.datafabric.scyllardf.coder.CoderFacade
+import cc.datafabric.scyllardf.dao.IIndexDAO
+import cc.datafabric.scyllardf.dao.InFlightWindow
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFCardinalityDAO
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDictionaryDAO
+import cc.datafabric.scyllardf.dao.impl.ScyllaRDFIndexDAO
+import org.cassandraunit.AbstractCassandraUnit4CQLTestCase
+import org.cassandraunit.dataset.cql.ClassPathCQLDataSet
+import org.eclipse.rdf4j.common.iteration.Iterations
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.sail.SailException
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicInteger
+
+class ScyllaRDFBulkLoaderTest : AbstractCassandraUnit4CQLTestCase() {
+
+    companion object {
+        private const val NUM_STATEMENTS = 10
+    }
+
+    private lateinit var indexDAO: ScyllaRDFIndexDAO
+    private lateinit var cardinalityDAO: ScyllaRDFCardinalityDAO
+    private lateinit var coder: CoderFacade
+
+    override fun getDataSet() = ClassPathCQLDataSet(
+            "cc/datafabric/scyllardf/empty.cql", true, true)
+
+    @BeforeEach
+    fun beforeEach() {
+        super.before()
+
+        cardinalityDAO = ScyllaRDFCardinalityDAO(session, 60000, 100000)
+        cardinalityDAO.createTables()
+        cardinalityDAO.prepareStatements()
+
+        val dictionaryDAO = ScyllaRDFDictionaryDAO(session)
+        dictionaryDAO.createTables()
+        dictionaryDAO.prepareStatements()
+
+        indexDAO = ScyllaRDFIndexDAO(session)
+        indexDAO.createTables()
+        indexDAO.prepareStatements()
+
+        coder = CoderFacade()
+        coder.initialize(dictionaryDAO, true)
+    }
+
+    @AfterEach
+    fun afterEach() {
+        super.after()
+    }
+
+    /**
+     * Chunks of 2 statements, the checkpoint is saved after every 2 chunks. The 4th chunk fails, so the counters of
+     * the 3rd one are discarded and the load is resumed from the 3rd one.
+     */
+    @Test
+    fun testResumeAfterFailure(@TempDir dir: Path) {
+        val file = dir.resolve("data.nt")
+        Files.write(file, (1..NUM_STATEMENTS).map { "<urn:item:$it> <urn:type> <urn:Class> ." })
+
+        val options = ScyllaRDFBulkLoaderOptions(
+            encoderThreads = 1,
+            chunkSize = 2,
+            checkpointInterval = 2,
+            checkpointFile = dir.resolve("load.checkpoint")
+        )
+
+        // Deltas of another writer of the same DAO, they mustn't be discarded by the loader
+        val vf = SimpleValueFactory.getInstance()
+        val other = coder.encode(vf.createStatement(
+            vf.createIRI("urn:other"), vf.createIRI("urn:type"), vf.createIRI("urn:Class")))
+        cardinalityDAO.incrementCards(other[0], other[1], other[2], other[3])
+
+        val writes = AtomicInteger()
+        val failingIndexDAO = object : IIndexDAO by indexDAO {
+            override fun addStatements(quads: Collection<Array<ByteBuffer>>, window: InFlightWindow) {
+                if (writes.incrementAndGet() == 4) {
+                    throw SailException("The write failed!")
+                }
+
+                indexDAO.addStatements(quads, window)
+            }
+        }
+
+        assertThrows(SailException::class.java) {
+            ScyllaRDFBulkLoader(failingIndexDAO, cardinalityDAO, coder, options).load(listOf(file))
+        }
+
+        // The pending delta of the other writer is still counted
+        assertEquals(6, Iterations.asList(indexDAO.getStatements(null, null, null, null)).size)
+        assertEquals(5L, cardinalityDAO.numTriples())
+
+        val written = ScyllaRDFBulkLoader(indexDAO, cardinalityDAO, coder, options).load(listOf(file))
+
+        assertEquals(6L, written)
+        assertEquals(NUM_STATEMENTS, Iterations.asList(indexDAO.getStatements(null, null, null, null)).size)
+        assertEquals(NUM_STATEMENTS + 1L, cardinalityDAO.numTriples())
+    }
+
+}
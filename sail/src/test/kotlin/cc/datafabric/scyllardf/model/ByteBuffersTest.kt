@@ -0,0 +1,37 @@
+package cc.datafabric.scyllardf.model
+
+import com.google.common.hash.Hashing
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+
+class ByteBuffersTest {
+
+    @Test
+    fun testSliceAndDirectBufferHashAsArray() {
+        val value = "urn:value".toByteArray()
+
+        val slice = ByteBuffer.wrap("prefix:urn:value:suffix".toByteArray(), 7, value.size).slice()
+        val direct = ByteBuffer.allocateDirect(value.size).put(value)
+        direct.flip()
+
+        val expected = hash(ByteBuffer.wrap(value))
+        assertEquals(expected, hash(slice))
+        assertEquals(expected, hash(direct))
+
+        // The buffers are read without changing the position
+        assertEquals(0, slice.position())
+        assertEquals(0, direct.position())
+        assertEquals(value.toList(), ByteBuffers.withBytes(direct) { bytes, offset, length ->
+            bytes.copyOfRange(offset, offset + length).toList()
+        })
+    }
+
+    private fun hash(buffer: ByteBuffer): Long {
+        val hasher = Hashing.murmur3_128().newHasher()
+        ByteBuffers.putLengthPrefixed(hasher, buffer)
+
+        return hasher.hash().asLong()
+    }
+
+}
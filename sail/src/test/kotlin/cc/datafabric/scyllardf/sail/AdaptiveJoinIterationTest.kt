@@ -0,0 +1,100 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import cc.datafabric.scyllardf.dao.ICardinalityDAO
+import org.eclipse.rdf4j.common.iteration.CloseableIteration
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration
+import org.eclipse.rdf4j.common.iteration.Iterations
+import org.eclipse.rdf4j.model.IRI
+import org.eclipse.rdf4j.model.Model
+import org.eclipse.rdf4j.model.Resource
+import org.eclipse.rdf4j.model.Statement
+import org.eclipse.rdf4j.model.Value
+import org.eclipse.rdf4j.model.ValueFactory
+import org.eclipse.rdf4j.model.impl.LinkedHashModel
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.QueryEvaluationException
+import org.eclipse.rdf4j.query.algebra.QueryRoot
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.Var
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import java.nio.ByteBuffer
+
+class AdaptiveJoinIterationTest {
+
+    companion object {
+        private val VF = SimpleValueFactory.getInstance()
+
+        private const val NUM_PEOPLE = 3000
+    }
+
+    private class ModelTripleSource(private val model: Model) : TripleSource {
+
+        override fun getStatements(subj: Resource?, pred: IRI?, obj: Value?, vararg contexts: Resource?)
+                : CloseableIteration<out Statement, QueryEvaluationException> {
+            return CloseableIteratorIteration(model.filter(subj, pred, obj, *contexts).iterator())
+        }
+
+        override fun getValueFactory(): ValueFactory = VF
+    }
+
+    private val coder = Mockito.mock(ICoderFacade::class.java) { invocation ->
+        (invocation.arguments[0] as? Value)?.let { ByteBuffer.wrap(it.stringValue().toByteArray()) }
+    }
+
+    // The type is estimated to have 10 instances instead of 3000
+    private val dao = Mockito.mock(ICardinalityDAO::class.java) { invocation ->
+        when (invocation.method.name) {
+            "numTriples" -> 1000000L
+            "objectAndPredicateCardinality" -> 10L
+            "tablePartitions" -> null
+            else -> 100000L
+        }
+    }
+
+    private val model = LinkedHashModel().apply {
+        (1..NUM_PEOPLE).forEach {
+            val person = VF.createIRI("urn:person:$it")
+            val friend = VF.createIRI("urn:friend:$it")
+
+            add(person, VF.createIRI("urn:type"), VF.createIRI("urn:Person"))
+            add(person, VF.createIRI("urn:knows"), friend)
+            add(friend, VF.createIRI("urn:name"), VF.createLiteral("friend $it"))
+        }
+    }
+
+    @Test
+    fun testJoinIsReplannedAndObserved() {
+        val observed = ObservedCardinalities()
+        val statistics = ScyllaRDFEvaluationStatistics(dao, coder, null, observed)
+        val options = ScyllaRDFQueryOptions(subjectStarEnabled = false)
+        val strategy = ScyllaRDFEvaluationStrategy(ModelTripleSource(model), null, null, statistics, coder, options)
+
+        val expr = QueryRoot(SPARQLParser().parseQuery("""
+            SELECT ?x ?n {
+                ?x <urn:type> <urn:Person> .
+                ?x <urn:knows> ?y .
+                ?y <urn:name> ?n
+            }
+        """, null).tupleExpr)
+        ScyllaRDFQueryPlanner(strategy, statistics, options).optimize(expr, null, EmptyBindingSet.getInstance())
+
+        val results = Iterations.asList(strategy.evaluate(expr, EmptyBindingSet.getInstance()))
+
+        assertEquals(NUM_PEOPLE, results.size)
+        assertEquals(NUM_PEOPLE, results.map { it.getValue("x") }.toSet().size)
+
+        // Each person knows a single friend
+        val knows = StatementPattern(Var("x"), Var("p", VF.createIRI("urn:knows")), Var("y"))
+        assertEquals(1.0, observed.rowsPerEvaluation(knows, setOf("x")))
+
+        val type = StatementPattern(Var("x"), Var("p", VF.createIRI("urn:type")), Var("o", VF.createIRI("urn:Person")))
+        assertEquals(NUM_PEOPLE.toDouble(), observed.rowsPerEvaluation(type, emptySet()))
+    }
+
+}
@@ -0,0 +1,59 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
+import org.eclipse.rdf4j.query.algebra.QueryRoot
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+
+class AggregateCountOptimizerTest {
+
+    private fun optimize(query: String): PatternCount? {
+        val expr = QueryRoot(SPARQLParser().parseQuery(query, null).tupleExpr)
+        AggregateCountOptimizer().optimize(expr, null, EmptyBindingSet.getInstance())
+
+        var found: PatternCount? = null
+        expr.visit(object : AbstractQueryModelVisitor<RuntimeException>() {
+            override fun meetOther(node: QueryModelNode) {
+                if (node is PatternCount) {
+                    found = node
+                }
+                super.meetOther(node)
+            }
+        })
+
+        return found
+    }
+
+    @Test
+    fun testCountOfPattern() {
+        val count = optimize("SELECT (COUNT(*) AS ?c) { ?s <urn:p> ?o }")
+
+        assertEquals("c", count!!.countName)
+        assertFalse(count.byPredicate)
+        assertEquals("urn:p", count.pattern.predicateVar.value.stringValue())
+    }
+
+    @Test
+    fun testCountByPredicate() {
+        val count = optimize("SELECT ?p (COUNT(?o) AS ?c) { ?s ?p ?o } GROUP BY ?p")
+
+        assertEquals("p", count!!.predicateName)
+        assertEquals(setOf("p", "c"), count.bindingNames)
+    }
+
+    @Test
+    fun testOtherAggregatesAreNotReplaced() {
+        assertNull(optimize("SELECT (COUNT(DISTINCT ?s) AS ?c) { ?s <urn:p> ?o }"))
+        assertNull(optimize("SELECT (COUNT(*) AS ?c) { ?s <urn:p> ?s }"))
+        assertNull(optimize("SELECT ?s (COUNT(*) AS ?c) { ?s ?p ?o } GROUP BY ?s"))
+        assertNull(optimize("SELECT ?p (COUNT(*) AS ?c) { <urn:s> ?p ?o } GROUP BY ?p"))
+        assertNull(optimize("SELECT (COUNT(*) AS ?c) { ?s <urn:p> ?o . ?o <urn:q> ?x }"))
+        assertNull(optimize("SELECT (COUNT(*) AS ?c) { GRAPH ?g { ?s <urn:p> ?o } }"))
+    }
+
+}
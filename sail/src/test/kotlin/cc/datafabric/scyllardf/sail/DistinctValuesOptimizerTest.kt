@@ -0,0 +1,71 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.dao.ScyllaRDFSchema
+import org.eclipse.rdf4j.query.algebra.Distinct
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
+import org.eclipse.rdf4j.query.algebra.QueryRoot
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+
+class DistinctValuesOptimizerTest {
+
+    private fun optimize(query: String): DistinctValues? {
+        val expr = QueryRoot(SPARQLParser().parseQuery(query, null).tupleExpr)
+        DistinctValuesOptimizer().optimize(expr, null, EmptyBindingSet.getInstance())
+
+        var found: DistinctValues? = null
+        var distinct = false
+        expr.visit(object : AbstractQueryModelVisitor<RuntimeException>() {
+            override fun meet(node: Distinct) {
+                distinct = true
+                super.meet(node)
+            }
+
+            override fun meetOther(node: QueryModelNode) {
+                if (node is DistinctValues) {
+                    found = node
+                }
+                super.meetOther(node)
+            }
+        })
+        if (found != null) {
+            assertFalse(distinct)
+        }
+
+        return found
+    }
+
+    @Test
+    fun testDistinctPartitionKeys() {
+        val values = optimize("SELECT DISTINCT ?p { ?s ?p ?o }")
+
+        assertEquals("p", values!!.name)
+        assertEquals(ScyllaRDFSchema.Table.P_OSC, values.table)
+        assertNull(values.keyVar)
+        assertEquals(ScyllaRDFSchema.Table.S_POC, optimize("SELECT DISTINCT ?s { ?s ?p ?o }")!!.table)
+    }
+
+    @Test
+    fun testDistinctClusteringValues() {
+        val values = optimize("SELECT DISTINCT ?c { ?x <urn:type> ?c }")
+
+        assertEquals(ScyllaRDFSchema.Table.P_OSC, values!!.table)
+        assertEquals("urn:type", values.keyVar!!.value.stringValue())
+        assertEquals(ScyllaRDFSchema.Table.O_SPC, optimize("SELECT DISTINCT ?s { ?s ?p <urn:o> }")!!.table)
+    }
+
+    @Test
+    fun testOtherDistinctsAreNotReplaced() {
+        assertNull(optimize("SELECT DISTINCT ?s ?p { ?s ?p ?o }"))
+        assertNull(optimize("SELECT DISTINCT ?s { ?s ?p ?s }"))
+        assertNull(optimize("SELECT DISTINCT ?s { ?s <urn:p> ?o }"))
+        assertNull(optimize("SELECT DISTINCT ?p { GRAPH ?g { ?s ?p ?o } }"))
+        assertNull(optimize("SELECT DISTINCT ?s { ?s <urn:p> ?o . ?o <urn:q> ?x }"))
+    }
+
+}
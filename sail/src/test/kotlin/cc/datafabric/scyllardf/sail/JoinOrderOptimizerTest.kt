@@ -0,0 +1,121 @@
+package cc.datafabric.scyllardf.sail
+
+import cc.datafabric.scyllardf.coder.ICoderFacade
+import cc.datafabric.scyllardf.dao.ICardinalityDAO
+import cc.datafabric.scyllardf.join.HashJoin
+import org.eclipse.rdf4j.model.Value
+import org.eclipse.rdf4j.query.algebra.Join
+import org.eclipse.rdf4j.query.algebra.QueryRoot
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import java.nio.ByteBuffer
+
+class JoinOrderOptimizerTest {
+
+    companion object {
+        private const val NUM_TRIPLES = 1000000L
+
+        private val PREDICATES = mapOf(
+            "urn:knows" to 300000L,
+            "urn:name" to 100000L,
+            "urn:type" to 500000L
+        )
+    }
+
+    // Values are encoded as their strings
+    private val coder = Mockito.mock(ICoderFacade::class.java) { invocation ->
+        (invocation.arguments[0] as? Value)?.let { ByteBuffer.wrap(it.stringValue().toByteArray()) }
+    }
+
+    private val dao = Mockito.mock(ICardinalityDAO::class.java) { invocation ->
+        val args = invocation.arguments.map { (it as? ByteBuffer)?.let { String(it.array()) } }
+
+        when (invocation.method.name) {
+            "numTriples" -> NUM_TRIPLES
+            "predicateCardinality" -> PREDICATES[args[0]] ?: 0L
+            "predicateDistinctSubjects", "predicateDistinctObjects" -> (PREDICATES[args[0]] ?: 0L) / 3
+            "objectAndPredicateCardinality" -> if (args[1] == "urn:Rare") 10L else 1000L
+            "tablePartitions" -> null
+            else -> 10L
+        }
+    }
+
+    private val statistics = ScyllaRDFEvaluationStatistics(dao, coder)
+
+    private fun optimize(query: String, hashJoinThreshold: Long): TupleExpr {
+        val expr = QueryRoot(SPARQLParser().parseQuery(query, null).tupleExpr)
+        JoinOrderOptimizer(statistics, hashJoinThreshold).optimize(expr, null, EmptyBindingSet.getInstance())
+
+        return expr
+    }
+
+    private fun predicates(expr: TupleExpr): List<String> {
+        return StatementPatternCollector.process(expr).map { sp: StatementPattern ->
+            sp.predicateVar.value.stringValue()
+        }
+    }
+
+    private fun findHashJoin(expr: TupleExpr): HashJoin? {
+        var found: HashJoin? = null
+        expr.visit(object : AbstractQueryModelVisitor<RuntimeException>() {
+            override fun meet(node: Join) {
+                if (node is HashJoin) {
+                    found = node
+                }
+                super.meet(node)
+            }
+        })
+
+        return found
+    }
+
+    @Test
+    fun testSelectivePatternIsFirst() {
+        val expr = optimize("SELECT * { ?x <urn:knows> ?y . ?y <urn:name> ?n . ?x <urn:type> <urn:Rare> }",
+            Long.MAX_VALUE)
+
+        assertEquals(listOf("urn:type", "urn:knows", "urn:name"), predicates(expr))
+        assertNull(findHashJoin(expr))
+    }
+
+    @Test
+    fun testLargePatternsAreHashJoined() {
+        val expr = optimize("SELECT * { ?x <urn:knows> ?y . ?y <urn:name> ?n }", 1000)
+
+        val hashJoin = findHashJoin(expr)
+        assertNotNull(hashJoin)
+        // The smaller pattern is the build side
+        assertEquals(listOf("urn:name"), predicates(hashJoin!!.rightArg))
+        assertEquals(listOf("y"), hashJoin.joinNames)
+    }
+
+    @Test
+    fun testBindJoinsBelowThreshold() {
+        val expr = optimize("SELECT * { ?x <urn:knows> ?y . ?y <urn:name> ?n }", Long.MAX_VALUE)
+
+        assertNull(findHashJoin(expr))
+        assertEquals(2, predicates(expr).size)
+    }
+
+    @Test
+    fun testLargeJoinsAreOrderedGreedily() {
+        val patterns = (1..JoinOrderOptimizer.MAX_DP_ARGS + 2).joinToString(" . ") {
+            "?x$it <urn:knows> ?x${it + 1}"
+        }
+        val expr = optimize("SELECT * { $patterns . ?x5 <urn:type> <urn:Rare> }", Long.MAX_VALUE)
+
+        val predicates = predicates(expr)
+        assertEquals(JoinOrderOptimizer.MAX_DP_ARGS + 3, predicates.size)
+        assertEquals("urn:type", predicates[0])
+    }
+
+}
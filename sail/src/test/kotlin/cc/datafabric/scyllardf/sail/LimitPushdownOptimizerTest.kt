@@ -0,0 +1,63 @@
+package cc.datafabric.scyllardf.sail
+
+import org.eclipse.rdf4j.query.algebra.QueryRoot
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class LimitPushdownOptimizerTest {
+
+    private fun optimize(query: String): List<StatementPattern> {
+        val expr: TupleExpr = QueryRoot(SPARQLParser().parseQuery(query, null).tupleExpr)
+        LimitPushdownOptimizer().optimize(expr, null, EmptyBindingSet.getInstance())
+
+        return StatementPatternCollector.process(expr)
+    }
+
+    @Test
+    fun testOffsetAndLimitArePushedToPattern() {
+        val patterns = optimize("SELECT * { ?s <urn:p> ?o } LIMIT 10 OFFSET 5")
+
+        val sp = patterns.single() as LimitedStatementPattern
+        assertEquals(15L, sp.rowLimit)
+        assertTrue(sp.exact)
+    }
+
+    @Test
+    fun testLeadingPatternOfJoinIsNotExact() {
+        val patterns = optimize("SELECT * { ?s <urn:p> ?o . ?o <urn:q> ?x } LIMIT 10")
+
+        val sp = patterns[0] as LimitedStatementPattern
+        assertEquals(10L, sp.rowLimit)
+        assertFalse(sp.exact)
+        assertFalse(patterns[1] is LimitedStatementPattern)
+    }
+
+    @Test
+    fun testLeftSideOfOptionalIsExact() {
+        val patterns = optimize("SELECT * { ?s <urn:p> ?o OPTIONAL { ?o <urn:q> ?x } } LIMIT 10")
+
+        assertTrue((patterns[0] as LimitedStatementPattern).exact)
+        assertFalse(patterns[1] is LimitedStatementPattern)
+    }
+
+    @Test
+    fun testRepeatedVariableIsNotExact() {
+        val patterns = optimize("SELECT * { ?s <urn:p> ?s } LIMIT 10")
+
+        assertFalse((patterns.single() as LimitedStatementPattern).exact)
+    }
+
+    @Test
+    fun testOrderAndDistinctAreNotPushedThrough() {
+        assertFalse(optimize("SELECT * { ?s <urn:p> ?o } ORDER BY ?o LIMIT 10").single() is LimitedStatementPattern)
+        assertFalse(optimize("SELECT DISTINCT ?o { ?s <urn:p> ?o } LIMIT 10").single() is LimitedStatementPattern)
+    }
+
+}
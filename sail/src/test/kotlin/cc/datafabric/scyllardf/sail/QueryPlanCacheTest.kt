@@ -0,0 +1,108 @@
+package cc.datafabric.scyllardf.sail
+
+import com.codahale.metrics.MetricRegistry
+import org.eclipse.rdf4j.model.Value
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory
+import org.eclipse.rdf4j.query.BindingSet
+import org.eclipse.rdf4j.query.algebra.QueryRoot
+import org.eclipse.rdf4j.query.algebra.StatementPattern
+import org.eclipse.rdf4j.query.algebra.TupleExpr
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.BindingAssigner
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Test
+
+class QueryPlanCacheTest {
+
+    companion object {
+        private val VF = SimpleValueFactory.getInstance()
+    }
+
+    private val cache = QueryPlanCache(100, MetricRegistry())
+    private var plannings = 0
+
+    private fun plan(query: String, bindings: BindingSet = EmptyBindingSet.getInstance()): TupleExpr {
+        val expr = QueryRoot(SPARQLParser().parseQuery(query, null).tupleExpr)
+
+        return cache.plan(expr, bindings) {
+            BindingAssigner().optimize(it, null, bindings)
+            plannings++
+        }
+    }
+
+    private fun values(expr: TupleExpr): List<Value?> {
+        return StatementPatternCollector.process(expr).flatMap { sp: StatementPattern ->
+            listOf(sp.subjectVar.value, sp.predicateVar.value, sp.objectVar.value)
+        }
+    }
+
+    @Test
+    fun testPlanIsReusedWithOtherValues() {
+        plan("SELECT ?name { <urn:a> <urn:knows> ?x . ?x <urn:name> ?name }")
+        val second = plan("SELECT ?name { <urn:b> <urn:knows> ?x . ?x <urn:name> ?name }")
+
+        assertEquals(1, plannings)
+        assertEquals(
+            listOf(VF.createIRI("urn:b"), VF.createIRI("urn:knows"), null, null, VF.createIRI("urn:name"), null),
+            values(second))
+
+        val third = plan("SELECT ?name { <urn:c> <urn:knows> ?x . ?x <urn:name> ?name }")
+        assertEquals(1, plannings)
+        assertNotSame(second, third)
+        assertEquals(VF.createIRI("urn:c"), values(third)[0])
+    }
+
+    @Test
+    fun testBindingsAreParameters() {
+        val query = "SELECT ?x { ?s <urn:knows> ?x }"
+
+        val first = QueryBindingSet()
+        first.addBinding("s", VF.createIRI("urn:a"))
+        plan(query, first)
+
+        val second = QueryBindingSet()
+        second.addBinding("s", VF.createIRI("urn:b"))
+        assertEquals(VF.createIRI("urn:b"), values(plan(query, second))[0])
+
+        assertEquals(1, plannings)
+    }
+
+    @Test
+    fun testValuesOfFiltersAreKeptInKey() {
+        plan("SELECT ?x { ?x <urn:age> ?age FILTER(?age > 10) }")
+        plan("SELECT ?x { ?x <urn:age> ?age FILTER(?age > 20) }")
+
+        assertEquals(2, plannings)
+    }
+
+    @Test
+    fun testEqualValuesAreOneParameter() {
+        plan("SELECT * { <urn:a> <urn:p> ?x . <urn:a> <urn:q> ?y }")
+        plan("SELECT * { <urn:a> <urn:p> ?x . <urn:b> <urn:q> ?y }")
+
+        assertEquals(2, plannings)
+    }
+
+    @Test
+    fun testPlansAreDroppedOnStatisticsChange() {
+        cache.onStatistics(1000, null)
+        plan("SELECT ?x { <urn:a> <urn:knows> ?x }")
+
+        cache.onStatistics(1100, null)
+        plan("SELECT ?x { <urn:b> <urn:knows> ?x }")
+        assertEquals(1, plannings)
+
+        cache.onStatistics(2000, null)
+        plan("SELECT ?x { <urn:c> <urn:knows> ?x }")
+        assertEquals(2, plannings)
+
+        cache.onStatistics(2000, 1L)
+        plan("SELECT ?x { <urn:d> <urn:knows> ?x }")
+        assertEquals(3, plannings)
+    }
+
+}
@@ -4,13 +4,19 @@ import cc.datafabric.scyllardf.coder.CoderFacade
 import cc.datafabric.scyllardf.dao.impl.ScyllaRDFCardinalityDAO
 import cc.datafabric.scyllardf.dao.impl.ScyllaRDFDictionaryDAO
 import cc.datafabric.scyllardf.dao.impl.ScyllaRDFIndexDAO
+import cc.datafabric.scyllardf.filter.TripleFilter
 import org.cassandraunit.AbstractCassandraUnit4CQLTestCase
 import org.cassandraunit.dataset.cql.ClassPathCQLDataSet
+import org.eclipse.rdf4j.common.iteration.Iterations
+import org.eclipse.rdf4j.model.Resource
+import org.eclipse.rdf4j.model.Value
 import org.eclipse.rdf4j.model.ValueFactory
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory
 import org.eclipse.rdf4j.query.QueryLanguage
+import org.eclipse.rdf4j.repository.RepositoryConnection
 import org.eclipse.rdf4j.repository.sail.SailRepository
 import org.eclipse.rdf4j.sail.SailConnection
+import org.eclipse.rdf4j.sail.SailException
 import org.eclipse.rdf4j.sail.helpers.AbstractSail
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.Assertions
@@ -139,4 +145,454 @@ class SomeQueriesTest : AbstractCassandraUnit4CQLTestCase() {
         assertFalse(result.hasNext())
     }
 
-}
\ No newline at end of file
+    @Test
+    fun testJoinAndOptionalByBlocks() {
+        val vf = SimpleValueFactory.getInstance()
+        val name = vf.createIRI("http://example.com/name")
+        val knows = vf.createIRI("http://example.com/knows")
+
+        repository.connection.use { conn ->
+            (1..300).forEach {
+                val person = vf.createIRI("http://example.com/person/$it")
+                conn.add(person, name, vf.createLiteral("Person $it"))
+                if (it % 2 == 0) {
+                    conn.add(person, knows, vf.createIRI("http://example.com/person/${it - 1}"))
+                }
+            }
+        }
+
+        val query = """
+            PREFIX : <http://example.com/>
+
+            SELECT ?s ?n ?friend
+            WHERE {
+                ?s :name ?n .
+                OPTIONAL { ?s :knows ?friend }
+            }
+        """
+
+        val results = repository.connection.use { conn ->
+            conn.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate().use { Iterations.asList(it) }
+        }
+
+        Assertions.assertEquals(300, results.size)
+        Assertions.assertEquals(150, results.count { it.hasBinding("friend") })
+
+        val pathQuery = """
+            PREFIX : <http://example.com/>
+
+            SELECT ?n
+            WHERE {
+                ?s :knows ?friend .
+                ?friend :name ?n .
+            }
+        """
+
+        val names = repository.connection.use { conn ->
+            conn.prepareTupleQuery(QueryLanguage.SPARQL, pathQuery).evaluate().use { result ->
+                Iterations.asList(result).map { it.getValue("n").stringValue() }.toSet()
+            }
+        }
+
+        Assertions.assertEquals(150, names.size)
+        Assertions.assertTrue(names.contains("Person 1"))
+    }
+
+    @Test
+    fun testDistinctAndSameTermOnEncodedValues() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val sameAs = vf.createIRI("http://example.com/sameAs")
+        val clazz = vf.createIRI("http://example.com/Class")
+
+        repository.connection.use { conn ->
+            (1..10).forEach {
+                val item = vf.createIRI("http://example.com/item/$it")
+                conn.add(item, type, clazz)
+                conn.add(item, sameAs, if (it % 2 == 0) item else vf.createIRI("http://example.com/other/$it"))
+            }
+        }
+
+        val query = """
+            PREFIX : <http://example.com/>
+
+            SELECT DISTINCT ?c ?s
+            WHERE {
+                ?s :type ?c ; :sameAs ?o .
+                FILTER(sameTerm(?s, ?o))
+            }
+        """
+
+        val results = repository.connection.use { conn ->
+            conn.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate().use { Iterations.asList(it) }
+        }
+
+        Assertions.assertEquals(5, results.size)
+        Assertions.assertTrue(results.all { it.getValue("c") == clazz })
+    }
+
+    @Test
+    fun testSubjectStars() {
+        val vf = SimpleValueFactory.getInstance()
+        val name = vf.createIRI("http://example.com/name")
+        val age = vf.createIRI("http://example.com/age")
+        val email = vf.createIRI("http://example.com/email")
+        val knows = vf.createIRI("http://example.com/knows")
+
+        repository.connection.use { conn ->
+            (1..20).forEach {
+                val person = vf.createIRI("http://example.com/person/$it")
+                conn.add(person, name, vf.createLiteral("Person $it"))
+                conn.add(person, age, vf.createLiteral(it))
+                conn.add(person, email, vf.createLiteral("person$it@example.com"))
+                if (it % 2 == 0) {
+                    conn.add(person, email, vf.createLiteral("person$it@example.org"))
+                    conn.add(person, knows, vf.createIRI("http://example.com/person/${it - 1}"))
+                }
+            }
+        }
+
+        val starQuery = """
+            PREFIX : <http://example.com/>
+
+            SELECT ?s ?n ?a ?e
+            WHERE {
+                ?s :name ?n ; :age ?a ; :email ?e .
+            }
+        """
+
+        val pathQuery = """
+            PREFIX : <http://example.com/>
+
+            SELECT ?n ?a ?p
+            WHERE {
+                <http://example.com/person/4> :knows ?friend .
+                ?friend :name ?n ; :age ?a ; ?p ?o .
+            }
+        """
+
+        repository.connection.use { conn ->
+            val results = conn.prepareTupleQuery(QueryLanguage.SPARQL, starQuery).evaluate()
+                .use { Iterations.asList(it) }
+
+            Assertions.assertEquals(30, results.size)
+            Assertions.assertEquals(2, results.count { it.getValue("n").stringValue() == "Person 2" })
+
+            val friend = conn.prepareTupleQuery(QueryLanguage.SPARQL, pathQuery).evaluate()
+                .use { Iterations.asList(it) }
+
+            Assertions.assertEquals(3, friend.size)
+            Assertions.assertTrue(friend.all { it.getValue("n").stringValue() == "Person 3" })
+            Assertions.assertEquals(setOf(name, age, email), friend.map { it.getValue("p") }.toSet())
+
+            conn.begin()
+            conn.add(vf.createIRI("http://example.com/person/3"), knows, vf.createIRI("http://example.com/person/1"))
+
+            val buffered = conn.prepareTupleQuery(QueryLanguage.SPARQL, pathQuery).evaluate()
+                .use { Iterations.asList(it) }
+
+            Assertions.assertEquals(4, buffered.size)
+
+            conn.rollback()
+        }
+    }
+
+    @Test
+    fun testBufferedStatementsAreCountedOnce() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val item1 = vf.createIRI("http://example.com/item/1")
+        val item2 = vf.createIRI("http://example.com/item/2")
+        val clazz = vf.createIRI("http://example.com/Class")
+
+        repository.connection.use { conn ->
+            conn.add(item1, type, clazz)
+
+            conn.begin()
+            conn.add(item1, type, clazz)
+            conn.add(item2, type, clazz)
+
+            Assertions.assertEquals(2, conn.size())
+
+            conn.rollback()
+
+            // A statement which is only buffered isn't removed from the counters
+            conn.begin()
+            conn.add(item2, type, clazz)
+            conn.remove(item2, type, clazz)
+            conn.commit()
+
+            Assertions.assertEquals(1, conn.size())
+            Assertions.assertEquals(1, cardinalityDAO.numTriples())
+        }
+    }
+
+    @Test
+    fun testRemovalIsRolledBack() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val item1 = vf.createIRI("http://example.com/item/1")
+        val item2 = vf.createIRI("http://example.com/item/2")
+        val clazz = vf.createIRI("http://example.com/Class")
+
+        repository.connection.use { conn ->
+            conn.add(item1, type, clazz)
+            conn.add(item2, type, clazz)
+
+            // The removal is only buffered, but the statement isn't visible in the transaction
+            conn.begin()
+            conn.remove(item1, type, clazz)
+
+            Assertions.assertFalse(conn.hasStatement(item1, type, clazz, false))
+            Assertions.assertEquals(1, conn.size())
+            Assertions.assertEquals(2, Iterations.asList(indexDAO.getStatements(null, null, null, null)).size)
+
+            conn.rollback()
+
+            Assertions.assertTrue(conn.hasStatement(item1, type, clazz, false))
+            Assertions.assertEquals(2, conn.size())
+
+            conn.begin()
+            conn.remove(item1, type, clazz)
+            conn.commit()
+
+            Assertions.assertFalse(conn.hasStatement(item1, type, clazz, false))
+            Assertions.assertEquals(1, conn.size())
+            Assertions.assertEquals(1, cardinalityDAO.numTriples())
+        }
+    }
+
+    @Test
+    fun testRemoveWithoutContextsFromAllContexts() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val item1 = vf.createIRI("http://example.com/item/1")
+        val item2 = vf.createIRI("http://example.com/item/2")
+        val clazz = vf.createIRI("http://example.com/Class")
+        val graph = vf.createIRI("http://example.com/graph")
+
+        repository.connection.use { conn ->
+            listOf(item1, item2).forEach {
+                conn.add(it, type, clazz)
+                conn.add(it, type, clazz, graph)
+            }
+
+            // A null context means the default graph only
+            conn.remove(item1, type, clazz, null as Resource?)
+            conn.remove(item2, null, clazz, null as Resource?)
+
+            Assertions.assertEquals(2, conn.size())
+            Assertions.assertEquals(2, conn.size(graph))
+
+            conn.add(item1, type, clazz)
+            conn.add(item2, type, clazz)
+
+            conn.remove(item1, type, clazz)
+            conn.remove(item2, null, clazz)
+
+            Assertions.assertEquals(0, conn.size())
+            Assertions.assertEquals(0L, cardinalityDAO.numTriples())
+            Assertions.assertEquals(0, Iterations.asList(indexDAO.getStatements(null, null, null, null)).size)
+        }
+    }
+
+    @Test
+    fun testTransactionLargerThanWriteBufferFails() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val clazz = vf.createIRI("http://example.com/Class")
+
+        val sail = MockAbstractSail()
+        sail.conn = ScyllaRDFSailConnection(sail, indexDAO, cardinalityDAO, false, coder, writeBufferSize = 2)
+
+        sail.init()
+
+        val conn = sail.connection
+        conn.begin()
+        conn.addStatement(vf.createIRI("http://example.com/item/1"), type, clazz)
+        conn.addStatement(vf.createIRI("http://example.com/item/2"), type, clazz)
+
+        Assertions.assertThrows(SailException::class.java) {
+            conn.addStatement(vf.createIRI("http://example.com/item/3"), type, clazz)
+        }
+
+        // Nothing is written before the commit
+        Assertions.assertEquals(0, cardinalityDAO.numTriples())
+        conn.rollback()
+        conn.close()
+
+        Assertions.assertEquals(0, Iterations.asList(indexDAO.getStatements(null, null, null, null)).size)
+    }
+
+    @Test
+    fun testCountsOfSinglePatterns() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val label = vf.createIRI("http://example.com/label")
+        val clazz = vf.createIRI("http://example.com/Class")
+
+        repository.connection.use { conn ->
+            (1..10).forEach {
+                val item = vf.createIRI("http://example.com/item/$it")
+                conn.add(item, type, clazz)
+                if (it % 2 == 0) {
+                    conn.add(item, label, vf.createLiteral("Item $it"))
+                }
+            }
+        }
+
+        repository.connection.use { conn ->
+            Assertions.assertEquals(10, count(conn, "SELECT (COUNT(*) AS ?c) { ?s :type ?o }"))
+            Assertions.assertEquals(15, count(conn, "SELECT (COUNT(*) AS ?c) { ?s ?p ?o }"))
+            Assertions.assertEquals(2, count(conn, "SELECT (COUNT(?o) AS ?c) { <http://example.com/item/2> ?p ?o }"))
+            Assertions.assertEquals(0, count(conn, "SELECT (COUNT(*) AS ?c) { ?s :type :Missing }"))
+
+            val byPredicate = conn.prepareTupleQuery(QueryLanguage.SPARQL,
+                "SELECT ?p (COUNT(*) AS ?c) { ?s ?p ?o } GROUP BY ?p")
+                .evaluate()
+                .use { Iterations.asList(it) }
+                .associate { it.getValue("p") to it.getValue("c").stringValue().toInt() }
+
+            Assertions.assertEquals(mapOf(type to 10, label to 5), byPredicate)
+
+            // Buffered changes aren't counted yet, so the statements are read
+            conn.begin()
+            conn.add(vf.createIRI("http://example.com/item/11"), type, clazz)
+
+            Assertions.assertEquals(11, count(conn, "SELECT (COUNT(*) AS ?c) { ?s :type ?o }"))
+
+            conn.rollback()
+        }
+    }
+
+    @Test
+    fun testCountsAfterStatementIsAddedAgain() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val clazz = vf.createIRI("http://example.com/Class")
+
+        repository.connection.use { conn ->
+            (1..3).forEach { conn.add(vf.createIRI("http://example.com/item/$it"), type, clazz) }
+            conn.add(vf.createIRI("http://example.com/item/1"), type, clazz)
+            cardinalityDAO.flushCards()
+
+            // Without the triple filter the statement is counted again, the counters aren't used by default
+            Assertions.assertEquals(4L, cardinalityDAO.predicateCardinality(coder.encode(type)!!))
+            Assertions.assertEquals(3, count(conn, "SELECT (COUNT(*) AS ?c) { ?s :type ?o }"))
+            Assertions.assertEquals(3, count(conn, "SELECT (COUNT(*) AS ?c) { ?s ?p ?o }"))
+        }
+    }
+
+    @Test
+    fun testCountsFromApproximateCounters() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val clazz = vf.createIRI("http://example.com/Class")
+        val graph = vf.createIRI("http://example.com/graph")
+
+        val sail = MockAbstractSail()
+        sail.conn = ScyllaRDFSailConnection(sail, indexDAO, cardinalityDAO, false, coder,
+            tripleFilter = TripleFilter.create(1000, 0.01),
+            queryOptions = ScyllaRDFQueryOptions(approximateCountsEnabled = true))
+        val repository = SailRepository(sail)
+        repository.init()
+
+        repository.connection.use { conn ->
+            (1..3).forEach { conn.add(vf.createIRI("http://example.com/item/$it"), type, clazz) }
+            conn.add(vf.createIRI("http://example.com/item/1"), type, clazz)
+            conn.add(vf.createIRI("http://example.com/item/4"), type, clazz, graph)
+            cardinalityDAO.flushCards()
+
+            Assertions.assertEquals(4L, cardinalityDAO.predicateCardinality(coder.encode(type)!!))
+            Assertions.assertEquals(4, count(conn, "SELECT (COUNT(*) AS ?c) { ?s :type ?o }"))
+            Assertions.assertEquals(4, count(conn, "SELECT (COUNT(*) AS ?c) { ?s ?p ?o }"))
+
+            // The statements of the graph are subtracted from the predicate counters too
+            conn.clear(graph)
+
+            Assertions.assertEquals(3L, cardinalityDAO.predicateCardinality(coder.encode(type)!!))
+            Assertions.assertEquals(3, count(conn, "SELECT (COUNT(*) AS ?c) { ?s :type ?o }"))
+            Assertions.assertEquals(3, count(conn, "SELECT (COUNT(*) AS ?c) { ?s ?p ?o }"))
+        }
+    }
+
+    /**
+     * The filter doesn't know the statements written by others, but reads and removals don't rely on it.
+     */
+    @Test
+    fun testStatementsNotInFilterAreFound() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val item = vf.createIRI("http://example.com/item/1")
+        val clazz = vf.createIRI("http://example.com/Class")
+
+        val sail = MockAbstractSail()
+        sail.conn = ScyllaRDFSailConnection(sail, indexDAO, cardinalityDAO, false, coder,
+            tripleFilter = TripleFilter.create(1000, 0.01))
+        val repository = SailRepository(sail)
+        repository.init()
+
+        indexDAO.addStatementBlocking(coder.encode(item)!!, coder.encode(type)!!, coder.encode(clazz)!!)
+        cardinalityDAO.incrementCards(coder.encode(item)!!, coder.encode(type)!!, coder.encode(clazz)!!, null)
+
+        repository.connection.use { conn ->
+            Assertions.assertTrue(conn.hasStatement(item, type, clazz, false))
+            Assertions.assertTrue(conn.prepareBooleanQuery(QueryLanguage.SPARQL,
+                "ASK { <http://example.com/item/1> <http://example.com/type> <http://example.com/Class> }").evaluate())
+
+            conn.remove(item, type, clazz)
+
+            Assertions.assertFalse(conn.hasStatement(item, type, clazz, false))
+            Assertions.assertEquals(0, Iterations.asList(indexDAO.getStatements(null, null, null, null)).size)
+            Assertions.assertEquals(0L, cardinalityDAO.numTriples())
+        }
+    }
+
+    @Test
+    fun testDistinctValuesOfSinglePatterns() {
+        val vf = SimpleValueFactory.getInstance()
+        val type = vf.createIRI("http://example.com/type")
+        val label = vf.createIRI("http://example.com/label")
+
+        repository.connection.use { conn ->
+            (1..10).forEach {
+                val item = vf.createIRI("http://example.com/item/$it")
+                conn.add(item, type, vf.createIRI("http://example.com/Class/${it % 3}"))
+                conn.add(item, label, vf.createLiteral("Item $it"))
+            }
+        }
+
+        repository.connection.use { conn ->
+            fun distinct(query: String, name: String): Set<Value> {
+                return conn.prepareTupleQuery(QueryLanguage.SPARQL, "PREFIX : <http://example.com/> $query")
+                    .evaluate()
+                    .use { Iterations.asList(it) }
+                    .map { it.getValue(name) }
+                    .toSet()
+            }
+
+            Assertions.assertEquals(setOf(type, label), distinct("SELECT DISTINCT ?p { ?s ?p ?o }", "p"))
+            Assertions.assertEquals(10, distinct("SELECT DISTINCT ?s { ?s ?p ?o }", "s").size)
+            Assertions.assertEquals(3, distinct("SELECT DISTINCT ?c { ?x :type ?c }", "c").size)
+
+            // Buffered changes aren't in the indexes yet, so the statements are read
+            conn.begin()
+            conn.add(vf.createIRI("http://example.com/item/11"), type, vf.createIRI("http://example.com/Class/3"))
+
+            Assertions.assertEquals(4, distinct("SELECT DISTINCT ?c { ?x :type ?c }", "c").size)
+
+            conn.rollback()
+        }
+    }
+
+    private fun count(conn: RepositoryConnection, query: String): Int {
+        return conn.prepareTupleQuery(QueryLanguage.SPARQL, "PREFIX : <http://example.com/> $query")
+            .evaluate()
+            .use { Iterations.asList(it) }
+            .single()
+            .getValue("c")
+            .stringValue()
+            .toInt()
+    }
+
+}